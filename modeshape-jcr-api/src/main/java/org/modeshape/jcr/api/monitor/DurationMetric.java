@@ -44,7 +44,31 @@ public enum DurationMetric {
      * instances are strings containing the sequencer name and the input and output paths.
      */
     SEQUENCER_EXECUTION_TIME("sequencer-execution-time", "Sequencing duration",
-                             "The metric measuring how long sequencers take to run and save the changes.");
+                             "The metric measuring how long sequencers take to run and save the changes."),
+    /**
+     * The metric that captures how long saves wait to acquire the locks on the nodes they change. Note that the
+     * {@link DurationActivity} instances have no payload.
+     */
+    LOCK_WAIT_TIME("lock-wait-time", "Lock wait duration",
+                   "The metric measuring how long saves wait to acquire the locks on the nodes they change."),
+    /**
+     * The metric that captures how long the passes of the binary value garbage collector take. Note that the
+     * {@link DurationActivity} instances have no payload.
+     */
+    BINARY_GARBAGE_COLLECTION_TIME("binary-garbage-collection-time", "Binary garbage collection duration",
+                                   "The metric measuring how long it takes to remove the unused binary values."),
+    /**
+     * The metric that captures how long binary values wait before their text is extracted. Note that the
+     * {@link DurationActivity} instances have no payload.
+     */
+    TEXT_EXTRACTION_QUEUE_TIME("text-extraction-queue-time", "Text extraction queue duration",
+                               "The metric measuring how long binary values wait before their text is extracted."),
+    /**
+     * The metric that captures how long it takes to extract the text of binary values. Note that the payload of the
+     * {@link DurationActivity} instances are strings containing the extractor name and the key of the binary value.
+     */
+    TEXT_EXTRACTION_TIME("text-extraction-time", "Text extraction duration",
+                         "The metric measuring how long text extractors take to extract the text of binary values.");
 
     private static final Map<String, DurationMetric> BY_LITERAL;
     private static final Map<String, DurationMetric> BY_NAME;
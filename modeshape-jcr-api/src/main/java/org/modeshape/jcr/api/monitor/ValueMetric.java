@@ -104,7 +104,101 @@ public enum ValueMetric {
     /**
      * The metric that records the number of nodes that were sequenced.
      */
-    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window.");
+    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window."),
+    /**
+     * The metric that records the number of documents which were found in the repository's document cache.
+     */
+    DOCUMENT_CACHE_HITS("document-cache-hits", false, "Document cache hits",
+                        "The number of documents that were read from the document cache during the window."),
+    /**
+     * The metric that records the number of documents which were not found in the repository's document cache.
+     */
+    DOCUMENT_CACHE_MISSES("document-cache-misses", false, "Document cache misses",
+                          "The number of documents that had to be read from the persistent store during the window because they were not in the document cache."),
+    /**
+     * The metric that records the number of documents evicted from the repository's document cache.
+     */
+    DOCUMENT_CACHE_EVICTIONS("document-cache-evictions", false, "Document cache evictions",
+                             "The number of documents that were evicted from the document cache during the window to make room for other documents."),
+    /**
+     * The metric that records the number of bytes used by the repository's document cache.
+     */
+    DOCUMENT_CACHE_SIZE("document-cache-size", true, "Document cache size",
+                        "The number of (off-heap) bytes used by the document cache during the window."),
+    /**
+     * The metric that records the largest number of bytes held in memory by a single query operation (e.g., a join).
+     */
+    QUERY_BUFFER_PEAK_MEMORY("query-buffer-peak-memory", true, "Query buffer memory",
+                             "The largest number of bytes held in memory by a single join of a query during the window."),
+    /**
+     * The metric that records the number of bytes that query operations wrote to temporary files because they exceeded their
+     * memory budget.
+     */
+    QUERY_SPILLED_BYTES("query-spilled-bytes", false, "Query bytes spilled to disk",
+                        "The number of bytes that joins of queries wrote to temporary files during the window because they did not fit in memory."),
+    /**
+     * The metric that records the number of nodes that were (re)indexed by reindexing operations.
+     */
+    REINDEXED_COUNT("reindexed-count", false, "Reindexed nodes", "The number of nodes that were reindexed during the window."),
+    /**
+     * The metric that records the number of queries whose optimized plan was found in the repository's plan cache.
+     */
+    QUERY_PLAN_CACHE_HITS("query-plan-cache-hits", false, "Query plan cache hits",
+                          "The number of queries executed during the window with a plan from the query plan cache."),
+    /**
+     * The metric that records the number of queries whose optimized plan was not found in the repository's plan cache.
+     */
+    QUERY_PLAN_CACHE_MISSES("query-plan-cache-misses", false, "Query plan cache misses",
+                            "The number of queries executed during the window that had to be planned and optimized because their plan was not in the query plan cache."),
+    /**
+     * The metric that records the number of binary values that are marked as unused and waiting to be removed by the garbage
+     * collector.
+     */
+    UNUSED_BINARY_VALUES("unused-binary-values", true, "Unused binary values",
+                         "The number of binary values at the end of the window that are unused and waiting to be removed."),
+    /**
+     * The metric that records the number of unused binary values that were removed by the garbage collector.
+     */
+    BINARY_VALUES_REMOVED("binary-values-removed", false, "Removed binary values",
+                          "The number of unused binary values that were removed by the garbage collector during the window."),
+    /**
+     * The metric that records the number of binary values that were moved from the hot to the cold store of a tiered binary
+     * store because they were not accessed recently.
+     */
+    BINARY_VALUES_DEMOTED("binary-values-demoted", false, "Demoted binary values",
+                          "The number of binary values that were moved to the cold binary store during the window."),
+    /**
+     * The metric that records the number of binary values that were moved from the cold back to the hot store of a tiered
+     * binary store because they were read frequently.
+     */
+    BINARY_VALUES_PROMOTED("binary-values-promoted", false, "Promoted binary values",
+                           "The number of binary values that were moved back to the hot binary store during the window."),
+    /**
+     * The metric that records the number of bytes copied between the stores of a tiered binary store.
+     */
+    BINARY_BYTES_MIGRATED("binary-bytes-migrated", false, "Migrated binary bytes",
+                          "The number of bytes that were copied between the hot and cold binary stores during the window."),
+    /**
+     * The metric that records the number of bytes saved by compressing the binary values that were stored.
+     */
+    BINARY_BYTES_SAVED_BY_COMPRESSION("binary-bytes-saved-by-compression", false, "Binary bytes saved by compression",
+                                      "The number of bytes saved by compressing the binary values stored during the window."),
+    /**
+     * The metric that records the number of bytes of compressed binary values that were decompressed while being read.
+     */
+    BINARY_BYTES_DECOMPRESSED("binary-bytes-decompressed", false, "Decompressed binary bytes",
+                              "The number of bytes of compressed binary values that were decompressed during the window."),
+    /**
+     * The metric that records the time spent decompressing binary values, which together with the
+     * {@link #BINARY_BYTES_DECOMPRESSED number of decompressed bytes} gives the decompression throughput.
+     */
+    BINARY_DECOMPRESSION_TIME("binary-decompression-time", false, "Binary decompression time",
+                              "The time in microseconds spent decompressing binary values during the window."),
+    /**
+     * The metric that records the number of binary values that are waiting for their text to be extracted.
+     */
+    TEXT_EXTRACTION_QUEUE_SIZE("text-extraction-queue-size", true, "Text extraction queue size",
+                               "The number of binary values waiting for their text to be extracted during the window.");
 
     private static final Map<String, ValueMetric> BY_LITERAL;
     private static final Map<String, ValueMetric> BY_NAME;
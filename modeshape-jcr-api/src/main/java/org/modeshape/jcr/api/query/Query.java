@@ -37,6 +37,52 @@ public interface Query extends javax.jcr.query.Query {
      */
     public void includeSystemContent( boolean includeSystemContent );
 
+    /**
+     * Specify whether the independent parts of this query (e.g., the two sides of a join or of a union) should be evaluated
+     * concurrently. By default, the repository's configuration determines this. Queries executed within a transaction are always
+     * evaluated serially.
+     * 
+     * @param parallel true if the independent parts of the query should be evaluated concurrently, or false if the whole query
+     *        should be evaluated by the calling thread
+     */
+    public void executeInParallel( boolean parallel );
+
+    /**
+     * Specify whether the results of this query should be streamed to the caller rather than buffered. Streamed results are
+     * pulled lazily from the query engine as the caller iterates over them, so reading only the first few rows of a query that
+     * matches a large number of nodes is cheap. However, the {@link javax.jcr.query.QueryResult#getRows() rows} or
+     * {@link javax.jcr.query.QueryResult#getNodes() nodes} of streamed results can only be obtained once, and the size of the
+     * iterators is always unknown (that is, {@code -1}). By default, results are buffered as they are read so that they can be
+     * iterated over multiple times.
+     * 
+     * @param stream true if the results should be streamed, or false if they should be buffered
+     */
+    public void streamResults( boolean stream );
+
+    /**
+     * Specify that this query should be paged by keyset, and should return the rows that follow the row at which the
+     * {@link org.modeshape.jcr.api.query.QueryResult#getContinuationToken() continuation token} was obtained. The size of a page
+     * is controlled with the query's {@link #setLimit(long) limit}.
+     * <p>
+     * Unlike an {@code OFFSET}, which sorts all of the matching rows and then discards those of the previous pages, the query
+     * only matches the rows that are ordered after the last row of the previous page. When an index on the first ordered
+     * property can be used, the query seeks directly to that row; otherwise the rows of the previous pages are still read, but
+     * they are filtered out before sorting. The matching rows are then sorted, keeping only as many of them as the limit, so
+     * the cost of a page still grows with the number of rows that follow it.
+     * </p>
+     * <p>
+     * Keyset pagination requires that the query has a single selector and is only ordered by the values of properties. The rows
+     * are additionally ordered by the identifier of their node, so that rows with the same values keep a stable order from one
+     * page to the next.
+     * </p>
+     * 
+     * @param continuationToken the token obtained from the results of the previous page of this query, or null if the first page
+     *        should be returned
+     * @throws InvalidQueryException if the query cannot be paged by keyset, or if the token was not obtained from the results of
+     *         this query
+     */
+    public void startAfter( String continuationToken ) throws InvalidQueryException;
+
     /**
      * Signal that the query, if currently {@link Query#execute() executing}, should be cancelled and stopped (with an exception).
      * This method does not block until the query is actually stopped.
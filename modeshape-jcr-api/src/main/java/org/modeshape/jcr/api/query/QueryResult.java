@@ -70,6 +70,16 @@ public interface QueryResult extends javax.jcr.query.QueryResult, AutoCloseable
      */
     public Collection<String> getWarnings();
 
+    /**
+     * Get the token that can be {@link Query#startAfter(String) used} to obtain the page of results that follows the last row that
+     * has been read from these results. This is only available for queries that are paged by keyset.
+     * 
+     * @return the continuation token, or null if the query is not paged by keyset, if no row has been read yet, or if the position
+     *         of the last row cannot be captured (e.g., because one of the ordering properties has multiple values)
+     * @see Query#startAfter(String)
+     */
+    public String getContinuationToken();
+
     /**
      * Close and release all resources associated with these results. This method is optional but recommended, since it allows
      * client applications full control over when such resources can be reclaimed. If this method is not called, then the results'
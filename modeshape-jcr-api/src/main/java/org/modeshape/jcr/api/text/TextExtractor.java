@@ -48,6 +48,12 @@ public abstract class TextExtractor {
      */
     private Set<String> includedMimeTypes = new HashSet<String>();
 
+    /**
+     * The maximum number of seconds this extractor may spend extracting the text of one binary value, or 0 if the repository's
+     * default timeout applies; set via reflection.
+     */
+    private long timeoutInSeconds;
+
     /**
      * Determine if this extractor is capable of processing content with the supplied MIME type.
      * 
@@ -134,6 +140,25 @@ public abstract class TextExtractor {
         this.name = name;
     }
 
+    /**
+     * Returns the maximum number of seconds this extractor may spend extracting the text of one binary value, after which the
+     * extraction is interrupted and its result discarded.
+     *
+     * @return the timeout in seconds, or 0 if the repository's default timeout applies
+     */
+    public long getTimeoutInSeconds() {
+        return timeoutInSeconds;
+    }
+
+    /**
+     * Sets the maximum number of seconds this extractor may spend extracting the text of one binary value.
+     *
+     * @param timeoutInSeconds the timeout in seconds, or 0 if the repository's default timeout applies
+     */
+    public void setTimeoutInSeconds( long timeoutInSeconds ) {
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
     /**
      * Interface which can be used by subclasses to process the input stream of a binary property.
      * 
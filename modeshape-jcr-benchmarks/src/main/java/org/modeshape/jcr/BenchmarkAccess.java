@@ -0,0 +1,41 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Gives the benchmarks access to a few package-level operations of the repository, which are not otherwise exposed.
+ */
+public final class BenchmarkAccess {
+
+    /**
+     * Discards all the nodes cached by the given session and by the workspace cache the session is using, so that all the
+     * subsequent reads have to be served by the persistent store.
+     *
+     * @param session the session; may not be null
+     * @throws RepositoryException if the session's state cannot be discarded
+     */
+    public static void clearCaches( Session session ) throws RepositoryException {
+        JcrSession jcrSession = (JcrSession)session;
+        jcrSession.refresh(false);
+        jcrSession.cache().getWorkspace().clear();
+    }
+
+    private BenchmarkAccess() {
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Runs the benchmarks given on the command line (or all of them) with the usual JMH options, except that unless otherwise
+ * specified the results are written as JSON to {@code target/jmh-results.json}.
+ * <p>
+ * For example, to run only the node access benchmarks against the H2-backed store:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar NodeAccessBenchmark -p persistence=h2
+ * </pre>
+ * </p>
+ */
+public final class BenchmarkRunner {
+
+    static final String DEFAULT_RESULT_FILE = "target/jmh-results.json";
+
+    public static void main( String[] args ) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")) {
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        if (!arguments.contains("-rff")) {
+            arguments.add("-rff");
+            arguments.add(DEFAULT_RESULT_FILE);
+        }
+        CommandLineOptions options = new CommandLineOptions(arguments.toArray(new String[arguments.size()]));
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+        if (options.shouldList() || options.shouldListWithParams() || options.shouldListProfilers()
+            || options.shouldListResultFormats()) {
+            // let JMH's own entry point deal with all the informational options
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        new Runner(options).run();
+    }
+
+    private BenchmarkRunner() {
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.modeshape.schematic.Schematic;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableArray;
+import org.modeshape.schematic.document.EditableDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading and writing of BSON documents which are shaped like the documents the repository stores for its nodes: a
+ * few properties and a list of child references.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class BsonBenchmark {
+
+    @Param( { "0", "100", "10000" } )
+    public int childCount;
+
+    private Document document;
+    private byte[] bytes;
+
+    @Setup( Level.Trial )
+    public void createDocument() throws Exception {
+        String key = UUID.randomUUID().toString();
+        EditableDocument doc = Schematic.newDocument();
+        doc.getOrCreateDocument("metadata").setString("id", key);
+        EditableDocument content = doc.getOrCreateDocument("content");
+        content.setString("key", key);
+        content.setString("parent", UUID.randomUUID().toString());
+        EditableDocument properties = content.getOrCreateDocument("properties").getOrCreateDocument(
+                "http://www.jcp.org/jcr/1.0");
+        properties.setString("primaryType", "nt:unstructured");
+        properties.setString("createdBy", "admin");
+        properties.setDate("created", new Date());
+        properties.setNumber("index", 42L);
+        properties.setBoolean("enabled", true);
+        EditableArray children = content.getOrCreateArray("children");
+        for (int i = 0; i != childCount; ++i) {
+            EditableDocument child = Schematic.newDocument();
+            child.setString("key", UUID.randomUUID().toString());
+            child.setString("name", "child" + i);
+            children.addDocument(child);
+        }
+        document = doc.unwrap();
+        bytes = Bson.write(document);
+    }
+
+    @Benchmark
+    public byte[] write() throws Exception {
+        return Bson.write(document);
+    }
+
+    @Benchmark
+    public Document read() throws Exception {
+        return Bson.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public Object readLazilyAndGetField() throws Exception {
+        // the typical access when loading a node: the key and the parent, but not all of the children
+        Document content = Bson.readLazily(bytes).getDocument("content");
+        return content.getString("parent");
+    }
+}
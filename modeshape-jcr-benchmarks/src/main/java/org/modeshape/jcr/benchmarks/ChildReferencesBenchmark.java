@@ -0,0 +1,98 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures looking up and iterating the children of a node which has the {@code mode:unorderedLargeCollection} mixin, and
+ * whose children are therefore stored in buckets (see {@code BucketedChildReferences}).
+ * <p>
+ * Creating the larger hierarchies takes a while, especially with the {@code h2} persistence.
+ * </p>
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ChildReferencesBenchmark extends RepositoryBenchmark {
+
+    private static final int BATCH_SIZE = 5000;
+
+    @Param( { "10000", "100000", "1000000" } )
+    public int childCount;
+
+    private Session session;
+    private Node parent;
+
+    @Setup( Level.Trial )
+    public void createContent() throws Exception {
+        startRepository();
+        session = login();
+        Node parent = session.getRootNode().addNode("parent");
+        parent.addMixin("mode:unorderedLargeCollection");
+        session.save();
+        addChildren(session, parent, "child", childCount, BATCH_SIZE);
+        // start with an empty session so that it doesn't hold onto all the children
+        session.refresh(false);
+        this.parent = session.getNode("/parent");
+    }
+
+    @Benchmark
+    public Node lookUpChild() throws Exception {
+        return parent.getNode("child" + ThreadLocalRandom.current().nextInt(childCount));
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.SingleShotTime )
+    @OutputTimeUnit( TimeUnit.MILLISECONDS )
+    @Warmup( iterations = 2 )
+    @Measurement( iterations = 5 )
+    public long iterateChildren( Blackhole blackhole ) throws Exception {
+        long count = 0;
+        for (NodeIterator children = parent.getNodes(); children.hasNext();) {
+            blackhole.consume(children.nextNode());
+            ++count;
+        }
+        return count;
+    }
+
+    @TearDown( Level.Trial )
+    public void logoutAndStopRepository() throws Exception {
+        try {
+            session.logout();
+        } finally {
+            stopRepository();
+        }
+    }
+}
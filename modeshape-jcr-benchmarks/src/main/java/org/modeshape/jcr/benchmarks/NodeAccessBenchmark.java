@@ -0,0 +1,99 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.Session;
+import org.modeshape.jcr.BenchmarkAccess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Node#getNode(String)} and {@link Node#getProperty(String)} for nodes which are either already cached
+ * ({@code warm}) or which have to be read from the persistent store ({@code cold}).
+ * <p>
+ * In the {@code cold} case both the session's and the workspace's caches are cleared before every invocation, which is why
+ * these benchmarks use the single-shot mode: the setup would otherwise dominate the very short invocations.
+ * </p>
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 1000 )
+@Measurement( iterations = 5000 )
+@Fork( 1 )
+public class NodeAccessBenchmark extends RepositoryBenchmark {
+
+    private static final int CHILD_COUNT = 1000;
+
+    @Param( { "warm", "cold" } )
+    public String cache;
+
+    private Session session;
+    private Node parent;
+    private String childName;
+
+    @Setup( Level.Trial )
+    public void createContent() throws Exception {
+        startRepository();
+        session = login();
+        addChildren(session, session.getRootNode().addNode("parent"), "child", CHILD_COUNT, CHILD_COUNT);
+        parent = session.getNode("/parent");
+        // load all the nodes once ...
+        for (int i = 0; i != CHILD_COUNT; ++i) {
+            parent.getNode("child" + i).getProperty("name");
+        }
+    }
+
+    @Setup( Level.Invocation )
+    public void prepareInvocation() throws Exception {
+        childName = "child" + ThreadLocalRandom.current().nextInt(CHILD_COUNT);
+        if ("cold".equals(cache)) {
+            BenchmarkAccess.clearCaches(session);
+            parent = session.getNode("/parent");
+        }
+    }
+
+    @Benchmark
+    public Node getNode() throws Exception {
+        return parent.getNode(childName);
+    }
+
+    @Benchmark
+    public Property getProperty() throws Exception {
+        return parent.getNode(childName).getProperty("name");
+    }
+
+    @TearDown( Level.Trial )
+    public void logoutAndStopRepository() throws Exception {
+        try {
+            session.logout();
+        } finally {
+            stopRepository();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the parsing and planning of JCR-SQL2 queries (the {@code BasicSqlQueryParser} and the {@code RuleBasedOptimizer}),
+ * and their execution by the {@code ScanningQueryEngine}. The repository has no indexes, so all queries are answered by
+ * scanning the content.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 1 )
+public class QueryBenchmark extends RepositoryBenchmark {
+
+    private static final int CHILD_COUNT = 1000;
+
+    @Param( { "simple", "criteria", "join", "ordered" } )
+    public String query;
+
+    private Session session;
+    private QueryManager queryManager;
+    private String statement;
+
+    @Setup( Level.Trial )
+    public void createContent() throws Exception {
+        startRepository();
+        session = login();
+        Node parent = session.getRootNode().addNode("parent");
+        addChildren(session, parent, "child", CHILD_COUNT, CHILD_COUNT);
+        for (int i = 0; i != 10; ++i) {
+            addChildren(session, parent.getNode("child" + i), "grandchild", 10, 10);
+        }
+        queryManager = session.getWorkspace().getQueryManager();
+        statement = statement(query);
+    }
+
+    @Benchmark
+    public Query parse() throws Exception {
+        return queryManager.createQuery(statement, Query.JCR_SQL2);
+    }
+
+    @Benchmark
+    public Object plan() throws Exception {
+        org.modeshape.jcr.api.query.Query jcrQuery = (org.modeshape.jcr.api.query.Query)queryManager.createQuery(statement,
+                                                                                                               Query.JCR_SQL2);
+        return jcrQuery.explain().getPlan();
+    }
+
+    @Benchmark
+    public long execute( Blackhole blackhole ) throws Exception {
+        QueryResult result = queryManager.createQuery(statement, Query.JCR_SQL2).execute();
+        long count = 0;
+        for (RowIterator rows = result.getRows(); rows.hasNext();) {
+            blackhole.consume(rows.nextRow().getValues());
+            ++count;
+        }
+        return count;
+    }
+
+    @TearDown( Level.Trial )
+    public void logoutAndStopRepository() throws Exception {
+        try {
+            session.logout();
+        } finally {
+            stopRepository();
+        }
+    }
+
+    private static String statement( String query ) {
+        switch (query) {
+            case "simple":
+                return "SELECT * FROM [nt:unstructured]";
+            case "criteria":
+                return "SELECT [jcr:path], [name] FROM [nt:unstructured] AS node "
+                       + "WHERE ISCHILDNODE(node, '/parent') AND node.[index] > 100 AND node.[name] LIKE 'child1%'";
+            case "join":
+                return "SELECT parent.[name], child.[name] FROM [nt:unstructured] AS parent "
+                       + "JOIN [nt:unstructured] AS child ON ISCHILDNODE(child, parent) "
+                       + "WHERE ISCHILDNODE(parent, '/parent')";
+            case "ordered":
+                return "SELECT [jcr:path] FROM [nt:unstructured] AS node WHERE ISCHILDNODE(node, '/parent') "
+                       + "ORDER BY node.[index] DESC";
+            default:
+                throw new IllegalArgumentException("Unknown query: " + query);
+        }
+    }
+}
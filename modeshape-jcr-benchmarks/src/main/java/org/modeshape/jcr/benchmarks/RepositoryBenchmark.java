@@ -0,0 +1,157 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.jcr.JcrRepository;
+import org.modeshape.jcr.ModeShapeEngine;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.schematic.Schematic;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableDocument;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Base class for all the benchmarks which need a running repository. Each benchmark is run against every one of the supported
+ * persistence providers (see {@link #persistence}), and each trial uses a new, empty repository.
+ */
+@State( Scope.Benchmark )
+public abstract class RepositoryBenchmark {
+
+    /**
+     * The persistent store used by the repository:
+     * <ul>
+     * <li>{@code mem} - the in-memory {@code FileDb}</li>
+     * <li>{@code file} - the file-based {@code FileDb}, in a temporary folder</li>
+     * <li>{@code h2} - the {@code RelationalDb}, backed by an in-memory H2 database</li>
+     * </ul>
+     */
+    @Param( { "mem", "file", "h2" } )
+    public String persistence;
+
+    private ModeShapeEngine engine;
+    private Path storageDir;
+    protected JcrRepository repository;
+
+    /**
+     * Starts a new repository which uses the {@link #persistence configured persistence}.
+     *
+     * @throws Exception if the repository cannot be started
+     */
+    protected void startRepository() throws Exception {
+        EditableDocument config = Schematic.newDocument();
+        config.setString(RepositoryConfiguration.FieldName.NAME, "benchmarks-" + persistence);
+        EditableDocument storage = config.getOrCreateDocument(RepositoryConfiguration.FieldName.STORAGE);
+        storage.setDocument(RepositoryConfiguration.FieldName.PERSISTENCE, persistenceConfiguration());
+        storage.getOrCreateDocument(RepositoryConfiguration.FieldName.BINARY_STORAGE).setString(
+                RepositoryConfiguration.FieldName.TYPE, RepositoryConfiguration.FieldValue.BINARY_STORAGE_TYPE_TRANSIENT);
+        config.getOrCreateDocument(RepositoryConfiguration.FieldName.MONITORING)
+              .setBoolean(RepositoryConfiguration.FieldName.MONITORING_ENABLED, false);
+
+        engine = new ModeShapeEngine();
+        engine.start();
+        repository = engine.deploy(new RepositoryConfiguration(config, config.getString(RepositoryConfiguration.FieldName.NAME)));
+        engine.startRepository(repository.getName()).get(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the repository and removes all of its content.
+     *
+     * @throws Exception if the repository cannot be stopped
+     */
+    protected void stopRepository() throws Exception {
+        try {
+            if (engine != null) {
+                engine.shutdown(true).get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            engine = null;
+            repository = null;
+            if (storageDir != null) {
+                FileUtil.delete(storageDir.toFile());
+                storageDir = null;
+            }
+        }
+    }
+
+    protected Session login() throws RepositoryException {
+        return repository.login();
+    }
+
+    /**
+     * Adds under the given parent the given number of {@code nt:unstructured} children, saving the session after every
+     * {@code batchSize} nodes so that large hierarchies can be created with a bounded amount of transient state.
+     *
+     * @param session the session; may not be null
+     * @param parent the parent node; may not be null
+     * @param namePrefix the prefix of the names of the children, which are suffixed with their index
+     * @param count the number of children
+     * @param batchSize the maximum number of nodes created before the session is saved
+     * @throws RepositoryException if the nodes cannot be created
+     */
+    protected static void addChildren( Session session,
+                                       Node parent,
+                                       String namePrefix,
+                                       int count,
+                                       int batchSize ) throws RepositoryException {
+        for (int i = 0; i != count; ++i) {
+            Node child = parent.addNode(namePrefix + i, "nt:unstructured");
+            child.setProperty("index", i);
+            child.setProperty("name", namePrefix + i);
+            if ((i + 1) % batchSize == 0) {
+                session.save();
+            }
+        }
+        session.save();
+    }
+
+    private Document persistenceConfiguration() throws IOException {
+        EditableDocument persistenceConfig = Schematic.newDocument();
+        switch (persistence) {
+            case "mem":
+                persistenceConfig.setString(RepositoryConfiguration.FieldName.TYPE, "mem");
+                break;
+            case "file":
+                storageDir = Files.createTempDirectory("modeshape-benchmarks");
+                persistenceConfig.setString(RepositoryConfiguration.FieldName.TYPE, "file");
+                persistenceConfig.setString("path", storageDir.toAbsolutePath().toString());
+                break;
+            case "h2":
+                persistenceConfig.setString(RepositoryConfiguration.FieldName.TYPE, "db");
+                persistenceConfig.setString("connectionUrl", "jdbc:h2:mem:benchmarks-" + UUID.randomUUID()
+                                                             + ";DB_CLOSE_DELAY=-1");
+                persistenceConfig.setString("driver", "org.h2.Driver");
+                persistenceConfig.setString("username", "sa");
+                persistenceConfig.setString("password", "");
+                persistenceConfig.setBoolean("createOnStart", true);
+                persistenceConfig.setBoolean("dropOnExit", true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown persistence type: " + persistence);
+        }
+        return persistenceConfig;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javax.jcr.Node;
+import javax.jcr.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to {@link Session#save() save} a session which contains a given number of new nodes. Each
+ * invocation adds the nodes under a new parent, and the parent is removed after the invocation so that the size of the
+ * workspace doesn't grow with the number of invocations.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 1 )
+public class SessionSaveBenchmark extends RepositoryBenchmark {
+
+    @Param( { "1", "100", "1000" } )
+    public int nodeCount;
+
+    private Session session;
+    private int parentCount;
+    private Node parent;
+
+    @Setup( Level.Trial )
+    public void startRepositoryAndLogin() throws Exception {
+        startRepository();
+        session = login();
+    }
+
+    @Setup( Level.Invocation )
+    public void addNodes() throws Exception {
+        parent = session.getRootNode().addNode("parent" + parentCount++);
+        for (int i = 0; i != nodeCount; ++i) {
+            Node child = parent.addNode("child" + i, "nt:unstructured");
+            child.setProperty("index", i);
+            child.setProperty("name", "child" + i);
+        }
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        session.save();
+    }
+
+    @TearDown( Level.Invocation )
+    public void removeNodes() throws Exception {
+        parent.remove();
+        session.save();
+    }
+
+    @TearDown( Level.Trial )
+    public void logoutAndStopRepository() throws Exception {
+        try {
+            session.logout();
+        } finally {
+            stopRepository();
+        }
+    }
+}
@@ -78,6 +78,42 @@ public class IoUtil {
         return output.toByteArray();
     }
 
+    /**
+     * Read and return part of the contents of the supplied {@link InputStream stream}, skipping the content that precedes it.
+     * This method always closes the stream when finished reading.
+     * 
+     * @param stream the stream to the contents; may not be null
+     * @param position the zero-based position of the first byte to be read; may not be negative
+     * @param length the maximum number of bytes to be read; may not be negative
+     * @return the bytes that were read, which are fewer than <code>length</code> only if the end of the stream was reached
+     * @throws IOException if there is an error reading the content
+     */
+    public static byte[] readBytes( InputStream stream,
+                                    long position,
+                                    int length ) throws IOException {
+        CheckArg.isNonNegative(position, "position");
+        CheckArg.isNonNegative(length, "length");
+        try (InputStream input = stream) {
+            for (long skip = position; skip > 0;) {
+                long skipped = input.skip(skip);
+                if (skipped <= 0) {
+                    // Some streams don't skip past the end, so read a byte to see whether the end was reached ...
+                    if (input.read() == -1) return new byte[] {};
+                    skipped = 1;
+                }
+                skip -= skipped;
+            }
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int numRead = input.read(bytes, offset, length - offset);
+                if (numRead == -1) return Arrays.copyOf(bytes, offset);
+                offset += numRead;
+            }
+            return bytes;
+        }
+    }
+
     /**
      * Read and return the entire contents of the supplied {@link File file}.
      * 
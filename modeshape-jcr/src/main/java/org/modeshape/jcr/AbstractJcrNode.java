@@ -3642,5 +3642,14 @@ abstract class AbstractJcrNode extends AbstractJcrItem implements Node {
                 return null;
             }
         }
+
+        @Override
+        public void prefetch( List<ChildReference> refs ) {
+            List<NodeKey> keys = new ArrayList<>(refs.size());
+            for (ChildReference ref : refs) {
+                keys.add(ref.getKey());
+            }
+            session.cache().getWorkspace().prefetch(keys);
+        }
     }
 }
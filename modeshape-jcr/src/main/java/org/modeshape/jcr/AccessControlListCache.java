@@ -0,0 +1,204 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.change.AbstractNodeChange;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+import org.modeshape.jcr.cache.change.WorkspaceRemoved;
+import org.modeshape.jcr.security.acl.CompiledAccessControlList;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * A repository-wide cache of the {@link CompiledAccessControlList compiled} ACLs of the persisted nodes, keyed by the paths of
+ * the nodes in each workspace, which also remembers the paths of the nodes that do not have an ACL. Finding the ACL that applies
+ * to a node therefore only requires looking up the paths of the node and of its ancestors, and the nodes only need to be loaded
+ * the first time.
+ * <p>
+ * The cache has to be {@link org.modeshape.jcr.bus.ChangeBus#registerInThread(ChangeSetListener) registered in-thread}, so
+ * that it is invalidated before the session that changed an ACL checks any permissions. All of a workspace's entries are
+ * discarded when a change set touches a <code>mode:acl</code> node in that workspace, when nodes are moved, renamed or reordered
+ * in it (which changes the paths of whole subtrees), and when a node at or above a cached ACL is removed. Changes in the system
+ * workspace discard the entries of all workspaces, since its content appears in every workspace.
+ * </p>
+ * <p>
+ * The content of a session that has transient changes or that is used within a transaction can differ from the persisted
+ * content, so such sessions must neither use nor populate the cache.
+ * </p>
+ */
+@ThreadSafe
+final class AccessControlListCache implements ChangeSetListener {
+
+    /**
+     * The maximum number of paths without an ACL that are remembered per workspace; once there are more, they are all
+     * forgotten.
+     */
+    static final int MAX_PATHS_WITHOUT_ACL = 100000;
+
+    private final String systemWorkspaceName;
+    private final ConcurrentMap<String, WorkspaceAccessControlLists> workspaces = new ConcurrentHashMap<>();
+
+    AccessControlListCache( String systemWorkspaceName ) {
+        this.systemWorkspaceName = systemWorkspaceName;
+    }
+
+    /**
+     * Get the cached ACLs of the named workspace. The returned object is replaced rather than cleared when it is invalidated,
+     * so ACLs that were read before an invalidation and are added afterwards are never seen by other sessions.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @return the ACLs of the workspace; never null
+     */
+    WorkspaceAccessControlLists forWorkspace( String workspaceName ) {
+        return workspaces.computeIfAbsent(workspaceName, name -> new WorkspaceAccessControlLists());
+    }
+
+    /**
+     * Discard all of the cached ACLs.
+     */
+    void clear() {
+        workspaces.clear();
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        String workspaceName = changeSet.getWorkspaceName();
+        if (workspaceName == null) {
+            // This is a change in the workspaces or repository metadata ...
+            for (Change change : changeSet) {
+                if (change instanceof WorkspaceRemoved) {
+                    workspaces.remove(((WorkspaceRemoved)change).getWorkspaceName());
+                }
+            }
+            return;
+        }
+        boolean system = systemWorkspaceName.equals(workspaceName);
+        if (!system && !workspaces.containsKey(workspaceName)) {
+            return;
+        }
+        for (Change change : changeSet) {
+            if (change instanceof AbstractNodeChange && invalidates((AbstractNodeChange)change, workspaceName, system)) {
+                if (system) {
+                    workspaces.clear();
+                } else {
+                    workspaces.remove(workspaceName);
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean invalidates( AbstractNodeChange change,
+                                 String workspaceName,
+                                 boolean system ) {
+        if (isAccessControlPath(change.getPath())) {
+            return true;
+        }
+        if (change instanceof NodeMoved || change instanceof NodeRenamed || change instanceof NodeReordered) {
+            return true;
+        }
+        if (change instanceof NodeRemoved) {
+            // the removal of an ancestor of an ACL is not recorded as a change of the ACL ...
+            if (!system) {
+                WorkspaceAccessControlLists acls = workspaces.get(workspaceName);
+                return acls != null && acls.hasAccessControlListAtOrBelow(change.getPath());
+            }
+            for (WorkspaceAccessControlLists acls : workspaces.values()) {
+                if (acls.hasAccessControlListAtOrBelow(change.getPath())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAccessControlPath( Path path ) {
+        if (path == null) {
+            return false;
+        }
+        for (Path.Segment segment : path) {
+            if (ModeShapeLexicon.ACCESS_LIST_NODE_NAME.equals(segment.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "AccessControlListCache " + workspaces.keySet();
+    }
+
+    /**
+     * The cached ACLs of the nodes in one workspace.
+     */
+    @ThreadSafe
+    static final class WorkspaceAccessControlLists {
+        private final ConcurrentMap<Path, CompiledAccessControlList> aclsByPath = new ConcurrentHashMap<>();
+        private final Set<Path> pathsWithoutAcl = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Get the ACL of the node at the supplied path.
+         *
+         * @param path the path of the node; may not be null
+         * @return the ACL, or null if it is not known or if the node has no ACL
+         */
+        CompiledAccessControlList get( Path path ) {
+            return aclsByPath.get(path);
+        }
+
+        /**
+         * Determine whether the node at the supplied path is known to have no ACL (or an empty one), in which case the ACL
+         * of its nearest ancestor applies.
+         *
+         * @param path the path of the node; may not be null
+         * @return true if the node has no ACL, or false if it does or if that is not known
+         */
+        boolean hasNoAccessControlList( Path path ) {
+            return pathsWithoutAcl.contains(path);
+        }
+
+        void put( Path path,
+                  CompiledAccessControlList acl ) {
+            aclsByPath.put(path, acl);
+        }
+
+        void putNoAccessControlList( Path path ) {
+            if (pathsWithoutAcl.size() >= MAX_PATHS_WITHOUT_ACL) {
+                pathsWithoutAcl.clear();
+            }
+            pathsWithoutAcl.add(path);
+        }
+
+        boolean hasAccessControlListAtOrBelow( Path path ) {
+            for (Path aclPath : aclsByPath.keySet()) {
+                if (aclPath.isAtOrBelow(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
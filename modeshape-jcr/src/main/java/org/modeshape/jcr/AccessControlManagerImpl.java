@@ -18,8 +18,10 @@ package org.modeshape.jcr;
 import java.security.Principal;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import javax.jcr.AccessDeniedException;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
@@ -40,7 +42,9 @@ import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.security.SecurityContext;
 import org.modeshape.jcr.security.SimplePrincipal;
 import org.modeshape.jcr.security.acl.AccessControlPolicyIteratorImpl;
+import org.modeshape.jcr.security.acl.CompiledAccessControlList;
 import org.modeshape.jcr.security.acl.JcrAccessControlList;
+import org.modeshape.jcr.security.acl.PrivilegeImpl;
 import org.modeshape.jcr.security.acl.Privileges;
 import org.modeshape.jcr.value.Path;
 
@@ -311,6 +315,14 @@ public class AccessControlManagerImpl implements AccessControlManager {
 
     protected boolean hasPermission( Path absPath,
                                      String... actions ) {
+        long requiredMask = requiredMask(actions);
+        if (requiredMask != 0L) {
+            CompiledAccessControlList acl = findCompiledAccessList(absPath);
+            if (acl != null) {
+                return acl.grants(securityContext(), requiredMask);
+            }
+        }
+
         // convert actions to privileges
         Privilege[] permissions = new Privilege[actions.length];
         for (int i = 0; i < actions.length; i++) {
@@ -325,6 +337,119 @@ public class AccessControlManagerImpl implements AccessControlManager {
         }
     }
 
+    /**
+     * Obtain a test of the permission to perform the supplied actions on the nodes at many paths (e.g., on all of the nodes in a
+     * batch of query results), which compiles the actions only once and determines only once whether each of the ACLs that
+     * apply to the nodes grants them. The test should not be used after the content of the session or any ACL has changed.
+     *
+     * @param actions the actions; may not be empty
+     * @return the test of the paths; never null
+     */
+    protected Predicate<Path> permissionTest( String... actions ) {
+        final long requiredMask = requiredMask(actions);
+        if (requiredMask == 0L || !canUseCompiledAccessLists()) {
+            return path -> hasPermission(path, actions);
+        }
+        final SecurityContext context = securityContext();
+        final Map<CompiledAccessControlList, Boolean> grantedByAcl = new IdentityHashMap<>();
+        return path -> {
+            CompiledAccessControlList acl = findCompiledAccessList(path);
+            if (acl == null) {
+                return hasPermission(path, actions);
+            }
+            Boolean granted = grantedByAcl.get(acl);
+            if (granted == null) {
+                granted = acl.grants(context, requiredMask);
+                grantedByAcl.put(acl, granted);
+            }
+            return granted;
+        };
+    }
+
+    /**
+     * Compute the bitmask of the privileges required for the supplied actions.
+     *
+     * @param actions the actions
+     * @return the bitmask, or 0 if one of the actions does not correspond to a privilege
+     */
+    private long requiredMask( String... actions ) {
+        long requiredMask = 0L;
+        for (String action : actions) {
+            PrivilegeImpl privilege = privileges.forAction(action);
+            long mask = privilege != null ? CompiledAccessControlList.maskOf(privilege.localName()) : 0L;
+            if (mask == 0L) {
+                return 0L;
+            }
+            requiredMask |= mask;
+        }
+        return requiredMask;
+    }
+
+    private boolean canUseCompiledAccessLists() {
+        // the content seen by sessions with transient changes or in a transaction may not be the persisted content ...
+        return !session.cache().hasChanges() && session.repository().transactions().currentTransactionId() == null;
+    }
+
+    /**
+     * Find the compiled ACL that applies to the node at the supplied path, which is the ACL of the node itself or of its nearest
+     * ancestor that has a non-empty ACL. The repository-wide {@link AccessControlListCache cache} is used and populated, so that
+     * the nodes only need to be loaded the first time.
+     *
+     * @param absPath the absolute path of the node
+     * @return the compiled ACL, which is {@link CompiledAccessControlList#isEmpty() empty} if no node has an ACL; or null if the
+     *         ACL cannot be determined this way and the permissions have to be checked against the uncompiled ACLs
+     */
+    private CompiledAccessControlList findCompiledAccessList( Path absPath ) {
+        if (!canUseCompiledAccessLists()) {
+            return null;
+        }
+        AccessControlListCache.WorkspaceAccessControlLists acls = session.repository().accessControlListCache()
+                                                                         .forWorkspace(session.workspaceName());
+        SessionCache sessionCache = session.cache();
+        Path path = absPath;
+        CachedNode node = null;
+        while (true) {
+            CompiledAccessControlList acl = acls.get(path);
+            if (acl != null) {
+                return acl;
+            }
+            if (acls.hasNoAccessControlList(path)) {
+                if (path.isRoot()) {
+                    return CompiledAccessControlList.EMPTY;
+                }
+                path = path.getParent();
+                node = null;
+                continue;
+            }
+            try {
+                if (node == null) {
+                    node = session.cachedNode(path, false);
+                }
+            } catch (RepositoryException e) {
+                return null;
+            }
+            Map<String, Set<String>> permissions = node.getPermissions(sessionCache);
+            if (permissions != null && !permissions.isEmpty()) {
+                acl = CompiledAccessControlList.compile(permissions);
+                if (acl != null) {
+                    acls.put(path, acl);
+                }
+                return acl;
+            }
+            acls.putNoAccessControlList(path);
+            if (path.isRoot()) {
+                return CompiledAccessControlList.EMPTY;
+            }
+            NodeKey parentKey = node.getParentKey(sessionCache);
+            node = parentKey != null ? sessionCache.getNode(parentKey) : null;
+            if (node == null) {
+                // the same as when the ACLs are searched without the cache ...
+                return CompiledAccessControlList.EMPTY;
+            }
+            path = path.getParent();
+        }
+    }
+
     /**
      * Gets principal instance for the given name. This method uses feature of the security context to discover known principals.
      * 
@@ -15,9 +15,11 @@
  */
 package org.modeshape.jcr;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import org.modeshape.common.annotation.NotThreadSafe;
@@ -28,12 +30,26 @@ import org.modeshape.jcr.cache.ChildReferences;
 /**
  * A concrete {@link NodeIterator} implementation for children. Where possible, the creator should pass in the size. However, if
  * it is not known, the size is computed by this iterator only when needed.
+ * <p>
+ * The child references are read ahead in small windows, and each window is passed to the {@link NodeResolver} before any of its
+ * nodes are resolved, giving the resolver the chance to load all of those nodes at once.
+ * </p>
  */
 @NotThreadSafe
 final class JcrChildNodeIterator implements NodeIterator {
 
+    protected static final int PREFETCH_SIZE = 100;
+
     protected static interface NodeResolver {
         public Node nodeFrom( ChildReference ref );
+
+        /**
+         * Hints that the nodes for the given references are about to be resolved.
+         * 
+         * @param refs the child references which will be resolved next; never null
+         */
+        public default void prefetch( List<ChildReference> refs ) {
+        }
     }
 
     private final NodeResolver resolver;
@@ -46,7 +62,7 @@ final class JcrChildNodeIterator implements NodeIterator {
     JcrChildNodeIterator( NodeResolver resolver,
                           Iterator<ChildReference> iterator ) {
         this.resolver = resolver;
-        this.iterator = iterator;
+        this.iterator = new PrefetchingIterator(resolver, iterator);
         this.size = -1L; // we'll calculate if needed
     }
 
@@ -54,7 +70,7 @@ final class JcrChildNodeIterator implements NodeIterator {
                           ChildReferences childReferences ) {
         assert size >= 0L;
         this.resolver = resolver;
-        this.iterator = childReferences.iterator();
+        this.iterator = new PrefetchingIterator(resolver, childReferences.iterator());
         this.size = childReferences.size();
     }
 
@@ -142,4 +158,38 @@ final class JcrChildNodeIterator implements NodeIterator {
             nextNode();
         }
     }
+
+    private static final class PrefetchingIterator implements Iterator<ChildReference> {
+        private final NodeResolver resolver;
+        private final Iterator<ChildReference> delegate;
+        private final List<ChildReference> window = new ArrayList<>();
+        private int windowIdx;
+
+        protected PrefetchingIterator( NodeResolver resolver,
+                                       Iterator<ChildReference> delegate ) {
+            this.resolver = resolver;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return windowIdx < window.size() || delegate.hasNext();
+        }
+
+        @Override
+        public ChildReference next() {
+            if (windowIdx == window.size()) {
+                window.clear();
+                windowIdx = 0;
+                while (window.size() < PREFETCH_SIZE && delegate.hasNext()) {
+                    window.add(delegate.next());
+                }
+                if (window.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                resolver.prefetch(window);
+            }
+            return window.get(windowIdx++);
+        }
+    }
 }
@@ -43,6 +43,7 @@ public final class JcrI18n {
     public static I18n indexProviderMissingPlanner;
     public static I18n errorNotifyingNodeTypesListener;
     public static I18n errorIndexing;
+    public static I18n errorApplyingBufferedIndexUpdates;
     public static I18n cannotReindexJournalNotEnabled;
     public static I18n warnIncrementalIndexingJournalNotEnabled;
     public static I18n warnIncrementalIndexingJournalNotStarted;
@@ -226,6 +227,8 @@ public final class JcrI18n {
     public static I18n multipleSelectorsAppearInQueryRequireSpecifyingSelectorName;
     public static I18n multipleSelectorsAppearInQueryUnableToCallMethod;
     public static I18n multipleCallsToGetRowsOrNodesIsNotAllowed;
+    public static I18n queryDoesNotSupportKeysetPagination;
+    public static I18n invalidContinuationTokenForQuery;
     public static I18n equiJoinWithOneJcrPathPseudoColumnIsInvalid;
     public static I18n equiJoinWithOneNodeIdPseudoColumnIsInvalid;
     public static I18n noSuchVariableInQuery;
@@ -383,6 +386,10 @@ public final class JcrI18n {
     public static I18n errorMarkingBinaryValuesUnused;
     public static I18n errorMarkingBinaryValuesUsed;
     public static I18n unableToCreateDirectoryForBinaryStore;
+    public static I18n unableToFindTieredBinaryStore;
+    public static I18n errorMovingBinaryValueBetweenTiers;
+    public static I18n errorMovingBinaryValuesBetweenTiers;
+    public static I18n unableToReadCompressedBinaryValue;
 
     public static I18n unableToReadTemporaryDirectory;
     public static I18n unableToWriteTemporaryDirectory;
@@ -395,6 +402,7 @@ public final class JcrI18n {
 
     // Lucene query engine ...
     public static I18n errorExtractingTextFromBinary;
+    public static I18n textExtractionTimedOut;
     public static I18n missingVariableValue;
 
     public static I18n unableToInitializeMimeTypeDetector;
@@ -449,7 +457,6 @@ public final class JcrI18n {
     public static I18n localIndexProviderMustHaveDirectory;
     public static I18n localIndexProviderDirectoryMustBeReadable;
     public static I18n localIndexProviderDirectoryMustBeWritable;
-    public static I18n localIndexProviderDoesNotSupportTextIndexes;
     public static I18n localIndexProviderDoesNotSupportMultiColumnIndexes;
 
     public static I18n errorInvalidUserTransaction;
@@ -24,6 +24,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -56,6 +57,7 @@ import org.modeshape.jcr.query.model.SetQuery;
 import org.modeshape.jcr.query.model.SetQueryObjectModel;
 import org.modeshape.jcr.query.model.TypeSystem;
 import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.query.engine.QueryPlanCache;
 import org.modeshape.jcr.query.parse.QueryParser;
 import org.modeshape.jcr.query.parse.QueryParsers;
 import org.modeshape.jcr.query.plan.PlanHints;
@@ -66,6 +68,7 @@ import org.modeshape.jcr.value.NamespaceRegistry;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.Reference;
 import org.modeshape.jcr.value.ValueFactories;
+import org.modeshape.jcr.value.basic.LocalNamespaceRegistry;
 
 /**
  * Place-holder implementation of {@link QueryManager} interface.
@@ -136,11 +139,16 @@ class JcrQueryManager implements QueryManager {
             throw new InvalidQueryException(JcrI18n.invalidQueryLanguage.text(language, languages));
         }
         try {
-            // Parsing must be done now ...
-            QueryCommand command = parser.parseQuery(expression, typeSystem);
+            // Parsing must be done now, unless the same expression has already been parsed ...
+            QueryPlanCache planCache = parsedQueriesCanBeShared() ? session.repository().queryManager().getPlanCache() : null;
+            QueryCommand command = planCache != null ? planCache.getParsedQuery(parser.getLanguage(), expression) : null;
             if (command == null) {
-                // The query is not well-formed and cannot be parsed ...
-                throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                command = parser.parseQuery(expression, typeSystem);
+                if (command == null) {
+                    // The query is not well-formed and cannot be parsed ...
+                    throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                }
+                if (planCache != null) planCache.putParsedQuery(parser.getLanguage(), expression, command);
             }
             // Set up the hints ...
             PlanHints hints = new PlanHints();
@@ -219,6 +227,17 @@ class JcrQueryManager implements QueryManager {
         return languages.toArray(new String[languages.size()]);
     }
 
+    /**
+     * Determine whether the queries parsed by this session can be shared with other sessions, which is only the case when the
+     * session does not use any namespace mappings of its own.
+     *
+     * @return true if the parsed queries can be shared, or false otherwise
+     */
+    protected boolean parsedQueriesCanBeShared() {
+        NamespaceRegistry registry = session.context().getNamespaceRegistry();
+        return !(registry instanceof LocalNamespaceRegistry) || ((LocalNamespaceRegistry)registry).getLocalNamespaces().isEmpty();
+    }
+
     protected org.modeshape.jcr.api.query.Query resultWith( String expression,
                                                             String language,
                                                             QueryCommand command,
@@ -273,6 +292,11 @@ class JcrQueryManager implements QueryManager {
                                                        PlanHints hints,
                                                        Map<String, Object> variables ) throws RepositoryException {
             session.checkLive();
+            if (!Boolean.FALSE.equals(hints.parallelExecution) && session.repository().transactions().currentTransaction() != null) {
+                // The changes made within a transaction are only visible to the transaction's thread ...
+                hints = hints.clone();
+                hints.parallelExecution = false;
+            }
             // Submit immediately to the workspace graph ...
             Schemata schemata = session.workspace().nodeTypeManager().schemata();
             NodeTypes nodeTypes = session.repository().nodeTypeManager().getNodeTypes();
@@ -331,6 +355,22 @@ class JcrQueryManager implements QueryManager {
             }
         }
 
+        @Override
+        public boolean canReadAllNodes() {
+            return session.canReadAllNodes();
+        }
+
+        @Override
+        public Predicate<CachedNode> readPermissionTest() {
+            final Predicate<Path> readable = session.readPermissionTest();
+            return node -> node != null && readable.test(getPath(node));
+        }
+
+        @Override
+        public boolean hasPendingChanges() {
+            return session.cache().hasChanges();
+        }
+
         @SuppressWarnings( "deprecation" )
         @Override
         public String getUuid( CachedNode node ) {
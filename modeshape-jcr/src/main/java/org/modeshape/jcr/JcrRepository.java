@@ -86,6 +86,7 @@ import org.modeshape.jcr.api.Repository;
 import org.modeshape.jcr.api.RepositoryManager;
 import org.modeshape.jcr.api.RestoreOptions;
 import org.modeshape.jcr.api.Workspace;
+import org.modeshape.jcr.api.monitor.DurationMetric;
 import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.query.Query;
 import org.modeshape.jcr.api.txn.TransactionManagerLookup;
@@ -96,12 +97,15 @@ import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.RepositoryCache;
 import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.cache.WorkspaceNotFoundException;
+import org.modeshape.jcr.cache.document.CachingSchematicDb;
 import org.modeshape.jcr.cache.document.DocumentStore;
+import org.modeshape.jcr.cache.document.GroupCommitter;
 import org.modeshape.jcr.cache.document.LocalDocumentStore;
+import org.modeshape.jcr.cache.document.OffHeapDocumentCache;
 import org.modeshape.jcr.journal.ChangeJournal;
 import org.modeshape.jcr.journal.LocalJournal;
 import org.modeshape.jcr.locking.LockingService;
-import org.modeshape.jcr.locking.StandaloneLockingService;
+import org.modeshape.jcr.locking.StripedLockingService;
 import org.modeshape.jcr.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.mimetype.NullMimeTypeDetector;
 import org.modeshape.jcr.query.parse.FullTextSearchParser;
@@ -424,6 +428,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         return runningState().lockManager();
     }
 
+    final AccessControlListCache accessControlListCache() {
+        return runningState().accessControlListCache();
+    }
+
     protected final NamespaceRegistry persistentRegistry() {
         return runningState().persistentRegistry();
     }
@@ -906,6 +914,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         private final Problems problems;
         private final ChangeJournal journal;
         private final LockingService lockingService;
+        private final AccessControlListCache accessControlListCache;
 
         private Transaction existingUserTransaction;
         private RepositoryCache cache;
@@ -1005,15 +1014,23 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     this.changeDispatchingQueue = other.changeDispatchingQueue;
                     this.journal = other.journal;
                     this.lockingService = other.lockingService;
+                    this.accessControlListCache = other.accessControlListCache;
                 } else {
                     // find the Schematic database
-                    this.schematicDb = environment().getDb(config.getPersistenceConfiguration());
+                    SchematicDb db = environment().getDb(config.getPersistenceConfiguration());
+                    RepositoryConfiguration.DocumentCache documentCache = config.getDocumentCache();
+                    if (documentCache.isEnabled()) {
+                        OffHeapDocumentCache offHeapCache = new OffHeapDocumentCache(documentCache.getMaxSizeInBytes(),
+                                                                                     documentCache.getBlockSizeInBytes());
+                        db = new CachingSchematicDb(db, offHeapCache, statistics());
+                    }
+                    this.schematicDb = db;
                     this.txMgrLookup = config.getTransactionManagerLookup();
                     this.txnMgr = this.txMgrLookup.getTransactionManager();
                     this.transactions = createTransactions(this.txnMgr, schematicDb);
                    
                     long lockTimeoutMillis = config.getLockTimeoutMillis();
-                    this.lockingService =  new StandaloneLockingService(lockTimeoutMillis);
+                    this.lockingService = new StripedLockingService(lockTimeoutMillis, config.getLockStripes(), statistics());
                   
                     suspendExistingUserTransaction();
                     
@@ -1023,6 +1040,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     // Set up the binary store ...
                     BinaryStorage binaryStorageConfig = config.getBinaryStorage();
                     binaryStore = binaryStorageConfig.getBinaryStore();
+                    binaryStore.setStatistics(statistics());
                     binaryStore.start();
                     tempContext = tempContext.with(binaryStore);
 
@@ -1039,6 +1057,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     ChangeBus localBus = new RepositoryChangeBus(name(), changeDispatchingQueue, statistics(), config.getEventBusSize());
                     this.changeBus = localBus;
                     this.changeBus.start();
+                    if (schematicDb instanceof CachingSchematicDb) {
+                        // make sure the cached documents are invalidated before any listeners see the changes
+                        this.changeBus.registerInThread((CachingSchematicDb)schematicDb);
+                    }
 
                     // Set up the event journal
                     RepositoryConfiguration.Journaling journaling = config.getJournaling();
@@ -1060,9 +1082,14 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     }
 
                     // Set up the document store and environment
+                    RepositoryConfiguration.GroupCommit groupCommit = config.getGroupCommit();
+                    GroupCommitter groupCommitter = groupCommit.isEnabled() ? new GroupCommitter(transactions,
+                                                                                                 groupCommit.getMaxBatchSize(),
+                                                                                                 groupCommit.getWindowInMillis()) : null;
                     final RepositoryEnvironment repositoryEnvironment = new JcrRepositoryEnvironment(transactions,
                                                                                                      this.lockingService,
-                                                                                                     journalId());
+                                                                                                     journalId(),
+                                                                                                     groupCommitter);
                     LocalDocumentStore localStore = new LocalDocumentStore(schematicDb, repositoryEnvironment);
                     this.documentStore = localStore;
 
@@ -1081,6 +1108,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     // Set up the monitoring listener ...
                     this.changeBus.register(this.statistics);
 
+                    // Set up the cache of ACLs, which must see the changes to the ACLs before any session checks permissions ...
+                    this.accessControlListCache = new AccessControlListCache(this.systemWorkspaceName);
+                    this.changeBus.registerInThread(this.accessControlListCache);
+
                     // Refresh several of the components information from the repository cache ...
                     this.persistentRegistry.refreshFromSystem();
                     this.lockManager.refreshFromSystem();
@@ -1133,6 +1164,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 } else {
                     this.extractors = new TextExtractors(this, config.getTextExtraction());
                 }
+                if (other != null && other.extractors != null) {
+                    // each instance has its own threads, so stop the ones of the previous instance ...
+                    other.extractors.shutdown();
+                }
                 this.binaryStore.setMimeTypeDetector(this.mimeTypeDetector);
                 this.binaryStore.setTextExtractors(this.extractors);
 
@@ -1387,6 +1422,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             return lockManager;
         }
 
+        final AccessControlListCache accessControlListCache() {
+            return accessControlListCache;
+        }
+
         protected final String systemWorkspaceName() {
             return systemWorkspaceName;
         }
@@ -1758,8 +1797,19 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 logger.debug("Starting binary value cleanup in the '{0}' repository", repositoryName());
             }
             try {
-                this.binaryStore.removeValuesUnusedLongerThan(RepositoryConfiguration.UNUSED_BINARY_VALUE_AGE_IN_MILLIS,
-                                                              TimeUnit.MILLISECONDS);
+                long start = System.nanoTime();
+                int maxRemovalsPerSecond = config.getGarbageCollection().getMaxBinaryRemovalsPerSecond();
+                long removed = this.binaryStore.removeValuesUnusedLongerThan(RepositoryConfiguration.UNUSED_BINARY_VALUE_AGE_IN_MILLIS,
+                                                                             TimeUnit.MILLISECONDS, maxRemovalsPerSecond);
+                statistics.recordDuration(DurationMetric.BINARY_GARBAGE_COLLECTION_TIME, System.nanoTime() - start,
+                                          TimeUnit.NANOSECONDS, null);
+                if (removed > 0L) {
+                    statistics.increment(ValueMetric.BINARY_VALUES_REMOVED, removed);
+                }
+                long unused = this.binaryStore.getUnusedValueCount();
+                if (unused >= 0L) {
+                    statistics.set(ValueMetric.UNUSED_BINARY_VALUES, unused);
+                }
             } catch (Throwable e) {
                 logger.error(e, JcrI18n.errorDuringGarbageCollection, e.getMessage());
             }
@@ -1805,11 +1855,14 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         private final Transactions transactions;
         private final LockingService lockingService;
         private final String journalId;
+        private final GroupCommitter groupCommitter;
         
-        private JcrRepositoryEnvironment(Transactions transactions, LockingService lockingService, String journalId) {
+        private JcrRepositoryEnvironment(Transactions transactions, LockingService lockingService, String journalId,
+                                         GroupCommitter groupCommitter) {
             this.transactions = transactions;
             this.lockingService = lockingService;
             this.journalId = journalId;
+            this.groupCommitter = groupCommitter;
         }
 
         @Override
@@ -1835,6 +1888,11 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             }
             return runningState().nodeTypeManager().getNodeTypes();
         }
+
+        @Override
+        public GroupCommitter groupCommitter() {
+            return groupCommitter;
+        }
     }
 
     private final class InternalSecurityContext implements SecurityContext {
@@ -33,6 +33,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Credentials;
@@ -267,6 +268,40 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
         return this.hasCustomAuthorizationProvider || repository.repositoryCache().isAccessControlEnabled();
     }
 
+    /**
+     * Determine whether the user can read every node in this session's workspace. This is only known without checking each node
+     * when access control is disabled and the security context is role-based, since the roles of the user then apply to all of
+     * the nodes in the workspace.
+     *
+     * @return true if the user can read all nodes, or false if the permissions of each node have to be checked
+     */
+    final boolean canReadAllNodes() {
+        if (checkPermissionsWhenIteratingChildren()) return false;
+        return hasPermission(workspace().getName(), null, ModeShapePermissions.READ);
+    }
+
+    /**
+     * Obtain a test of the READ permission on the nodes at many paths in this session's workspace (e.g., on all of the nodes in
+     * a batch of query results). Unless a custom authorization provider is used, the roles of the user are checked only once
+     * and each of the ACLs that apply to the nodes is evaluated only once, so the test should not be used after the content of
+     * this session or any ACL has changed.
+     *
+     * @return the test of the absolute paths of the nodes; never null
+     */
+    final Predicate<Path> readPermissionTest() {
+        final String workspaceName = workspace().getName();
+        if (hasCustomAuthorizationProvider) {
+            return path -> hasPermission(workspaceName, pathSupplierFor(path), ModeShapePermissions.READ);
+        }
+        if (!hasPermission(workspaceName, null, ModeShapePermissions.READ)) {
+            return path -> false;
+        }
+        if (!repository.repositoryCache().isAccessControlEnabled()) {
+            return path -> true;
+        }
+        return acm.permissionTest(ModeShapePermissions.READ);
+    }
+
     /**
      * This method is called by {@link #logout()} and by {@link JcrRepository#shutdown()}. It should not be called from anywhere
      * else.
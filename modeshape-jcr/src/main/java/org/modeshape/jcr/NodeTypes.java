@@ -862,6 +862,30 @@ public class NodeTypes {
         return propertyDefinitions.values();
     }
 
+    /**
+     * Determine whether every node of the named node type can have at most one value of the named property, and that this value
+     * is always of the given type. This is the case when the node type (or one of its supertypes) explicitly defines the
+     * property, since such a definition is always used instead of any residual definitions, and when every definition of a
+     * property with that name is single-valued and requires that type.
+     *
+     * @param nodeTypeName the name of the node type; may not be null
+     * @param propertyName the name of the property; may not be null
+     * @param requiredType the {@link javax.jcr.PropertyType property type} of the values
+     * @return true if the nodes of the node type have at most one value of the property and that value has the given type, or
+     *         false otherwise
+     */
+    public boolean isSingleValuedProperty( Name nodeTypeName,
+                                           Name propertyName,
+                                           int requiredType ) {
+        JcrNodeType type = getNodeType(nodeTypeName);
+        if (type == null || type.allPropertyDefinitions(propertyName).isEmpty()) return false;
+        for (JcrPropertyDefinition defn : propertyDefinitions.values()) {
+            if (!propertyName.equals(defn.getInternalName())) continue;
+            if (defn.isMultiple() || defn.getRequiredType() != requiredType) return false;
+        }
+        return true;
+    }
+
     public JcrNodeDefinition getChildNodeDefinition( NodeDefinitionId id ) {
         return childNodeDefinitions.get(id);
     }
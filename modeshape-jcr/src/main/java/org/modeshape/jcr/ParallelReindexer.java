@@ -0,0 +1,606 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.JcrRepository.RunningState;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.PathCache;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.cache.document.LocalDocumentStore;
+import org.modeshape.jcr.spi.index.IndexWriter;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.schematic.SchematicEntry;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableDocument;
+
+/**
+ * Crawls and indexes whole subtrees of content using a fork-join pool.
+ * <p>
+ * The subtree is first split into work units, each of which is a batch of sibling nodes (and all of their descendants) a few
+ * levels below the node where the reindexing starts. The pool's threads read the nodes of the work units through the workspace
+ * caches, and write them to the {@link IndexWriter} in batches of siblings.
+ * </p>
+ * <p>
+ * The work units that have been completed are periodically recorded (after committing the indexes) in a checkpoint, which is
+ * stored in the {@link #CHECKPOINTS_KEY repository's document store}. A reindexing which is interrupted, e.g. because the
+ * repository is shut down, can therefore be {@link #resume(Checkpoint, NodeCache, CachedNode, IndexWriter) resumed} from its last
+ * checkpoint instead of starting over. The checkpoint is removed once the reindexing has completed.
+ * </p>
+ */
+class ParallelReindexer {
+
+    /**
+     * The key of the document which holds the checkpoints of the reindexing operations that have not yet completed.
+     */
+    static final String CHECKPOINTS_KEY = "repository:reindexing";
+
+    private static final String WORKSPACE_FIELD_NAME = "workspace";
+    private static final String SYSTEM_CONTENT_FIELD_NAME = "includeSystemContent";
+    private static final String COMPLETED_FIELD_NAME = "completed";
+
+    /**
+     * The maximum number of sibling nodes which are read and written by a single task.
+     */
+    private static final int BATCH_SIZE = 128;
+    /**
+     * The number of work units per thread that the splitting tries to produce, so that the threads are kept busy even when the
+     * subtrees have very different sizes.
+     */
+    private static final int WORK_UNITS_PER_THREAD = 8;
+    /**
+     * The number of levels below the starting node beyond which the content is never split into more work units.
+     */
+    private static final int MAX_SPLIT_DEPTH = 3;
+
+    private final Logger logger = Logger.getLogger(getClass());
+    private final RunningState runningState;
+    private final int threads;
+    private final long checkpointIntervalInNanos;
+    private final ConcurrentMap<String, Lock> locksByStartKey = new ConcurrentHashMap<>();
+
+    /**
+     * @param runningState the state of the running repository; may not be null
+     * @param threads the number of threads which crawl and index the content; must be positive
+     * @param checkpointIntervalInSeconds the minimum number of seconds between checkpoints; may not be negative
+     */
+    ParallelReindexer( RunningState runningState,
+                       int threads,
+                       int checkpointIntervalInSeconds ) {
+        CheckArg.isPositive(threads, "threads");
+        CheckArg.isNonNegative(checkpointIntervalInSeconds, "checkpointIntervalInSeconds");
+        this.runningState = runningState;
+        this.threads = threads;
+        this.checkpointIntervalInNanos = TimeUnit.SECONDS.toNanos(checkpointIntervalInSeconds);
+    }
+
+    /**
+     * Crawl and index the supplied node and all of its descendants. Any checkpoint left by an earlier reindexing of the same
+     * node is discarded, since the indexes being written may not be the same.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param cache the cache for the workspace; may not be null
+     * @param node the node where the reindexing starts; may not be null
+     * @param reindexSystemContent true if the system content below the node should also be reindexed, or false if it should be
+     *        skipped
+     * @param indexes the index writer; may not be null
+     * @return true if at least one index was updated, or false otherwise
+     */
+    boolean reindex( String workspaceName,
+                     NodeCache cache,
+                     CachedNode node,
+                     boolean reindexSystemContent,
+                     IndexWriter indexes ) {
+        Checkpoint checkpoint = new Checkpoint(node.getKey().toString(), workspaceName, reindexSystemContent,
+                                               Collections.<String>emptySet());
+        Lock lock = lockFor(checkpoint.startKey);
+        lock.lock();
+        try {
+            return run(checkpoint, cache, node, indexes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resume a reindexing which was interrupted before it completed, skipping the work units which were recorded in its
+     * checkpoint.
+     *
+     * @param checkpoint the checkpoint of the reindexing, as returned by {@link #interrupted()}; may not be null
+     * @param cache the cache for the checkpoint's workspace; may not be null
+     * @param node the node where the reindexing started; may not be null
+     * @param indexes the index writer; may not be null
+     * @return true if at least one index was updated, or false otherwise
+     */
+    boolean resume( Checkpoint checkpoint,
+                    NodeCache cache,
+                    CachedNode node,
+                    IndexWriter indexes ) {
+        Lock lock = lockFor(checkpoint.startKey);
+        lock.lock();
+        try {
+            // the same node may have been reindexed from scratch in the meantime ...
+            Checkpoint latest = readCheckpoints().stream().filter(c -> c.startKey.equals(checkpoint.startKey)).findFirst()
+                                                 .orElse(null);
+            if (latest == null) {
+                return false;
+            }
+            logger.debug("Resuming the reindexing of '{0}' in workspace '{1}' of repository '{2}' after {3} completed work units",
+                         latest.startKey, latest.workspaceName, runningState.name(), latest.completed.size());
+            return run(latest, cache, node, indexes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the checkpoints of the reindexing operations which were started but did not complete.
+     *
+     * @return the checkpoints; never null but possibly empty
+     */
+    List<Checkpoint> interrupted() {
+        return readCheckpoints();
+    }
+
+    /**
+     * Discard the checkpoint of an interrupted reindexing, e.g. because its content no longer exists or because all of the
+     * indexes are being rebuilt from scratch.
+     *
+     * @param checkpoint the checkpoint; may not be null
+     */
+    void discard( Checkpoint checkpoint ) {
+        writeCheckpoint(checkpoint.startKey, null);
+    }
+
+    /**
+     * Discard the checkpoints of all interrupted reindexing operations.
+     */
+    void discardAll() {
+        LocalDocumentStore store = localStore();
+        if (store.get(CHECKPOINTS_KEY) != null) {
+            store.runInTransaction(() -> store.remove(CHECKPOINTS_KEY), 1, CHECKPOINTS_KEY);
+        }
+    }
+
+    private Lock lockFor( String startKey ) {
+        return locksByStartKey.computeIfAbsent(startKey, key -> new ReentrantLock());
+    }
+
+    private boolean run( Checkpoint checkpoint,
+                         NodeCache cache,
+                         CachedNode node,
+                         IndexWriter indexes ) {
+        if (indexes.canBeSkipped() || node.isExcludedFromSearch(cache)) {
+            return false;
+        }
+        Run run = new Run(checkpoint, indexes);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Unit> units = run.split(cache, node);
+            run.checkpoint();
+            ForkJoinTask<Void> task = pool.submit(new UnitsTask(run, units));
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                // stop the remaining work and record what has been done, so that the reindexing can be resumed later ...
+                run.stopped = true;
+                Thread.currentThread().interrupt();
+                logger.debug("The reindexing of '{0}' in workspace '{1}' of repository '{2}' was interrupted", checkpoint.startKey,
+                             checkpoint.workspaceName, runningState.name());
+                run.checkpoint();
+                return run.indexesUpdated;
+            } catch (ExecutionException e) {
+                run.stopped = true;
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new SystemFailureException(cause);
+            }
+            writeCheckpoint(checkpoint.startKey, null);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (logger.isDebugEnabled()) {
+            long millis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 1L);
+            long count = run.nodeCount.get();
+            logger.debug("Reindexed {0} nodes below '{1}' in workspace '{2}' of repository '{3}' in {4} ms ({5} nodes/sec)", count,
+                         checkpoint.startKey, checkpoint.workspaceName, runningState.name(), millis, count * 1000L / millis);
+        }
+        return run.indexesUpdated;
+    }
+
+    private LocalDocumentStore localStore() {
+        return runningState.documentStore().localStore();
+    }
+
+    private List<Checkpoint> readCheckpoints() {
+        SchematicEntry entry = localStore().get(CHECKPOINTS_KEY);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        for (Document.Field field : entry.content().fields()) {
+            Document doc = field.getValueAsDocument();
+            Set<String> completed = new HashSet<>();
+            List<?> completedIds = doc.getArray(COMPLETED_FIELD_NAME);
+            if (completedIds != null) {
+                for (Object id : completedIds) {
+                    completed.add(id.toString());
+                }
+            }
+            checkpoints.add(new Checkpoint(field.getName(), doc.getString(WORKSPACE_FIELD_NAME),
+                                           doc.getBoolean(SYSTEM_CONTENT_FIELD_NAME, false), completed));
+        }
+        return checkpoints;
+    }
+
+    private void writeCheckpoint( String startKey,
+                                  Checkpoint checkpoint ) {
+        LocalDocumentStore store = localStore();
+        if (checkpoint == null && store.get(CHECKPOINTS_KEY) == null) {
+            return;
+        }
+        store.runInTransaction(() -> {
+            EditableDocument checkpoints = store.edit(CHECKPOINTS_KEY, true);
+            if (checkpoint == null) {
+                checkpoints.remove(startKey);
+                if (checkpoints.isEmpty()) {
+                    store.remove(CHECKPOINTS_KEY);
+                }
+            } else {
+                EditableDocument doc = checkpoints.setDocument(startKey);
+                doc.setString(WORKSPACE_FIELD_NAME, checkpoint.workspaceName);
+                doc.setBoolean(SYSTEM_CONTENT_FIELD_NAME, checkpoint.includeSystemContent);
+                doc.setArray(COMPLETED_FIELD_NAME, checkpoint.completed.toArray());
+            }
+            return null;
+        }, 1, CHECKPOINTS_KEY);
+    }
+
+    /**
+     * The recorded progress of a reindexing operation.
+     */
+    static final class Checkpoint {
+        protected final String startKey;
+        protected final String workspaceName;
+        protected final boolean includeSystemContent;
+        protected final Set<String> completed;
+
+        protected Checkpoint( String startKey,
+                              String workspaceName,
+                              boolean includeSystemContent,
+                              Set<String> completed ) {
+            this.startKey = startKey;
+            this.workspaceName = workspaceName;
+            this.includeSystemContent = includeSystemContent;
+            this.completed = completed;
+        }
+
+        /**
+         * @return the key of the node where the reindexing started; never null
+         */
+        NodeKey startKey() {
+            return new NodeKey(startKey);
+        }
+
+        /**
+         * @return the name of the workspace of the node where the reindexing started; never null
+         */
+        String workspaceName() {
+            return workspaceName;
+        }
+
+        /**
+         * @return true if the system content is reindexed as well
+         */
+        boolean includesSystemContent() {
+            return includeSystemContent;
+        }
+    }
+
+    /**
+     * A batch of sibling nodes, which are reindexed together with all of their descendants.
+     */
+    private static final class Unit {
+        protected final String workspaceName;
+        protected final NodeCache cache;
+        protected final NodeKey parentKey;
+        protected final Path parentPath;
+        protected final List<NodeKey> keys;
+
+        protected Unit( String workspaceName,
+                        NodeCache cache,
+                        NodeKey parentKey,
+                        Path parentPath,
+                        List<NodeKey> keys ) {
+            this.workspaceName = workspaceName;
+            this.cache = cache;
+            this.parentKey = parentKey;
+            this.parentPath = parentPath;
+            this.keys = keys;
+        }
+
+        /**
+         * The identifier of a work unit, which is recorded in the checkpoints. A work unit with several nodes is identified
+         * by its first node and a hash of all its nodes, so that a unit with different nodes is never mistaken for a completed
+         * one.
+         *
+         * @return the identifier; never null
+         */
+        protected String id() {
+            String first = keys.get(0).toString();
+            return keys.size() == 1 ? first : first + "#" + keys.size() + "#" + Integer.toHexString(keys.hashCode());
+        }
+    }
+
+    /**
+     * The state of a single reindexing operation.
+     */
+    private final class Run {
+        private final Checkpoint checkpoint;
+        private final IndexWriter indexes;
+        private final String systemWorkspaceKey;
+        private final Set<String> completed;
+        private final ConcurrentLinkedQueue<String> newlyCompleted = new ConcurrentLinkedQueue<>();
+        private final Set<String> workspaceNames = ConcurrentHashMap.newKeySet();
+        private final AtomicLong nodeCount = new AtomicLong();
+        private final Lock checkpointLock = new ReentrantLock();
+        private volatile long lastCheckpoint;
+        protected volatile boolean indexesUpdated;
+        protected volatile boolean stopped;
+
+        protected Run( Checkpoint checkpoint,
+                       IndexWriter indexes ) {
+            this.checkpoint = checkpoint;
+            this.indexes = indexes;
+            this.systemWorkspaceKey = runningState.systemWorkspaceKey();
+            this.completed = ConcurrentHashMap.newKeySet();
+            this.completed.addAll(checkpoint.completed);
+        }
+
+        /**
+         * Split the content below the supplied node into work units, indexing the nodes above those units.
+         *
+         * @param cache the workspace cache; may not be null
+         * @param node the node where the reindexing starts; may not be null
+         * @return the work units; never null
+         */
+        protected List<Unit> split( NodeCache cache,
+                                    CachedNode node ) {
+            String workspaceName = checkpoint.workspaceName;
+            Path path = new PathCache(cache).getPath(node);
+            index(workspaceName, cache, node, path);
+            nodeCount.incrementAndGet();
+
+            List<Unit> units = new ArrayList<>();
+            List<NodeKey> keys = new ArrayList<>();
+            boolean inSystemWorkspace = node.getKey().getWorkspaceKey().equals(systemWorkspaceKey);
+            for (ChildReference childRef : node.getChildReferences(cache)) {
+                NodeKey childKey = childRef.getKey();
+                if (!inSystemWorkspace && childKey.getWorkspaceKey().equals(systemWorkspaceKey)) {
+                    if (checkpoint.includeSystemContent) {
+                        // The system content is indexed as part of the system workspace ...
+                        RepositoryCache repoCache = runningState.repositoryCache();
+                        units.add(new Unit(repoCache.getSystemWorkspaceName(),
+                                           repoCache.getWorkspaceCache(repoCache.getSystemWorkspaceName()), node.getKey(), path,
+                                           Collections.singletonList(childKey)));
+                    }
+                    // otherwise we should not reindex anything which is in the system area
+                    continue;
+                }
+                keys.add(childKey);
+                if (keys.size() == BATCH_SIZE) {
+                    units.add(new Unit(workspaceName, cache, node.getKey(), path, keys));
+                    keys = new ArrayList<>();
+                }
+            }
+            if (!keys.isEmpty()) {
+                units.add(new Unit(workspaceName, cache, node.getKey(), path, keys));
+            }
+
+            // Split the units further until there are enough of them to keep the threads busy ...
+            int depth = 1;
+            while (units.size() < threads * WORK_UNITS_PER_THREAD && depth < MAX_SPLIT_DEPTH && !units.isEmpty()) {
+                List<Unit> nextLevel = new ArrayList<>();
+                for (Unit unit : units) {
+                    if (completed.contains(unit.id())) {
+                        // there's no need to look below the units which have already been completed ...
+                        nextLevel.add(unit);
+                    } else {
+                        process(unit, nextLevel::add);
+                    }
+                }
+                units = nextLevel;
+                ++depth;
+            }
+            return units;
+        }
+
+        /**
+         * Index the nodes of the supplied unit, and hand the batches of their children to the supplied consumer.
+         *
+         * @param unit the unit; may not be null
+         * @param children the consumer of the batches of children; may not be null
+         */
+        protected void process( Unit unit,
+                                Consumer<Unit> children ) {
+            NodeCache cache = unit.cache;
+            PathCache paths = new PathCache(cache);
+            paths.put(unit.parentKey, unit.parentPath);
+            int count = 0;
+            for (NodeKey key : unit.keys) {
+                CachedNode node = cache.getNode(key);
+                if (node == null || node.isExcludedFromSearch(cache)) {
+                    continue;
+                }
+                Path path = paths.getPath(node);
+                index(unit.workspaceName, cache, node, path);
+                ++count;
+                List<NodeKey> keys = new ArrayList<>();
+                for (ChildReference childRef : node.getChildReferences(cache)) {
+                    keys.add(childRef.getKey());
+                    if (keys.size() == BATCH_SIZE) {
+                        children.accept(new Unit(unit.workspaceName, cache, key, path, keys));
+                        keys = new ArrayList<>();
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    children.accept(new Unit(unit.workspaceName, cache, key, path, keys));
+                }
+            }
+            nodeCount.addAndGet(count);
+            runningState.statistics().increment(ValueMetric.REINDEXED_COUNT, count);
+        }
+
+        private void index( String workspaceName,
+                            NodeCache cache,
+                            CachedNode node,
+                            Path path ) {
+            workspaceNames.add(workspaceName);
+            if (indexes.add(workspaceName, node.getKey(), path, node.getPrimaryType(cache), node.getMixinTypes(cache),
+                            node.getPropertiesByName(cache))) {
+                indexesUpdated = true;
+            }
+        }
+
+        /**
+         * Record that the supplied work unit (and all of the content below it) has been indexed, and write a checkpoint if the
+         * last one is old enough.
+         *
+         * @param unit the completed unit; may not be null
+         */
+        protected void completed( Unit unit ) {
+            newlyCompleted.add(unit.id());
+            if (System.nanoTime() - lastCheckpoint >= checkpointIntervalInNanos && checkpointLock.tryLock()) {
+                try {
+                    checkpoint();
+                } finally {
+                    checkpointLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Commit the indexes and record the completed work units.
+         */
+        protected void checkpoint() {
+            checkpointLock.lock();
+            try {
+                // the content of the completed units must be committed to the indexes before the units are recorded ...
+                for (String id = newlyCompleted.poll(); id != null; id = newlyCompleted.poll()) {
+                    completed.add(id);
+                }
+                for (String workspaceName : workspaceNames) {
+                    indexes.commit(workspaceName);
+                }
+                writeCheckpoint(checkpoint.startKey, new Checkpoint(checkpoint.startKey, checkpoint.workspaceName,
+                                                                    checkpoint.includeSystemContent, completed));
+                lastCheckpoint = System.nanoTime();
+            } catch (RuntimeException e) {
+                // the reindexing can continue without the checkpoint ...
+                logger.debug(e, "Unable to record the progress of reindexing '{0}' in workspace '{1}' of repository '{2}'",
+                             checkpoint.startKey, checkpoint.workspaceName, runningState.name());
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The task which reindexes all of the work units, each in its own subtask.
+     */
+    private static final class UnitsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Run run;
+        private final transient List<Unit> units;
+
+        protected UnitsTask( Run run,
+                             List<Unit> units ) {
+            this.run = run;
+            this.units = units;
+        }
+
+        @Override
+        protected void compute() {
+            List<SubtreeTask> tasks = new ArrayList<>(units.size());
+            for (Unit unit : units) {
+                if (!run.completed.contains(unit.id())) {
+                    tasks.add(new SubtreeTask(run, unit, true));
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * The task which reindexes a batch of sibling nodes, and forks a task for each batch of their children.
+     */
+    private static final class SubtreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Run run;
+        private final transient Unit unit;
+        private final boolean workUnit;
+
+        protected SubtreeTask( Run run,
+                               Unit unit,
+                               boolean workUnit ) {
+            this.run = run;
+            this.unit = unit;
+            this.workUnit = workUnit;
+        }
+
+        @Override
+        protected void compute() {
+            if (run.stopped) {
+                return;
+            }
+            List<SubtreeTask> children = new ArrayList<>();
+            run.process(unit, batch -> children.add(new SubtreeTask(run, batch, false)));
+            invokeAll(children);
+            if (workUnit && !run.stopped) {
+                run.completed(unit);
+            }
+        }
+    }
+}
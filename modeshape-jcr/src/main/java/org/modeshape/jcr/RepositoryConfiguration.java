@@ -62,8 +62,10 @@ import org.modeshape.jcr.value.PropertyType;
 import org.modeshape.jcr.value.binary.BinaryStore;
 import org.modeshape.jcr.value.binary.BinaryStoreException;
 import org.modeshape.jcr.value.binary.CompositeBinaryStore;
+import org.modeshape.jcr.value.binary.CompressionCodec;
 import org.modeshape.jcr.value.binary.DatabaseBinaryStore;
 import org.modeshape.jcr.value.binary.FileSystemBinaryStore;
+import org.modeshape.jcr.value.binary.TieredStoragePolicy;
 import org.modeshape.jcr.value.binary.TransientBinaryStore;
 import org.modeshape.schematic.SchemaLibrary;
 import org.modeshape.schematic.SchemaLibrary.Problem;
@@ -241,6 +243,11 @@ public class RepositoryConfiguration {
          */
         public static final String LOCK_TIMEOUT_MILLIS = "lockTimeoutMillis";
 
+        /**
+         * The number of stripes of the table of locks acquired by saves for the nodes they change.
+         */
+        public static final String LOCK_STRIPES = "lockStripes";
+
         /**
          * The name of the field which contains the fully qualified name of the transaction manager lookup class to be used.
          */
@@ -284,6 +291,20 @@ public class RepositoryConfiguration {
          */
         public static final String MINIMUM_STRING_SIZE = "minimumStringSize";
 
+        /**
+         * The name for the optional field under "binaryStorage" specifying the average size (in bytes) of the content-defined
+         * chunks into which a file system binary store splits large binary values, so that binary values sharing large blocks of
+         * content store those blocks only once. The default value is '0', meaning binary values are not split.
+         */
+        public static final String DEDUP_CHUNK_SIZE_IN_BYTES = "dedupChunkSizeInBytes";
+
+        /**
+         * The name for the optional field under "binaryStorage" specifying the codecs with which a file system binary store
+         * compresses binary values, keyed by MIME type. Each MIME type can be a specific type, all of the subtypes of a type
+         * (e.g., "text/*"), or "*" for all other binary values. By default binary values are not compressed.
+         */
+        public static final String COMPRESSION = "compression";
+
         /**
          * The name attribute which can be set on a binary store. It's only used when a {@link CompositeBinaryStore} is
          * configured.
@@ -342,6 +363,17 @@ public class RepositoryConfiguration {
          * The name for the field whose value is a document containing binary storage information.
          */
         public static final String COMPOSITE_STORE_NAMED_BINARY_STORES = "namedStores";
+
+        /**
+         * The name for the optional field under a composite "binaryStorage" whose value is a document describing how values are
+         * moved between a hot and a cold named store.
+         */
+        public static final String COMPOSITE_STORE_TIERING = "tiering";
+        public static final String TIERING_HOT_STORE = "hotStore";
+        public static final String TIERING_COLD_STORE = "coldStore";
+        public static final String TIERING_COLD_AFTER_IN_HOURS = "coldAfterInHours";
+        public static final String TIERING_PROMOTE_AFTER_READS = "promoteAfterReads";
+        public static final String TIERING_MAX_BYTES_PER_SECOND = "maxBytesPerSecond";
         
         public static final String MIMETYPE_DETECTION = "mimeTypeDetection";
 
@@ -427,6 +459,21 @@ public class RepositoryConfiguration {
         public static final String REINDEXING = "reindexing";
         public static final String REINDEXING_ASYNC = "async";
         public static final String REINDEXING_MODE = "mode";
+        public static final String REINDEXING_THREADS = "threads";
+        public static final String REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS = "checkpointIntervalInSeconds";
+
+        /**
+         * The name for the optional field which configures how queries are executed.
+         */
+        public static final String QUERY_EXECUTION = "queryExecution";
+        public static final String QUERY_PARALLEL = "parallel";
+        public static final String QUERY_MAX_QUEUED_BATCHES = "maxQueuedBatches";
+        public static final String QUERY_JOIN_MEMORY_IN_MB = "joinMemoryInMb";
+        public static final String QUERY_JOIN_PARTITIONS = "joinPartitions";
+        public static final String QUERY_SORT_MEMORY_IN_MB = "sortMemoryInMb";
+        public static final String QUERY_COST_BASED_JOINS = "costBasedJoins";
+        public static final String QUERY_EXHAUSTIVE_JOIN_LIMIT = "exhaustiveJoinLimit";
+        public static final String QUERY_PLAN_CACHE_SIZE = "planCacheSize";
         public static final String ADDRESS = "address";
         public static final String DATABASE = "database";
         public static final String HOST = "host";
@@ -438,10 +485,25 @@ public class RepositoryConfiguration {
         public static final String GARBAGE_COLLECTION = "garbageCollection";
         public static final String INITIAL_TIME = "initialTime";
         public static final String INTERVAL_IN_HOURS = "intervalInHours";
+        public static final String MAX_BINARY_REMOVALS_PER_SECOND = "maxBinaryRemovalsPerSecond";
 
         public static final String DOCUMENT_OPTIMIZATION = "documentOptimization";
         public static final String OPTIMIZATION_CHILD_COUNT_TARGET = "childCountTarget";
         public static final String OPTIMIZATION_CHILD_COUNT_TOLERANCE = "childCountTolerance";
+
+        /**
+         * The name for the optional field (under "storage") which enables the off-heap cache of persisted documents.
+         */
+        public static final String DOCUMENT_CACHE = "documentCache";
+        public static final String DOCUMENT_CACHE_SIZE_IN_MB = "maxSizeInMb";
+        public static final String DOCUMENT_CACHE_BLOCK_SIZE = "blockSizeInBytes";
+
+        /**
+         * The name for the optional field (under "storage") which enables committing the saves of concurrent sessions together.
+         */
+        public static final String GROUP_COMMIT = "groupCommit";
+        public static final String GROUP_COMMIT_MAX_BATCH_SIZE = "maxBatchSize";
+        public static final String GROUP_COMMIT_WINDOW_IN_MILLIS = "windowInMillis";
         
         public static final String HOST_ADDRESSES = "hostAddresses";
 
@@ -454,6 +516,18 @@ public class RepositoryConfiguration {
          * The name of the field which allows the configuration of the maximum number of threads that can be spawned by a pool
          */
         public static final String MAX_POOL_SIZE = "maxPoolSize";
+
+        /**
+         * The name of the field (under "textExtraction") specifying the maximum number of binary values that may be waiting for
+         * their text to be extracted.
+         */
+        public static final String MAX_QUEUE_SIZE = "maxQueueSize";
+
+        /**
+         * The name of the field (under "textExtraction" and under each extractor) specifying the number of seconds after which
+         * the extraction of the text of one binary value is interrupted.
+         */
+        public static final String TIMEOUT_IN_SECONDS = "timeoutInSeconds";
         
         /**
          * The name of the journaling schema field.
@@ -493,6 +567,36 @@ public class RepositoryConfiguration {
          */
         public static final long MINIMUM_BINARY_SIZE_IN_BYTES = 4 * 1024L;
 
+        /**
+         * The default value of the {@link FieldName#DEDUP_CHUNK_SIZE_IN_BYTES} field is '{@value} ' (no chunking).
+         */
+        public static final int DEDUP_CHUNK_SIZE_IN_BYTES = 0;
+
+        /**
+         * The default value of the {@link FieldName#TIERING_HOT_STORE} field is '{@value} ', which is the default named store.
+         */
+        public static final String TIERING_HOT_STORE = "default";
+
+        /**
+         * The default value of the {@link FieldName#TIERING_COLD_AFTER_IN_HOURS} field is '{@value} ' (one week).
+         */
+        public static final int TIERING_COLD_AFTER_IN_HOURS = 7 * 24;
+
+        /**
+         * The default value of the {@link FieldName#TIERING_PROMOTE_AFTER_READS} field is '{@value} '.
+         */
+        public static final int TIERING_PROMOTE_AFTER_READS = 3;
+
+        /**
+         * The default value of the {@link FieldName#INTERVAL_IN_HOURS} field of the tiering document is '{@value} '.
+         */
+        public static final int TIERING_INTERVAL_IN_HOURS = 1;
+
+        /**
+         * The default value of the {@link FieldName#TIERING_MAX_BYTES_PER_SECOND} field is '{@value} ' (16 megabytes).
+         */
+        public static final long TIERING_MAX_BYTES_PER_SECOND = 16 * 1024 * 1024L;
+
         /**
          * The default value of the {@link FieldName#ALLOW_CREATION} field is '{@value} '.
          */
@@ -508,6 +612,11 @@ public class RepositoryConfiguration {
          */
         public static final long LOCK_TIMEOUT = 10000;
 
+        /**
+         * The default value of the {@link FieldName#LOCK_STRIPES} field is '{@value}'.
+         */
+        public static final int LOCK_STRIPES = 4096;
+
         /**
          * The default value of the {@link FieldName#TRANSACTION_MANAGER_LOOKUP} field is '{@value} '.
          */
@@ -542,16 +651,24 @@ public class RepositoryConfiguration {
 
         public static final String SEQUENCING_POOL = "modeshape-sequencer";
         public static final String TEXT_EXTRACTION_POOL = "modeshape-text-extractor";
+        public static final String QUERY_POOL = "modeshape-query";
         public static final String GARBAGE_COLLECTION_POOL = "modeshape-gc";
         public static final String OPTIMIZATION_POOL = "modeshape-opt";
         public static final String JOURNALING_POOL = "modeshape-journaling-gc";
 
         public static final String GARBAGE_COLLECTION_INITIAL_TIME = "00:00";
         public static final int GARBAGE_COLLECTION_INTERVAL_IN_HOURS = 24;
+        public static final int GARBAGE_COLLECTION_MAX_BINARY_REMOVALS_PER_SECOND = 0;
 
         public static final String OPTIMIZATION_INITIAL_TIME = "02:00";
         public static final int OPTIMIZATION_INTERVAL_IN_HOURS = 24;
 
+        public static final int DOCUMENT_CACHE_SIZE_IN_MB = 64;
+        public static final int DOCUMENT_CACHE_BLOCK_SIZE = 512;
+
+        public static final int GROUP_COMMIT_MAX_BATCH_SIZE = 32;
+        public static final long GROUP_COMMIT_WINDOW_IN_MILLIS = 1L;
+
         public static final String JOURNAL_LOCATION = "modeshape/journal";
         // by default journal entries are kept indefinitely
         public static final int MAX_DAYS_TO_KEEP_RECORDS = -1;
@@ -562,8 +679,21 @@ public class RepositoryConfiguration {
         public static final boolean SYNCHRONOUS = true;
         public static final String WORKSPACES = "*";
 
+        public static final int REINDEXING_THREADS = Runtime.getRuntime().availableProcessors();
+        public static final int REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS = 30;
+
         public static final int SEQUENCING_MAX_POOL_SIZE = 10;
         public static final int TEXT_EXTRACTION_MAX_POOL_SIZE = 5;
+        public static final int TEXT_EXTRACTION_MAX_QUEUE_SIZE = 1000;
+        public static final long TEXT_EXTRACTION_TIMEOUT_IN_SECONDS = 300;
+        public static final boolean QUERY_PARALLEL = false;
+        public static final int QUERY_MAX_QUEUED_BATCHES = 4;
+        public static final int QUERY_JOIN_MEMORY_IN_MB = 64;
+        public static final int QUERY_JOIN_PARTITIONS = 16;
+        public static final int QUERY_SORT_MEMORY_IN_MB = 64;
+        public static final boolean QUERY_COST_BASED_JOINS = false;
+        public static final int QUERY_EXHAUSTIVE_JOIN_LIMIT = 6;
+        public static final int QUERY_PLAN_CACHE_SIZE = 0;
     }
 
     public static final class FieldValue {
@@ -899,6 +1029,16 @@ public class RepositoryConfiguration {
     public long getLockTimeoutMillis() {
         return doc.getLong(FieldName.LOCK_TIMEOUT_MILLIS, Default.LOCK_TIMEOUT);
     }
+
+    /**
+     * Get the number of stripes in the table of locks which saves acquire for the nodes they change. Each node is mapped onto one
+     * of the stripes, so more stripes make it less likely that saves changing different nodes wait for each other.
+     *
+     * @return the number of stripes; always positive
+     */
+    public int getLockStripes() {
+        return doc.getInteger(FieldName.LOCK_STRIPES, Default.LOCK_STRIPES);
+    }
     
     public TransactionManagerLookup getTransactionManagerLookup() {
         Document storage = doc.getDocument(FieldName.STORAGE);
@@ -1112,6 +1252,56 @@ public class RepositoryConfiguration {
             return binaryStorage.getLong(FieldName.MINIMUM_STRING_SIZE, getMinimumBinarySizeInBytes());
         }
 
+        /**
+         * Get the average size of the chunks into which a file system binary store splits large binary values.
+         *
+         * @return the average chunk size in bytes, or 0 if binary values are not split into chunks
+         */
+        public int getDedupChunkSizeInBytes() {
+            return binaryStorage.getInteger(FieldName.DEDUP_CHUNK_SIZE_IN_BYTES, Default.DEDUP_CHUNK_SIZE_IN_BYTES);
+        }
+
+        /**
+         * Get the codecs with which a file system binary store compresses binary values.
+         *
+         * @return the codecs keyed by MIME type; never null but empty if binary values are not compressed
+         */
+        public Map<String, CompressionCodec> getCompressionCodecs() {
+            Map<String, CompressionCodec> codecs = new HashMap<String, CompressionCodec>();
+            Document compression = binaryStorage.getDocument(FieldName.COMPRESSION);
+            if (compression != null) {
+                for (Field field : compression.fields()) {
+                    CompressionCodec codec = CompressionCodec.fromLiteral(field.getValueAsString());
+                    if (codec != null) {
+                        codecs.put(field.getName(), codec);
+                    }
+                }
+            }
+            return codecs;
+        }
+
+        /**
+         * Get the policy with which a composite binary store moves values between its hot and cold named stores.
+         *
+         * @return the tiered storage policy, or null if values are not moved between the named stores
+         */
+        public TieredStoragePolicy getTieredStoragePolicy() {
+            Document tiering = binaryStorage.getDocument(FieldName.COMPOSITE_STORE_TIERING);
+            if (tiering == null) {
+                return null;
+            }
+            return new TieredStoragePolicy(tiering.getString(FieldName.TIERING_HOT_STORE, Default.TIERING_HOT_STORE),
+                                           tiering.getString(FieldName.TIERING_COLD_STORE),
+                                           tiering.getInteger(FieldName.TIERING_COLD_AFTER_IN_HOURS,
+                                                              Default.TIERING_COLD_AFTER_IN_HOURS),
+                                           tiering.getInteger(FieldName.TIERING_PROMOTE_AFTER_READS,
+                                                              Default.TIERING_PROMOTE_AFTER_READS),
+                                           tiering.getInteger(FieldName.INTERVAL_IN_HOURS, Default.TIERING_INTERVAL_IN_HOURS),
+                                           TimeUnit.HOURS,
+                                           tiering.getLong(FieldName.TIERING_MAX_BYTES_PER_SECOND,
+                                                           Default.TIERING_MAX_BYTES_PER_SECOND));
+        }
+
         @SuppressWarnings("unchecked")
         public BinaryStore getBinaryStore() throws Exception {
             String type = getType();
@@ -1124,7 +1314,10 @@ public class RepositoryConfiguration {
                 assert directory != null;
                 File dir = new File(directory);
                 File trashDir = trash != null ? new File(trash) : null;
-                store = FileSystemBinaryStore.create(dir, trashDir);
+                FileSystemBinaryStore fileStore = FileSystemBinaryStore.create(dir, trashDir);
+                fileStore.setDedupChunkSizeInBytes(getDedupChunkSizeInBytes());
+                fileStore.setCompressionCodecs(getCompressionCodecs());
+                store = fileStore;
             } else if (type.equalsIgnoreCase(FieldValue.BINARY_STORAGE_TYPE_DATABASE)) {
                 String driverClass = binaryStorage.getString(FieldName.JDBC_DRIVER_CLASS);
                 String connectionURL = binaryStorage.getString(FieldName.CONNECTION_URL);
@@ -1154,7 +1347,12 @@ public class RepositoryConfiguration {
                     throw new BinaryStoreException(JcrI18n.missingVariableValue.text("namedStores"));
                 }
 
-                store = new CompositeBinaryStore(binaryStores);
+                CompositeBinaryStore compositeStore = new CompositeBinaryStore(binaryStores);
+                TieredStoragePolicy tieringPolicy = getTieredStoragePolicy();
+                if (tieringPolicy != null) {
+                    compositeStore.setTieredStoragePolicy(tieringPolicy);
+                }
+                store = compositeStore;
 
             } else if (type.equalsIgnoreCase(FieldValue.BINARY_STORAGE_TYPE_CUSTOM)) {
                 classname = binaryStorage.getString(FieldName.CLASSNAME);
@@ -1655,7 +1853,7 @@ public class RepositoryConfiguration {
 
                 @Override
                 public Object getIndexProperty( String propertyName ) {
-                    return doc.get(name);
+                    return doc.get(propertyName);
                 }
 
                 @Override
@@ -1767,6 +1965,168 @@ public class RepositoryConfiguration {
             String reindexingMode = reindexing == null ? defaultMode : reindexing.getString(FieldName.REINDEXING_MODE, defaultMode);
             return ReindexingMode.valueOf(reindexingMode.toUpperCase());
         }
+
+        /**
+         * Get the number of threads which crawl and index the content when a whole workspace (or subtree) is reindexed.
+         *
+         * @return the number of threads; always positive
+         */
+        public int getThreads() {
+            return reindexing == null ? Default.REINDEXING_THREADS : reindexing.getInteger(FieldName.REINDEXING_THREADS,
+                                                                                         Default.REINDEXING_THREADS);
+        }
+
+        /**
+         * Get the minimum number of seconds between the checkpoints which record the progress of a full reindexing, so that
+         * an interrupted reindexing can be resumed rather than started over.
+         *
+         * @return the checkpoint interval in seconds; never negative
+         */
+        public int getCheckpointIntervalInSeconds() {
+            return reindexing == null ? Default.REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS : reindexing.getInteger(
+                    FieldName.REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS, Default.REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS);
+        }
+    }
+
+    /**
+     * Get the configuration for the execution of queries in this repository.
+     *
+     * @return the query execution configuration; never null
+     */
+    public QueryExecution getQueryExecution() {
+        return new QueryExecution(doc.getDocument(FieldName.QUERY_EXECUTION));
+    }
+
+    /**
+     * The query execution configuration information.
+     */
+    @Immutable
+    public class QueryExecution {
+        private final Document queryExecution;
+
+        protected QueryExecution( Document queryExecution ) {
+            this.queryExecution = queryExecution != null ? queryExecution : EMPTY;
+        }
+
+        /**
+         * Get whether the independent branches of a query should by default be evaluated concurrently. Each query may override
+         * this.
+         *
+         * @return {@code true} if the branches of queries are evaluated concurrently by default, {@code false} otherwise
+         */
+        public boolean isParallel() {
+            return queryExecution.getBoolean(FieldName.QUERY_PARALLEL, Default.QUERY_PARALLEL);
+        }
+
+        /**
+         * Get the name of the thread pool that should be used to evaluate the branches of queries concurrently.
+         *
+         * @return the thread pool name; never null
+         */
+        public String getThreadPoolName() {
+            return queryExecution.getString(FieldName.THREAD_POOL, Default.QUERY_POOL);
+        }
+
+        /**
+         * Get the maximum number of threads that can be used to evaluate the branches of queries concurrently. When all of them
+         * are busy, the branches are evaluated serially.
+         *
+         * @return the max number of threads; always positive
+         */
+        public int getMaxPoolSize() {
+            return queryExecution.getInteger(FieldName.MAX_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Get the maximum number of batches of rows that a concurrently evaluated branch may produce before they are consumed.
+         *
+         * @return the max number of queued batches; always positive
+         */
+        public int getMaxQueuedBatches() {
+            return queryExecution.getInteger(FieldName.QUERY_MAX_QUEUED_BATCHES, Default.QUERY_MAX_QUEUED_BATCHES);
+        }
+
+        /**
+         * Get the amount of memory that a single hash join may use for the rows of its build (right) side. When a join needs
+         * more than this, both of its sides are partitioned into temporary files and the join is performed one partition at a
+         * time.
+         *
+         * @return the number of megabytes; a value that is not positive means that joins never spill to disk
+         */
+        public int getJoinMemoryInMb() {
+            return queryExecution.getInteger(FieldName.QUERY_JOIN_MEMORY_IN_MB, Default.QUERY_JOIN_MEMORY_IN_MB);
+        }
+
+        /**
+         * Get the amount of memory that a single hash join may use for the rows of its build (right) side.
+         *
+         * @return the number of bytes; {@link Long#MAX_VALUE} if joins never spill to disk
+         * @see #getJoinMemoryInMb()
+         */
+        public long getJoinMemoryInBytes() {
+            int mb = getJoinMemoryInMb();
+            return mb > 0 ? mb * 1024L * 1024L : Long.MAX_VALUE;
+        }
+
+        /**
+         * Get the number of partitions into which the sides of a hash join are split when the join does not fit in memory.
+         *
+         * @return the number of partitions; always positive
+         */
+        public int getJoinPartitions() {
+            return queryExecution.getInteger(FieldName.QUERY_JOIN_PARTITIONS, Default.QUERY_JOIN_PARTITIONS);
+        }
+
+        /**
+         * Get the amount of memory that a single sort may use for its rows. When a sort needs more than this, the sorted rows are
+         * written to temporary files in several runs, which are then merged.
+         *
+         * @return the number of megabytes; a value that is not positive means that sorts never spill to disk
+         */
+        public int getSortMemoryInMb() {
+            return queryExecution.getInteger(FieldName.QUERY_SORT_MEMORY_IN_MB, Default.QUERY_SORT_MEMORY_IN_MB);
+        }
+
+        /**
+         * Get the amount of memory that a single sort may use for its rows.
+         *
+         * @return the number of bytes; {@link Long#MAX_VALUE} if sorts never spill to disk
+         * @see #getSortMemoryInMb()
+         */
+        public long getSortMemoryInBytes() {
+            int mb = getSortMemoryInMb();
+            return mb > 0 ? mb * 1024L * 1024L : Long.MAX_VALUE;
+        }
+
+        /**
+         * Get whether the order and algorithm of inner joins should be chosen from the estimated cardinalities of their sources,
+         * rather than kept as they were written in the query.
+         *
+         * @return {@code true} if joins are ordered by their estimated costs, {@code false} otherwise
+         */
+        public boolean isCostBasedJoins() {
+            return queryExecution.getBoolean(FieldName.QUERY_COST_BASED_JOINS, Default.QUERY_COST_BASED_JOINS);
+        }
+
+        /**
+         * Get the largest number of joined sources for which all of the possible join orders are compared when
+         * {@link #isCostBasedJoins() joins are ordered by cost}. Larger joins are ordered greedily.
+         *
+         * @return the number of sources; never negative
+         */
+        public int getExhaustiveJoinLimit() {
+            return queryExecution.getInteger(FieldName.QUERY_EXHAUSTIVE_JOIN_LIMIT, Default.QUERY_EXHAUSTIVE_JOIN_LIMIT);
+        }
+
+        /**
+         * Get the maximum number of parsed and optimized queries that are kept so that executing the same query again does not
+         * have to parse, validate, plan and optimize it again.
+         *
+         * @return the number of queries; 0 if queries are not cached
+         */
+        public int getPlanCacheSize() {
+            return Math.max(0, queryExecution.getInteger(FieldName.QUERY_PLAN_CACHE_SIZE, Default.QUERY_PLAN_CACHE_SIZE));
+        }
     }
 
     /**
@@ -1804,6 +2164,26 @@ public class RepositoryConfiguration {
             return textExtracting.getInteger(FieldName.MAX_POOL_SIZE, Default.TEXT_EXTRACTION_MAX_POOL_SIZE);
         }
 
+        /**
+         * Get the maximum number of binary values that may be waiting for their text to be extracted. Once this many values are
+         * waiting, the text of the next values is extracted by the threads that need it.
+         *
+         * @return the max number of waiting values
+         */
+        public int getMaxQueueSize() {
+            return textExtracting.getInteger(FieldName.MAX_QUEUE_SIZE, Default.TEXT_EXTRACTION_MAX_QUEUE_SIZE);
+        }
+
+        /**
+         * Get the number of seconds after which the extraction of the text of one binary value is interrupted, for the extractors
+         * that do not specify their own timeout.
+         *
+         * @return the timeout in seconds, or 0 if extractions are never interrupted
+         */
+        public long getTimeoutInSeconds() {
+            return textExtracting.getLong(FieldName.TIMEOUT_IN_SECONDS, Default.TEXT_EXTRACTION_TIMEOUT_IN_SECONDS);
+        }
+
 
         /**
          * Get the ordered list of text extractors. All text extractors are configured with this list.
@@ -1890,6 +2270,16 @@ public class RepositoryConfiguration {
         public long getIntervalInMillis() {
             return TimeUnit.MILLISECONDS.convert(getIntervalInHours(), TimeUnit.HOURS);
         }
+
+        /**
+         * Get the largest number of unused binary values that the garbage collection process should remove per second.
+         *
+         * @return the maximum number of removals per second, or 0 if the removals are not throttled
+         */
+        public int getMaxBinaryRemovalsPerSecond() {
+            return gc.getInteger(FieldName.MAX_BINARY_REMOVALS_PER_SECOND,
+                                 Default.GARBAGE_COLLECTION_MAX_BINARY_REMOVALS_PER_SECOND);
+        }
     }
 
     /**
@@ -1973,6 +2363,119 @@ public class RepositoryConfiguration {
         }
     }
 
+    /**
+     * Get the configuration for the off-heap document cache of this repository.
+     *
+     * @return the document cache configuration; never null
+     */
+    public DocumentCache getDocumentCache() {
+        Document storage = doc.getDocument(FieldName.STORAGE);
+        if (storage == null) {
+            storage = Schematic.newDocument();
+        }
+        return new DocumentCache(storage.getDocument(FieldName.DOCUMENT_CACHE));
+    }
+
+    @Immutable
+    public class DocumentCache {
+        private final Document cache;
+
+        protected DocumentCache( Document cache ) {
+            this.cache = cache;
+        }
+
+        /**
+         * Determine if the document cache is enabled. The cache is DISABLED by default and is enabled by defining the "
+         * {@value FieldName#DOCUMENT_CACHE}" field, even if that is empty.
+         *
+         * @return true if enabled, or false otherwise
+         */
+        public boolean isEnabled() {
+            return cache != null && getMaxSizeInBytes() > 0;
+        }
+
+        /**
+         * Get the maximum amount of (off-heap) memory which can be used by the cache, in megabytes.
+         *
+         * @return the maximum size
+         */
+        public int getMaxSizeInMb() {
+            return cache != null ? cache.getInteger(FieldName.DOCUMENT_CACHE_SIZE_IN_MB, Default.DOCUMENT_CACHE_SIZE_IN_MB) : 0;
+        }
+
+        /**
+         * Get the maximum amount of (off-heap) memory which can be used by the cache, in bytes.
+         *
+         * @return the maximum size
+         */
+        public long getMaxSizeInBytes() {
+            return getMaxSizeInMb() * 1024L * 1024L;
+        }
+
+        /**
+         * Get the size of the blocks in which the cache memory is divided. Each document uses a whole number of blocks.
+         *
+         * @return the block size in bytes
+         */
+        public int getBlockSizeInBytes() {
+            return cache != null ? cache.getInteger(FieldName.DOCUMENT_CACHE_BLOCK_SIZE, Default.DOCUMENT_CACHE_BLOCK_SIZE) : Default.DOCUMENT_CACHE_BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * Get the configuration for committing the saves of concurrent sessions together.
+     *
+     * @return the group commit configuration; never null
+     */
+    public GroupCommit getGroupCommit() {
+        Document storage = doc.getDocument(FieldName.STORAGE);
+        if (storage == null) {
+            storage = Schematic.newDocument();
+        }
+        return new GroupCommit(storage.getDocument(FieldName.GROUP_COMMIT));
+    }
+
+    @Immutable
+    public class GroupCommit {
+        private final Document groupCommit;
+
+        protected GroupCommit( Document groupCommit ) {
+            this.groupCommit = groupCommit;
+        }
+
+        /**
+         * Determine if group commits are enabled. They are DISABLED by default and are enabled by defining the "
+         * {@value FieldName#GROUP_COMMIT}" field, even if that is empty.
+         *
+         * @return true if enabled, or false otherwise
+         */
+        public boolean isEnabled() {
+            return groupCommit != null;
+        }
+
+        /**
+         * Get the maximum number of saves which are committed in a single transaction. Larger batches improve the throughput of
+         * many concurrent saves.
+         *
+         * @return the maximum batch size
+         */
+        public int getMaxBatchSize() {
+            return groupCommit != null ? groupCommit.getInteger(FieldName.GROUP_COMMIT_MAX_BATCH_SIZE,
+                                                                Default.GROUP_COMMIT_MAX_BATCH_SIZE) : Default.GROUP_COMMIT_MAX_BATCH_SIZE;
+        }
+
+        /**
+         * Get the maximum amount of time a batch waits for other saves to join it before being committed. Longer windows
+         * produce larger batches, at the cost of a higher latency for each save.
+         *
+         * @return the window in milliseconds
+         */
+        public long getWindowInMillis() {
+            return groupCommit != null ? groupCommit.getLong(FieldName.GROUP_COMMIT_WINDOW_IN_MILLIS,
+                                                             Default.GROUP_COMMIT_WINDOW_IN_MILLIS) : Default.GROUP_COMMIT_WINDOW_IN_MILLIS;
+        }
+    }
+
     /**
      * The security-related configuration information.
      */
@@ -15,6 +15,7 @@
  */
 package org.modeshape.jcr;
 
+import org.modeshape.jcr.cache.document.GroupCommitter;
 import org.modeshape.jcr.locking.LockingService;
 import org.modeshape.jcr.txn.Transactions;
 
@@ -51,4 +52,11 @@ public interface RepositoryEnvironment {
      * @return a {@link LockingService} instance, never {@code null}
      */
     LockingService lockingService();
+
+    /**
+     * Returns the component which commits the saves of concurrent sessions together, if group commits are enabled.
+     *
+     * @return a {@link GroupCommitter} instance, or {@code null} if each save should be committed on its own
+     */
+    GroupCommitter groupCommitter();
 }
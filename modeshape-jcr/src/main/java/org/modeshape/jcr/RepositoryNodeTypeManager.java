@@ -293,6 +293,9 @@ class RepositoryNodeTypeManager implements ChangeSetListener, NodeTypes.Supplier
 
     void signalNamespaceChanges() {
         this.schemata = null;
+        // The cached queries may have been parsed and planned with the old namespace mappings ...
+        RepositoryQueryManager queryManager = repository.queryManager();
+        if (queryManager != null && queryManager.getPlanCache() != null) queryManager.getPlanCache().invalidate();
     }
 
     /**
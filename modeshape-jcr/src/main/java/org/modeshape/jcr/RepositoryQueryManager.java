@@ -50,6 +50,7 @@ import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.PathCache;
 import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.cache.WorkspaceNotFoundException;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
 import org.modeshape.jcr.cache.document.WorkspaceCache;
@@ -62,6 +63,7 @@ import org.modeshape.jcr.query.QueryEngine;
 import org.modeshape.jcr.query.QueryEngineBuilder;
 import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.engine.IndexQueryEngine;
+import org.modeshape.jcr.query.engine.QueryPlanCache;
 import org.modeshape.jcr.query.engine.ScanningQueryEngine;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.validate.Schemata;
@@ -83,6 +85,8 @@ class RepositoryQueryManager implements ChangeSetListener {
     private final RepositoryConfiguration repoConfig;
     private final RepositoryConfiguration.Reindexing reindexingCfg;
     private final RepositoryIndexManager indexManager;
+    private final ParallelReindexer reindexer;
+    private final QueryPlanCache planCache;
     private final Lock engineInitLock = new ReentrantLock();
     @GuardedBy( "engineInitLock" )
     private volatile QueryEngine queryEngine;
@@ -99,6 +103,10 @@ class RepositoryQueryManager implements ChangeSetListener {
         this.repoConfig = config;
         this.reindexingCfg = reindexingCfg;
         this.indexManager = new RepositoryIndexManager(runningState, config);
+        this.reindexer = new ParallelReindexer(runningState, reindexingCfg.getThreads(),
+                                               reindexingCfg.getCheckpointIntervalInSeconds());
+        int planCacheSize = config.getQueryExecution().getPlanCacheSize();
+        this.planCache = planCacheSize > 0 ? new QueryPlanCache(planCacheSize, runningState.statistics()) : null;
     }
 
     synchronized void initialize() {
@@ -176,7 +184,8 @@ class RepositoryQueryManager implements ChangeSetListener {
         final QueryEngine queryEngine = queryEngine();
         final QueryContext queryContext = queryEngine.createQueryContext(context, repositoryCache, workspaceNames,
                                                                          overriddenNodeCachesByWorkspaceName, schemata,
-                                                                         indexDefns, nodeTypes, new BufferManager(context),
+                                                                         indexDefns, nodeTypes,
+                                                                         new BufferManager(context, runningState.statistics()),
                                                                          hints, variables);
         final org.modeshape.jcr.query.model.QueryCommand command = (org.modeshape.jcr.query.model.QueryCommand)query;
         return new CancellableQuery() {
@@ -230,6 +239,15 @@ class RepositoryQueryManager implements ChangeSetListener {
         return indexManager.getIndexes();
     }
 
+    /**
+     * Get the cache of the parsed queries and of their optimized plans.
+     *
+     * @return the cache, or null if the repository is not configured to cache query plans
+     */
+    QueryPlanCache getPlanCache() {
+        return planCache;
+    }
+
     /**
      * Obtain the query engine, which is created lazily and in a thread-safe manner.
      *
@@ -252,7 +270,7 @@ class RepositoryQueryManager implements ChangeSetListener {
                         logger.debug("Queries with no indexes are enabled for the '{0}' repository. Executing queries will always scan the repository contents.",
                                      repoConfig.getName());
                     }
-                    queryEngine = builder.using(repoConfig, indexManager, runningState.context()).build();
+                    queryEngine = builder.using(repoConfig, indexManager, runningState.context()).with(planCache).build();
                 }
             } finally {
                 engineInitLock.unlock();
@@ -268,6 +286,13 @@ class RepositoryQueryManager implements ChangeSetListener {
         }
         
         boolean async = reindexingCfg.isAsync();
+        if (!reindexer.interrupted().isEmpty()) {
+            // finish the full reindexing operations which were interrupted (e.g., by shutting down the repository) ...
+            scan(async, getIndexWriter(), () -> {
+                resumeInterruptedReindexing();
+                return null;
+            });
+        }
         RepositoryConfiguration.ReindexingMode mode = reindexingCfg.mode();
         switch (mode) {
             case INCREMENTAL: {
@@ -334,6 +359,34 @@ class RepositoryQueryManager implements ChangeSetListener {
         }
     }
 
+    /**
+     * Resume the full reindexing operations which did not complete, from their last checkpoints.
+     */
+    private void resumeInterruptedReindexing() {
+        IndexWriter writer = getIndexWriter();
+        RepositoryCache repoCache = runningState.repositoryCache();
+        for (ParallelReindexer.Checkpoint checkpoint : reindexer.interrupted()) {
+            String workspaceName = checkpoint.workspaceName();
+            NodeCache workspaceCache = null;
+            try {
+                workspaceCache = repoCache.getWorkspaceCache(workspaceName);
+            } catch (WorkspaceNotFoundException e) {
+                // the workspace has been removed ...
+            }
+            CachedNode node = workspaceCache != null ? workspaceCache.getNode(checkpoint.startKey()) : null;
+            if (node == null) {
+                // there's nothing left to reindex ...
+                reindexer.discard(checkpoint);
+                continue;
+            }
+            updateIndexesStatus(workspaceName, IndexManager.IndexStatus.ENABLED, IndexManager.IndexStatus.REINDEXING);
+            if (reindexer.resume(checkpoint, workspaceCache, node, writer)) {
+                commitChanges(workspaceName);
+            }
+            updateIndexesStatus(workspaceName, IndexManager.IndexStatus.REINDEXING, IndexManager.IndexStatus.ENABLED);
+        }
+    }
+
     /**
      * Reindex the repository only if there is at least one provider that required scanning and reindexing.
      *
@@ -400,6 +453,8 @@ class RepositoryQueryManager implements ChangeSetListener {
             @SuppressWarnings( "synthetic-access" )
             @Override
             public Void call() throws Exception {
+                // the progress of earlier reindexing operations no longer applies to the cleared indexes ...
+                reindexer.discardAll();
                 writer.clearAllIndexes();
                 reindexContent(true, writer);
                 return null;
@@ -620,6 +675,10 @@ class RepositoryQueryManager implements ChangeSetListener {
         if (node.isExcludedFromSearch(cache)) {
             return false;
         }
+        if (depth == Integer.MAX_VALUE) {
+            // the whole subtree is reindexed, so do it in parallel and with checkpoints ...
+            return reindexer.reindex(workspaceName, cache, node, reindexSystemContent, indexes);
+        }
         // track if at least one index was updated as a result of this reindexing....
         boolean indexesUpdated = false;
         // Get the path for the first node (we already have it, but we need to populate the cache) ...
@@ -30,6 +30,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -68,6 +69,25 @@ import org.modeshape.jcr.value.DateTimeFactory;
  * <li><b>{@link ValueMetric#SESSION_SAVES save operations}</b> - the number of Session save operations performed the window;</li>
  * <li><b>{@link ValueMetric#NODE_CHANGES changed nodes}</b> - the number of nodes that were created, updated, or deleted during
  * the window;</li>
+ * <li><b>{@link ValueMetric#REINDEXED_COUNT reindexed nodes}</b> - the number of nodes that were reindexed during the window, which
+ * is the reindexing throughput in nodes per window;</li>
+ * <li><b>{@link ValueMetric#QUERY_PLAN_CACHE_HITS query plan cache hits}</b> and <b>{@link ValueMetric#QUERY_PLAN_CACHE_MISSES
+ * misses}</b> - the number of executed queries whose plan was or was not found in the query plan cache during the window, from
+ * which the hit rate of the cache can be computed;</li>
+ * <li><b>{@link ValueMetric#UNUSED_BINARY_VALUES unused binary values}</b> - the number of binary values waiting to be removed
+ * by the garbage collector at the end of the window, and <b>{@link ValueMetric#BINARY_VALUES_REMOVED removed binary values}</b> -
+ * the number of unused binary values that were removed during the window;</li>
+ * <li><b>{@link ValueMetric#BINARY_VALUES_DEMOTED demoted}</b> and <b>{@link ValueMetric#BINARY_VALUES_PROMOTED promoted binary
+ * values}</b> - the number of binary values that a tiered composite binary store moved to its cold store and back to its hot
+ * store during the window, and <b>{@link ValueMetric#BINARY_BYTES_MIGRATED migrated binary bytes}</b> - the number of bytes those
+ * moves copied;</li>
+ * <li><b>{@link ValueMetric#BINARY_BYTES_SAVED_BY_COMPRESSION binary bytes saved by compression}</b> - the number of bytes saved
+ * by compressing the binary values stored during the window, and <b>{@link ValueMetric#BINARY_BYTES_DECOMPRESSED decompressed
+ * binary bytes}</b> and <b>{@link ValueMetric#BINARY_DECOMPRESSION_TIME binary decompression time}</b> - the number of bytes of
+ * compressed binary values read during the window and the time spent decompressing them, from which the decompression throughput
+ * can be computed;</li>
+ * <li><b>{@link ValueMetric#TEXT_EXTRACTION_QUEUE_SIZE text extraction queue size}</b> - the number of binary values waiting for
+ * their text to be extracted during the window;</li>
  * </ol>
  * and the metrics that record durations include:
  * <ol>
@@ -76,6 +96,13 @@ import org.modeshape.jcr.value.DateTimeFactory;
  * window;</li>
  * <li><b>{@link DurationMetric#SEQUENCER_EXECUTION_TIME sequencer execution time}</b> - the duration of sequencing operations
  * completed during the window;</li>
+ * <li><b>{@link DurationMetric#LOCK_WAIT_TIME lock wait time}</b> - the time saves spent waiting for the locks on the nodes they
+ * change during the window;</li>
+ * <li><b>{@link DurationMetric#BINARY_GARBAGE_COLLECTION_TIME binary garbage collection time}</b> - the duration of the passes
+ * that removed unused binary values during the window;</li>
+ * <li><b>{@link DurationMetric#TEXT_EXTRACTION_QUEUE_TIME text extraction queue time}</b> - the time binary values spent waiting
+ * for their text to be extracted, and <b>{@link DurationMetric#TEXT_EXTRACTION_TIME text extraction time}</b> - the time spent
+ * extracting it, during the window;</li>
  * </ol>
  * This class provides a way to obtain the {@link History history} for a particular metric during a specified window, where the
  * window is comprised of the {@link Statistics statistics} (the average value, minimum value, maximum value, variance, standard
@@ -113,6 +140,21 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
      */
     public static final int MAXIMUM_LONG_RUNNING_SESSION_COUNT = 15;
 
+    /**
+     * The maximum number of longest lock waits to retain.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_LOCK_WAIT_COUNT = 15;
+
+    /**
+     * The maximum number of longest binary garbage collection passes to retain.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_BINARY_GARBAGE_COLLECTION_COUNT = 15;
+
+    /**
+     * The maximum number of longest text extractions (and longest waits for text extraction) to retain.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_TEXT_EXTRACTION_COUNT = 15;
+
     /**
      * The frequency at which the metric values are rolled into statistics.
      */
@@ -135,6 +177,7 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
     private final ConcurrentMap<DurationMetric, DurationHistory> durations = new ConcurrentHashMap<DurationMetric, DurationHistory>();
     private final ConcurrentMap<ValueMetric, ValueHistory> values = new ConcurrentHashMap<ValueMetric, ValueHistory>();
     private final AtomicReference<ScheduledFuture<?>> rollupFuture = new AtomicReference<ScheduledFuture<?>>();
+    private final DurationHistogram lockWaitHistogram = new DurationHistogram();
     private final DateTimeFactory timeFactory;
 
     private final AtomicReference<DateTime> secondsStartTime = new AtomicReference<DateTime>();
@@ -165,6 +208,14 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
                                                                                    MAXIMUM_LONG_RUNNING_SEQUENCING_COUNT));
         durations.put(DurationMetric.SESSION_LIFETIME, new DurationHistory(TimeUnit.MILLISECONDS,
                                                                            MAXIMUM_LONG_RUNNING_SESSION_COUNT));
+        durations.put(DurationMetric.LOCK_WAIT_TIME, new DurationHistory(TimeUnit.MILLISECONDS,
+                                                                         MAXIMUM_LONG_RUNNING_LOCK_WAIT_COUNT));
+        durations.put(DurationMetric.BINARY_GARBAGE_COLLECTION_TIME,
+                      new DurationHistory(TimeUnit.MILLISECONDS, MAXIMUM_LONG_RUNNING_BINARY_GARBAGE_COLLECTION_COUNT));
+        durations.put(DurationMetric.TEXT_EXTRACTION_QUEUE_TIME,
+                      new DurationHistory(TimeUnit.MILLISECONDS, MAXIMUM_LONG_RUNNING_TEXT_EXTRACTION_COUNT));
+        durations.put(DurationMetric.TEXT_EXTRACTION_TIME,
+                      new DurationHistory(TimeUnit.MILLISECONDS, MAXIMUM_LONG_RUNNING_TEXT_EXTRACTION_COUNT));
 
         for (ValueMetric metric : EnumSet.allOf(ValueMetric.class)) {
             boolean resetUponRollup = !metric.isContinuous();
@@ -375,6 +426,29 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
         if (history != null) history.recordDuration(duration, timeUnit, payload);
     }
 
+    /**
+     * Record the time spent waiting to acquire a set of node locks, called by the locking service. Unlike the other durations,
+     * lock waits are also counted in a {@link #getLockWaitHistogram() histogram}, since most of them are far shorter than the
+     * millisecond resolution of the {@link DurationMetric#LOCK_WAIT_TIME statistics}.
+     * 
+     * @param waitTime the time spent waiting
+     * @param timeUnit the time unit of the wait time; may not be null
+     */
+    public void recordLockWait( long waitTime,
+                                TimeUnit timeUnit ) {
+        lockWaitHistogram.record(waitTime, timeUnit);
+        recordDuration(DurationMetric.LOCK_WAIT_TIME, waitTime, timeUnit, null);
+    }
+
+    /**
+     * Get the histogram of the times spent waiting to acquire node locks since the repository was started.
+     * 
+     * @return the histogram; never null
+     */
+    public DurationHistogram getLockWaitHistogram() {
+        return lockWaitHistogram;
+    }
+
     @Override
     public void notify( ChangeSet changeSet ) {
         // Track all changes, even those that originate in remote processes ...
@@ -606,6 +680,108 @@ public class RepositoryStatistics implements RepositoryMonitor, ChangeSetListene
         }
     }
 
+    /**
+     * A histogram of durations, whose buckets have exponentially growing widths: the first bucket counts the durations shorter
+     * than 1 microsecond, and each subsequent bucket {@code i} counts the durations of at least 2<sup>i-1</sup> but less than
+     * 2<sup>i</sup> microseconds. The last bucket also counts all longer durations.
+     */
+    @ThreadSafe
+    public static final class DurationHistogram {
+        /**
+         * The number of buckets, which is sufficient to distinguish durations up to more than half an hour.
+         */
+        public static final int BUCKET_COUNT = 32;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+        protected DurationHistogram() {
+        }
+
+        void record( long duration,
+                     TimeUnit timeUnit ) {
+            long micros = timeUnit.toMicros(duration);
+            int bucket = micros <= 0L ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+            counts.incrementAndGet(bucket);
+        }
+
+        /**
+         * Get the number of durations in each bucket.
+         * 
+         * @return a copy of the counts, with {@link #BUCKET_COUNT} elements; never null
+         */
+        public long[] getCounts() {
+            long[] result = new long[BUCKET_COUNT];
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                result[i] = counts.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * Get the total number of recorded durations.
+         * 
+         * @return the number of durations
+         */
+        public long getTotalCount() {
+            long total = 0L;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * Get the (exclusive) upper bound of the durations counted in the supplied bucket.
+         * 
+         * @param bucket the index of the bucket
+         * @param timeUnit the unit of the result; may not be null
+         * @return the upper bound, or {@link Long#MAX_VALUE} for the last bucket
+         */
+        public long getUpperBound( int bucket,
+                                   TimeUnit timeUnit ) {
+            if (bucket >= BUCKET_COUNT - 1) return Long.MAX_VALUE;
+            return timeUnit.convert(1L << bucket, TimeUnit.MICROSECONDS);
+        }
+
+        /**
+         * Get the upper bound of the bucket which contains the duration at the supplied percentile.
+         * 
+         * @param percentile the percentile, between 0 and 100
+         * @param timeUnit the unit of the result; may not be null
+         * @return the upper bound of the bucket, or 0 if no durations were recorded
+         */
+        public long getUpperBoundAtPercentile( double percentile,
+                                               TimeUnit timeUnit ) {
+            long[] counts = getCounts();
+            long total = 0L;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0L) return 0L;
+            long rank = Math.max(1L, (long)Math.ceil(total * percentile / 100.0d));
+            long seen = 0L;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                seen += counts[i];
+                if (seen >= rank) return getUpperBound(i, timeUnit);
+            }
+            return getUpperBound(BUCKET_COUNT - 1, timeUnit);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("DurationHistogram[");
+            long[] counts = getCounts();
+            boolean first = true;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                if (counts[i] == 0L) continue;
+                if (!first) sb.append(", ");
+                first = false;
+                sb.append(i < BUCKET_COUNT - 1 ? "<" + (1L << i) + "us" : ">=" + (1L << (i - 1)) + "us").append('=').append(counts[i]);
+            }
+            return sb.append(']').toString();
+        }
+    }
+
     @ThreadSafe
     protected static final class DurationHistory extends MetricHistory {
         private final Queue<DurationActivity> duration1 = new ConcurrentLinkedQueue<DurationActivity>();
@@ -16,16 +16,29 @@
 package org.modeshape.jcr;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import org.modeshape.common.annotation.Immutable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
-import org.modeshape.common.util.StringUtil;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.jcr.RepositoryConfiguration.Component;
+import org.modeshape.jcr.api.monitor.DurationMetric;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.text.TextExtractor;
 import org.modeshape.jcr.text.TextExtractorOutput;
 import org.modeshape.jcr.value.BinaryKey;
@@ -34,42 +47,136 @@ import org.modeshape.jcr.value.binary.AbstractBinaryStore;
 import org.modeshape.jcr.value.binary.InMemoryBinaryValue;
 
 /**
- * Facility for managing {@link TextExtractor} instances and submitting text extraction work
+ * Facility for managing {@link TextExtractor} instances and submitting text extraction work.
+ * <p>
+ * The text of each binary value is extracted by a bounded pool of threads, and only once: while the text of a value is being
+ * extracted, other requests for the same value wait for that extraction rather than starting another one, and afterwards the
+ * text is read from the binary store. The waiting extractions are ordered so that smaller values are extracted first, but every
+ * extraction moves ahead of the values submitted long enough after it, so large values are never starved. When the queue is
+ * full, the text is extracted in the calling thread, which slows down the callers instead of queueing without bound. Extractions
+ * that take longer than the extractor's timeout are interrupted and their result is discarded.
+ * </p>
  */
-@Immutable
+@ThreadSafe
 public final class TextExtractors {
 
     private static final Logger LOGGER = Logger.getLogger(TextExtractors.class);
 
+    /**
+     * How much later than a value of 1 byte a value of 1 kilobyte is extracted when both are waiting, in milliseconds.
+     */
+    private static final long RANK_MILLIS_PER_KILOBYTE = 1L;
+
+    /**
+     * The states of an extraction that has a timeout: the timeout interrupts the extracting thread only while the extraction is
+     * still running, and the extraction waits for that interrupt to be delivered before it clears it.
+     */
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int INTERRUPTING = 2;
+    private static final int INTERRUPTED = 3;
+
     private final List<TextExtractor> extractors;
     private final ExecutorService extractingQueue;
-    private final List<Future<?>> extractionResults;
+    private final ScheduledThreadPoolExecutor timeouts;
+    private final int maxQueueSize;
+    private final long defaultTimeoutInMillis;
+    private final RepositoryStatistics statistics;
     private final ConcurrentHashMap<BinaryKey, CountDownLatch> workerLatches;
+    private final AtomicLong sequence = new AtomicLong();
     private volatile boolean active;
 
+    /**
+     * Create the text extraction facility.
+     *
+     * @param threadPoolName the name of the threads that extract the text; may not be null
+     * @param maxPoolSize the maximum number of values whose text is extracted at the same time; must be positive
+     * @param maxQueueSize the maximum number of values waiting for their text to be extracted; must be positive
+     * @param defaultTimeoutInSeconds the number of seconds after which extractors that do not have their own
+     *        {@link TextExtractor#getTimeoutInSeconds() timeout} are interrupted, or 0 if they are never interrupted
+     * @param extractors the text extractors, in the order in which they are tried; may not be null
+     * @param statistics the statistics in which the queue size and the durations of the extractions are recorded; may be null
+     */
+    public TextExtractors( String threadPoolName,
+                           int maxPoolSize,
+                           int maxQueueSize,
+                           long defaultTimeoutInSeconds,
+                           List<TextExtractor> extractors,
+                           RepositoryStatistics statistics ) {
+        this(threadPoolName, extractingPool(threadPoolName, maxPoolSize), maxQueueSize, defaultTimeoutInSeconds, extractors,
+             statistics);
+    }
+
+    /**
+     * Create the text extraction facility that extracts the text with the supplied executor, without limiting the number of
+     * waiting values and without interrupting the extractors.
+     *
+     * @param extractingQueue the executor that extracts the text; may not be null
+     * @param extractors the text extractors, in the order in which they are tried; may not be null
+     */
     public TextExtractors( ExecutorService extractingQueue,
                            List<TextExtractor> extractors ) {
+        this(RepositoryConfiguration.Default.TEXT_EXTRACTION_POOL, extractingQueue, Integer.MAX_VALUE, 0L, extractors, null);
+    }
+
+    protected TextExtractors( JcrRepository.RunningState repository,
+                              RepositoryConfiguration.TextExtraction extracting ) {
+        this(extracting.getThreadPoolName(), extracting.getMaxPoolSize(), extracting.getMaxQueueSize(),
+             extracting.getTimeoutInSeconds(), getConfiguredExtractors(repository, extracting), repository.statistics());
+    }
+
+    private TextExtractors( String threadPoolName,
+                            ExecutorService extractingQueue,
+                            int maxQueueSize,
+                            long defaultTimeoutInSeconds,
+                            List<TextExtractor> extractors,
+                            RepositoryStatistics statistics ) {
+        CheckArg.isNotNull(extractingQueue, "extractingQueue");
+        CheckArg.isPositive(maxQueueSize, "maxQueueSize");
+        CheckArg.isNonNegative(defaultTimeoutInSeconds, "defaultTimeoutInSeconds");
+        CheckArg.isNotNull(extractors, "extractors");
         this.extractingQueue = extractingQueue;
-        this.workerLatches = new ConcurrentHashMap<>();
-        this.extractionResults = new ArrayList<>();
         this.extractors = extractors;
+        this.maxQueueSize = maxQueueSize;
+        this.defaultTimeoutInMillis = TimeUnit.SECONDS.toMillis(defaultTimeoutInSeconds);
+        this.statistics = statistics;
+        this.workerLatches = new ConcurrentHashMap<>();
+        this.timeouts = new ScheduledThreadPoolExecutor(1, daemonThreads(threadPoolName + "-timeouts"));
+        this.timeouts.setRemoveOnCancelPolicy(true);
+        this.timeouts.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        this.timeouts.allowCoreThreadTimeOut(true);
         this.active = true;
     }
 
-    protected TextExtractors( JcrRepository.RunningState repository,
-                              RepositoryConfiguration.TextExtraction extracting ) {
-        this(repository.context().getCachedTreadPool(extracting.getThreadPoolName(), extracting.getMaxPoolSize()),
-             getConfiguredExtractors(repository, extracting));
+    private static ThreadPoolExecutor extractingPool( String threadPoolName,
+                                                      int maxPoolSize ) {
+        CheckArg.isNotNull(threadPoolName, "threadPoolName");
+        CheckArg.isPositive(maxPoolSize, "maxPoolSize");
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPoolSize, maxPoolSize, 60L, TimeUnit.SECONDS,
+                                                         new PriorityBlockingQueue<Runnable>(), daemonThreads(threadPoolName));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ThreadFactory daemonThreads( String name ) {
+        final ThreadFactory delegate = new NamedThreadFactory(name);
+        return runnable -> {
+            Thread thread = delegate.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     public void shutdown() {
         this.active = false;
         this.extractors.clear();
-        this.extractingQueue.shutdown();
-        for (Future<?> extractionResult : extractionResults) {
-            extractionResult.cancel(true);
+        for (Runnable queued : this.extractingQueue.shutdownNow()) {
+            // release anyone waiting for the values whose text will now never be extracted ...
+            if (queued instanceof Worker) {
+                ((Worker)queued).cancel();
+            }
         }
-        extractionResults.clear();
+        this.timeouts.shutdownNow();
     }
 
     public boolean extractionEnabled() {
@@ -100,6 +207,15 @@ public final class TextExtractors {
         return null;
     }
 
+    /**
+     * Extract the text of the supplied binary value and store it in the binary store, unless the text of the value is already
+     * being extracted.
+     *
+     * @param store the store in which the extracted text is stored; may not be null
+     * @param binaryValue the binary value; may not be null
+     * @param context the context for the extractors; may not be null
+     * @return the latch that is released once the text has been extracted and stored, or null if text is not extracted
+     */
     public CountDownLatch extract( AbstractBinaryStore store,
                                    BinaryValue binaryValue,
                                    TextExtractor.Context context ) {
@@ -111,8 +227,26 @@ public final class TextExtractors {
             return null;
         }
         CheckArg.isNotNull(binaryValue, "binaryValue");
-        CountDownLatch latch = getWorkerLatch(binaryValue.getKey(), true);
-        extractionResults.add(extractingQueue.submit(new Worker(store, binaryValue, context, latch)));
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch existingLatch = workerLatches.putIfAbsent(binaryValue.getKey(), latch);
+        if (existingLatch != null) {
+            // The text is already being extracted ...
+            return existingLatch;
+        }
+        Worker worker = new Worker(store, binaryValue, context, latch);
+        if (getQueueSize() >= maxQueueSize) {
+            // The queue is full, so extract the text in this thread rather than letting the queue grow ...
+            worker.run();
+        } else {
+            worker.queued = true;
+            increment(ValueMetric.TEXT_EXTRACTION_QUEUE_SIZE, 1L);
+            try {
+                extractingQueue.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // we're shutting down ...
+                worker.cancel();
+            }
+        }
         return latch;
     }
 
@@ -126,6 +260,22 @@ public final class TextExtractors {
         return workerLatches.get(binaryKey);
     }
 
+    /**
+     * Get the number of binary values that are waiting for their text to be extracted.
+     *
+     * @return the number of waiting values
+     */
+    public int getQueueSize() {
+        return extractingQueue instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)extractingQueue).getQueue().size() : 0;
+    }
+
+    private void increment( ValueMetric metric,
+                            long delta ) {
+        if (statistics != null) {
+            statistics.increment(metric, delta);
+        }
+    }
+
     private static List<TextExtractor> getConfiguredExtractors( JcrRepository.RunningState repository,
                                                                 RepositoryConfiguration.TextExtraction extracting ) {
         List<Component> extractorComponents = extracting.getTextExtractors(repository.problems());
@@ -148,11 +298,15 @@ public final class TextExtractors {
      * A unit of work which extracts text from a binary value, stores that text in a store and notifies a latch that the
      * extraction operation has finished.
      */
-    protected final class Worker implements Runnable {
+    protected final class Worker implements Runnable, Comparable<Worker> {
         private final BinaryValue binaryValue;
         private final TextExtractor.Context context;
         private final AbstractBinaryStore store;
         private final CountDownLatch latch;
+        private final long submitted = System.nanoTime();
+        private final long rank;
+        private final long sequenceNumber = sequence.incrementAndGet();
+        private boolean queued;
 
         protected Worker( AbstractBinaryStore store,
                           BinaryValue binaryValue,
@@ -162,12 +316,38 @@ public final class TextExtractors {
             this.binaryValue = binaryValue;
             this.context = context;
             this.latch = latch;
+            this.rank = TimeUnit.NANOSECONDS.toMillis(submitted) + binaryValue.getSize() / 1024L * RANK_MILLIS_PER_KILOBYTE;
+        }
+
+        @Override
+        public int compareTo( Worker that ) {
+            int diff = Long.compare(this.rank, that.rank);
+            return diff != 0 ? diff : Long.compare(this.sequenceNumber, that.sequenceNumber);
+        }
+
+        protected void cancel() {
+            increment(ValueMetric.TEXT_EXTRACTION_QUEUE_SIZE, -1L);
+            finish();
+        }
+
+        private void finish() {
+            // decrement the latch regardless of success/failure to avoid blocking, as extraction is not retried
+            latch.countDown();
+            workerLatches.remove(binaryValue.getKey(), latch);
         }
 
         @SuppressWarnings( "synthetic-access" )
         @Override
         public void run() {
+            if (queued) {
+                increment(ValueMetric.TEXT_EXTRACTION_QUEUE_SIZE, -1L);
+                if (statistics != null) {
+                    statistics.recordDuration(DurationMetric.TEXT_EXTRACTION_QUEUE_TIME, System.nanoTime() - submitted,
+                                              TimeUnit.NANOSECONDS, null);
+                }
+            }
             if (!active) {
+                finish();
                 return;
             }
             try {
@@ -178,22 +358,21 @@ public final class TextExtractors {
                 }
 
                 String mimeType = binaryValue.getMimeType();
-                TextExtractorOutput output = new TextExtractorOutput();
                 // Run through the extractors and have them extract the text - the first one which accepts the mime-type will win
                 for (TextExtractor extractor : extractors) {
                     if (!extractor.supportsMimeType(mimeType)) {
                         continue;
                     }
-                    extractor.extractFrom(binaryValue, output, context);
+                    String extractedText = extractWith(extractor);
+                    if (extractedText != null) {
+                        // store the text even if it's empty, so that the text of this value is never extracted again ...
+                        store.storeExtractedText(binaryValue, extractedText);
+                    }
                     break;
                 }
-
-                String extractedText = output.getText();
-                if (!StringUtil.isBlank(extractedText)) {
-                    store.storeExtractedText(binaryValue, extractedText);
-                }
             } catch (InterruptedException ie) {
-                Thread.interrupted();
+                // this is not the interrupt of a timeout, so keep it for the code that owns this thread ...
+                Thread.currentThread().interrupt();
                 LOGGER.warn(RepositoryI18n.shutdownWhileExtractingText, binaryValue.getKey(), ie.getMessage());
             } catch (Throwable t) {
                 if (!active) {
@@ -202,9 +381,70 @@ public final class TextExtractors {
                     LOGGER.error(t, JcrI18n.errorExtractingTextFromBinary, binaryValue.getHexHash(), t.getLocalizedMessage());
                 }
             } finally {
-                // decrement the latch regardless of success/failure to avoid blocking, as extraction is not retried
-                latch.countDown();
+                finish();
             }
         }
+
+        /**
+         * Extract the text with the supplied extractor, and interrupt the extractor if it takes too long.
+         *
+         * @return the extracted text, or null if the extractor was interrupted because it took too long
+         */
+        @SuppressWarnings( "synthetic-access" )
+        private String extractWith( TextExtractor extractor ) throws Exception {
+            long timeoutInMillis = extractor.getTimeoutInSeconds() > 0 ? TimeUnit.SECONDS.toMillis(extractor.getTimeoutInSeconds()) :
+                                   defaultTimeoutInMillis;
+            final Thread extractingThread = Thread.currentThread();
+            final AtomicInteger state = new AtomicInteger(RUNNING);
+            ScheduledFuture<?> timeout = null;
+            if (timeoutInMillis > 0) {
+                timeout = timeouts.schedule(() -> {
+                    // cancelling the timeout doesn't stop it once it has started, so never interrupt a finished extraction ...
+                    if (state.compareAndSet(RUNNING, INTERRUPTING)) {
+                        extractingThread.interrupt();
+                        state.set(INTERRUPTED);
+                    }
+                }, timeoutInMillis, TimeUnit.MILLISECONDS);
+            }
+            long start = System.nanoTime();
+            TextExtractorOutput output = new TextExtractorOutput();
+            Exception failure = null;
+            try {
+                extractor.extractFrom(binaryValue, output, context);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                if (timeout != null && state.compareAndSet(RUNNING, DONE)) {
+                    timeout.cancel(false);
+                } else if (state.get() != RUNNING) {
+                    // wait until the timeout has interrupted this thread, and then clear only that interrupt, which may or may
+                    // not have been noticed by the extractor ...
+                    while (state.get() != INTERRUPTED) {
+                        Thread.yield();
+                    }
+                    Thread.interrupted();
+                }
+            }
+            if (state.get() == INTERRUPTED) {
+                LOGGER.warn(JcrI18n.textExtractionTimedOut, binaryValue.getKey(), extractorName(extractor), timeoutInMillis);
+                return null;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (statistics != null) {
+                Map<String, String> payload = new HashMap<>();
+                payload.put("extractorName", extractorName(extractor));
+                payload.put("binaryKey", binaryValue.getKey().toString());
+                statistics.recordDuration(DurationMetric.TEXT_EXTRACTION_TIME, System.nanoTime() - start, TimeUnit.NANOSECONDS,
+                                          Collections.unmodifiableMap(payload));
+            }
+            String text = output.getText();
+            return text != null ? text : "";
+        }
+    }
+
+    private static String extractorName( TextExtractor extractor ) {
+        return extractor.getName() != null ? extractor.getName() : extractor.getClass().getName();
     }
 }
@@ -0,0 +1,328 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.schematic.SchematicDb;
+import org.modeshape.schematic.SchematicEntry;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableDocument;
+
+/**
+ * A {@link SchematicDb} which keeps the serialized form of the most recently used documents in an {@link OffHeapDocumentCache},
+ * in front of another {@link SchematicDb}. This relieves the underlying database of most of the reads without adding to the
+ * pressure on the Java heap.
+ * <p>
+ * The cache only ever holds committed content: any document which is changed within a transaction is invalidated when it is
+ * changed, before the transaction is committed and again once it has completed, and the transaction always reads the
+ * documents it has changed from the underlying database. While a transaction is being committed, the documents it changed are
+ * read from the underlying database by all readers and are not cached. Additionally, all the nodes which are part of the {@link ChangeSet}s published by the repository are
+ * invalidated as well.
+ * </p>
+ */
+@ThreadSafe
+public class CachingSchematicDb implements SchematicDb, ChangeSetListener {
+
+    private static final Logger LOGGER = Logger.getLogger(CachingSchematicDb.class);
+
+    private final SchematicDb delegate;
+    private final OffHeapDocumentCache cache;
+    private final RepositoryStatistics statistics;
+    private final ThreadLocal<String> activeTxId = new ThreadLocal<>();
+    private final Map<String, Set<String>> changedKeysByTxId = new ConcurrentHashMap<>();
+    private final Set<String> committingKeys = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * Creates a new caching DB.
+     *
+     * @param delegate the {@link SchematicDb} which actually stores the documents; may not be null
+     * @param cache the cache which should be used; may not be null
+     * @param statistics the statistics where the cache metrics are recorded; may be null
+     */
+    public CachingSchematicDb( SchematicDb delegate,
+                               OffHeapDocumentCache cache,
+                               RepositoryStatistics statistics ) {
+        assert delegate != null;
+        assert cache != null;
+        this.delegate = delegate;
+        this.cache = cache;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the database whose documents are being cached.
+     *
+     * @return the underlying {@link SchematicDb}, never {@code null}
+     */
+    public SchematicDb delegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the cache used by this DB.
+     *
+     * @return the {@link OffHeapDocumentCache}, never {@code null}
+     */
+    public OffHeapDocumentCache cache() {
+        return cache;
+    }
+
+    @Override
+    public String id() {
+        return delegate.id();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            delegate.stop();
+        } finally {
+            cache.clear();
+            changedKeysByTxId.clear();
+            committingKeys.clear();
+            recordSize();
+        }
+    }
+
+    @Override
+    public List<String> keys() {
+        return delegate.keys();
+    }
+
+    @Override
+    public Document get( String key ) {
+        if (bypassCache(key)) {
+            return delegate.get(key);
+        }
+        byte[] content = cache.get(key);
+        if (content != null) {
+            record(ValueMetric.DOCUMENT_CACHE_HITS, 1);
+            return read(content);
+        }
+        record(ValueMetric.DOCUMENT_CACHE_MISSES, 1);
+        long stamp = cache.stamp(key);
+        Document document = delegate.get(key);
+        if (document != null && !committingKeys.contains(key)) {
+            store(key, document, stamp);
+        }
+        return document;
+    }
+
+    @Override
+    public List<SchematicEntry> load( Collection<String> keys ) {
+        List<SchematicEntry> results = new ArrayList<>(keys.size());
+        List<String> missingKeys = new ArrayList<>();
+        Map<String, Long> stampsByKey = new HashMap<>();
+        for (String key : keys) {
+            byte[] content = bypassCache(key) ? null : cache.get(key);
+            if (content != null) {
+                results.add(SchematicEntry.fromDocument(read(content)));
+            } else {
+                stampsByKey.put(key, cache.stamp(key));
+                missingKeys.add(key);
+            }
+        }
+        record(ValueMetric.DOCUMENT_CACHE_HITS, results.size());
+        if (missingKeys.isEmpty()) {
+            return results;
+        }
+        record(ValueMetric.DOCUMENT_CACHE_MISSES, missingKeys.size());
+        for (SchematicEntry entry : delegate.load(missingKeys)) {
+            String key = entry.id();
+            Long stamp = stampsByKey.get(key);
+            if (stamp != null && !bypassCache(key)) {
+                store(key, entry.source(), stamp);
+            }
+            results.add(entry);
+        }
+        return results;
+    }
+
+    @Override
+    public boolean containsKey( String key ) {
+        if (!bypassCache(key) && cache.contains(key)) {
+            return true;
+        }
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public void put( String key,
+                     SchematicEntry entry ) {
+        changed(key);
+        delegate.put(key, entry);
+    }
+
+    @Override
+    public EditableDocument editContent( String key,
+                                         boolean createIfMissing ) {
+        changed(key);
+        return delegate.editContent(key, createIfMissing);
+    }
+
+    @Override
+    public SchematicEntry putIfAbsent( String key,
+                                       Document content ) {
+        changed(key);
+        return delegate.putIfAbsent(key, content);
+    }
+
+    @Override
+    public boolean remove( String key ) {
+        changed(key);
+        return delegate.remove(key);
+    }
+
+    @Override
+    public void removeAll() {
+        cache.clear();
+        delegate.removeAll();
+    }
+
+    @Override
+    public boolean lockForWriting( List<String> locks ) {
+        return delegate.lockForWriting(locks);
+    }
+
+    @Override
+    public void txStarted( String id ) {
+        activeTxId.set(id);
+        delegate.txStarted(id);
+    }
+
+    @Override
+    public void txCommitted( String id ) {
+        Set<String> changedKeys = changedKeysByTxId.get(id);
+        if (changedKeys != null) {
+            // other transactions must not read (and then overwrite) the old content while the new content is being committed ...
+            committingKeys.addAll(changedKeys);
+            changedKeys.forEach(cache::invalidate);
+        }
+        try {
+            delegate.txCommitted(id);
+        } finally {
+            completeTransaction(id);
+        }
+    }
+
+    @Override
+    public void txRolledback( String id ) {
+        try {
+            delegate.txRolledback(id);
+        } finally {
+            completeTransaction(id);
+        }
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        for (NodeKey key : changeSet.changedNodes()) {
+            cache.invalidate(key.toString());
+        }
+    }
+
+    private void completeTransaction( String id ) {
+        // the changed documents were already invalidated when they were changed, but a reader which doesn't see the transient
+        // changes may have cached them again in the meantime
+        Set<String> changedKeys = changedKeysByTxId.remove(id);
+        if (changedKeys != null) {
+            changedKeys.forEach(cache::invalidate);
+            committingKeys.removeAll(changedKeys);
+            recordSize();
+        }
+        if (id.equals(activeTxId.get())) {
+            activeTxId.remove();
+        }
+    }
+
+    private void changed( String key ) {
+        cache.invalidate(key);
+        String txId = activeTxId.get();
+        if (txId != null) {
+            changedKeysByTxId.computeIfAbsent(txId, k -> Collections.newSetFromMap(new ConcurrentHashMap<>())).add(key);
+        }
+    }
+
+    private boolean bypassCache( String key ) {
+        return changedInActiveTransaction(key) || committingKeys.contains(key);
+    }
+
+    private boolean changedInActiveTransaction( String key ) {
+        String txId = activeTxId.get();
+        if (txId == null) {
+            return false;
+        }
+        Set<String> changedKeys = changedKeysByTxId.get(txId);
+        return changedKeys != null && changedKeys.contains(key);
+    }
+
+    private void store( String key,
+                        Document document,
+                        long stamp ) {
+        try {
+            int evicted = cache.put(key, Bson.write(document), stamp);
+            record(ValueMetric.DOCUMENT_CACHE_EVICTIONS, evicted);
+            recordSize();
+        } catch (IOException | RuntimeException e) {
+            // the document just won't be cached
+            LOGGER.debug(e, "Cannot cache the document with key {0}", key);
+        }
+    }
+
+    private Document read( byte[] content ) {
+        // the content is a private copy of the cached bytes, so it can back the document directly
+        return Bson.readLazily(content);
+    }
+
+    private void record( ValueMetric metric,
+                         long value ) {
+        if (statistics != null && value > 0) {
+            statistics.increment(metric, value);
+        }
+    }
+
+    private void recordSize() {
+        if (statistics != null) {
+            statistics.set(ValueMetric.DOCUMENT_CACHE_SIZE, cache.usedBytes());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingSchematicDb[" + delegate + ", " + cache + "]";
+    }
+}
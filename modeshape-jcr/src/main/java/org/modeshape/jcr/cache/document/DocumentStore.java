@@ -19,6 +19,7 @@ package org.modeshape.jcr.cache.document;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.modeshape.jcr.cache.DocumentStoreException;
 import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.value.Name;
@@ -123,6 +124,24 @@ public interface DocumentStore {
     @RequiresTransaction
     public boolean lockDocuments( String... keys );
 
+    /**
+     * Attempts to lock all of the documents with the given keys, waiting at most the supplied amount of time instead of the
+     * default lock timeout.
+     * <p>
+     * NOTE: This should only be called within an existing transaction. If this operation succeeds, all the locked keys will
+     * be released automatically when the transaction completes (regardless whether successfully or not)
+     * </p>
+     *
+     * @param time the maximum amount of time to wait for the locks
+     * @param unit the unit of the time; may not be null
+     * @param keys the set of keys identifying the documents that are to be updated via
+     *        {@link #updateDocument(String, Document, SessionNode)} or via {@link #edit(String,boolean)}.
+     * @return true if the documents were locked, or false if not all of the documents could be locked
+     * @throws IllegalStateException if no active transaction can be detected when the locking is attempted
+     */
+    @RequiresTransaction
+    public boolean lockDocuments( long time, TimeUnit unit, Collection<String> keys );
+
     /**
      * Edit the existing document at the given key. 
      * <p>
@@ -0,0 +1,268 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.txn.Transactions;
+import org.modeshape.jcr.txn.Transactions.Transaction;
+
+/**
+ * Coalesces the saves of concurrent sessions into a single transaction, so that the cost of committing to the persistent store is
+ * shared by all of them.
+ * <p>
+ * There is no background thread: the first thread which {@link #commit(Participant) submits} a save while no other batch is being
+ * processed becomes the <i>leader</i>. The leader waits for up to the configured window (or until the maximum batch size is
+ * reached) for other saves to arrive, and then persists all of the saves in the batch, in the order they arrived, within a
+ * single transaction on its own thread. Once that transaction is committed, each participant is notified in the same order so
+ * that its changes are published to the workspace, and the waiting threads are released. Saves that arrive while a batch is being
+ * processed are queued up and form the next batch, which is committed without waiting any further.
+ * </p>
+ * <p>
+ * Saves which lock some of the same documents as a save already in the batch are deferred to the next batch, so that each batch
+ * only contains non-conflicting changes. If any part of a batch fails, the whole transaction is rolled back and each of the
+ * participants is told to save its changes on its own, so that errors are always reported to the session that caused them.
+ * </p>
+ */
+@ThreadSafe
+public final class GroupCommitter {
+
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitter.class);
+
+    /**
+     * A save which can be committed as part of a group.
+     */
+    public interface Participant {
+        /**
+         * Get the keys of the documents which will be locked by this save.
+         *
+         * @return the document keys; never null
+         */
+        Set<String> keysToLock();
+
+        /**
+         * Lock and persist the changes of this save within the supplied (group) transaction. This is called on the leader's
+         * thread, while the thread which submitted the save is waiting.
+         *
+         * @param txn the active transaction; never null
+         * @throws Exception if the changes could not be persisted
+         */
+        void persist( Transaction txn ) throws Exception;
+
+        /**
+         * Signal that the group transaction has been committed and that the persisted changes should be published.
+         *
+         * @param txn the committed transaction; never null
+         */
+        void committed( Transaction txn );
+
+        /**
+         * Signal that the group transaction has been rolled back, and that this save will be retried on its own.
+         */
+        void rolledBack();
+    }
+
+    private final Transactions txns;
+    private final int maxBatchSize;
+    private final long windowInNanos;
+    @GuardedBy( "this" )
+    private final LinkedList<Request> queue = new LinkedList<>();
+    @GuardedBy( "this" )
+    private boolean leaderActive;
+
+    /**
+     * Create a new group committer.
+     *
+     * @param txns the repository's transactions; may not be null
+     * @param maxBatchSize the maximum number of saves in a single transaction; must be positive
+     * @param windowInMillis the maximum time, in milliseconds, that a batch waits for other saves to join it; may not be
+     *        negative
+     */
+    public GroupCommitter( Transactions txns,
+                           int maxBatchSize,
+                           long windowInMillis ) {
+        CheckArg.isNotNull(txns, "txns");
+        CheckArg.isPositive(maxBatchSize, "maxBatchSize");
+        CheckArg.isNonNegative(windowInMillis, "windowInMillis");
+        this.txns = txns;
+        this.maxBatchSize = maxBatchSize;
+        this.windowInNanos = TimeUnit.MILLISECONDS.toNanos(windowInMillis);
+    }
+
+    /**
+     * Commit the supplied save as part of a group, blocking until the group transaction has completed.
+     *
+     * <p>
+     * Once submitted, a save is always completed (one way or the other) before this method returns, so an interrupt only causes
+     * the leader to stop waiting for more saves to join its batch; the thread's interrupt status is restored before returning.
+     * </p>
+     *
+     * @param participant the save; may not be null
+     * @return true if the changes were committed and published, or false if the caller should save the changes on its own
+     */
+    public boolean commit( Participant participant ) {
+        Request request = new Request(participant);
+        boolean interrupted = false;
+        // only wait for other saves if this one doesn't have to wait for a batch that is already being processed ...
+        boolean awaitOthers = true;
+        synchronized (this) {
+            queue.add(request);
+            // the leader may be waiting for the batch to fill up ...
+            notifyAll();
+            while (!request.done && leaderActive) {
+                awaitOthers = false;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (request.done) {
+                if (interrupted) Thread.currentThread().interrupt();
+                return request.committed;
+            }
+            leaderActive = true;
+        }
+        try {
+            // This thread is now the leader, so keep processing batches until this request is done ...
+            while (!request.done) {
+                if (awaitOthers && !interrupted) {
+                    interrupted = !awaitBatch();
+                }
+                processBatch(nextBatch());
+                // any remaining saves were queued while this batch was processed, so they are not kept waiting any longer ...
+                awaitOthers = false;
+            }
+        } finally {
+            synchronized (this) {
+                leaderActive = false;
+                // wake up the next leader (if any) ...
+                notifyAll();
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        return request.committed;
+    }
+
+    /**
+     * Wait for up to the window for the queue to hold a full batch.
+     *
+     * @return false if the thread was interrupted while waiting, or true otherwise
+     */
+    private synchronized boolean awaitBatch() {
+        long deadline = System.nanoTime() + windowInNanos;
+        long remaining = windowInNanos;
+        while (queue.size() < maxBatchSize && remaining > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+    private List<Request> nextBatch() {
+        synchronized (this) {
+            List<Request> batch = new ArrayList<>();
+            Set<String> lockedKeys = new HashSet<>();
+            for (Iterator<Request> iter = queue.iterator(); iter.hasNext() && batch.size() < maxBatchSize;) {
+                Request request = iter.next();
+                Set<String> keys = request.participant.keysToLock();
+                if (!batch.isEmpty() && !disjoint(lockedKeys, keys)) {
+                    // this save conflicts with one already in the batch, so leave it for the next batch ...
+                    continue;
+                }
+                lockedKeys.addAll(keys);
+                batch.add(request);
+                iter.remove();
+            }
+            return batch;
+        }
+    }
+
+    private void processBatch( List<Request> batch ) {
+        boolean committed = false;
+        Transaction txn = null;
+        try {
+            txn = txns.begin();
+            for (Request request : batch) {
+                request.participant.persist(txn);
+            }
+            txn.commit();
+            committed = true;
+        } catch (Throwable t) {
+            LOGGER.debug(t, "Unable to commit a group of {0} save(s); each will be saved on its own", batch.size());
+            if (txn != null) {
+                try {
+                    txn.rollback();
+                } catch (Throwable rollbackError) {
+                    LOGGER.debug(rollbackError, "Error while rolling back transaction {0}", txn);
+                }
+            }
+        }
+        if (committed && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Committed a group of {0} save(s) in transaction {1}", batch.size(), txn.id());
+        }
+        for (Request request : batch) {
+            try {
+                if (committed) {
+                    request.participant.committed(txn);
+                } else {
+                    request.participant.rolledBack();
+                }
+            } catch (Throwable t) {
+                LOGGER.debug(t, "Error while completing a grouped save");
+            }
+        }
+        synchronized (this) {
+            for (Request request : batch) {
+                request.committed = committed;
+                request.done = true;
+            }
+            notifyAll();
+        }
+    }
+
+    private static boolean disjoint( Set<String> first,
+                                     Set<String> second ) {
+        for (String key : second) {
+            if (first.contains(key)) return false;
+        }
+        return true;
+    }
+
+    private static final class Request {
+        protected final Participant participant;
+        // both fields are guarded by the GroupCommitter's monitor ...
+        protected boolean done;
+        protected boolean committed;
+
+        protected Request( Participant participant ) {
+            this.participant = participant;
+        }
+    }
+}
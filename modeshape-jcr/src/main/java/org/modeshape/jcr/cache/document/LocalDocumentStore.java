@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import javax.transaction.NotSupportedException;
 import javax.transaction.SystemException;
@@ -154,13 +155,24 @@ public class LocalDocumentStore implements DocumentStore {
 
     @Override
     public boolean lockDocuments(String... keys) {
+        return lockDocuments(-1L, TimeUnit.MILLISECONDS, keys);
+    }
+
+    @Override
+    public boolean lockDocuments( long time, TimeUnit unit, Collection<String> keys ) {
+        CheckArg.isNonNegative(time, "time");
+        return lockDocuments(time, unit, keys.toArray(new String[keys.size()]));
+    }
+
+    private boolean lockDocuments( long time, TimeUnit unit, String... keys ) {
         Transactions.Transaction tx = repoEnv.getTransactions().currentTransaction();
         if (tx == null) {
             throw new IllegalStateException("Cannot attempt to lock documents without an existing ModeShape transaction");
         }
         try {
             LockingService lockingService = repoEnv.lockingService();
-            boolean locked = lockingService.tryLock(keys);
+            // a negative time means the default timeout of the locking service ...
+            boolean locked = time < 0 ? lockingService.tryLock(keys) : lockingService.tryLock(time, unit, keys);
             if (locked) {
                 tx.uponCompletion(() -> lockingService.unlock(keys));
             }
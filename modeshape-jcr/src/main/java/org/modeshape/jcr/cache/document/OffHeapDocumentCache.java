@@ -0,0 +1,429 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+
+/**
+ * A size-bounded cache of serialized documents which stores the document bytes outside of the Java heap, in direct
+ * {@link ByteBuffer} slabs.
+ * <p>
+ * The cache is split into a number of independently locked segments, based on the hash of the document id. Each segment owns a
+ * single slab which is carved up into fixed-size blocks; a cached document occupies as many (not necessarily contiguous) blocks
+ * as needed to hold its bytes. Only the (small) index of ids to block numbers is kept on the heap.
+ * </p>
+ * <p>
+ * Each segment uses a segmented LRU eviction policy: new entries are placed in a <i>probationary</i> area and are promoted to a
+ * <i>protected</i> area when they are read again. Entries are evicted from the probationary area first, so that documents which
+ * are only ever read once (e.g. during a large traversal) don't push out the frequently used ones.
+ * </p>
+ * <p>
+ * To prevent racing readers from caching stale content, each segment also maintains a stamp which changes every time an entry
+ * is invalidated. Callers obtain the {@link #stamp(String) stamp} <i>before</i> reading a document from the persistent store and
+ * the subsequent {@link #put(String, byte[], long) put} is ignored if there have been any invalidations in the meantime.
+ * </p>
+ */
+@ThreadSafe
+public final class OffHeapDocumentCache {
+
+    protected static final int DEFAULT_SEGMENT_COUNT = 16;
+    protected static final int DEFAULT_BLOCK_SIZE = 512;
+    /**
+     * The percentage of each segment's blocks which can be used by the protected area.
+     */
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder usedBytes = new LongAdder();
+
+    /**
+     * Creates a new cache with the given total capacity, using the default number of segments and block size.
+     *
+     * @param capacityInBytes the maximum number of bytes the cache can hold; must be positive
+     */
+    public OffHeapDocumentCache( long capacityInBytes ) {
+        this(capacityInBytes, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new cache with the given total capacity and block size, using the default number of segments.
+     *
+     * @param capacityInBytes the maximum number of bytes the cache can hold; must be positive
+     * @param blockSize the size of the blocks in which the memory is divided; must be positive
+     */
+    public OffHeapDocumentCache( long capacityInBytes,
+                                 int blockSize ) {
+        this(capacityInBytes, DEFAULT_SEGMENT_COUNT, blockSize);
+    }
+
+    protected OffHeapDocumentCache( long capacityInBytes,
+                                    int segmentCount,
+                                    int blockSize ) {
+        CheckArg.isPositive(capacityInBytes, "capacityInBytes");
+        CheckArg.isPositive(segmentCount, "segmentCount");
+        CheckArg.isPositive(blockSize, "blockSize");
+        long blocksPerSegment = Math.max(1, capacityInBytes / segmentCount / blockSize);
+        // a single direct buffer can't be larger than 2GB
+        blocksPerSegment = Math.min(blocksPerSegment, Integer.MAX_VALUE / blockSize);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int)blocksPerSegment, blockSize, usedBytes);
+        }
+    }
+
+    /**
+     * Returns the current stamp of the segment which holds the given document. This should be called before reading the
+     * document from the persistent store and passed to the subsequent {@link #put(String, byte[], long)} call.
+     *
+     * @param id the id of a document; may not be null
+     * @return the stamp
+     */
+    public long stamp( String id ) {
+        return segmentFor(id).stamp();
+    }
+
+    /**
+     * Returns the serialized form of the document with the given id.
+     *
+     * @param id the id of a document; may not be null
+     * @return the bytes of the document or {@code null} if the document is not cached
+     */
+    public byte[] get( String id ) {
+        byte[] result = segmentFor(id).get(id);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Determines if the document with the given id is cached, without affecting any of the statistics or eviction order.
+     *
+     * @param id the id of a document; may not be null
+     * @return {@code true} if the document is cached, {@code false} otherwise
+     */
+    public boolean contains( String id ) {
+        return segmentFor(id).contains(id);
+    }
+
+    /**
+     * Caches the serialized form of a document, unless the document has been invalidated after the given stamp was obtained.
+     *
+     * @param id the id of a document; may not be null
+     * @param content the serialized document; may not be null
+     * @param stamp the value returned by {@link #stamp(String)} before the document was read from the persistent store
+     * @return the number of entries which had to be evicted to make room for this document
+     */
+    public int put( String id,
+                    byte[] content,
+                    long stamp ) {
+        int evicted = segmentFor(id).put(id, content, stamp);
+        if (evicted > 0) {
+            evictions.add(evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes the document with the given id from the cache.
+     *
+     * @param id the id of a document; may not be null
+     */
+    public void invalidate( String id ) {
+        segmentFor(id).invalidate(id);
+    }
+
+    /**
+     * Removes all the documents from the cache.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of documents held by this cache.
+     *
+     * @return the number of cached documents
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.entryCount();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes held by this cache, including the unused parts of the allocated blocks.
+     *
+     * @return the number of bytes used
+     */
+    public long usedBytes() {
+        return usedBytes.sum();
+    }
+
+    /**
+     * Returns the total number of bytes this cache can hold.
+     *
+     * @return the capacity in bytes
+     */
+    public long capacity() {
+        long capacity = 0;
+        for (Segment segment : segments) {
+            capacity += segment.capacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns the number of successful lookups since this cache was created.
+     *
+     * @return the hit count
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups for documents which were not cached since this cache was created.
+     *
+     * @return the miss count
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of documents which were evicted to make room for other documents since this cache was created.
+     *
+     * @return the eviction count
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor( String id ) {
+        int hash = id.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapDocumentCache[size=" + size() + ", usedBytes=" + usedBytes() + ", capacity=" + capacity() + "]";
+    }
+
+    private static final class Entry {
+        private final int[] blocks;
+        private final int length;
+        private boolean isProtected;
+
+        protected Entry( int[] blocks,
+                         int length ) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+        private final ByteBuffer slab;
+        private final int blockSize;
+        private final int blockCount;
+        private final int maxProtectedBlocks;
+        private final int[] freeBlocks;
+        private int freeCount;
+        private int protectedBlocks;
+        private long stamp;
+        private final LongAdder usedBytes;
+        // both maps are kept in insertion order, with the least recently used entries first
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<>();
+
+        protected Segment( int blockCount,
+                           int blockSize,
+                           LongAdder usedBytes ) {
+            this.blockSize = blockSize;
+            this.usedBytes = usedBytes;
+            this.blockCount = blockCount;
+            this.maxProtectedBlocks = (int)((long)blockCount * PROTECTED_PERCENTAGE / 100);
+            this.slab = ByteBuffer.allocateDirect(blockCount * blockSize);
+            this.freeBlocks = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                freeBlocks[i] = blockCount - i - 1;
+            }
+            this.freeCount = blockCount;
+        }
+
+        protected synchronized long stamp() {
+            return stamp;
+        }
+
+        protected synchronized boolean contains( String id ) {
+            return probation.containsKey(id) || protectedEntries.containsKey(id);
+        }
+
+        protected synchronized byte[] get( String id ) {
+            Entry entry = probation.remove(id);
+            if (entry != null) {
+                // this is the second access, so promote it ...
+                promote(id, entry);
+            } else {
+                entry = protectedEntries.remove(id);
+                if (entry == null) {
+                    return null;
+                }
+                // move it to the most recently used position ...
+                protectedEntries.put(id, entry);
+            }
+            return read(entry);
+        }
+
+        protected synchronized int put( String id,
+                                        byte[] content,
+                                        long expectedStamp ) {
+            if (expectedStamp != stamp) {
+                // the segment has seen invalidations since the content was read, so it may be stale
+                return 0;
+            }
+            int requiredBlocks = (content.length + blockSize - 1) / blockSize;
+            if (requiredBlocks == 0 || requiredBlocks > blockCount / 4) {
+                // don't cache empty or very large documents, since they would push out too many other entries
+                return 0;
+            }
+            remove(id);
+            int evicted = 0;
+            while (freeCount < requiredBlocks) {
+                if (!evictOne()) {
+                    return evicted;
+                }
+                ++evicted;
+            }
+            Entry entry = new Entry(new int[requiredBlocks], content.length);
+            for (int i = 0; i < requiredBlocks; i++) {
+                int block = freeBlocks[--freeCount];
+                entry.blocks[i] = block;
+                int offset = i * blockSize;
+                ByteBuffer view = slab.duplicate();
+                view.position(block * blockSize);
+                view.put(content, offset, Math.min(blockSize, content.length - offset));
+            }
+            probation.put(id, entry);
+            usedBytes.add((long)requiredBlocks * blockSize);
+            return evicted;
+        }
+
+        protected synchronized void invalidate( String id ) {
+            ++stamp;
+            remove(id);
+        }
+
+        protected synchronized void clear() {
+            ++stamp;
+            usedBytes.add(-(long)(blockCount - freeCount) * blockSize);
+            probation.clear();
+            protectedEntries.clear();
+            protectedBlocks = 0;
+            for (int i = 0; i < blockCount; i++) {
+                freeBlocks[i] = blockCount - i - 1;
+            }
+            freeCount = blockCount;
+        }
+
+        protected synchronized int entryCount() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        protected long capacity() {
+            return (long)blockCount * blockSize;
+        }
+
+        private void promote( String id,
+                              Entry entry ) {
+            entry.isProtected = true;
+            protectedEntries.put(id, entry);
+            protectedBlocks += entry.blocks.length;
+            // demote the least recently used protected entries if the protected area has become too large
+            Iterator<Map.Entry<String, Entry>> iterator = protectedEntries.entrySet().iterator();
+            while (protectedBlocks > maxProtectedBlocks && iterator.hasNext()) {
+                Map.Entry<String, Entry> lru = iterator.next();
+                if (lru.getValue() == entry) {
+                    break;
+                }
+                iterator.remove();
+                lru.getValue().isProtected = false;
+                protectedBlocks -= lru.getValue().blocks.length;
+                probation.put(lru.getKey(), lru.getValue());
+            }
+        }
+
+        private boolean evictOne() {
+            Iterator<Map.Entry<String, Entry>> iterator = !probation.isEmpty() ?
+                                                          probation.entrySet().iterator() :
+                                                          protectedEntries.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            Entry lru = iterator.next().getValue();
+            iterator.remove();
+            release(lru);
+            return true;
+        }
+
+        private void remove( String id ) {
+            Entry entry = probation.remove(id);
+            if (entry == null) {
+                entry = protectedEntries.remove(id);
+            }
+            if (entry != null) {
+                release(entry);
+            }
+        }
+
+        private void release( Entry entry ) {
+            if (entry.isProtected) {
+                protectedBlocks -= entry.blocks.length;
+            }
+            for (int block : entry.blocks) {
+                freeBlocks[freeCount++] = block;
+            }
+            usedBytes.add(-(long)entry.blocks.length * blockSize);
+        }
+
+        private byte[] read( Entry entry ) {
+            byte[] result = new byte[entry.length];
+            ByteBuffer view = slab.duplicate();
+            for (int i = 0; i < entry.blocks.length; i++) {
+                int offset = i * blockSize;
+                view.position(entry.blocks[i] * blockSize);
+                view.get(result, offset, Math.min(blockSize, entry.length - offset));
+            }
+            return result;
+        }
+    }
+}
@@ -377,6 +377,33 @@ public class SessionNode implements MutableCachedNode {
         return false;
     }
 
+    /**
+     * Determine whether the only changes to this existing node are children appended to it. Appended children are added to the
+     * latest persisted child references of the node, so saving them doesn't depend on the state of the node that was read by
+     * the session.
+     *
+     * @return true if children were appended to this node and there are no other changes, or false otherwise
+     */
+    public boolean hasOnlyAppendedChildren() {
+        if (isNew) return false;
+        if (newParent != null) return false;
+        if (lockChange != null) return false;
+        if (!changedProperties.isEmpty()) return false;
+        if (!removedProperties.isEmpty()) return false;
+        if (!getAddedInternalProperties().isEmpty()) return false;
+        if (!getRemovedInternalProperties().isEmpty()) return false;
+        MixinChanges mixinChanges = mixinChanges(false);
+        if (mixinChanges != null && !mixinChanges.isEmpty()) return false;
+        ChangedChildren changedChildren = changedChildren();
+        if (changedChildren != null && !changedChildren.isEmpty()) return false;
+        ChangedAdditionalParents additionalParents = additionalParents();
+        if (additionalParents != null && !additionalParents.isEmpty()) return false;
+        ReferrerChanges referrerChanges = referrerChanges(false);
+        if (referrerChanges != null && !referrerChanges.isEmpty()) return false;
+        MutableChildReferences appended = appended(false);
+        return appended != null && !appended.isEmpty();
+    }
+
     @Override
     public boolean isAtOrBelow( NodeCache cache,
                                 Path path ) {
@@ -15,6 +15,8 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
@@ -255,6 +257,37 @@ public class WorkspaceCache implements DocumentCache {
         return node;
     }
 
+    /**
+     * Hints that the nodes with the supplied keys are about to be accessed. Any of these nodes which are not already cached are
+     * read from the document store via a single bulk load (which persistence providers can perform in batches) rather than
+     * one by one as each node is dereferenced.
+     * 
+     * @param keys the keys of the nodes which are likely to be accessed soon; may not be null
+     */
+    public void prefetch( Collection<NodeKey> keys ) {
+        checkNotClosed();
+        Set<String> missingKeys = new HashSet<>();
+        for (NodeKey key : keys) {
+            if (!nodesByKey.containsKey(key)) {
+                missingKeys.add(key.toString());
+            }
+        }
+        if (missingKeys.size() < 2) {
+            // there's nothing to be gained over a regular lookup
+            return;
+        }
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Prefetching {0} nodes into the '{1}' workspace cache", missingKeys.size(), workspaceName);
+        }
+        for (SchematicEntry entry : documentStore.load(missingKeys)) {
+            Document doc = entry.content();
+            if (translator.isCacheable(doc)) {
+                NodeKey key = new NodeKey(entry.id());
+                nodesByKey.putIfAbsent(key, new LazyCachedNode(key, doc));
+            }
+        }
+    }
+
     @Override
     public CachedNode getNode( ChildReference reference ) {
         checkNotClosed();
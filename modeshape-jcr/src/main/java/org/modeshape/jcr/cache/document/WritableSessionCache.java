@@ -31,6 +31,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -113,6 +114,10 @@ public class WritableSessionCache extends AbstractSessionCache {
     private static final SessionNode REMOVED = new SessionNode(REMOVED_KEY, false);
     private static final int MAX_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT = 4;
     private static final long PAUSE_TIME_BEFORE_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT = 50L;
+    /**
+     * How long a save waits for the locks of a node which it only locks right before writing it, before the save is retried.
+     */
+    private static final long LATE_LOCK_TIMEOUT_MILLIS = 100L;
 
     /**
      * Both the following maps holds some state based on ModeShape TX IDs which are UUIDs so we need to make them static because
@@ -515,6 +520,10 @@ public class WritableSessionCache extends AbstractSessionCache {
             // Before we start the transaction, apply the pre-save operations to the new and changed nodes ...
             runBeforeLocking(preSaveOperation);
 
+            if (commitInGroup(null, preSaveOperation, lock)) {
+                return;
+            }
+
             final int numNodes = this.changedNodes.size();
 
             int repeat = txns.isCurrentlyInTransaction() ? 1 : MAX_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT;
@@ -528,15 +537,19 @@ public class WritableSessionCache extends AbstractSessionCache {
                     // sure we're not using the shared workspace cache as the active workspace cache. 
                     checkForTransaction();
 
+                    // Unless this is the last attempt, the nodes which only have appended children are not locked up front
+                    // but right before they're written, since other saves often append children to the same nodes ...
+                    Set<NodeKey> nodesToLockLate = repeat > 0 ? nodesWithOnlyAppendedChildren() : Collections.<NodeKey>emptySet();
+
                     // Lock the nodes and bring the latest version of these nodes in the transactional cache
-                    lockNodes(changedNodesInOrder);
+                    lockNodes(nodesToLockUpFront(nodesToLockLate));
                     
                     // process after locking
                     runAfterLocking(preSaveOperation);
 
                     // Now persist the changes ...
                     logChangesBeingSaved(this.changedNodesInOrder, null);
-                    events = persistChanges(this.changedNodesInOrder);
+                    events = persistChanges(this.changedNodesInOrder, nodesToLockLate);
 
                     // If there are any binary changes, add a function which will update the binary store
                     if (events.hasBinaryChanges()) {
@@ -576,6 +589,146 @@ public class WritableSessionCache extends AbstractSessionCache {
         txns.updateCache(workspaceCache(), events, txn);
     }
 
+    /**
+     * Try to commit the changes of this session (and those of the other session, if any) together with the saves of other
+     * sessions, if the repository has a {@link GroupCommitter}. The changes may be persisted on the thread of another session's
+     * save, so the supplied locks are released while waiting for the group to be committed.
+     *
+     * @param that the other session whose changes are saved with this session's changes; may be null
+     * @param preSaveOperation the pre-save operation; may be null
+     * @param heldLocks the session locks held by the caller, in the order they were acquired
+     * @return true if the changes were committed and published, or false if the changes still have to be saved individually
+     * @throws SystemException if the status of the current transaction cannot be determined
+     */
+    private boolean commitInGroup( WritableSessionCache that,
+                                   PreSave preSaveOperation,
+                                   Lock... heldLocks ) throws SystemException {
+        GroupCommitter groupCommitter = repositoryEnvironment.groupCommitter();
+        if (groupCommitter == null || txns.isCurrentlyInTransaction()) {
+            return false;
+        }
+        GroupedSave groupedSave = new GroupedSave(that, preSaveOperation);
+        for (int i = heldLocks.length - 1; i >= 0; --i) {
+            heldLocks[i].unlock();
+        }
+        try {
+            return groupCommitter.commit(groupedSave);
+        } finally {
+            for (Lock heldLock : heldLocks) {
+                heldLock.lock();
+            }
+        }
+    }
+
+    /**
+     * The part of a save which is run by the {@link GroupCommitter}, possibly on the thread of another session's save.
+     */
+    protected final class GroupedSave implements GroupCommitter.Participant {
+        private final WritableSessionCache that;
+        private final PreSave preSaveOperation;
+        private final Set<String> keysToLock = new TreeSet<>();
+        private ChangeSet events;
+        private ChangeSet otherEvents;
+
+        protected GroupedSave( WritableSessionCache that,
+                               PreSave preSaveOperation ) {
+            this.that = that;
+            this.preSaveOperation = preSaveOperation;
+            changedNodesInOrder.forEach(key -> keysToLock.addAll(keysToLockForNode(key)));
+            if (that != null) {
+                that.changedNodesInOrder.forEach(key -> keysToLock.addAll(that.keysToLockForNode(key)));
+            }
+        }
+
+        @Override
+        public Set<String> keysToLock() {
+            return keysToLock;
+        }
+
+        @Override
+        public void persist( Transaction txn ) throws Exception {
+            lockSessions();
+            try {
+                checkForTransaction();
+                if (that != null) {
+                    that.checkForTransaction();
+                }
+                lockNodes(changedNodesInOrder);
+                if (that != null) {
+                    that.lockNodes(that.changedNodesInOrder);
+                }
+                runAfterLocking(preSaveOperation);
+                logChangesBeingSaved(changedNodesInOrder, that != null ? that.changedNodesInOrder : null);
+                events = persistChanges(changedNodesInOrder);
+                if (events.hasBinaryChanges()) {
+                    txn.uponCommit(binaryUsageUpdateFunction(events.usedBinaries(), events.unusedBinaries()));
+                }
+                if (that != null) {
+                    otherEvents = that.persistChanges(that.changedNodesInOrder);
+                    if (otherEvents.hasBinaryChanges()) {
+                        txn.uponCommit(binaryUsageUpdateFunction(otherEvents.usedBinaries(), otherEvents.unusedBinaries()));
+                    }
+                }
+            } finally {
+                unlockSessions();
+            }
+        }
+
+        @Override
+        public void committed( Transaction txn ) {
+            lockSessions();
+            try {
+                clearState();
+                // Only the first session in the group registered the function which completes the transaction, so stop
+                // using the transactional workspace cache ...
+                setWorkspaceCache(sharedWorkspaceCache());
+                if (that != null) {
+                    that.clearState();
+                    that.setWorkspaceCache(that.sharedWorkspaceCache());
+                }
+            } catch (SystemException e) {
+                throw new SystemFailureException(e);
+            } finally {
+                unlockSessions();
+            }
+            txns.updateCache(workspaceCache(), events, txn);
+            if (that != null) {
+                txns.updateCache(that.workspaceCache(), otherEvents, txn);
+            }
+        }
+
+        @Override
+        public void rolledBack() {
+            lockSessions();
+            try {
+                // Stop using the cache of the rolled back transaction (other sessions in the group may have shared it) ...
+                setWorkspaceCache(sharedWorkspaceCache());
+                if (that != null) {
+                    that.setWorkspaceCache(that.sharedWorkspaceCache());
+                }
+            } finally {
+                unlockSessions();
+            }
+        }
+
+        private void lockSessions() {
+            WritableSessionCache.this.lock.writeLock().lock();
+            if (that != null) {
+                that.lock.writeLock().lock();
+            }
+        }
+
+        private void unlockSessions() {
+            try {
+                if (that != null) {
+                    that.lock.writeLock().unlock();
+                }
+            } finally {
+                WritableSessionCache.this.lock.writeLock().unlock();
+            }
+        }
+    }
+
     private void runBeforeLocking(PreSave preSaveOperation) throws Exception {
         runBeforeLocking(preSaveOperation, changedNodesInOrder);
     }   
@@ -660,6 +813,10 @@ public class WritableSessionCache extends AbstractSessionCache {
             // Before we start the transaction, apply the pre-save operations to the new and changed nodes ...
             runBeforeLocking(preSaveOperation);
 
+            if (commitInGroup(that, preSaveOperation, thisLock, thatLock)) {
+                return;
+            }
+
             final int numNodes = this.changedNodes.size() + that.changedNodes.size();
 
             int repeat = txns.isCurrentlyInTransaction() ? 1 : MAX_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT;
@@ -677,8 +834,13 @@ public class WritableSessionCache extends AbstractSessionCache {
                     this.checkForTransaction();
                     that.checkForTransaction();
 
+                    // Unless this is the last attempt, the nodes which only have appended children are not locked up front
+                    // but right before they're written (the system content is always locked up front). Note that a timeout
+                    // skips an attempt, so the attempt after the first timeout is the last one ...
+                    Set<NodeKey> nodesToLockLate = repeat > 1 ? nodesWithOnlyAppendedChildren() : Collections.<NodeKey>emptySet();
+
                     // Lock the nodes in  and bring the latest version of these nodes in the transactional workspace cache
-                    lockNodes(this.changedNodesInOrder);
+                    lockNodes(nodesToLockUpFront(nodesToLockLate));
                     that.lockNodes(that.changedNodesInOrder);
 
                     // process after locking
@@ -687,7 +849,7 @@ public class WritableSessionCache extends AbstractSessionCache {
                     // Now persist the changes ...
                     logChangesBeingSaved(this.changedNodesInOrder, that.changedNodesInOrder
                     );
-                    events1 = persistChanges(this.changedNodesInOrder);
+                    events1 = persistChanges(this.changedNodesInOrder, nodesToLockLate);
                     // If there are any binary changes, add a function which will update the binary store
                     if (events1.hasBinaryChanges()) {
                         txn.uponCommit(binaryUsageUpdateFunction(events1.usedBinaries(), events1.unusedBinaries()));
@@ -891,6 +1053,21 @@ public class WritableSessionCache extends AbstractSessionCache {
      */
     @GuardedBy( "lock" )
     protected ChangeSet persistChanges(Iterable<NodeKey> changedNodesInOrder) {
+        return persistChanges(changedNodesInOrder, Collections.<NodeKey>emptySet());
+    }
+
+    /**
+     * Persist the changes within an already-established transaction, locking some of the nodes only right before they are
+     * written.
+     *
+     * @param changedNodesInOrder the nodes that are to be persisted; may not be null
+     * @param nodesToLockLate the nodes which have not been locked yet; may be empty but not null
+     * @return the ChangeSet encapsulating the changes that were made
+     * @throws TimeoutException if one of the nodes to lock late is being changed by another save
+     * @see #persistChanges(Iterable)
+     */
+    @GuardedBy( "lock" )
+    protected ChangeSet persistChanges(Iterable<NodeKey> changedNodesInOrder, Set<NodeKey> nodesToLockLate) {
         
         // Compute the save meta-info ...
         WorkspaceCache persistedCache = workspaceCache();
@@ -1025,6 +1202,9 @@ public class WritableSessionCache extends AbstractSessionCache {
                     // Create an event ...
                     changes.nodeCreated(key, newParent, newPath, primaryType, mixinTypes, node.changedProperties());
                 } else {
+                    if (nodesToLockLate.contains(key)) {
+                        lockNodeBeforeWriting(key);
+                    }
                     doc = documentStore.edit(keyStr, true);
                     if (doc == null) {
                         if (isExternal && renamedExternalNodes.contains(key)) {
@@ -1547,10 +1727,84 @@ public class WritableSessionCache extends AbstractSessionCache {
         workspaceCache.loadFromDocumentStore(changedNodesKeys);
     }
     
+    /**
+     * Find the changed nodes whose only changes are appended children. Other saves may be appending children to the same nodes,
+     * and since appended children are added to the latest persisted child references, these nodes don't have to be locked for
+     * the whole save. (When the parent allows same-name siblings, the paths of the appended children depend on the existing
+     * children, so those nodes are always locked up front.)
+     *
+     * @return the keys of the nodes; never null
+     */
+    private Set<NodeKey> nodesWithOnlyAppendedChildren() {
+        NodeTypes nodeTypes = nodeTypes();
+        if (nodeTypes == null) {
+            return Collections.emptySet();
+        }
+        Set<NodeKey> result = null;
+        for (NodeKey key : changedNodesInOrder) {
+            SessionNode node = changedNodes.get(key);
+            if (node == null || node == REMOVED || !node.hasOnlyAppendedChildren()) {
+                continue;
+            }
+            if (nodeTypes.allowsNameSiblings(node.getPrimaryType(this), node.getMixinTypes(this))) {
+                continue;
+            }
+            if (result == null) {
+                result = new HashSet<>();
+            }
+            result.add(key);
+        }
+        return result != null ? result : Collections.<NodeKey>emptySet();
+    }
+
+    private Collection<NodeKey> nodesToLockUpFront( Set<NodeKey> nodesToLockLate ) {
+        if (nodesToLockLate.isEmpty()) {
+            return changedNodesInOrder;
+        }
+        List<NodeKey> nodesToLock = new ArrayList<>(changedNodesInOrder);
+        nodesToLock.removeAll(nodesToLockLate);
+        return nodesToLock;
+    }
+
+    /**
+     * Lock a node which was not locked at the beginning of the save, and bring its latest version in the transactional cache.
+     * Since the other locks of the save are already held, this only waits briefly and a conflict causes the save to be retried.
+     * The same happens when another save has meanwhile added a child with the same name as one of the appended children, since
+     * the checks made after locking did not see that child.
+     *
+     * @param key the key of the node; may not be null
+     * @throws TimeoutException if the node could not be locked, or if it has to be locked up front to validate the changes
+     */
+    private void lockNodeBeforeWriting(NodeKey key) {
+        WorkspaceCache workspaceCache = workspaceCache();
+        Set<String> keys = keysToLockForNode(key);
+        if (!workspaceCache.documentStore().lockDocuments(LATE_LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, keys)) {
+            throw new TimeoutException("Timeout while attempting to lock the keys " + keys + " before writing them");
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Locked the nodes: {0}", keys);
+        }
+        String txId = repositoryEnvironment.getTransactions().currentTransaction().id();
+        LOCKED_KEYS_BY_TX_ID.computeIfAbsent(txId, id -> new LinkedHashSet<>()).addAll(keys);
+        workspaceCache.loadFromDocumentStore(keys);
+
+        MutableChildReferences appended = changedNodes.get(key).appended(false);
+        ChildReferences persisted = workspaceCache.getNode(key).getChildReferences(workspaceCache);
+        for (ChildReference appendedChild : appended) {
+            if (persisted.getChildCount(appendedChild.getName()) > 0) {
+                throw new TimeoutException("The node " + key + " already has a child named '" + appendedChild.getName()
+                                           + "', so the save has to be retried with all of its nodes locked up front");
+            }
+        }
+    }
+
     private Set<String> keysToLockForNode(NodeKey key) {
         Set<String> keys = new TreeSet<>();
-        //always the node itself
-        keys.add(key.toString());
+        SessionNode node = changedNodes.get(key);
+        if (node == null || node == REMOVED || !node.isNew() || (replacedNodes != null && replacedNodes.contains(key))) {
+            // the node itself, unless it's new: no other session can see a new node, and it's stored only if it doesn't exist
+            keys.add(key.toString());
+        }
         Set<BinaryKey> binaryReferencesForNode = binaryReferencesByNodeKey.get(key);
         if (binaryReferencesForNode == null || binaryReferencesForNode.isEmpty()) {
             return keys;
@@ -0,0 +1,351 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.function.Function;
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.Bind;
+import org.mapdb.DB;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+
+/**
+ * Statistics about the values of a {@link LocalMapIndex}, used to estimate how many entries satisfy a constraint without
+ * having to count them. The statistics consist of an equi-depth histogram over the keys of the index and a {@link HyperLogLog}
+ * sketch of the distinct values.
+ * <p>
+ * The histogram divides the keys into {@link #BUCKETS buckets} holding roughly the same number of entries. The bucket
+ * boundaries are chosen whenever the histogram is rebuilt, which is done by scanning the index when the index is committed
+ * after it has been modified as many times as it had entries at the previous rebuild (so the cost of rebuilding is amortized
+ * over the modifications). In between, the statistics are {@link Bind.MapListener notified} of every change and keep the
+ * count of each bucket exact. Ranges with no more than {@link #EXACT_COUNT_LIMIT} entries are simply counted, and only the
+ * larger ones are estimated from the histogram.
+ * </p>
+ * <p>
+ * The statistics are stored in the same MapDB file as the index and are committed with it.
+ * </p>
+ *
+ * @param <T> the type of keys in the index
+ */
+@ThreadSafe
+final class IndexStatistics<T> implements Bind.MapListener<T, String> {
+
+    /**
+     * The number of buckets in a histogram.
+     */
+    static final int BUCKETS = 64;
+
+    /**
+     * Ranges that can hold at most this many entries are counted rather than estimated.
+     */
+    static final long EXACT_COUNT_LIMIT = 1000L;
+
+    /**
+     * The minimum number of modifications after which the histogram is rebuilt.
+     */
+    static final long MIN_MODIFICATIONS_BEFORE_REBUILD = 1000L;
+
+    private static final String DISTINCT_VALUES_SKETCH = "statistics-distinct-values";
+    private static final String LAST_BUCKET_COUNT = "statistics-last-bucket-count";
+    private static final String MODIFICATIONS = "statistics-modifications";
+    private static final String SIZE_AT_REBUILD = "statistics-size-at-rebuild";
+
+    private static final Logger LOGGER = Logger.getLogger(IndexStatistics.class);
+
+    private final String indexName;
+    private final BTreeMap<T, String> keysByValue;
+    private final Comparator<T> comparator;
+    private final Function<T, ?> distinctValue;
+    private final Map<String, Object> options;
+    private final NavigableMap<T, Long> persistedBuckets;
+
+    /**
+     * The inclusive upper bounds of all buckets but the last one, which has no upper bound.
+     */
+    @GuardedBy( "this" )
+    private List<T> upperBounds;
+    @GuardedBy( "this" )
+    private long[] counts;
+    @GuardedBy( "this" )
+    private BitSet changedBuckets;
+    @GuardedBy( "this" )
+    private HyperLogLog distinctValues;
+    @GuardedBy( "this" )
+    private long modifications;
+    @GuardedBy( "this" )
+    private long sizeAtRebuild;
+    @GuardedBy( "this" )
+    private boolean changed;
+
+    /**
+     * Create or reopen the statistics of an index and start listening to the changes of the index.
+     *
+     * @param indexName the name of the index, which is used to name the statistics' storage; may not be null
+     * @param db the database in which the index is stored; may not be null
+     * @param keysByValue the index's map of values-to-NodeKey; may not be null
+     * @param keySerializer the serializer of the index's keys; may not be null
+     * @param distinctValue the function that obtains the value of a key, used to count the distinct values; may not be null
+     * @param options the index's options map, in which some of the statistics are stored; may not be null
+     */
+    IndexStatistics( String indexName,
+                     DB db,
+                     BTreeMap<T, String> keysByValue,
+                     BTreeKeySerializer<T> keySerializer,
+                     Function<T, ?> distinctValue,
+                     Map<String, Object> options ) {
+        this.indexName = indexName;
+        this.keysByValue = keysByValue;
+        this.comparator = keySerializer.getComparator();
+        this.distinctValue = distinctValue;
+        this.options = options;
+        this.persistedBuckets = db.createTreeMap(indexName + "/histogram").comparator(comparator).keySerializer(keySerializer)
+                                  .makeOrGet();
+        load();
+        keysByValue.modificationListenerAdd(this);
+    }
+
+    private synchronized void load() {
+        byte[] sketch = (byte[])options.get(DISTINCT_VALUES_SKETCH);
+        Long lastBucketCount = (Long)options.get(LAST_BUCKET_COUNT);
+        if (sketch == null || lastBucketCount == null) {
+            // There are no statistics (yet), so start with a single bucket. If the index already has entries, they were
+            // written without statistics, and the statistics are rebuilt at the next commit ...
+            upperBounds = new ArrayList<>();
+            counts = new long[] {keysByValue.sizeLong()};
+            distinctValues = new HyperLogLog();
+            changedBuckets = new BitSet();
+            modifications = counts[0] != 0L ? MIN_MODIFICATIONS_BEFORE_REBUILD : 0L;
+            sizeAtRebuild = 0L;
+            changed = counts[0] != 0L;
+            return;
+        }
+        upperBounds = new ArrayList<>(persistedBuckets.keySet());
+        counts = new long[upperBounds.size() + 1];
+        int bucket = 0;
+        for (Long count : persistedBuckets.values()) {
+            counts[bucket++] = count;
+        }
+        counts[bucket] = lastBucketCount;
+        distinctValues = new HyperLogLog(sketch);
+        changedBuckets = new BitSet();
+        modifications = (Long)options.get(MODIFICATIONS);
+        sizeAtRebuild = (Long)options.get(SIZE_AT_REBUILD);
+        changed = false;
+    }
+
+    @Override
+    public void update( T key,
+                        String oldNodeKey,
+                        String newNodeKey ) {
+        int delta = (newNodeKey != null ? 1 : 0) - (oldNodeKey != null ? 1 : 0);
+        Object value = delta > 0 ? distinctValue.apply(key) : null;
+        synchronized (this) {
+            ++modifications;
+            changed = true;
+            if (delta == 0) return;
+            int bucket = bucketOf(key);
+            counts[bucket] = Math.max(0L, counts[bucket] + delta);
+            changedBuckets.set(bucket);
+            if (value != null) distinctValues.add(value);
+        }
+    }
+
+    @GuardedBy( "this" )
+    private int bucketOf( T key ) {
+        // Find the first bucket whose upper bound is not smaller than the key ...
+        int low = 0;
+        int high = upperBounds.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(upperBounds.get(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Estimate the number of entries in the supplied range of the index.
+     *
+     * @param range the range of the index's map, obtained from the map with {@link NavigableMap#subMap},
+     *        {@link NavigableMap#headMap} or {@link NavigableMap#tailMap}; may not be null
+     * @return the estimated number of entries; never negative
+     */
+    long estimateCount( NavigableMap<T, ?> range ) {
+        if (range == keysByValue) return keysByValue.sizeLong();
+        // Small ranges are cheap to count, and counting them is much more accurate than any estimate ...
+        long counted = 0L;
+        for (Iterator<T> keys = range.keySet().iterator(); keys.hasNext() && counted <= EXACT_COUNT_LIMIT; keys.next()) {
+            ++counted;
+        }
+        if (counted <= EXACT_COUNT_LIMIT) return counted;
+
+        T first = range.firstKey();
+        T last = range.lastKey();
+        boolean singleValue = Objects.equals(distinctValue.apply(first), distinctValue.apply(last));
+        long estimate = 0L;
+        synchronized (this) {
+            int firstBucket = bucketOf(first);
+            int lastBucket = bucketOf(last);
+            long middle = 0L;
+            for (int bucket = firstBucket + 1; bucket < lastBucket; ++bucket) {
+                middle += counts[bucket];
+            }
+            // We can't tell where within a bucket the range starts or ends, so assume it covers half of the buckets at either
+            // end unless it starts at the beginning or ends at the end of the bucket ...
+            T lowerBound = firstBucket > 0 ? upperBounds.get(firstBucket - 1) : null;
+            T upperBound = lastBucket < upperBounds.size() ? upperBounds.get(lastBucket) : null;
+            boolean startsAtBucket = lowerBound != null ? isHigherKey(first, lowerBound) : isFirstKey(first);
+            boolean endsAtBucket = upperBound != null ? isSameKey(last, upperBound) : isLastKey(last);
+            if (firstBucket == lastBucket) {
+                estimate = startsAtBucket && endsAtBucket ? counts[firstBucket] : counts[firstBucket] / 2L;
+            } else {
+                estimate = middle + (startsAtBucket ? counts[firstBucket] : counts[firstBucket] / 2L)
+                           + (endsAtBucket ? counts[lastBucket] : counts[lastBucket] / 2L);
+            }
+            if (singleValue) {
+                // A single value covers the buckets in between, but probably only its share of the others ...
+                estimate = Math.min(estimate, Math.max(middle, entriesPerDistinctValue()));
+            }
+        }
+        // We know there are more entries than we counted ...
+        return Math.max(counted, estimate);
+    }
+
+    private boolean isSameKey( T key,
+                               T other ) {
+        return comparator.compare(key, other) == 0;
+    }
+
+    private boolean isFirstKey( T key ) {
+        return !keysByValue.isEmpty() && comparator.compare(key, keysByValue.firstKey()) == 0;
+    }
+
+    private boolean isLastKey( T key ) {
+        return !keysByValue.isEmpty() && comparator.compare(key, keysByValue.lastKey()) == 0;
+    }
+
+    private boolean isHigherKey( T key,
+                                 T lower ) {
+        T higher = keysByValue.higherKey(lower);
+        return higher != null && comparator.compare(key, higher) == 0;
+    }
+
+    @GuardedBy( "this" )
+    private long entriesPerDistinctValue() {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        long distinct = Math.max(1L, Math.min(total, distinctValues.estimate()));
+        return Math.max(1L, total / distinct);
+    }
+
+    /**
+     * Estimate the number of distinct values in the index.
+     *
+     * @return the estimated number of distinct values; never negative
+     */
+    synchronized long estimateDistinctValues() {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        return Math.min(total, distinctValues.estimate());
+    }
+
+    /**
+     * Write the statistics to the index's storage, rebuilding them first if the index has changed enough since they were last
+     * built. This should be called right before the index is committed.
+     */
+    synchronized void beforeCommit() {
+        if (modifications >= Math.max(MIN_MODIFICATIONS_BEFORE_REBUILD, sizeAtRebuild)) {
+            rebuild();
+        }
+        if (!changed) return;
+        for (int bucket = changedBuckets.nextSetBit(0); bucket >= 0; bucket = changedBuckets.nextSetBit(bucket + 1)) {
+            if (bucket < upperBounds.size()) persistedBuckets.put(upperBounds.get(bucket), counts[bucket]);
+        }
+        changedBuckets.clear();
+        options.put(LAST_BUCKET_COUNT, counts[upperBounds.size()]);
+        options.put(DISTINCT_VALUES_SKETCH, distinctValues.toBytes());
+        options.put(MODIFICATIONS, modifications);
+        options.put(SIZE_AT_REBUILD, sizeAtRebuild);
+        changed = false;
+    }
+
+    @GuardedBy( "this" )
+    private void rebuild() {
+        long size = keysByValue.sizeLong();
+        int buckets = (int)Math.max(1L, Math.min(BUCKETS, size));
+        List<T> bounds = new ArrayList<>(buckets - 1);
+        long[] bucketCounts = new long[buckets];
+        HyperLogLog sketch = new HyperLogLog();
+        // Each bucket ends at the key where the running count reaches the bucket's share of the entries ...
+        long count = 0L;
+        long bucketStart = 0L;
+        for (T key : keysByValue.keySet()) {
+            ++count;
+            sketch.add(distinctValue.apply(key));
+            if (bounds.size() < buckets - 1 && count >= size * (bounds.size() + 1) / buckets) {
+                bounds.add(key);
+                bucketCounts[bounds.size() - 1] = count - bucketStart;
+                bucketStart = count;
+            }
+        }
+        bucketCounts[bounds.size()] = count - bucketStart;
+        upperBounds = bounds;
+        counts = bounds.size() + 1 == buckets ? bucketCounts : Arrays.copyOf(bucketCounts, bounds.size() + 1);
+        distinctValues = sketch;
+        modifications = 0L;
+        sizeAtRebuild = count;
+        persistedBuckets.clear();
+        for (int bucket = 0; bucket != upperBounds.size(); ++bucket) {
+            persistedBuckets.put(upperBounds.get(bucket), counts[bucket]);
+        }
+        changedBuckets.clear();
+        changed = true;
+        LOGGER.debug("Rebuilt the statistics of the '{0}' index with {1} entries in {2} buckets", indexName, count,
+                     counts.length);
+    }
+
+    /**
+     * Discard all of the statistics, as when all of the index's entries are removed.
+     */
+    synchronized void clear() {
+        upperBounds = new ArrayList<>();
+        counts = new long[1];
+        changedBuckets.clear();
+        distinctValues.clear();
+        modifications = 0L;
+        sizeAtRebuild = 0L;
+        persistedBuckets.clear();
+        changed = true;
+    }
+}
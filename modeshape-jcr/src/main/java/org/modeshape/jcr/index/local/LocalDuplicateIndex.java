@@ -70,7 +70,7 @@ final class LocalDuplicateIndex<T> extends LocalMapIndex<UniqueKey<T>, T> {
                                    Comparator<T> comparator ) {
         super(name, workspaceName, db, IndexValues.uniqueKeyConverter(converter), MapDB.uniqueKeyBTreeSerializer(valueSerializer,
                                                                                                                  comparator),
-              MapDB.uniqueKeySerializer(valueSerializer, comparator));
+              MapDB.uniqueKeySerializer(valueSerializer, comparator), key -> key.actualKey);
         Long nextCounter = (Long)options.get(NEXT_COUNTER);
         this.counter = new AtomicLong(nextCounter != null ? nextCounter : -1L);
     }
@@ -140,6 +140,15 @@ final class LocalEnumeratedIndex extends LocalIndex<String> {
         return totalCount.get();
     }
 
+    @Override
+    public long estimateDistinctValues() {
+        long count = 0L;
+        for (Set<String> nodeKeySet : nodeKeySetsByValue.values()) {
+            if (!nodeKeySet.isEmpty()) ++count;
+        }
+        return count;
+    }
+
     @Override
     public Results filter(IndexConstraints filter, long cardinalityEstimate) {
         // Find all sets that match the name pattern ...
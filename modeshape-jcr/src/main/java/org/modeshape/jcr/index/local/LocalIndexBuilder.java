@@ -89,14 +89,10 @@ public abstract class LocalIndexBuilder<T> extends ManagedIndexBuilder {
      * @param problems the component to record any problems, errors, or warnings; may not be null
      */
     protected static void validate( IndexDefinition defn, Problems problems ) {
-        if (!defn.hasSingleColumn()) {
+        if (!defn.hasSingleColumn() && defn.getKind() != IndexDefinition.IndexKind.TEXT) {
+            // Only text indexes can combine several columns, since all of their columns are tokenized into the same index ...
             problems.addError(JcrI18n.localIndexProviderDoesNotSupportMultiColumnIndexes, defn.getName(), defn.getProviderName());    
         }
-        switch (defn.getKind()) {
-            case TEXT:
-                // This is not valid ...
-                problems.addError(JcrI18n.localIndexProviderDoesNotSupportTextIndexes, defn.getName(),defn.getProviderName());        
-        }
     }
 
     protected final String indexName() {
@@ -130,7 +126,7 @@ public abstract class LocalIndexBuilder<T> extends ManagedIndexBuilder {
                                             PropertyType actualPropertyType, 
                                             DB db ) {
             super(context, defn, nodeTypesSupplier, workspaceName, matcher);
-            assert defn.hasSingleColumn();
+            assert defn.hasSingleColumn() || defn.getKind() == IndexDefinition.IndexKind.TEXT;
             type = actualPropertyType;
             clazz = (Class<T>)type.getValueClass();
             serializer = (Serializer<T>)serializers.serializerFor(clazz);
@@ -193,7 +189,9 @@ public abstract class LocalIndexBuilder<T> extends ManagedIndexBuilder {
         protected ProvidedIndex<?> buildTextIndex( ExecutionContext context, IndexDefinition defn, String workspaceName,
                                                    Supplier nodeTypesSupplier,
                                                    NodeTypePredicate matcher ) {
-            throw new UnsupportedOperationException("should not ever see this because validation should prevent such indexes from being used");
+            Object stemming = defn.getIndexProperty(LocalTextIndex.STEMMING_PROPERTY);
+            TextAnalyzer analyzer = TextAnalyzer.forStemming(stemming != null && Boolean.parseBoolean(stemming.toString()));
+            return LocalTextIndex.create(defn.getName(), workspaceName, db, stringFactory, analyzer);
         }
 
         @Override
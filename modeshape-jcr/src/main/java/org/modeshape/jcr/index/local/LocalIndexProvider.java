@@ -19,6 +19,7 @@ package org.modeshape.jcr.index.local;
 import java.io.File;
 import java.nio.file.Paths;
 import javax.jcr.RepositoryException;
+import javax.jcr.query.qom.Constraint;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.modeshape.common.collection.Problems;
@@ -212,6 +213,22 @@ public class LocalIndexProvider extends IndexProvider {
 
     @Override
     protected IndexUsage evaluateUsage( QueryContext context, IndexCostCalculator calculator, IndexDefinition defn ) {
+        if (defn.getKind() == IndexDefinition.IndexKind.TEXT) {
+            return new IndexUsage(context, calculator, defn) {
+                @Override
+                public boolean indexAppliesTo( Constraint constraint ) {
+                    // Text indexes only hold tokens, so they can't answer anything but full text search criteria ...
+                    return constraint instanceof FullTextSearch && super.indexAppliesTo(constraint);
+                }
+
+                @Override
+                protected boolean applies( FullTextSearch search ) {
+                    // Searches across all properties (e.g. 'CONTAINS(s.*, ...)') may match properties that aren't indexed ...
+                    return search.getPropertyName() != null && super.applies(search)
+                           && LocalTextIndex.canNarrow(search, context.getVariables());
+                }
+            };
+        }
         return new IndexUsage(context, calculator, defn) {
             @Override
             protected boolean applies( FullTextSearch search ) {
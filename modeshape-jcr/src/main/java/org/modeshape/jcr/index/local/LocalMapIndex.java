@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import javax.jcr.query.qom.Constraint;
 import org.mapdb.BTreeKeySerializer;
 import org.mapdb.BTreeMap;
@@ -44,7 +45,9 @@ abstract class LocalMapIndex<T, V> extends LocalIndex<V> {
     protected final BTreeMap<T, String> keysByValue;
     protected final NavigableSet<Fun.Tuple2<String, T>> valuesByKey;
     protected final ConcurrentMap<String, Object> options;
+    protected final IndexStatistics<T> statistics;
     private final Converter<T> converter;
+    private final Function<T, ?> indexedValue;
    
     protected final Comparator<T> comparator;
     private final boolean isNew;
@@ -54,12 +57,14 @@ abstract class LocalMapIndex<T, V> extends LocalIndex<V> {
                    DB db,
                    Converter<T> converter,
                    BTreeKeySerializer<T> valueSerializer,
-                   Serializer<T> valueRawSerializer ) {
+                   Serializer<T> valueRawSerializer,
+                   Function<T, ?> indexedValue ) {
         super(name, workspaceName, db);
 
         assert converter != null;
         assert valueSerializer != null;
         this.converter = converter;
+        this.indexedValue = indexedValue;
         if (db.exists(name)) {
             logger.debug("Reopening storage for '{0}' index in workspace '{1}'", name, workspaceName);
             this.options = db.getHashMap(name + "/options");
@@ -88,6 +93,8 @@ abstract class LocalMapIndex<T, V> extends LocalIndex<V> {
 
         // Bind the map and the set together so the set is auto-updated as the map is changed ...
         Bind.mapInverse(this.keysByValue, this.valuesByKey);
+        // and keep the statistics up-to-date as the map is changed ...
+        this.statistics = new IndexStatistics<>(name, db, keysByValue, valueSerializer, indexedValue, options);
     }
 
     @Override
@@ -113,20 +120,34 @@ abstract class LocalMapIndex<T, V> extends LocalIndex<V> {
         return converter;
     }
 
+    @Override
+    public long estimateDistinctValues() {
+        return statistics.estimateDistinctValues();
+    }
+
     @Override
     public Results filter(IndexConstraints filter, long cardinalityEstimate) {
-        return Operations.createFilter(keysByValue, converter, filter.getConstraints(), filter.getVariables()).getResults();
+        return Operations.createFilter(keysByValue, converter, filter.getConstraints(), filter.getVariables(), statistics,
+                                       indexedValue).getResults();
     }
 
     @Override
     public long estimateCardinality( List<Constraint> andedConstraints,
                                      Map<String, Object> variables ) {
-        return Operations.createFilter(keysByValue, converter, andedConstraints, variables).estimateCount();
+        return Operations.createFilter(keysByValue, converter, andedConstraints, variables, statistics, indexedValue)
+                         .estimateCount();
+    }
+
+    @Override
+    public void commit() {
+        statistics.beforeCommit();
+        super.commit();
     }
 
     @Override
     public void clearAllData() {
         keysByValue.clear();
+        statistics.clear();
     }
 
     @Override
@@ -134,6 +155,7 @@ abstract class LocalMapIndex<T, V> extends LocalIndex<V> {
         if (destroyed) {
             // Remove the database since the index was destroyed ...
             db.delete(name);
+            db.delete(name + "/histogram");
         }
     }
 
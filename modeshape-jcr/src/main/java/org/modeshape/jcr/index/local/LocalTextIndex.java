@@ -0,0 +1,625 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import javax.jcr.query.qom.Constraint;
+import org.mapdb.Atomic;
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.Serializer;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.query.model.BindVariableName;
+import org.modeshape.jcr.query.model.FullTextSearch;
+import org.modeshape.jcr.query.model.FullTextSearch.CompoundTerm;
+import org.modeshape.jcr.query.model.FullTextSearch.Conjunction;
+import org.modeshape.jcr.query.model.FullTextSearch.Disjunction;
+import org.modeshape.jcr.query.model.FullTextSearch.SimpleTerm;
+import org.modeshape.jcr.query.model.FullTextSearch.Term;
+import org.modeshape.jcr.query.model.StaticOperand;
+import org.modeshape.jcr.spi.index.IndexConstraints;
+import org.modeshape.jcr.spi.index.provider.Filter;
+import org.modeshape.jcr.value.ValueFactory;
+
+/**
+ * A full-text index that keeps an inverted index of the {@link TextAnalyzer tokens} of the text of each indexed property. Each
+ * (node key, property name) pair is a separate document, and the positions of every token within a document are stored so
+ * that quoted phrases can be matched. Matching nodes are scored with BM25, summed over the node's matching documents, and
+ * returned in order of decreasing score.
+ * <p>
+ * The {@link FullTextSearch} constraint matches its terms anywhere within the text, so each query token is expanded against the
+ * term dictionary to all of the terms that could contain it: a single token may be anywhere within a term, while in a phrase
+ * the first token may end a term and the last may start one. The results are therefore a superset of what the constraint
+ * accepts, and the query engine still applies the constraint to every returned node. The only exception is an index with
+ * {@link #STEMMING_PROPERTY stemming}, which matches the stems of the words rather than the words themselves.
+ * </p>
+ */
+final class LocalTextIndex extends LocalIndex<Object> {
+
+    /**
+     * The name of the index property that, when set to "true", stems English plurals in both the indexed text and the search
+     * terms.
+     */
+    static final String STEMMING_PROPERTY = "stemming";
+
+    private static final String SEPARATOR = "\u0000";
+    private static final String SEPARATOR_END = "\u0001";
+    private static final double K1 = 1.2d;
+    private static final double B = 0.75d;
+    private static final int MAX_ESTIMATED_EXPANSIONS = 1000;
+
+    static LocalTextIndex create( String name,
+                                  String workspaceName,
+                                  DB db,
+                                  ValueFactory<String> stringFactory,
+                                  TextAnalyzer analyzer ) {
+        return new LocalTextIndex(name, workspaceName, db, stringFactory, analyzer);
+    }
+
+    /**
+     * Determine whether this kind of index could narrow down the nodes that satisfy the given constraint. That is not the case
+     * when the search has only negated terms, when one of several alternatives has no indexable tokens, or when the search
+     * expression is an unbound variable.
+     *
+     * @param search the full-text search constraint; may not be null
+     * @param variables the bound variables for this query; may not be null but may be empty
+     * @return true if the index can produce the candidate nodes for the search, or false otherwise
+     */
+    static boolean canNarrow( FullTextSearch search,
+                              Map<String, Object> variables ) {
+        Term term = termFor(search, variables);
+        return term != null && canNarrow(term);
+    }
+
+    private static boolean canNarrow( Term term ) {
+        if (term instanceof SimpleTerm) {
+            return !queryTokens(TextAnalyzer.STANDARD, (SimpleTerm)term).isEmpty();
+        }
+        if (term instanceof Conjunction) {
+            for (Term child : (Conjunction)term) {
+                if (canNarrow(child)) return true;
+            }
+            return false;
+        }
+        if (term instanceof Disjunction) {
+            for (Term child : (Disjunction)term) {
+                if (!canNarrow(child)) return false;
+            }
+            return true;
+        }
+        // Negated terms can never be answered from an inverted index ...
+        return false;
+    }
+
+    private static Term termFor( FullTextSearch search,
+                                 Map<String, Object> variables ) {
+        StaticOperand expression = search.getFullTextSearchExpression();
+        if (expression instanceof BindVariableName) {
+            Object value = variables.get(((BindVariableName)expression).getBindVariableName());
+            if (value == null) return null;
+            return search.withFullTextExpression(value.toString()).getTerm();
+        }
+        return search.getTerm();
+    }
+
+    private static List<String> queryTokens( TextAnalyzer analyzer,
+                                             SimpleTerm term ) {
+        List<String> tokens = analyzer.tokenizeQuery(term.getValue());
+        for (String token : tokens) {
+            // A token such as '*' matches everything, including text without any tokens ...
+            if (TextAnalyzer.isOnlyWildcards(token)) return Collections.emptyList();
+        }
+        return tokens;
+    }
+
+    /** The positions of each term in each document, keyed by "term \0 document id" */
+    private final BTreeMap<String, int[]> postings;
+    /** The number of documents that contain each term */
+    private final BTreeMap<String, Integer> documentFrequencies;
+    /** The distinct terms in each document, keyed by document id */
+    private final BTreeMap<String, String[]> termsByDocument;
+    /** The number of tokens in each document, keyed by document id */
+    private final BTreeMap<String, Integer> documentLengths;
+    private final Atomic.Long totalLength;
+    private final ConcurrentMap<String, Object> options;
+    private final ValueFactory<String> stringFactory;
+    private final TextAnalyzer analyzer;
+    private final boolean isNew;
+
+    LocalTextIndex( String name,
+                    String workspaceName,
+                    DB db,
+                    ValueFactory<String> stringFactory,
+                    TextAnalyzer analyzer ) {
+        super(name, workspaceName, db);
+        assert stringFactory != null;
+        assert analyzer != null;
+        this.stringFactory = stringFactory;
+        this.analyzer = analyzer;
+        boolean exists = db.exists(name + "/documents");
+        if (exists) {
+            logger.debug("Reopening storage for '{0}' text index in workspace '{1}'", name, workspaceName);
+        } else {
+            logger.debug("Creating storage for '{0}' text index in workspace '{1}'", name, workspaceName);
+        }
+        this.options = db.createHashMap(name + "/options").makeOrGet();
+        this.postings = db.createTreeMap(name + "/postings").keySerializer(BTreeKeySerializer.STRING)
+                          .valueSerializer(Serializer.INT_ARRAY).makeOrGet();
+        this.documentFrequencies = db.createTreeMap(name + "/terms").keySerializer(BTreeKeySerializer.STRING)
+                                     .valueSerializer(Serializer.INTEGER).makeOrGet();
+        this.termsByDocument = db.createTreeMap(name + "/documents").counterEnable().keySerializer(BTreeKeySerializer.STRING)
+                                 .valueSerializer(Serializer.BASIC).makeOrGet();
+        this.documentLengths = db.createTreeMap(name + "/lengths").keySerializer(BTreeKeySerializer.STRING)
+                                 .valueSerializer(Serializer.INTEGER).makeOrGet();
+        this.totalLength = db.getAtomicLong(name + "/totalLength");
+
+        Object stemming = options.putIfAbsent(STEMMING_PROPERTY, analyzer.isStemming());
+        if (exists && stemming != null && !stemming.equals(analyzer.isStemming())) {
+            // The stored tokens were produced by a different analyzer, so they have to be rebuilt ...
+            logger.debug("The stemming option of the '{0}' text index in workspace '{1}' has changed; the index will be rebuilt",
+                         name, workspaceName);
+            clearAllData();
+            options.put(STEMMING_PROPERTY, analyzer.isStemming());
+            exists = false;
+        }
+        this.isNew = !exists;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getWorkspaceName() {
+        return workspace;
+    }
+
+    @Override
+    public boolean requiresReindexing() {
+        return isNew;
+    }
+
+    @Override
+    public long estimateTotalCount() {
+        return termsByDocument.sizeLong();
+    }
+
+    @Override
+    public synchronized void add( String nodeKey,
+                                  String propertyName,
+                                  Object value ) {
+        // Each call carries the whole text of the property, so it replaces what was there before ...
+        String documentId = documentId(nodeKey, propertyName);
+        removeDocument(documentId);
+        List<String> tokens = analyzer.tokenize(stringFactory.create(value));
+        if (tokens.isEmpty()) return;
+        Map<String, List<Integer>> positionsByTerm = new LinkedHashMap<>();
+        for (int position = 0; position != tokens.size(); ++position) {
+            positionsByTerm.computeIfAbsent(tokens.get(position), term -> new ArrayList<>()).add(position);
+        }
+        for (Map.Entry<String, List<Integer>> entry : positionsByTerm.entrySet()) {
+            String term = entry.getKey();
+            List<Integer> positionList = entry.getValue();
+            int[] positions = new int[positionList.size()];
+            for (int i = 0; i != positions.length; ++i) {
+                positions[i] = positionList.get(i);
+            }
+            postings.put(postingKey(term, documentId), positions);
+            Integer frequency = documentFrequencies.get(term);
+            documentFrequencies.put(term, frequency == null ? 1 : frequency + 1);
+        }
+        termsByDocument.put(documentId, positionsByTerm.keySet().toArray(new String[positionsByTerm.size()]));
+        documentLengths.put(documentId, tokens.size());
+        totalLength.addAndGet(tokens.size());
+    }
+
+    @Override
+    public synchronized void remove( String nodeKey ) {
+        NavigableMap<String, String[]> documents = termsByDocument.subMap(nodeKey + SEPARATOR, nodeKey + SEPARATOR_END);
+        for (String documentId : new ArrayList<>(documents.keySet())) {
+            removeDocument(documentId);
+        }
+    }
+
+    @Override
+    public synchronized void remove( String nodeKey,
+                                     String propertyName,
+                                     Object value ) {
+        removeDocument(documentId(nodeKey, propertyName));
+    }
+
+    private void removeDocument( String documentId ) {
+        String[] terms = termsByDocument.remove(documentId);
+        if (terms == null) return;
+        for (String term : terms) {
+            postings.remove(postingKey(term, documentId));
+            Integer frequency = documentFrequencies.get(term);
+            if (frequency == null || frequency <= 1) {
+                documentFrequencies.remove(term);
+            } else {
+                documentFrequencies.put(term, frequency - 1);
+            }
+        }
+        Integer length = documentLengths.remove(documentId);
+        if (length != null) totalLength.addAndGet(-length);
+    }
+
+    @Override
+    public Results filter( IndexConstraints filter,
+                           long cardinalityEstimate ) {
+        final Collection<Constraint> constraints = filter.getConstraints();
+        final Map<String, Object> variables = filter.getVariables();
+        return new Results() {
+            private Iterator<Map.Entry<String, Float>> matches;
+
+            @Override
+            public Filter.ResultBatch getNextBatch( int batchSize ) {
+                if (matches == null) {
+                    // Run the search only when the first batch is needed ...
+                    matches = search(constraints, variables).iterator();
+                }
+                final LinkedHashMap<NodeKey, Float> keysByScore = new LinkedHashMap<>();
+                while (keysByScore.size() < batchSize && matches.hasNext()) {
+                    Map.Entry<String, Float> match = matches.next();
+                    keysByScore.put(new NodeKey(match.getKey()), match.getValue());
+                }
+                final boolean hasNext = matches.hasNext();
+                return new Filter.ResultBatch() {
+                    @Override
+                    public Iterable<NodeKey> keys() {
+                        return () -> keysByScore.keySet().iterator();
+                    }
+
+                    @Override
+                    public Iterable<Float> scores() {
+                        return () -> keysByScore.values().iterator();
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return hasNext;
+                    }
+
+                    @Override
+                    public int size() {
+                        return keysByScore.size();
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+                matches = null;
+            }
+        };
+    }
+
+    /**
+     * Find the nodes that match all of the full-text search constraints, ordered by decreasing score.
+     *
+     * @param constraints the constraints; may not be null
+     * @param variables the bound variables; may not be null
+     * @return the scores keyed by node key, in the order they should be returned; never null
+     */
+    protected List<Map.Entry<String, Float>> search( Collection<Constraint> constraints,
+                                                    Map<String, Object> variables ) {
+        Map<String, Float> scoresByNodeKey = null;
+        for (Constraint constraint : constraints) {
+            if (!(constraint instanceof FullTextSearch)) continue;
+            FullTextSearch search = (FullTextSearch)constraint;
+            Term term = termFor(search, variables);
+            if (term == null) continue;
+            Map<String, Float> matches = search(term, search.getPropertyName());
+            if (matches != null) {
+                scoresByNodeKey = scoresByNodeKey == null ? matches : intersect(scoresByNodeKey, matches);
+            }
+        }
+        if (scoresByNodeKey == null) {
+            // Nothing could be narrowed down, so every node in the index is a candidate ...
+            scoresByNodeKey = new LinkedHashMap<>();
+            for (String documentId : termsByDocument.keySet()) {
+                scoresByNodeKey.put(nodeKeyOf(documentId), 1.0f);
+            }
+        }
+        List<Map.Entry<String, Float>> results = new ArrayList<>(scoresByNodeKey.entrySet());
+        results.sort((first, second) -> Float.compare(second.getValue(), first.getValue()));
+        return results;
+    }
+
+    /**
+     * Find and score the nodes that match the given term.
+     *
+     * @param term the term; may not be null
+     * @param propertyName the name of the property that should contain the term, or null if any indexed property may
+     * @return the scores keyed by node key, or null if the term does not narrow down the nodes
+     */
+    private Map<String, Float> search( Term term,
+                                       String propertyName ) {
+        if (term instanceof SimpleTerm) {
+            List<String> tokens = queryTokens(analyzer, (SimpleTerm)term);
+            return tokens.isEmpty() ? null : searchPhrase(tokens, propertyName);
+        }
+        if (term instanceof Conjunction) {
+            Map<String, Float> result = null;
+            for (Term child : (CompoundTerm)term) {
+                Map<String, Float> matches = search(child, propertyName);
+                if (matches != null) {
+                    result = result == null ? matches : intersect(result, matches);
+                }
+            }
+            return result;
+        }
+        if (term instanceof Disjunction) {
+            Map<String, Float> result = new HashMap<>();
+            for (Term child : (CompoundTerm)term) {
+                Map<String, Float> matches = search(child, propertyName);
+                if (matches == null) return null;
+                for (Map.Entry<String, Float> match : matches.entrySet()) {
+                    result.merge(match.getKey(), match.getValue(), Float::sum);
+                }
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private Map<String, Float> searchPhrase( List<String> tokens,
+                                             String propertyName ) {
+        Map<String, Float> scores = new HashMap<>();
+        // Expand any wildcards, and drive the search from the token that appears in the fewest documents ...
+        List<Collection<String>> termsByPosition = new ArrayList<>(tokens.size());
+        int driver = 0;
+        long driverFrequency = Long.MAX_VALUE;
+        for (int i = 0; i != tokens.size(); ++i) {
+            Collection<String> terms = expand(containingPattern(tokens, i), Integer.MAX_VALUE);
+            if (terms.isEmpty()) return scores;
+            termsByPosition.add(terms);
+            long frequency = documentFrequency(terms);
+            if (frequency < driverFrequency) {
+                driverFrequency = frequency;
+                driver = i;
+            }
+        }
+        double idf = idf(driverFrequency);
+        double averageLength = (double)totalLength.get() / Math.max(1L, termsByDocument.sizeLong());
+        for (String term : termsByPosition.get(driver)) {
+            String prefix = term + SEPARATOR;
+            for (Map.Entry<String, int[]> posting : postings.subMap(prefix, term + SEPARATOR_END).entrySet()) {
+                String documentId = posting.getKey().substring(prefix.length());
+                if (propertyName != null && !propertyName.equals(propertyNameOf(documentId))) continue;
+                int frequency = tokens.size() == 1 ? posting.getValue().length : phraseFrequency(documentId, posting.getValue(),
+                                                                                                 driver, termsByPosition);
+                if (frequency == 0) continue;
+                Integer length = documentLengths.get(documentId);
+                double norm = K1 * (1 - B + B * (length != null ? length : 0) / averageLength);
+                double score = tokens.size() * idf * frequency * (K1 + 1) / (frequency + norm);
+                scores.merge(nodeKeyOf(documentId), (float)score, Float::sum);
+            }
+        }
+        return scores;
+    }
+
+    private int phraseFrequency( String documentId,
+                                 int[] driverPositions,
+                                 int driver,
+                                 List<Collection<String>> termsByPosition ) {
+        int[][] positionsByOffset = new int[termsByPosition.size()][];
+        for (int i = 0; i != positionsByOffset.length; ++i) {
+            if (i == driver) continue;
+            positionsByOffset[i] = positionsOf(documentId, termsByPosition.get(i));
+            if (positionsByOffset[i].length == 0) return 0;
+        }
+        int frequency = 0;
+        for (int driverPosition : driverPositions) {
+            int start = driverPosition - driver;
+            boolean matches = start >= 0;
+            for (int i = 0; matches && i != positionsByOffset.length; ++i) {
+                matches = i == driver || Arrays.binarySearch(positionsByOffset[i], start + i) >= 0;
+            }
+            if (matches) ++frequency;
+        }
+        return frequency;
+    }
+
+    private int[] positionsOf( String documentId,
+                               Collection<String> terms ) {
+        int[] result = new int[0];
+        for (String term : terms) {
+            int[] positions = postings.get(postingKey(term, documentId));
+            if (positions == null) continue;
+            if (result.length == 0) {
+                result = positions;
+            } else {
+                int[] merged = Arrays.copyOf(result, result.length + positions.length);
+                System.arraycopy(positions, 0, merged, result.length, positions.length);
+                Arrays.sort(merged);
+                result = merged;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the wildcard token that matches all of the terms that can contain the query token at the given position within the
+     * phrase, since the constraint matches its value anywhere within the text.
+     *
+     * @param tokens the tokens of the phrase; may not be null
+     * @param index the position of the token within the phrase
+     * @return the token with the wildcards that are needed; never null
+     */
+    private static String containingPattern( List<String> tokens,
+                                             int index ) {
+        String token = tokens.get(index);
+        if (index == 0 && !TextAnalyzer.isWildcard(token.charAt(0))) {
+            token = "*" + token;
+        }
+        if (index == tokens.size() - 1 && !TextAnalyzer.isWildcard(token.charAt(token.length() - 1))) {
+            token = token + "*";
+        }
+        return token;
+    }
+
+    /**
+     * Find the indexed terms that match the given query token.
+     *
+     * @param token the query token, which may contain wildcards; may not be null
+     * @param maxTerms the maximum number of terms to return
+     * @return the matching terms; never null but possibly empty
+     */
+    private Collection<String> expand( String token,
+                                       int maxTerms ) {
+        int wildcard = TextAnalyzer.indexOfWildcard(token);
+        if (wildcard == -1) {
+            return documentFrequencies.containsKey(token) ? Collections.singleton(token) : Collections.<String>emptySet();
+        }
+        String prefix = token.substring(0, wildcard);
+        NavigableMap<String, Integer> candidates = documentFrequencies;
+        if (!prefix.isEmpty()) {
+            candidates = documentFrequencies.subMap(prefix, prefix + Character.MAX_VALUE);
+        }
+        Pattern pattern = TextAnalyzer.patternFor(token);
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : candidates.keySet()) {
+            if (pattern.matcher(term).matches()) {
+                terms.add(term);
+                if (terms.size() >= maxTerms) break;
+            }
+        }
+        return terms;
+    }
+
+    private long documentFrequency( Collection<String> terms ) {
+        long frequency = 0L;
+        for (String term : terms) {
+            Integer count = documentFrequencies.get(term);
+            if (count != null) frequency += count;
+        }
+        return frequency;
+    }
+
+    private double idf( long documentFrequency ) {
+        long documents = termsByDocument.sizeLong();
+        return Math.log(1.0d + (documents - documentFrequency + 0.5d) / (documentFrequency + 0.5d));
+    }
+
+    @Override
+    public long estimateCardinality( List<Constraint> andedConstraints,
+                                     Map<String, Object> variables ) {
+        long total = estimateTotalCount();
+        long estimate = total;
+        for (Constraint constraint : andedConstraints) {
+            if (!(constraint instanceof FullTextSearch)) continue;
+            Term term = termFor((FullTextSearch)constraint, variables);
+            if (term == null) continue;
+            estimate = Math.min(estimate, estimate(term, total));
+        }
+        return estimate;
+    }
+
+    private long estimate( Term term,
+                           long total ) {
+        if (term instanceof SimpleTerm) {
+            long estimate = total;
+            List<String> tokens = queryTokens(analyzer, (SimpleTerm)term);
+            for (int i = 0; i != tokens.size(); ++i) {
+                Collection<String> terms = expand(containingPattern(tokens, i), MAX_ESTIMATED_EXPANSIONS);
+                long frequency = terms.size() >= MAX_ESTIMATED_EXPANSIONS ? total : documentFrequency(terms);
+                estimate = Math.min(estimate, frequency);
+            }
+            return estimate;
+        }
+        if (term instanceof Conjunction) {
+            long estimate = total;
+            for (Term child : (CompoundTerm)term) {
+                estimate = Math.min(estimate, estimate(child, total));
+            }
+            return estimate;
+        }
+        if (term instanceof Disjunction) {
+            long estimate = 0L;
+            for (Term child : (CompoundTerm)term) {
+                estimate += estimate(child, total);
+            }
+            return Math.min(estimate, total);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void clearAllData() {
+        postings.clear();
+        documentFrequencies.clear();
+        termsByDocument.clear();
+        documentLengths.clear();
+        totalLength.set(0L);
+    }
+
+    @Override
+    public synchronized void shutdown( boolean destroyed ) {
+        if (destroyed) {
+            // Remove the collections since the index was destroyed ...
+            for (String suffix : new String[] {"/postings", "/terms", "/documents", "/lengths", "/totalLength", "/options"}) {
+                if (db.exists(name + suffix)) {
+                    db.delete(name + suffix);
+                }
+            }
+        }
+    }
+
+    private static Map<String, Float> intersect( Map<String, Float> first,
+                                                 Map<String, Float> second ) {
+        Map<String, Float> result = new HashMap<>();
+        for (Map.Entry<String, Float> entry : first.entrySet()) {
+            Float score = second.get(entry.getKey());
+            if (score != null) {
+                result.put(entry.getKey(), entry.getValue() + score);
+            }
+        }
+        return result;
+    }
+
+    private static String documentId( String nodeKey,
+                                      String propertyName ) {
+        return nodeKey + SEPARATOR + propertyName;
+    }
+
+    private static String postingKey( String term,
+                                      String documentId ) {
+        return term + SEPARATOR + documentId;
+    }
+
+    private static String nodeKeyOf( String documentId ) {
+        return documentId.substring(0, documentId.indexOf(SEPARATOR));
+    }
+
+    private static String propertyNameOf( String documentId ) {
+        return documentId.substring(documentId.indexOf(SEPARATOR) + 1);
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.modeshape.jcr.index.local;
 
+import java.util.function.Function;
 import javax.jcr.query.qom.StaticOperand;
 import org.mapdb.BTreeKeySerializer;
 import org.mapdb.DB;
@@ -70,8 +71,13 @@ class LocalUniqueIndex<T> extends LocalMapIndex<T, T> {
                                 Converter<T> converter,
                                 BTreeKeySerializer<T> valueSerializer,
                                 Serializer<T> rawSerializer ) {
-        super(name, workspaceName, db, converter, valueSerializer, rawSerializer);
+        super(name, workspaceName, db, converter, valueSerializer, rawSerializer, Function.identity());
+    }
 
+    @Override
+    public long estimateDistinctValues() {
+        // Every value is distinct ...
+        return estimateTotalCount();
     }
 
     @Override
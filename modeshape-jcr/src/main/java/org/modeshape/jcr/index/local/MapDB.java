@@ -323,6 +323,15 @@ public class MapDB {
             this.hc = actualKey != null ? actualKey.hashCode() : 0;
         }
 
+        /**
+         * Get the key that this object makes unique.
+         *
+         * @return the actual key; may be null
+         */
+        public K getActualKey() {
+            return actualKey;
+        }
+
         @Override
         public int hashCode() {
             return hc;
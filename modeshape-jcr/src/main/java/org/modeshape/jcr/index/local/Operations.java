@@ -16,14 +16,19 @@
 
 package org.modeshape.jcr.index.local;
 
+import java.util.AbstractMap;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import javax.jcr.query.qom.And;
 import javax.jcr.query.qom.Constraint;
 import javax.jcr.query.qom.Not;
@@ -87,12 +92,17 @@ class Operations {
      * @param converter the converter; may not be null
      * @param constraints the constraints; may not be null but may be empty if there are no constraints
      * @param variables the bound variables for this query; may not be null but may be empty
+     * @param statistics the index's statistics used to estimate the number of results; may not be null
+     * @param indexedValue the function that obtains the indexed value from a key of the map, or null if the results should not
+     *        contain the indexed values
      * @return the index operation; never null
      */
     public static <T> FilterOperation createFilter( NavigableMap<T, String> keysByValue,
                                                     Converter<T> converter,
                                                     Collection<Constraint> constraints,
-                                                    Map<String, Object> variables ) {
+                                                    Map<String, Object> variables,
+                                                    IndexStatistics<T> statistics,
+                                                    Function<T, ?> indexedValue ) {
         if (keysByValue.isEmpty()) return EMPTY_FILTER_OPERATION;
         NodeKeysAccessor<T, String> nodeKeysAccessor = new NodeKeysAccessor<T, String>() {
             @Override
@@ -105,6 +115,29 @@ class Operations {
                                   Set<String> matchedKeys ) {
                 matchedKeys.addAll(keysByValue.values());
             }
+
+            @Override
+            public long estimateCount( NavigableMap<T, String> keysByValue ) {
+                return statistics.estimateCount(keysByValue);
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> getNodeKeysAndValues( NavigableMap<T, String> keysByValue ) {
+                if (indexedValue == null) return null;
+                final Iterator<Map.Entry<T, String>> entries = keysByValue.entrySet().iterator();
+                return new Iterator<Map.Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        Map.Entry<T, String> entry = entries.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getValue(), indexedValue.apply(entry.getKey()));
+                    }
+                };
+            }
         };
         OperationBuilder<T> builder = new BasicOperationBuilder<>(keysByValue, converter, nodeKeysAccessor, variables);
         for (Constraint constraint : constraints) {
@@ -144,6 +177,16 @@ class Operations {
                     matchedKeys.addAll(entry.getValue());
                 }
             }
+
+            @Override
+            public long estimateCount( NavigableMap<T, Set<String>> keysByValue ) {
+                // There are few enumerated values, and each set knows its size ...
+                long count = 0L;
+                for (Set<String> keys : keysByValue.values()) {
+                    count += keys.size();
+                }
+                return count;
+            }
         };
         OperationBuilder<T> builder = new BasicOperationBuilder<>(keySetByEnumeratedValue, converter, nodeKeysAccessor, variables);
         for (Constraint constraint : constraints) {
@@ -231,6 +274,25 @@ class Operations {
 
         public void addAllTo( NavigableMap<T, V> keysByValue,
                               Set<String> matchedKeys );
+
+        /**
+         * Estimate the number of node keys in the supplied map.
+         *
+         * @param keysByValue the (range of the) index's map; may not be null
+         * @return the estimated number of node keys; never negative
+         */
+        public long estimateCount( NavigableMap<T, V> keysByValue );
+
+        /**
+         * Get the node keys in the supplied map together with the indexed value of each node, for indexes whose results can
+         * include the indexed values.
+         *
+         * @param keysByValue the (range of the) index's map; may not be null
+         * @return the iterator over the node keys and their indexed values, or null if the results cannot include the values
+         */
+        public default Iterator<Map.Entry<String, Object>> getNodeKeysAndValues( NavigableMap<T, V> keysByValue ) {
+            return null;
+        }
     }
 
     /**
@@ -261,6 +323,58 @@ class Operations {
             return new BasicOperationBuilder<>(keysByValue, converter, nodeKeysAccessor, variables);
         }
 
+        /*
+         * The map may already be a range of the index (e.g., when several constraints are ANDed), and a range of a range must lie
+         * within the original range. So values outside of the current range select either all of it or none of it.
+         */
+
+        protected NavigableMap<T, V> tailMap( T fromValue,
+                                              boolean inclusive ) {
+            return tailMap(keysByValue, fromValue, inclusive);
+        }
+
+        protected NavigableMap<T, V> headMap( T toValue,
+                                              boolean inclusive ) {
+            return headMap(keysByValue, toValue, inclusive);
+        }
+
+        protected NavigableMap<T, V> subMap( T fromValue,
+                                             boolean fromInclusive,
+                                             T toValue,
+                                             boolean toInclusive ) {
+            return headMap(tailMap(keysByValue, fromValue, fromInclusive), toValue, toInclusive);
+        }
+
+        private static <T, V> NavigableMap<T, V> tailMap( NavigableMap<T, V> keysByValue,
+                                                          T fromValue,
+                                                          boolean inclusive ) {
+            if (keysByValue.isEmpty()) return keysByValue;
+            T first = keysByValue.firstKey();
+            int diff = compare(keysByValue, fromValue, first);
+            if (diff < 0 || diff == 0 && inclusive) return keysByValue;
+            if (compare(keysByValue, fromValue, keysByValue.lastKey()) > 0) return keysByValue.subMap(first, false, first, false);
+            return keysByValue.tailMap(fromValue, inclusive);
+        }
+
+        private static <T, V> NavigableMap<T, V> headMap( NavigableMap<T, V> keysByValue,
+                                                          T toValue,
+                                                          boolean inclusive ) {
+            if (keysByValue.isEmpty()) return keysByValue;
+            T last = keysByValue.lastKey();
+            int diff = compare(keysByValue, toValue, last);
+            if (diff > 0 || diff == 0 && inclusive) return keysByValue;
+            if (compare(keysByValue, toValue, keysByValue.firstKey()) < 0) return keysByValue.subMap(last, false, last, false);
+            return keysByValue.headMap(toValue, inclusive);
+        }
+
+        @SuppressWarnings( "unchecked" )
+        private static <T> int compare( NavigableMap<T, ?> keysByValue,
+                                        T value1,
+                                        T value2 ) {
+            Comparator<? super T> comparator = keysByValue.comparator();
+            return comparator != null ? comparator.compare(value1, value2) : ((Comparable<? super T>)value1).compareTo(value2);
+        }
+
         @Override
         protected OperationBuilder<T> apply( Between between,
                                              boolean negated ) {
@@ -269,11 +383,11 @@ class Operations {
             boolean isLowerIncluded = between.isLowerBoundIncluded();
             boolean isUpperIncluded = between.isUpperBoundIncluded();
             if (negated) {
-                OperationBuilder<T> lowerOp = create(keysByValue.headMap(lower, !isLowerIncluded));
-                OperationBuilder<T> upperOp = create(keysByValue.tailMap(upper, !isUpperIncluded));
+                OperationBuilder<T> lowerOp = create(headMap(lower, !isLowerIncluded));
+                OperationBuilder<T> upperOp = create(tailMap(upper, !isUpperIncluded));
                 return new DualOperationBuilder<>(lowerOp, upperOp);
             }
-            return create(keysByValue.subMap(lower, isLowerIncluded, upper, isUpperIncluded));
+            return create(subMap(lower, isLowerIncluded, upper, isUpperIncluded));
         }
 
         @Override
@@ -287,22 +401,22 @@ class Operations {
                 case EQUAL_TO:
                     T lowerValue = converter.toLowerValue(operand, variables);
                     T upperValue = converter.toUpperValue(operand, variables);
-                    return create(keysByValue.subMap(lowerValue, true, upperValue, true));
+                    return create(subMap(lowerValue, true, upperValue, true));
                 case GREATER_THAN:
                     T value = converter.toUpperValue(operand, variables);
-                    return create(keysByValue.tailMap(value, false));
+                    return create(tailMap(value, false));
                 case GREATER_THAN_OR_EQUAL_TO:
                     value = converter.toLowerValue(operand, variables);
-                    return create(keysByValue.tailMap(value, true));
+                    return create(tailMap(value, true));
                 case LESS_THAN:
                     value = converter.toLowerValue(operand, variables);
-                    return create(keysByValue.headMap(value, false));
+                    return create(headMap(value, false));
                 case LESS_THAN_OR_EQUAL_TO:
                     value = converter.toUpperValue(operand, variables);
-                    return create(keysByValue.headMap(value, true));
+                    return create(headMap(value, true));
                 case NOT_EQUAL_TO:
-                    OperationBuilder<T> lowerOp = create(keysByValue.headMap(converter.toLowerValue(operand, variables), false));
-                    OperationBuilder<T> upperOp = create(keysByValue.tailMap(converter.toUpperValue(operand, variables), false));
+                    OperationBuilder<T> lowerOp = create(headMap(converter.toLowerValue(operand, variables), false));
+                    OperationBuilder<T> upperOp = create(tailMap(converter.toUpperValue(operand, variables), false));
                     return new DualOperationBuilder<>(lowerOp, upperOp);
                 case LIKE:
                     // We can't handle LIKE with this kind of index, but we can return the complete list of node keys
@@ -325,8 +439,19 @@ class Operations {
             return nodeKeysAccessor.getNodeKeys(keysByValue);
         }
 
+        /**
+         * Get the node keys that satisfy this operation together with the indexed value of each node.
+         *
+         * @return the iterator over the node keys and their indexed values, or null if the values are not known
+         */
+        protected Iterator<Map.Entry<String, Object>> keysAndValues() {
+            return nodeKeysAccessor.getNodeKeysAndValues(keysByValue);
+        }
+
         @Override
         public Results getResults() {
+            final Iterator<Map.Entry<String, Object>> filteredKeysAndValues = keysAndValues();
+            if (filteredKeysAndValues != null) return getResults(filteredKeysAndValues);
             final Iterator<String> filteredKeys = keys();
             final float score = 1.0f;
             return new Results() {
@@ -368,9 +493,62 @@ class Operations {
             };
         }
 
+        protected Results getResults( final Iterator<Map.Entry<String, Object>> filteredKeysAndValues ) {
+            final float score = 1.0f;
+            return new Results() {
+                @Override
+                public Filter.ResultBatch getNextBatch( int batchSize ) {
+                    int count = 0;
+                    final LinkedHashMap<NodeKey, Object> valuesByKey = new LinkedHashMap<>();
+                    while (count < batchSize && filteredKeysAndValues.hasNext()) {
+                        Map.Entry<String, Object> entry = filteredKeysAndValues.next();
+                        NodeKey key = new NodeKey(entry.getKey());
+                        Object value = entry.getValue();
+                        if (valuesByKey.containsKey(key) && !Objects.equals(valuesByKey.get(key), value)) {
+                            // The node has several values in this batch, so none of them is the value of the node ...
+                            value = null;
+                        }
+                        valuesByKey.put(key, value);
+                        count++;
+                    }
+                    return new Filter.ResultBatch() {
+                        @Override
+                        public Iterable<NodeKey> keys() {
+                            return () -> valuesByKey.keySet().iterator();
+                        }
+
+                        @Override
+                        public Iterable<Float> scores() {
+                            return Collections.nCopies(valuesByKey.size(), score);
+                        }
+
+                        @Override
+                        public Iterable<?> values() {
+                            return () -> valuesByKey.values().iterator();
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return filteredKeysAndValues.hasNext();
+                        }
+
+                        @Override
+                        public int size() {
+                            return valuesByKey.size();
+                        }
+                    };
+                }
+
+                @Override
+                public void close() {
+                    // Nothing to do ...
+                }
+            };
+        }
+
         @Override
         public long estimateCount() {
-            return keysByValue.size();
+            return nodeKeysAccessor.estimateCount(keysByValue);
         }
     }
 
@@ -435,20 +613,26 @@ class Operations {
             if (lowValue == null) {
                 if (highValue == null) return;
                 // High but not low ...
-                submap = keysByValue.headMap(highValue, true);
+                submap = headMap(highValue, true);
             } else {
                 if (highValue == null) {
                     // Low but not high ...
-                    submap = keysByValue.tailMap(lowValue, true);
+                    submap = tailMap(lowValue, true);
                 } else {
                     // Both high and low ...
-                    submap = keysByValue.subMap(lowValue, true, highValue, true);
+                    submap = subMap(lowValue, true, highValue, true);
                 }
             }
             if (submap.isEmpty()) return; // no values for these keys
             nodeKeysAccessor.addAllTo(submap, matchedKeys);
         }
 
+        @Override
+        protected Iterator<Map.Entry<String, Object>> keysAndValues() {
+            // The matching keys are gathered from several ranges without their values ...
+            return null;
+        }
+
         @Override
         protected Iterator<String> keys() {
             // Determine the set of keys that have a value in our set ...
@@ -520,22 +704,22 @@ class Operations {
                 if (lowValue == null) {
                     if (highValue == null) continue;
                     // High but not low ...
-                    submap = keysByValue.headMap(highValue, true);
+                    submap = headMap(highValue, true);
                 } else {
                     if (highValue == null) {
                         // Low but not high ...
-                        submap = keysByValue.tailMap(lowValue, true);
+                        submap = tailMap(lowValue, true);
                     } else {
                         // Both high and low ...
-                        submap = keysByValue.subMap(lowValue, true, highValue, true);
+                        submap = subMap(lowValue, true, highValue, true);
                     }
                 }
-                count += submap.size();
+                count += nodeKeysAccessor.estimateCount(submap);
             }
 
-            if (!negated) {
-                // We've already found all of the keys for the given value, so just return them ...
-                count = keysByValue.size() - count;
+            if (negated) {
+                // We're supposed to find all of the keys that are NOT in the set ...
+                count = nodeKeysAccessor.estimateCount(keysByValue) - count;
             }
             return Math.max(count, 0L);
         }
@@ -612,6 +796,11 @@ class Operations {
                                     return resultFromFirst.scores();
                                 }
 
+                                @Override
+                                public Iterable<?> values() {
+                                    return resultFromFirst.values();
+                                }
+
                                 @Override
                                 public boolean hasNext() {
                                     return second != null;
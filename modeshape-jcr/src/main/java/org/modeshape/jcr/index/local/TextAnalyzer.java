@@ -0,0 +1,182 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into the lower-cased word tokens stored in a {@link LocalTextIndex}, optionally reducing English plurals to their
+ * singular forms. Tokens are runs of Unicode letters and digits, so all punctuation, whitespace and underscores are separators.
+ * <p>
+ * Query text is tokenized the same way, except that the JCR and LIKE wildcards ({@code *}, {@code %} and {@code ?}) are kept
+ * inside the tokens and such tokens are never stemmed.
+ * </p>
+ */
+final class TextAnalyzer {
+
+    static final TextAnalyzer STANDARD = new TextAnalyzer(false);
+    static final TextAnalyzer STEMMING = new TextAnalyzer(true);
+
+    private final boolean stemming;
+
+    private TextAnalyzer( boolean stemming ) {
+        this.stemming = stemming;
+    }
+
+    /**
+     * Get the analyzer for the given setting.
+     *
+     * @param stemming true if plurals should be reduced to their singular form, or false if tokens are used as is
+     * @return the analyzer; never null
+     */
+    static TextAnalyzer forStemming( boolean stemming ) {
+        return stemming ? STEMMING : STANDARD;
+    }
+
+    boolean isStemming() {
+        return stemming;
+    }
+
+    /**
+     * Split the supplied text into the tokens that should be indexed, in the order they appear in the text.
+     *
+     * @param text the text; may not be null
+     * @return the tokens; never null but possibly empty
+     */
+    List<String> tokenize( String text ) {
+        return tokenize(text, false);
+    }
+
+    /**
+     * Split the supplied search text into tokens, keeping any wildcard characters in the tokens.
+     *
+     * @param text the search text; may not be null
+     * @return the tokens; never null but possibly empty
+     */
+    List<String> tokenizeQuery( String text ) {
+        return tokenize(text, true);
+    }
+
+    private List<String> tokenize( String text,
+                                   boolean keepWildcards ) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i != text.length(); ++i) {
+            char c = text.charAt(i);
+            boolean tokenChar = Character.isLetterOrDigit(c) || (keepWildcards && isWildcard(c));
+            if (tokenChar) {
+                if (start == -1) start = i;
+            } else if (start != -1) {
+                tokens.add(normalize(text.substring(start, i)));
+                start = -1;
+            }
+        }
+        if (start != -1) {
+            tokens.add(normalize(text.substring(start)));
+        }
+        return tokens;
+    }
+
+    private String normalize( String token ) {
+        String lower = token.toLowerCase(Locale.ROOT);
+        return stemming && !hasWildcard(lower) ? stem(lower) : lower;
+    }
+
+    /**
+     * Reduce the English plural forms of the supplied lower-case token to their singular form. Only the most common and
+     * unambiguous suffixes are handled ("-ies", "-es" and "-s").
+     *
+     * @param token the lower-case token; may not be null
+     * @return the stemmed token; never null
+     */
+    static String stem( String token ) {
+        int len = token.length();
+        if (len < 3 || token.charAt(len - 1) != 's') return token;
+        switch (token.charAt(len - 2)) {
+            case 'u':
+            case 's':
+                return token;
+            case 'e':
+                if (len > 3 && token.charAt(len - 3) == 'i' && token.charAt(len - 4) != 'e' && token.charAt(len - 4) != 'a') {
+                    return token.substring(0, len - 3) + 'y';
+                }
+                char beforeE = token.charAt(len - 3);
+                if (beforeE == 'i' || beforeE == 'a' || beforeE == 'o' || beforeE == 'e') return token;
+                return token.substring(0, len - 1);
+            default:
+                return token.substring(0, len - 1);
+        }
+    }
+
+    static boolean isWildcard( char c ) {
+        return c == '*' || c == '%' || c == '?';
+    }
+
+    /**
+     * Determine whether the supplied query token contains any wildcard characters.
+     *
+     * @param token the token; may not be null
+     * @return true if the token has at least one wildcard, or false otherwise
+     */
+    static boolean hasWildcard( String token ) {
+        return indexOfWildcard(token) != -1;
+    }
+
+    /**
+     * Determine whether the supplied query token consists only of wildcard characters, and thus matches every term.
+     *
+     * @param token the token; may not be null
+     * @return true if the token has nothing but wildcards, or false otherwise
+     */
+    static boolean isOnlyWildcards( String token ) {
+        for (int i = 0; i != token.length(); ++i) {
+            if (!isWildcard(token.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    static int indexOfWildcard( String token ) {
+        for (int i = 0; i != token.length(); ++i) {
+            if (isWildcard(token.charAt(i))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Create the regular expression pattern that matches the terms described by the supplied wildcard token, where '*' and '%'
+     * match any number of characters and '?' matches exactly one.
+     *
+     * @param token the token; may not be null
+     * @return the pattern; never null
+     */
+    static Pattern patternFor( String token ) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i != token.length(); ++i) {
+            char c = token.charAt(i);
+            if (isWildcard(c)) {
+                if (i > literalStart) regex.append(Pattern.quote(token.substring(literalStart, i)));
+                regex.append(c == '?' ? "." : ".*");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < token.length()) regex.append(Pattern.quote(token.substring(literalStart)));
+        return Pattern.compile(regex.toString());
+    }
+}
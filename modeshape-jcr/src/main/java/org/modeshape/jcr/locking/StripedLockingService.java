@@ -0,0 +1,365 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.locking;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.RepositoryStatistics;
+
+/**
+ * {@link LockingService} implementation which maps lock names onto a fixed table of locks (stripes), rather than creating and
+ * later discarding a separate lock for each name. 
+ * <p>
+ * The stripes needed for a set of names are always acquired in ascending order, so callers which wait for each other's stripes
+ * cannot deadlock. Since several names share each stripe, a caller holding one name also excludes other callers from the
+ * remaining names of that stripe, so the number of stripes should be large compared to the number of names locked concurrently.
+ * </p>
+ * <p>
+ * A call which would hold a large fraction of the stripes (e.g., the save of thousands of nodes) would block most other callers,
+ * so such a call locks each of its names separately instead. It first locks its names (in ascending order), and then waits for
+ * each of their stripes to be free once, so that no caller holding one of the stripes can still be using one of the names. A
+ * caller which locks stripes checks afterwards that none of its names is locked separately, and otherwise releases its stripes
+ * and waits for those names, so that neither kind of caller can deadlock the other.
+ * </p>
+ * <p>
+ * Like the locks of the {@link StandaloneLockingService}, stripes can be released by a thread other than the one which acquired
+ * them, because transactions can complete on a different thread. A stripe is also reentrant for the thread holding it, so that a
+ * transaction can lock names that happen to share a stripe with names it already holds; each stripe is released once all of its
+ * holds have been released.
+ * </p>
+ */
+@ThreadSafe
+public class StripedLockingService implements LockingService {
+
+    private static final Logger LOGGER = Logger.getLogger(StripedLockingService.class);
+
+    /**
+     * The fraction of the stripes above which a single call locks each of its names separately.
+     */
+    private static final int MAX_STRIPES_PER_CALL_DIVISOR = 16;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int maxStripesPerCall;
+    private final ConcurrentHashMap<String, CountDownLatch> separatelyLockedNames = new ConcurrentHashMap<>();
+    private final long lockTimeoutMillis;
+    private final RepositoryStatistics statistics;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    /**
+     * Creates a new locking service.
+     *
+     * @param lockTimeoutMillis the number of milliseconds to wait by default for the locks to be obtained, before timing out
+     * @param stripeCount the minimum number of stripes; it is rounded up to a power of two
+     * @param statistics the statistics where the lock wait times are recorded; may be null
+     */
+    public StripedLockingService( long lockTimeoutMillis,
+                                  int stripeCount,
+                                  RepositoryStatistics statistics ) {
+        CheckArg.isNonNegative(lockTimeoutMillis, "lockTimeoutMillis");
+        CheckArg.isPositive(stripeCount, "stripeCount");
+        CheckArg.isLessThanOrEqualTo(stripeCount, 1 << 30, "stripeCount");
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount) size <<= 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i != size; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+        this.maxStripesPerCall = Math.max(1, size / MAX_STRIPES_PER_CALL_DIVISOR);
+        this.lockTimeoutMillis = lockTimeoutMillis;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public boolean tryLock( String... names ) throws InterruptedException {
+        return tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS, names);
+    }
+
+    @Override
+    public boolean tryLock( long time,
+                            TimeUnit unit,
+                            String... names ) throws InterruptedException {
+        if (!running.get()) {
+            throw new IllegalStateException("Service has been shut down");
+        }
+        int[] indexes = stripesFor(names);
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(time);
+        boolean locked = false;
+        try {
+            locked = indexes.length > maxStripesPerCall ? lockSeparately(names, deadline) : lockStripes(indexes, names, deadline);
+        } finally {
+            if (!locked && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Unable to lock {0}", Arrays.toString(names));
+            }
+            if (statistics != null) {
+                statistics.recordLockWait(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+        return locked;
+    }
+
+    private boolean lockStripes( int[] indexes,
+                                 String[] names,
+                                 long deadline ) throws InterruptedException {
+        for (;;) {
+            int acquired = 0;
+            CountDownLatch separateLock = null;
+            try {
+                while (acquired < indexes.length && acquire(stripes[indexes[acquired]], deadline)) {
+                    ++acquired;
+                }
+                if (acquired == indexes.length) {
+                    separateLock = separateLockOfAny(names);
+                    if (separateLock == null) {
+                        return true;
+                    }
+                }
+            } finally {
+                if (acquired < indexes.length || separateLock != null) {
+                    // either we timed out, were interrupted or one of the names is locked separately, so release the stripes ...
+                    for (int i = 0; i != acquired; ++i) {
+                        stripes[indexes[i]].release(1);
+                    }
+                }
+            }
+            if (acquired < indexes.length || !await(separateLock, deadline)) {
+                return false;
+            }
+        }
+    }
+
+    private CountDownLatch separateLockOfAny( String[] names ) {
+        if (separatelyLockedNames.isEmpty()) {
+            return null;
+        }
+        for (String name : names) {
+            CountDownLatch lock = separatelyLockedNames.get(name);
+            if (lock != null) {
+                return lock;
+            }
+        }
+        return null;
+    }
+
+    private boolean lockSeparately( String[] names,
+                                    long deadline ) throws InterruptedException {
+        String[] sortedNames = distinctSorted(names);
+        CountDownLatch lock = new CountDownLatch(1);
+        int locked = 0;
+        boolean success = false;
+        try {
+            // lock the names in ascending order, so that callers locking names separately cannot deadlock ...
+            while (locked < sortedNames.length) {
+                CountDownLatch existing = separatelyLockedNames.putIfAbsent(sortedNames[locked], lock);
+                if (existing == null) {
+                    ++locked;
+                } else if (!await(existing, deadline)) {
+                    return false;
+                }
+            }
+            // and wait until no caller holding one of the stripes can still be using one of the names ...
+            for (int index : stripesFor(sortedNames)) {
+                Stripe stripe = stripes[index];
+                if (!acquire(stripe, deadline)) {
+                    return false;
+                }
+                stripe.release(1);
+            }
+            success = true;
+            return true;
+        } finally {
+            if (!success) {
+                for (int i = 0; i != locked; ++i) {
+                    separatelyLockedNames.remove(sortedNames[i], lock);
+                }
+                lock.countDown();
+            }
+        }
+    }
+
+    private boolean await( CountDownLatch lock,
+                           long deadline ) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        return remaining > 0L && lock.await(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean acquire( Stripe stripe,
+                             long deadline ) throws InterruptedException {
+        if (stripe.tryAcquire(1)) {
+            return true;
+        }
+        long remaining = deadline - System.nanoTime();
+        return remaining > 0L && stripe.tryAcquireNanos(1, remaining);
+    }
+
+    @Override
+    public boolean unlock( String... names ) {
+        if (!running.get()) {
+            throw new IllegalStateException("Service has been shut down");
+        }
+        int[] indexes = stripesFor(names);
+        if (indexes.length > maxStripesPerCall) {
+            // these names were locked separately ...
+            CountDownLatch lock = null;
+            for (String name : distinctSorted(names)) {
+                CountDownLatch removed = separatelyLockedNames.remove(name);
+                lock = removed != null ? removed : lock;
+            }
+            if (lock != null) {
+                lock.countDown();
+            }
+            return true;
+        }
+        for (int index : indexes) {
+            stripes[index].release(1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean shutdown() {
+        return running.compareAndSet(true, false);
+    }
+
+    /**
+     * Get the number of stripes used by this service.
+     *
+     * @return the number of stripes; always a power of two
+     */
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Determine whether the stripe of the lock with the supplied name is currently held.
+     *
+     * @param name the name of the lock; may not be null
+     * @return true if the lock (or another one in the same stripe) is held, or false otherwise
+     */
+    public boolean isLocked( String name ) {
+        return stripes[stripeFor(name)].isHeld() || separatelyLockedNames.containsKey(name);
+    }
+
+    protected int stripeFor( String name ) {
+        int hash = name.hashCode();
+        // spread the higher bits, since many keys share long prefixes ...
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    private static String[] distinctSorted( String[] names ) {
+        String[] sorted = names.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i != sorted.length; ++i) {
+            if (distinct == 0 || !sorted[distinct - 1].equals(sorted[i])) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * Get the distinct stripes for the supplied names, in the order in which they have to be acquired.
+     *
+     * @param names the lock names; may not be null
+     * @return the sorted indexes of the stripes; never null
+     */
+    private int[] stripesFor( String... names ) {
+        int[] indexes = new int[names.length];
+        for (int i = 0; i != names.length; ++i) {
+            indexes[i] = stripeFor(names[i]);
+        }
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i != indexes.length; ++i) {
+            if (distinct == 0 || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        return distinct == indexes.length ? indexes : Arrays.copyOf(indexes, distinct);
+    }
+
+    /**
+     * An exclusive lock which counts the holds of its owning thread, and which (unlike the standard locks) can be released by any
+     * thread.
+     */
+    protected static final class Stripe extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean tryAcquire( int holds ) {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                int state = getState();
+                if (state == 0) {
+                    if (compareAndSetState(0, holds)) {
+                        setExclusiveOwnerThread(current);
+                        return true;
+                    }
+                } else if (current == getExclusiveOwnerThread()) {
+                    if (compareAndSetState(state, state + holds)) {
+                        return true;
+                    }
+                } else {
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryRelease( int holds ) {
+            for (;;) {
+                int state = getState();
+                if (state <= 0) {
+                    // not held (e.g., it was already released after a failure) ...
+                    return false;
+                }
+                if (state > holds) {
+                    if (compareAndSetState(state, state - holds)) {
+                        return false;
+                    }
+                    continue;
+                }
+                Thread owner = getExclusiveOwnerThread();
+                setExclusiveOwnerThread(null);
+                if (compareAndSetState(state, 0)) {
+                    return true;
+                }
+                // the owner acquired another hold in the meantime, so try again ...
+                setExclusiveOwnerThread(owner);
+            }
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getState() > 0 && Thread.currentThread() == getExclusiveOwnerThread();
+        }
+
+        protected boolean isHeld() {
+            return getState() > 0;
+        }
+    }
+}
@@ -15,18 +15,22 @@
  */
 package org.modeshape.jcr.query;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import org.mapdb.BTreeKeySerializer;
 import org.mapdb.DB;
 import org.mapdb.DB.BTreeMapMaker;
@@ -37,6 +41,8 @@ import org.mapdb.Serializer;
 import org.modeshape.common.collection.SingleIterator;
 import org.modeshape.common.collection.Supplier;
 import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.index.local.MapDB;
 import org.modeshape.jcr.index.local.MapDB.ComparableUniqueKeyComparator;
 import org.modeshape.jcr.index.local.MapDB.Serializers;
@@ -151,6 +157,17 @@ public class BufferManager implements Serializers, AutoCloseable {
         void put( SortType sortable,
                   RecordType record );
 
+        /**
+         * Put the supplied value into the buffer given its sortable value, unless this buffer does not allow duplicates and
+         * already contains a record with the same sortable value, in which case that first record is kept.
+         * 
+         * @param sortable the value of the record that is to be used for sorting
+         * @param record the record
+         * @return true if the record was put into the buffer, or false if it was not
+         */
+        boolean putIfAbsent( SortType sortable,
+                             RecordType record );
+
         /**
          * Get an iterator over all of the records in ascending order.
          * 
@@ -188,6 +205,14 @@ public class BufferManager implements Serializers, AutoCloseable {
                                      boolean includeLowerKey,
                                      SortType upperKey,
                                      boolean includeUpperKey );
+
+        /**
+         * Remove all of the records from this buffer in ascending order, passing each of them and the sortable value with which
+         * it was {@link #put(Object, Object) put} into the buffer to the supplied consumer.
+         * 
+         * @param consumer the consumer of the sortable values and records; may not be null
+         */
+        void removeAll( BiConsumer<SortType, RecordType> consumer );
     }
 
     /**
@@ -206,6 +231,16 @@ public class BufferManager implements Serializers, AutoCloseable {
          */
         QueueBufferMaker<T> useHeap( boolean useHeap );
 
+        /**
+         * Specify whether to store the buffer in a temporary file rather than in memory. Buffers stored on disk are meant for
+         * content that does not fit in memory, and take precedence over {@link #useHeap(boolean)}.
+         * 
+         * @param onDisk true if the buffer's contents are to be stored in a temporary file, or false if they are to be kept in
+         *        memory
+         * @return this maker instance; never null
+         */
+        QueueBufferMaker<T> onDisk( boolean onDisk );
+
         /**
          * Create the {@link DistinctBuffer} instance.
          * 
@@ -332,20 +367,53 @@ public class BufferManager implements Serializers, AutoCloseable {
         }
     };
 
+    private final static Supplier<DB> ON_DISK_DB_SUPPLIER = new Supplier<DB>() {
+        @Override
+        public DB get() {
+            // the content is only ever read back by the query that wrote it, so there's no need for transactions or caching ...
+            return DBMaker.newTempFileDB().transactionDisable().cacheDisable().deleteFilesAfterClose().closeOnJvmShutdown()
+                          .make();
+        }
+    };
+
     private final Serializers serializers;
     private final DbHolder offheap;
     private final DbHolder onheap;
+    private final DbHolder ondisk;
     private final AtomicLong dbCounter = new AtomicLong();
+    private final RepositoryStatistics statistics;
+    private final ConcurrentLinkedQueue<String> usages = new ConcurrentLinkedQueue<>();
 
     public BufferManager( ExecutionContext context ) {
-        this(context, OFF_HEAP_DB_SUPPLIER, ON_HEAP_DB_SUPPLIER);
+        this(context, null);
+    }
+
+    /**
+     * Create a buffer manager which records the memory and disk usage of the query operations in the supplied statistics.
+     * 
+     * @param context the execution context; may not be null
+     * @param statistics the repository statistics; may be null if the usage is not to be recorded
+     */
+    public BufferManager( ExecutionContext context,
+                          RepositoryStatistics statistics ) {
+        this(context, OFF_HEAP_DB_SUPPLIER, ON_HEAP_DB_SUPPLIER, ON_DISK_DB_SUPPLIER, statistics);
     }
 
     protected BufferManager( ExecutionContext context,
                              Supplier<DB> offheapDbSupplier,
                              Supplier<DB> onheapDbSupplier ) {
+        this(context, offheapDbSupplier, onheapDbSupplier, ON_DISK_DB_SUPPLIER, null);
+    }
+
+    protected BufferManager( ExecutionContext context,
+                             Supplier<DB> offheapDbSupplier,
+                             Supplier<DB> onheapDbSupplier,
+                             Supplier<DB> ondiskDbSupplier,
+                             RepositoryStatistics statistics ) {
         offheap = new DbHolder(offheapDbSupplier);
         onheap = new DbHolder(onheapDbSupplier);
+        ondisk = new DbHolder(ondiskDbSupplier);
+        this.statistics = statistics;
 
         // Create the serializers ...
         ValueFactories factories = context.getValueFactories();
@@ -365,10 +433,51 @@ public class BufferManager implements Serializers, AutoCloseable {
             } catch (RuntimeException e) {
                 if (error == null) error = e;
             }
+            try {
+                ondisk.close();
+            } catch (RuntimeException e) {
+                if (error == null) error = e;
+            }
             if (error != null) throw error;
         }
     }
 
+    /**
+     * Record how much memory a query operation used for its buffers, and how many bytes it wrote to temporary files because it
+     * did not fit in that memory. The usage is reported in the {@link RepositoryStatistics repository statistics} and is
+     * available via {@link #getUsages()}.
+     * 
+     * @param operation the description of the operation; may not be null
+     * @param peakMemory the largest number of bytes the operation held in memory at any time
+     * @param spilledBytes the number of bytes the operation wrote to disk
+     */
+    public void recordUsage( String operation,
+                             long peakMemory,
+                             long spilledBytes ) {
+        StringBuilder sb = new StringBuilder(operation);
+        sb.append(" peakMemory=").append(peakMemory).append(" bytes");
+        if (spilledBytes > 0L) {
+            sb.append(", spilled=").append(spilledBytes).append(" bytes");
+        }
+        usages.add(sb.toString());
+        if (statistics != null) {
+            statistics.set(ValueMetric.QUERY_BUFFER_PEAK_MEMORY, peakMemory);
+            if (spilledBytes > 0L) {
+                statistics.increment(ValueMetric.QUERY_SPILLED_BYTES, spilledBytes);
+            }
+        }
+    }
+
+    /**
+     * Get the descriptions of the memory and disk usage that was {@link #recordUsage(String, long, long) recorded} by the query
+     * operations using this manager.
+     * 
+     * @return the descriptions, in the order they were recorded; never null but possibly empty
+     */
+    public List<String> getUsages() {
+        return new ArrayList<>(usages);
+    }
+
     /**
      * Obtain a maker object that can create a new {@link QueueBuffer}.
      * 
@@ -477,24 +586,43 @@ public class BufferManager implements Serializers, AutoCloseable {
         return useHeap ? onheap.get() : offheap.get();
     }
 
+    protected final DB db( boolean useHeap,
+                           boolean onDisk ) {
+        return onDisk ? ondisk.get() : db(useHeap);
+    }
+
     protected final void delete( String name,
                                  boolean onHeap ) {
         db(onHeap).delete(name);
     }
 
+    protected final void delete( String name,
+                                 boolean onHeap,
+                                 boolean onDisk ) {
+        db(onHeap, onDisk).delete(name);
+    }
+
     protected abstract class CloseableBuffer implements Buffer {
         protected final String name;
         protected final boolean onHeap;
+        protected final boolean onDisk;
 
         protected CloseableBuffer( String name,
                                    boolean onHeap ) {
+            this(name, onHeap, false);
+        }
+
+        protected CloseableBuffer( String name,
+                                   boolean onHeap,
+                                   boolean onDisk ) {
             this.name = name;
             this.onHeap = onHeap;
+            this.onDisk = onDisk;
         }
 
         @Override
         public void close() {
-            BufferManager.this.delete(name, onHeap);
+            BufferManager.this.delete(name, onHeap, onDisk);
         }
     }
 
@@ -505,7 +633,14 @@ public class BufferManager implements Serializers, AutoCloseable {
         protected CloseableQueueBuffer( String name,
                                         boolean onHeap,
                                         Map<Long, T> buffer ) {
-            super(name, onHeap);
+            this(name, onHeap, false, buffer);
+        }
+
+        protected CloseableQueueBuffer( String name,
+                                        boolean onHeap,
+                                        boolean onDisk,
+                                        Map<Long, T> buffer ) {
+            super(name, onHeap, onDisk);
             this.buffer = buffer;
         }
 
@@ -617,6 +752,12 @@ public class BufferManager implements Serializers, AutoCloseable {
             buffer.put(sortable, record);
         }
 
+        @Override
+        public boolean putIfAbsent( K sortable,
+                                    V record ) {
+            return buffer.putIfAbsent(sortable, record) == null;
+        }
+
         @Override
         public Iterator<V> getAll( K key ) {
             V value = buffer.get(key);
@@ -642,6 +783,16 @@ public class BufferManager implements Serializers, AutoCloseable {
             return buffer.subMap(lowerKey, includeLowerKey, upperKey, includeUpperKey).values().iterator();
         }
 
+        @Override
+        public void removeAll( BiConsumer<K, V> consumer ) {
+            Iterator<Map.Entry<K, V>> entryIter = buffer.entrySet().iterator();
+            while (entryIter.hasNext()) {
+                Map.Entry<K, V> entry = entryIter.next();
+                consumer.accept(entry.getKey(), entry.getValue());
+                entryIter.remove();
+            }
+        }
+
         @Override
         public Iterator<V> ascending() {
             final Iterator<Map.Entry<K, V>> entryIter = buffer.entrySet().iterator();
@@ -718,6 +869,13 @@ public class BufferManager implements Serializers, AutoCloseable {
             buffer.put(new UniqueKey<K>(sortable, counter.incrementAndGet()), record);
         }
 
+        @Override
+        public boolean putIfAbsent( K sortable,
+                                    V record ) {
+            put(sortable, record);
+            return true;
+        }
+
         @Override
         public Iterator<V> getAll( K key ) {
             UniqueKey<K> lowest = new UniqueKey<K>(key, 0);
@@ -762,6 +920,16 @@ public class BufferManager implements Serializers, AutoCloseable {
             return buffer.subMap(lowest, includeLowerKey, highest, includeUpperKey).values().iterator();
         }
 
+        @Override
+        public void removeAll( BiConsumer<K, V> consumer ) {
+            Iterator<Map.Entry<UniqueKey<K>, V>> entryIter = buffer.entrySet().iterator();
+            while (entryIter.hasNext()) {
+                Map.Entry<UniqueKey<K>, V> entry = entryIter.next();
+                consumer.accept(entry.getKey().getActualKey(), entry.getValue());
+                entryIter.remove();
+            }
+        }
+
         @Override
         public Iterator<V> ascending() {
             final Iterator<Map.Entry<UniqueKey<K>, V>> entryIter = buffer.entrySet().iterator();
@@ -813,6 +981,7 @@ public class BufferManager implements Serializers, AutoCloseable {
     protected final class MakeOrderedBuffer<T> implements QueueBufferMaker<T> {
         private final String name;
         private boolean useHeap = true;
+        private boolean onDisk = false;
         private final Serializer<T> serializer;
 
         protected MakeOrderedBuffer( String name,
@@ -829,10 +998,17 @@ public class BufferManager implements Serializers, AutoCloseable {
             return this;
         }
 
+        @Override
+        public MakeOrderedBuffer<T> onDisk( boolean onDisk ) {
+            this.onDisk = onDisk;
+            return this;
+        }
+
         @Override
         public QueueBuffer<T> make() {
-            HTreeMap<Long, T> values = db(useHeap).createHashMap(name).valueSerializer(serializer).counterEnable().make();
-            return new CloseableQueueBuffer<T>(name, useHeap, values);
+            HTreeMap<Long, T> values = db(useHeap, onDisk).createHashMap(name).valueSerializer(serializer).counterEnable()
+                                                          .make();
+            return new CloseableQueueBuffer<T>(name, useHeap, onDisk, values);
         }
     }
 
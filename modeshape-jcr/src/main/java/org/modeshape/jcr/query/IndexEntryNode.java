@@ -0,0 +1,250 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.ChildReferences;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.NodeNotFoundException;
+import org.modeshape.jcr.cache.PathCache;
+import org.modeshape.jcr.cache.ReferrerCounts;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Path.Segment;
+import org.modeshape.jcr.value.Property;
+
+/**
+ * A {@link CachedNode} for a row that was read from an index entry, which knows the node's key and the value of the indexed
+ * property. The indexed property is answered from the index entry, while everything else about the node is obtained from the
+ * node itself, which is loaded from the workspace cache only when first needed. A query whose columns and criteria only use the
+ * indexed property therefore never loads the nodes in its results.
+ * <p>
+ * Instances are only created for synchronous indexes that hold at most one value of a property per node, so the value in the
+ * index entry is always the persisted value of the node's property.
+ * </p>
+ *
+ * @see IndexEntryNodes
+ */
+@ThreadSafe
+public final class IndexEntryNode implements CachedNode {
+
+    private final NodeKey key;
+    private final Property property;
+    private final NodeCache cache;
+    private volatile CachedNode node;
+
+    /**
+     * Create a node for an index entry.
+     *
+     * @param key the key of the node; may not be null
+     * @param property the indexed property of the node, with the value from the index entry; may not be null
+     * @param cache the workspace cache from which the node itself can be loaded; may not be null
+     */
+    public IndexEntryNode( NodeKey key,
+                           Property property,
+                           NodeCache cache ) {
+        assert key != null;
+        assert property != null;
+        assert cache != null;
+        this.key = key;
+        this.property = property;
+        this.cache = cache;
+    }
+
+    /**
+     * Determine whether the value of the named property is known from the index entry, without loading the node.
+     *
+     * @param name the name of the property; may not be null
+     * @return true if the index entry contains the property's value, or false otherwise
+     */
+    public boolean covers( Name name ) {
+        return property.getName().equals(name);
+    }
+
+    /**
+     * Get the indexed property of this node, with the value from the index entry.
+     *
+     * @return the property; never null
+     */
+    public Property getCoveredProperty() {
+        return property;
+    }
+
+    /**
+     * Determine whether the node itself has already been loaded from the workspace cache.
+     *
+     * @return true if the node has been loaded, or false if only the index entry has been used
+     */
+    public boolean isLoaded() {
+        return node != null;
+    }
+
+    protected CachedNode node() {
+        CachedNode node = this.node;
+        if (node == null) {
+            node = cache.getNode(key);
+            if (node == null) throw new NodeNotFoundException(key);
+            this.node = node;
+        }
+        return node;
+    }
+
+    @Override
+    public NodeKey getKey() {
+        return key;
+    }
+
+    @Override
+    public Name getName( NodeCache cache ) {
+        return node().getName(cache);
+    }
+
+    @Override
+    public Segment getSegment( NodeCache cache ) {
+        return node().getSegment(cache);
+    }
+
+    @Override
+    public Path getPath( NodeCache cache ) throws NodeNotFoundException {
+        return node().getPath(cache);
+    }
+
+    @Override
+    public Path getPath( PathCache pathCache ) throws NodeNotFoundException {
+        return node().getPath(pathCache);
+    }
+
+    @Override
+    public int getDepth( NodeCache cache ) throws NodeNotFoundException {
+        return node().getDepth(cache);
+    }
+
+    @Override
+    public NodeKey getParentKey( NodeCache cache ) {
+        return node().getParentKey(cache);
+    }
+
+    @Override
+    public NodeKey getParentKeyInAnyWorkspace( NodeCache cache ) {
+        return node().getParentKeyInAnyWorkspace(cache);
+    }
+
+    @Override
+    public Set<NodeKey> getAdditionalParentKeys( NodeCache cache ) {
+        return node().getAdditionalParentKeys(cache);
+    }
+
+    @Override
+    public Name getPrimaryType( NodeCache cache ) {
+        return node().getPrimaryType(cache);
+    }
+
+    @Override
+    public Set<Name> getMixinTypes( NodeCache cache ) {
+        return node().getMixinTypes(cache);
+    }
+
+    @Override
+    public int getPropertyCount( NodeCache cache ) {
+        return node().getPropertyCount(cache);
+    }
+
+    @Override
+    public boolean hasProperties( NodeCache cache ) {
+        return true;
+    }
+
+    @Override
+    public boolean hasProperty( Name name,
+                                NodeCache cache ) {
+        return covers(name) || node().hasProperty(name, cache);
+    }
+
+    @Override
+    public Property getProperty( Name name,
+                                 NodeCache cache ) {
+        return covers(name) ? property : node().getProperty(name, cache);
+    }
+
+    @Override
+    public Properties getPropertiesByName( NodeCache cache ) {
+        return node().getPropertiesByName(cache);
+    }
+
+    @Override
+    public Iterator<Property> getProperties( NodeCache cache ) {
+        return node().getProperties(cache);
+    }
+
+    @Override
+    public Iterator<Property> getProperties( Collection<?> namePatterns,
+                                             NodeCache cache ) {
+        return node().getProperties(namePatterns, cache);
+    }
+
+    @Override
+    public ChildReferences getChildReferences( NodeCache cache ) {
+        return node().getChildReferences(cache);
+    }
+
+    @Override
+    public Set<NodeKey> getReferrers( NodeCache cache,
+                                      ReferenceType type ) {
+        return node().getReferrers(cache, type);
+    }
+
+    @Override
+    public ReferrerCounts getReferrerCounts( NodeCache cache ) {
+        return node().getReferrerCounts(cache);
+    }
+
+    @Override
+    public boolean isAtOrBelow( NodeCache cache,
+                                Path path ) {
+        return node().isAtOrBelow(cache, path);
+    }
+
+    @Override
+    public boolean isExcludedFromSearch( NodeCache cache ) {
+        return node().isExcludedFromSearch(cache);
+    }
+
+    @Override
+    public boolean hasACL( NodeCache cache ) {
+        return node().hasACL(cache);
+    }
+
+    @Override
+    public Map<String, Set<String>> getPermissions( NodeCache cache ) {
+        return node().getPermissions(cache);
+    }
+
+    @Override
+    public boolean isExternal( NodeCache cache ) {
+        return node().isExternal(cache);
+    }
+
+    @Override
+    public String toString() {
+        return "index entry of " + key + " with " + property;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.CachedNodeSupplier;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.PropertyFactory;
+
+/**
+ * The factory for the {@link IndexEntryNode}s of an index-only scan, which creates a node for each index entry that contains the
+ * value of the covered property, and loads all other nodes from the workspace cache.
+ * <p>
+ * The rows that a query buffers (for example to sort them, or to be able to iterate over the results several times) only keep
+ * the keys of their nodes, and obtain the nodes again when they are read. When the nodes are remembered, this supplier returns
+ * the same index entry nodes for those keys, so that buffering the rows does not load their nodes.
+ * </p>
+ */
+@ThreadSafe
+public final class IndexEntryNodes implements CachedNodeSupplier {
+
+    private final String workspaceName;
+    private final Name propertyName;
+    private final PropertyFactory propertyFactory;
+    private final NodeCache cache;
+    private final Map<NodeKey, CachedNode> nodesByKey;
+
+    /**
+     * Create the factory for the index entry nodes in one workspace.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param propertyName the name of the property whose values are stored in the index entries; may not be null
+     * @param propertyFactory the factory for the properties; may not be null
+     * @param cache the workspace cache from which the nodes are loaded; may not be null
+     * @param remember true if the created nodes should be remembered and {@link #getNode(NodeKey) returned} by their keys, or
+     *        false if the rows of the query are never buffered
+     */
+    public IndexEntryNodes( String workspaceName,
+                            Name propertyName,
+                            PropertyFactory propertyFactory,
+                            NodeCache cache,
+                            boolean remember ) {
+        assert workspaceName != null;
+        assert propertyName != null;
+        assert propertyFactory != null;
+        assert cache != null;
+        this.workspaceName = workspaceName;
+        this.propertyName = propertyName;
+        this.propertyFactory = propertyFactory;
+        this.cache = cache;
+        this.nodesByKey = remember ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Get the name of the workspace in which the nodes exist.
+     *
+     * @return the workspace name; never null
+     */
+    public String getWorkspaceName() {
+        return workspaceName;
+    }
+
+    /**
+     * Get the name of the property whose values are stored in the index entries.
+     *
+     * @return the property name; never null
+     */
+    public Name getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * Get the node for an index entry.
+     *
+     * @param key the key of the node; may not be null
+     * @param value the indexed value of the node, or null if it is not known
+     * @return the index entry node, or the node loaded from the workspace cache if the value is not known; null only if the
+     *         value is not known and there is no such node
+     */
+    public CachedNode nodeFor( NodeKey key,
+                               Object value ) {
+        if (value == null) return cache.getNode(key);
+        CachedNode node = new IndexEntryNode(key, propertyFactory.create(propertyName, value), cache);
+        if (nodesByKey != null) nodesByKey.put(key, node);
+        return node;
+    }
+
+    /**
+     * Get an iterator over the nodes for the supplied index entries.
+     *
+     * @param keys the iterator over the keys of the nodes; may not be null
+     * @param values the iterator over the indexed values of the same nodes; may not be null
+     * @return the iterator over the nodes; never null
+     * @see #nodeFor(NodeKey, Object)
+     */
+    public Iterator<CachedNode> nodesFor( final Iterator<NodeKey> keys,
+                                         final Iterator<?> values ) {
+        return new Iterator<CachedNode>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public CachedNode next() {
+                return nodeFor(keys.next(), values.next());
+            }
+        };
+    }
+
+    @Override
+    public CachedNode getNode( NodeKey key ) {
+        if (nodesByKey != null) {
+            CachedNode node = nodesByKey.get(key);
+            if (node != null) return node;
+        }
+        return cache.getNode(key);
+    }
+
+    @Override
+    public String toString() {
+        return "index entries of " + propertyName + " in '" + workspaceName + "'";
+    }
+}
@@ -23,6 +23,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.Query;
 import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.util.CheckArg;
@@ -47,6 +48,8 @@ public class JcrQuery extends JcrAbstractQuery {
     private final PlanHints hints;
     private final Map<String, Object> variables;
     private volatile Set<String> variableNames;
+    private boolean keysetPagination;
+    private String continuationToken;
     private final AtomicReference<CancellableQuery> executingQuery = new AtomicReference<CancellableQuery>();
 
     /**
@@ -79,6 +82,24 @@ public class JcrQuery extends JcrAbstractQuery {
         this.hints.includeSystemContent = includeSystemContent;
     }
 
+    @Override
+    public void executeInParallel( boolean parallel ) {
+        this.hints.parallelExecution = parallel;
+    }
+
+    @Override
+    public void streamResults( boolean stream ) {
+        this.hints.restartable = !stream;
+    }
+
+    @Override
+    public void startAfter( String continuationToken ) throws InvalidQueryException {
+        KeysetPagination pagination = KeysetPagination.of(query, statement);
+        if (continuationToken != null) pagination.validate(continuationToken, statement);
+        this.keysetPagination = true;
+        this.continuationToken = continuationToken;
+    }
+
     protected QueryCommand query() {
         return query;
     }
@@ -107,8 +128,15 @@ public class JcrQuery extends JcrAbstractQuery {
     public org.modeshape.jcr.api.query.QueryResult execute() throws RepositoryException {
         context.checkValid();
         final long start = System.nanoTime();
+        QueryCommand command = query;
+        KeysetPagination pagination = null;
+        if (keysetPagination) {
+            // The limit may have changed since the token was supplied, but not the orderings ...
+            pagination = KeysetPagination.of(query, statement);
+            command = pagination.pagedQuery(continuationToken, statement, context.getExecutionContext());
+        }
         // Create an executable query and set it on this object ...
-        CancellableQuery newExecutable = context.createExecutableQuery(query, hints, variables);
+        CancellableQuery newExecutable = context.createExecutableQuery(command, hints, variables);
         CancellableQuery executable = executingQuery.getAndSet(newExecutable);
         if (executable == null) {
             // We are the first to call 'execute()', so use our newly-created one ...
@@ -122,7 +150,9 @@ public class JcrQuery extends JcrAbstractQuery {
 
         checkForProblems(result.getProblems());
         context.recordDuration(Math.abs(System.nanoTime() - start), TimeUnit.NANOSECONDS, statement, language);
-        return new JcrQueryResult(context, statement, result, hints.restartable, hints.rowsKeptInMemory);
+        JcrQueryResult queryResult = new JcrQueryResult(context, statement, result, hints.restartable, hints.rowsKeptInMemory);
+        if (pagination != null) queryResult.setKeysetPagination(pagination);
+        return queryResult;
     }
 
     @SuppressWarnings( "deprecation" )
@@ -17,6 +17,7 @@ package org.modeshape.jcr.query;
 
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
@@ -107,6 +108,41 @@ public interface JcrQueryContext {
      */
     boolean canRead( CachedNode node );
 
+    /**
+     * Checks if there is a {@link org.modeshape.jcr.ModeShapePermissions#READ} permission for every node in the workspace of this
+     * context, so that the permissions of the individual nodes need not be {@link #canRead(CachedNode) checked}.
+     * <p>
+     * By default every node is checked.
+     * </p>
+     * 
+     * @return {@code true} if the current context can read all of the nodes, or {@code false} if each node has to be checked
+     */
+    default boolean canReadAllNodes() {
+        return false;
+    }
+
+    /**
+     * Obtain a test of the {@link org.modeshape.jcr.ModeShapePermissions#READ} permission that is cheaper than
+     * {@link #canRead(CachedNode) checking} each node when applied to many nodes, such as all of the nodes in one batch of query
+     * results. The test may evaluate once what does not depend on the individual nodes, so a new test should be obtained for
+     * each batch.
+     *
+     * @return the test, which never accepts a {@code null} node; never null
+     */
+    default Predicate<CachedNode> readPermissionTest() {
+        return this::canRead;
+    }
+
+    /**
+     * Checks if the session of this context has transient changes, in which case the values of the nodes in the query results
+     * must be read from the session rather than from the persisted content. By default a context has no transient changes.
+     * 
+     * @return {@code true} if the session has unsaved changes, or {@code false} otherwise
+     */
+    default boolean hasPendingChanges() {
+        return false;
+    }
+
     /**
      * Create a JCR {@link Value} instance given the supplied value and property type.
      * 
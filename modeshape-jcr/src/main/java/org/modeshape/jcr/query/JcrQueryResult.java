@@ -37,6 +37,7 @@ import org.modeshape.common.collection.Problem.Status;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.CachedNodeSupplier;
+import org.modeshape.jcr.cache.PropertyTypeUtil;
 import org.modeshape.jcr.query.NodeSequence.Batch;
 import org.modeshape.jcr.query.NodeSequence.Restartable;
 import org.modeshape.jcr.query.QueryResults.Columns;
@@ -61,6 +62,8 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
     private final boolean restartable;
     private List<String> warnings;
     private boolean accessed = false;
+    private KeysetPagination keysetPagination;
+    private QueryResultIterator iterator;
 
     protected JcrQueryResult( JcrQueryContext context,
                               String query,
@@ -138,7 +141,26 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         // Find all of the nodes in the results...
         accessed = true;
         int defaultSelectorIndex = computeDefaultSelectorIndex();
-        return new QueryResultNodeIterator(context, sequence, defaultSelectorIndex);
+        return track(new QueryResultNodeIterator(context, sequence, defaultSelectorIndex));
+    }
+
+    /**
+     * Set the keyset pagination of the query that produced these results, so that the {@link #getContinuationToken()
+     * continuation token} of the last row can be obtained.
+     * 
+     * @param keysetPagination the pagination; may not be null
+     */
+    void setKeysetPagination( KeysetPagination keysetPagination ) {
+        this.keysetPagination = keysetPagination;
+    }
+
+    private <T extends QueryResultIterator> T track( T iterator ) {
+        if (keysetPagination != null) {
+            // Paged queries always have a single selector ...
+            iterator.trackNodesOf(computeDefaultSelectorIndex());
+            this.iterator = iterator;
+        }
+        return iterator;
     }
 
     protected int computeDefaultSelectorIndex() {
@@ -173,7 +195,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         final Columns columns = results.getColumns();
         if (columns.getSelectorNames().size() == 1) {
             // Then we know that there is only one selector in the results ...
-            return new SingleSelectorQueryResultRowIterator(context, queryStatement, sequence, columns);
+            return track(new SingleSelectorQueryResultRowIterator(context, queryStatement, sequence, columns));
         }
         // There may be 1 or more selectors in the columns, but the results definitely have more than one selector ...
         return new QueryResultRowIterator(context, queryStatement, sequence, results.getColumns());
@@ -204,6 +226,18 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         return warnings;
     }
 
+    @Override
+    public String getContinuationToken() {
+        if (iterator == null) return null;
+        CachedNode lastNode = iterator.lastTrackedNode();
+        if (lastNode == null) return null;
+        try {
+            return keysetPagination.continuationTokenFor(context.getNode(lastNode));
+        } catch (RepositoryException e) {
+            return null;
+        }
+    }
+
     @Override
     public boolean isEmpty() {
         return false;
@@ -230,6 +264,8 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         private NodeSequence sequence;
         private long position = 0L;
         private Batch currentBatch;
+        private int trackedSelectorIndex = -1;
+        private CachedNode lastTrackedNode;
 
         protected QueryResultIterator( JcrQueryContext context,
                                        NodeSequence sequence ) {
@@ -250,9 +286,23 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
             if (findNextBatch() == null || !currentBatch.hasNext()) throw new NoSuchElementException();
             currentBatch.nextRow();
             ++position;
+            if (trackedSelectorIndex >= 0) lastTrackedNode = currentBatch.getNode(trackedSelectorIndex);
             return currentBatch;
         }
 
+        /**
+         * Remember the node at the supplied position of the last row that was returned.
+         * 
+         * @param selectorIndex the 0-based index of the node in the rows
+         */
+        protected final void trackNodesOf( int selectorIndex ) {
+            this.trackedSelectorIndex = selectorIndex;
+        }
+
+        protected final CachedNode lastTrackedNode() {
+            return lastTrackedNode;
+        }
+
         protected Batch findNextBatch() {
             if (currentBatch == null || !currentBatch.hasNext()) {
                 currentBatch = sequence.nextBatch();
@@ -525,6 +575,12 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
                     return iterator.jcrUuid(cachedNode);
                 }
             }
+            if (cachedNode instanceof IndexEntryNode && ((IndexEntryNode)cachedNode).covers(qName)
+                && !iterator.context.hasPendingChanges()) {
+                // The value is known from the index entry, so the node doesn't need to be loaded ...
+                org.modeshape.jcr.value.Property property = ((IndexEntryNode)cachedNode).getCoveredProperty();
+                return iterator.context.createValue(PropertyTypeUtil.jcrPropertyTypeFor(property), property.getFirstValue());
+            }
             // Get the property's value ...
             Node node = iterator.context.getNode(cachedNode);
             if (node == null || !node.hasProperty(propertyName)) return null;
@@ -593,8 +649,8 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
 
     protected static class SingleSelectorQueryResultRow extends AbstractRow {
         protected final CachedNode cachedNode;
-        protected final Node node;
         protected final int selectorIndex;
+        private Node node;
 
         protected SingleSelectorQueryResultRow( QueryResultRowIterator iterator,
                                                 Batch batchAtRow,
@@ -602,7 +658,12 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
             super(iterator, batchAtRow);
             this.selectorIndex = selectorIndex;
             this.cachedNode = batchAtRow.getNode(selectorIndex);
-            this.node = iterator.context.getNode(cachedNode);
+        }
+
+        protected final Node node() {
+            // The node is only obtained when needed, since the values might be available without it ...
+            if (node == null) node = iterator.context.getNode(cachedNode);
+            return node;
         }
 
         @Override
@@ -610,7 +671,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
             if (!iterator.hasSelector(selectorName)) {
                 throw new RepositoryException(JcrI18n.selectorNotUsedInQuery.text(selectorName, iterator.query));
             }
-            return node;
+            return node();
         }
 
         @Override
@@ -620,12 +681,12 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
 
         @Override
         public Node getNode() {
-            return node;
+            return node();
         }
 
         @Override
         public String getPath() throws RepositoryException {
-            return node.getPath();
+            return node().getPath();
         }
 
         @Override
@@ -633,7 +694,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
             if (!iterator.hasSelector(selectorName)) {
                 throw new RepositoryException(JcrI18n.selectorNotUsedInQuery.text(selectorName, iterator.query));
             }
-            return node.getPath();
+            return node().getPath();
         }
 
         @Override
@@ -0,0 +1,294 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.InvalidQueryException;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.api.query.qom.Operator;
+import org.modeshape.jcr.query.model.And;
+import org.modeshape.jcr.query.model.Between;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.NodeId;
+import org.modeshape.jcr.query.model.Not;
+import org.modeshape.jcr.query.model.NullOrder;
+import org.modeshape.jcr.query.model.Or;
+import org.modeshape.jcr.query.model.Order;
+import org.modeshape.jcr.query.model.Ordering;
+import org.modeshape.jcr.query.model.PropertyExistence;
+import org.modeshape.jcr.query.model.PropertyValue;
+import org.modeshape.jcr.query.model.Query;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.Selector;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.model.SetCriteria;
+import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.value.ValueFactory;
+
+/**
+ * Keyset pagination of a query, which resumes the query after the last row of a previous page instead of skipping (and thus
+ * reading) all of the rows of the previous pages.
+ * <p>
+ * The query must have a single selector and may only be ordered by the values of properties. So that every row has a distinct
+ * position, the orderings are completed with the identifier of the nodes. The position of a row is captured in an opaque
+ * <i>continuation token</i> holding the row's values for each of the orderings; the query is resumed after that row by adding
+ * a constraint that only matches the rows that are ordered after it. When the values of the first ordering cannot be null (or
+ * when the nulls are ordered before the other values), that constraint also contains a simple range criteria on the first
+ * ordering, so that an index on that property can seek directly to the first row of the page.
+ * </p>
+ */
+@Immutable
+final class KeysetPagination {
+
+    private static final byte TOKEN_VERSION = 1;
+
+    /**
+     * Obtain the keyset pagination for the supplied query.
+     *
+     * @param command the query; may not be null
+     * @param statement the query statement, used in the exception messages; may not be null
+     * @return the pagination; never null
+     * @throws InvalidQueryException if the query cannot be paged by keyset
+     */
+    static KeysetPagination of( QueryCommand command,
+                                String statement ) throws InvalidQueryException {
+        if (command instanceof Query && ((Query)command).source() instanceof Selector) {
+            Query query = (Query)command;
+            List<PropertyValue> operands = new ArrayList<>();
+            for (Ordering ordering : query.orderings()) {
+                if (!(ordering.getOperand() instanceof PropertyValue)) break;
+                PropertyValue operand = (PropertyValue)ordering.getOperand();
+                if (PseudoColumns.allNames().contains(operand.getPropertyName())) break;
+                operands.add(operand);
+            }
+            if (operands.size() == query.orderings().size()) {
+                return new KeysetPagination(query, ((Selector)query.source()).aliasOrName(), operands);
+            }
+        }
+        throw new InvalidQueryException(JcrI18n.queryDoesNotSupportKeysetPagination.text(statement));
+    }
+
+    private final Query query;
+    private final SelectorName selectorName;
+    private final List<PropertyValue> operands;
+    private final int fingerprint;
+
+    private KeysetPagination( Query query,
+                              SelectorName selectorName,
+                              List<PropertyValue> operands ) {
+        this.query = query;
+        this.selectorName = selectorName;
+        this.operands = operands;
+        // Tokens can only be used with queries that order the rows in the same way ...
+        StringBuilder orderedBy = new StringBuilder(selectorName.getString());
+        for (Ordering ordering : query.orderings()) {
+            orderedBy.append(' ').append(Visitors.readable(ordering));
+        }
+        this.fingerprint = orderedBy.toString().hashCode();
+    }
+
+    /**
+     * Obtain the query that returns the rows after the one described by the supplied continuation token.
+     *
+     * @param continuationToken the token obtained from the results of a previous execution, or null if the first page is to be
+     *        returned
+     * @param statement the query statement, used in the exception messages; may not be null
+     * @param context the context used to create the values in the token; may not be null
+     * @return the query that should be executed; never null
+     * @throws InvalidQueryException if the token was not obtained from the results of this query
+     */
+    Query pagedQuery( String continuationToken,
+                      String statement,
+                      ExecutionContext context ) throws InvalidQueryException {
+        List<Ordering> orderings = new ArrayList<>(query.orderings());
+        orderings.add(new Ordering(new NodeId(selectorName), Order.ASCENDING, NullOrder.NULLS_LAST));
+        Query paged = query.orderedBy(orderings);
+        if (continuationToken == null) return paged;
+
+        Token token = decode(continuationToken, statement);
+        Object[] values = new Object[operands.size()];
+        for (int i = 0; i != values.length; ++i) {
+            if (token.values[i] != null) {
+                org.modeshape.jcr.value.PropertyType type = org.modeshape.jcr.value.PropertyType.valueFor(token.types[i]);
+                ValueFactory<?> factory = context.getValueFactories().getValueFactory(type);
+                values[i] = factory.create(token.values[i]);
+            }
+        }
+
+        // Build the constraint that matches the rows after the token's row, column by column ...
+        Constraint after = null;
+        Constraint equalSoFar = null;
+        for (int i = 0; i != values.length; ++i) {
+            Ordering ordering = query.orderings().get(i);
+            PropertyValue operand = operands.get(i);
+            boolean nullsAfter = ordering.nullOrder() == NullOrder.NULLS_LAST && !isNeverNull(operand);
+            Constraint beyond = null;
+            if (values[i] != null) {
+                Operator op = ordering.order() == Order.ASCENDING ? Operator.GREATER_THAN : Operator.LESS_THAN;
+                beyond = new Comparison(operand, op, new Literal(values[i]));
+                if (nullsAfter) beyond = new Or(beyond, isNull(operand));
+            } else if (!nullsAfter) {
+                // All of the rows with a value are ordered after the rows without a value ...
+                beyond = new PropertyExistence(operand.selectorName(), operand.getPropertyName());
+            }
+            if (beyond != null) after = or(after, and(equalSoFar, beyond));
+            Constraint equal = values[i] != null ? new Comparison(operand, Operator.EQUAL_TO, new Literal(values[i])) : isNull(operand);
+            equalSoFar = and(equalSoFar, equal);
+        }
+        Constraint afterIdentifier = new Comparison(new NodeId(selectorName), Operator.GREATER_THAN, new Literal(token.identifier));
+        after = or(after, and(equalSoFar, afterIdentifier));
+
+        if (!operands.isEmpty() && values[0] != null) {
+            Ordering first = query.orderings().get(0);
+            if (first.nullOrder() == NullOrder.NULLS_FIRST || isNeverNull(operands.get(0))) {
+                // Add a range criteria that an index can use to seek to the first row of the page ...
+                Operator op = first.order() == Order.ASCENDING ? Operator.GREATER_THAN_OR_EQUAL_TO : Operator.LESS_THAN_OR_EQUAL_TO;
+                after = new And(new Comparison(operands.get(0), op, new Literal(values[0])), after);
+            }
+        }
+        return paged.constrainedBy(and(query.constraint(), after));
+    }
+
+    /**
+     * Verify that the supplied continuation token was obtained from the results of this query.
+     *
+     * @param continuationToken the token; may not be null
+     * @param statement the query statement, used in the exception messages; may not be null
+     * @throws InvalidQueryException if the token was not obtained from the results of this query
+     */
+    void validate( String continuationToken,
+                   String statement ) throws InvalidQueryException {
+        decode(continuationToken, statement);
+    }
+
+    /**
+     * Create the continuation token that describes the position of the row with the supplied node.
+     *
+     * @param node the node in the row; may not be null
+     * @return the token, or null if the position of the node cannot be captured (e.g., because one of the ordering properties
+     *         has multiple or binary values)
+     * @throws RepositoryException if there is a problem reading the node's properties
+     */
+    String continuationTokenFor( Node node ) throws RepositoryException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(TOKEN_VERSION);
+            output.writeInt(fingerprint);
+            for (PropertyValue operand : operands) {
+                if (!node.hasProperty(operand.getPropertyName())) {
+                    output.writeInt(PropertyType.UNDEFINED);
+                    continue;
+                }
+                Property property = node.getProperty(operand.getPropertyName());
+                if (property.isMultiple() || property.getType() == PropertyType.BINARY) return null;
+                output.writeInt(property.getType());
+                output.writeUTF(property.getString());
+            }
+            output.writeUTF(node.getIdentifier());
+            output.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            // Should never happen when writing to memory ...
+            throw new RepositoryException(e);
+        }
+    }
+
+    private Token decode( String continuationToken,
+                          String statement ) throws InvalidQueryException {
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(continuationToken.getBytes(StandardCharsets.US_ASCII));
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (input.readByte() == TOKEN_VERSION && input.readInt() == fingerprint) {
+                Token token = new Token(operands.size());
+                for (int i = 0; i != operands.size(); ++i) {
+                    token.types[i] = input.readInt();
+                    if (token.types[i] != PropertyType.UNDEFINED) token.values[i] = input.readUTF();
+                }
+                token.identifier = input.readUTF();
+                if (input.available() == 0) return token;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // The token is not valid ...
+        }
+        throw new InvalidQueryException(JcrI18n.invalidContinuationTokenForQuery.text(continuationToken, statement));
+    }
+
+    private boolean isNeverNull( PropertyValue operand ) {
+        // Look for a criteria (ANDed with all of the others) that can only be satisfied by a value ...
+        List<Constraint> constraints = new ArrayList<>();
+        if (query.constraint() != null) constraints.add(query.constraint());
+        while (!constraints.isEmpty()) {
+            Constraint constraint = constraints.remove(constraints.size() - 1);
+            if (constraint instanceof And) {
+                constraints.add(((And)constraint).left());
+                constraints.add(((And)constraint).right());
+            } else if (constraint instanceof PropertyExistence) {
+                PropertyExistence existence = (PropertyExistence)constraint;
+                if (existence.selectorName().equals(operand.selectorName())
+                    && existence.getPropertyName().equals(operand.getPropertyName())) return true;
+            } else if (constraint instanceof Comparison) {
+                if (operand.equals(((Comparison)constraint).getOperand1())) return true;
+            } else if (constraint instanceof Between) {
+                if (operand.equals(((Between)constraint).getOperand())) return true;
+            } else if (constraint instanceof SetCriteria) {
+                if (operand.equals(((SetCriteria)constraint).leftOperand())) return true;
+            }
+        }
+        return false;
+    }
+
+    private static Constraint isNull( PropertyValue operand ) {
+        return new Not(new PropertyExistence(operand.selectorName(), operand.getPropertyName()));
+    }
+
+    private static Constraint and( Constraint left,
+                                   Constraint right ) {
+        return left == null ? right : new And(left, right);
+    }
+
+    private static Constraint or( Constraint left,
+                                  Constraint right ) {
+        return left == null ? right : new Or(left, right);
+    }
+
+    private static final class Token {
+        protected final int[] types;
+        protected final String[] values;
+        protected String identifier;
+
+        protected Token( int size ) {
+            this.types = new int[size];
+            this.values = new String[size];
+        }
+    }
+}
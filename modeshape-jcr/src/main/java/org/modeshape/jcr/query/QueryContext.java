@@ -17,6 +17,7 @@ package org.modeshape.jcr.query;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -29,12 +30,14 @@ import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.NodeTypes;
 import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.cache.CachedNodeSupplier;
 import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.RepositoryCache;
 import org.modeshape.jcr.cache.WorkspaceNotFoundException;
 import org.modeshape.jcr.query.model.BindVariableName;
 import org.modeshape.jcr.query.model.TypeSystem;
 import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
 import org.modeshape.jcr.query.validate.Schemata;
 import org.modeshape.jcr.value.NamespaceRegistry;
 
@@ -63,6 +66,10 @@ public class QueryContext {
     protected final BufferManager bufferManager;
     private final long id;
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private volatile boolean planDependsOnVariableValues = false;
+    private final Set<PlanNode> criteriaImpliedBySource = Collections.synchronizedSet(Collections.newSetFromMap(
+                                                                                  new IdentityHashMap<>()));
+    private volatile IndexEntryNodes indexEntryNodes;
 
     /**
      * Create a new context for query execution.
@@ -365,6 +372,72 @@ public class QueryContext {
         return variables;
     }
 
+    /**
+     * Record that the plan being created within this context depends upon the actual values of one or more
+     * {@link BindVariableName variables}, and therefore cannot be reused when the query is executed with other values.
+     */
+    public void markPlanAsDependentOnVariableValues() {
+        this.planDependsOnVariableValues = true;
+    }
+
+    /**
+     * Determine whether the plan created within this context depends upon the actual values of one or more
+     * {@link BindVariableName variables}.
+     * 
+     * @return true if the plan may only be used with the current variable values, or false otherwise
+     * @see #markPlanAsDependentOnVariableValues()
+     */
+    public boolean isPlanDependentOnVariableValues() {
+        return planDependsOnVariableValues;
+    }
+
+    /**
+     * Record that every node produced by the source below the supplied SELECT plan node is known to satisfy the SELECT's
+     * criteria (for example, because the source is an index that only contains nodes of the selected node type), so that the
+     * criteria need not be evaluated while the query is executed.
+     * 
+     * @param selectNode the SELECT plan node; may not be null
+     */
+    public void markCriteriaAsImpliedBySource( PlanNode selectNode ) {
+        criteriaImpliedBySource.add(selectNode);
+    }
+
+    /**
+     * Determine whether every node produced by the source below the supplied SELECT plan node is known to satisfy the SELECT's
+     * criteria.
+     * 
+     * @param selectNode the SELECT plan node; may not be null
+     * @return true if the criteria need not be evaluated, or false otherwise
+     * @see #markCriteriaAsImpliedBySource(PlanNode)
+     */
+    public boolean isCriteriaImpliedBySource( PlanNode selectNode ) {
+        return criteriaImpliedBySource.contains(selectNode);
+    }
+
+    /**
+     * Record that the rows of this query are read from index entries rather than from the nodes themselves.
+     * 
+     * @param indexEntryNodes the factory for the nodes of the index entries; may not be null
+     * @see #getCachedNodes(String)
+     */
+    public void useIndexEntryNodes( IndexEntryNodes indexEntryNodes ) {
+        this.indexEntryNodes = indexEntryNodes;
+    }
+
+    /**
+     * Get the supplier that the buffered rows of this query should use to obtain their nodes in the given workspace. This is the
+     * {@link #getNodeCache(String) node cache}, unless the rows are read from {@link #useIndexEntryNodes index entries}.
+     * 
+     * @param workspaceName the name of the workspace
+     * @return the supplier of the cached nodes; never null
+     * @throws WorkspaceNotFoundException if there is no workspace with the supplied name
+     */
+    public CachedNodeSupplier getCachedNodes( String workspaceName ) throws WorkspaceNotFoundException {
+        IndexEntryNodes indexEntryNodes = this.indexEntryNodes;
+        if (indexEntryNodes != null && indexEntryNodes.getWorkspaceName().equals(workspaceName)) return indexEntryNodes;
+        return getNodeCache(workspaceName);
+    }
+
     @Override
     public int hashCode() {
         return HashCode.compute(this.typeSystem, this.schemata, this.variables);
@@ -121,6 +121,12 @@ public final class IndexPlan implements Comparable<IndexPlan> {
      * Thus the selectivity (if known) will always be between 0 and 1.0, inclusive.
      * <p>
      * This method returns the estimated selectivity if it is know, or null if it is not known.
+     * </p>
+     * <p>
+     * For an index that applies to {@link #getJoinConditions() join conditions}, the selectivity is instead the fraction of the
+     * index's rows that a single value on the other side of the join matches (one over the number of distinct values), or 1.0
+     * if that is not known.
+     * </p>
      *
      * @return the selectivity estimate, or null if there is none
      */
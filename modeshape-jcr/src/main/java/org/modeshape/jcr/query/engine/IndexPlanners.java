@@ -178,6 +178,8 @@ public abstract class IndexPlanners {
         Object value = null;
         if (operand instanceof BindVariableName) {
             BindVariableName varName = (BindVariableName)operand;
+            // The index parameters hold this value, so the plan cannot be reused with other values ...
+            context.markPlanAsDependentOnVariableValues();
             value = context.getVariables().get(varName.getBindVariableName());
         } else if (operand instanceof Literal) {
             value = ((Literal)operand).value();
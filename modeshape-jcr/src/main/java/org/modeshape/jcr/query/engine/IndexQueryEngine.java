@@ -15,30 +15,66 @@
  */
 package org.modeshape.jcr.query.engine;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import javax.jcr.PropertyType;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.JcrLexicon;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.api.index.IndexColumnDefinition;
+import org.modeshape.jcr.api.index.IndexDefinition;
+import org.modeshape.jcr.api.index.IndexDefinition.IndexKind;
+import org.modeshape.jcr.api.query.qom.Operator;
+import org.modeshape.jcr.query.IndexEntryNodes;
 import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.PseudoColumns;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryEngine;
 import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.model.And;
+import org.modeshape.jcr.query.model.Between;
+import org.modeshape.jcr.query.model.Column;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DynamicOperand;
+import org.modeshape.jcr.query.model.Length;
+import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.LowerCase;
+import org.modeshape.jcr.query.model.NodeId;
+import org.modeshape.jcr.query.model.Not;
+import org.modeshape.jcr.query.model.Or;
+import org.modeshape.jcr.query.model.Ordering;
+import org.modeshape.jcr.query.model.PropertyExistence;
+import org.modeshape.jcr.query.model.PropertyValue;
 import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.SetCriteria;
+import org.modeshape.jcr.query.model.StaticOperand;
+import org.modeshape.jcr.query.model.UpperCase;
 import org.modeshape.jcr.query.optimize.AddIndexes;
+import org.modeshape.jcr.query.optimize.CostBasedJoinOrder;
 import org.modeshape.jcr.query.optimize.Optimizer;
 import org.modeshape.jcr.query.optimize.OptimizerRule;
 import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
 import org.modeshape.jcr.query.plan.Planner;
 import org.modeshape.jcr.spi.index.Index;
 import org.modeshape.jcr.spi.index.IndexCostCalculator;
 import org.modeshape.jcr.spi.index.IndexManager;
 import org.modeshape.jcr.spi.index.provider.IndexPlanner;
 import org.modeshape.jcr.spi.index.provider.IndexProvider;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.NameFactory;
 
 /**
  * A {@link QueryEngine} implementation that uses available indexes to more quickly produce query results.
@@ -57,6 +93,12 @@ import org.modeshape.jcr.spi.index.provider.IndexProvider;
  * </p>
  * <p>
  * Indexes are access from the repository's {@link IndexProvider} instances.
+ * </p>
+ * <p>
+ * When a query over a single selector only uses the values of the one property stored in a synchronous index (in its columns,
+ * criteria and orderings), the rows are produced directly from the index entries as {@link IndexEntryNodes index entry nodes},
+ * so the nodes themselves are never loaded unless the caller asks for them.
+ * </p>
  */
 public class IndexQueryEngine extends ScanningQueryEngine {
 
@@ -95,8 +137,21 @@ public class IndexQueryEngine extends ScanningQueryEngine {
             if (optimizer == null) {
                 // Create a single indexing rule that will use the index planner from all the providers ...
                 final OptimizerRule indexingRule = AddIndexes.with(indexPlanners);
+                // When configured, joins are reordered once the indexes (and thus the cardinalities) are known ...
+                RepositoryConfiguration.QueryExecution queryExecution = queryExecution();
+                final OptimizerRule joinOrderRule = queryExecution != null && queryExecution.isCostBasedJoins() ?
+                                                    new CostBasedJoinOrder(queryExecution.getExhaustiveJoinLimit()) : null;
                 // Create the optimizer that will add the providers' indexes using the same IndexingRule instance
                 optimizer = new RuleBasedOptimizer() {
+                    @Override
+                    protected void populateRuleStack( LinkedList<OptimizerRule> ruleStack,
+                                                      PlanHints hints ) {
+                        super.populateRuleStack(ruleStack, hints);
+                        if (hints.hasJoin && joinOrderRule != null) {
+                            ruleStack.addLast(joinOrderRule);
+                        }
+                    }
+
                     @Override
                     protected void populateIndexingRules( LinkedList<OptimizerRule> ruleStack,
                                                           PlanHints hints ) {
@@ -105,7 +160,8 @@ public class IndexQueryEngine extends ScanningQueryEngine {
                 };
             }
             // Finally create the query engine ...
-            return new IndexQueryEngine(context(), repositoryName(), planner(), optimizer, indexManager());
+            return new IndexQueryEngine(context(), repositoryName(), planner(), optimizer, indexManager(), queryExecution(),
+                                        planCache());
         }
 
         @Override
@@ -157,8 +213,10 @@ public class IndexQueryEngine extends ScanningQueryEngine {
                                 String repositoryName,
                                 Planner planner,
                                 Optimizer optimizer,
-                                IndexManager indexManager ) {
-        super(context, repositoryName, planner, optimizer);
+                                IndexManager indexManager,
+                                RepositoryConfiguration.QueryExecution queryExecution,
+                                QueryPlanCache planCache ) {
+        super(context, repositoryName, planner, optimizer, queryExecution, planCache);
         this.indexManager = indexManager;
     }
 
@@ -180,12 +238,234 @@ public class IndexQueryEngine extends ScanningQueryEngine {
             // Use the index to get a NodeSequence ...
             Index index = provider.getIndex(indexPlan.getName(), indexPlan.getWorkspaceName());
             if (index != null) {
-                return sources.fromIndex(index, indexPlan.getCardinalityEstimate(), indexPlan.getConstraints(),
-                                         indexPlan.getJoinConditions(), context.getVariables(),
-                                         indexPlan.getParameters(), context.getExecutionContext().getValueFactories(),
-                                         provider.batchSize());
+                IndexEntryNodes indexEntryNodes = indexEntryNodesFor(context, sourceNode, indexPlan, sources);
+                sequence = sources.fromIndex(index, indexPlan.getCardinalityEstimate(), indexPlan.getConstraints(),
+                                             indexPlan.getJoinConditions(), context.getVariables(),
+                                             indexPlan.getParameters(), context.getExecutionContext().getValueFactories(),
+                                             provider.batchSize(), rowsNeededBy(sourceNode), indexEntryNodes);
+                if (sequence != null && indexEntryNodes != null) {
+                    context.useIndexEntryNodes(indexEntryNodes);
+                    markNodeTypeCriteriaAsImplied(context, sourceNode, indexPlan);
+                    if (TRACE) {
+                        LOGGER.trace("Query {0} is answered from the entries of index {1}", context.id(), indexPlan.getName());
+                    }
+                }
+                return sequence;
             }
         }
         return null;
     }
+
+    /**
+     * Determine whether the query only needs the values stored in the supplied index, and if so create the factory for the nodes
+     * of the index entries. This is the case when the index is a synchronous value index on a single property that every node of
+     * the index's node type has at most once (and always with the index's type), and when the only plan nodes above the source
+     * are SELECT, PROJECT, SORT, LIMIT and ACCESS nodes that use nothing but that property, the node identifiers, the scores,
+     * and the node type criteria implied by the index.
+     *
+     * @param context the context in which the query is to be executed; may not be null
+     * @param sourceNode the SOURCE plan node; may not be null
+     * @param indexPlan the plan for the index used by the source; may not be null
+     * @param sources the query sources; may not be null
+     * @return the factory for the index entry nodes, or null if the nodes have to be loaded
+     */
+    protected IndexEntryNodes indexEntryNodesFor( QueryContext context,
+                                                  PlanNode sourceNode,
+                                                  IndexPlan indexPlan,
+                                                  QuerySources sources ) {
+        IndexDefinition defn = context.getIndexDefinitions().getIndexDefinitions().get(indexPlan.getName());
+        if (defn == null || !defn.isEnabled() || !defn.isSynchronous() || !defn.hasSingleColumn()) return null;
+        if (defn.getKind() != IndexKind.VALUE && defn.getKind() != IndexKind.UNIQUE_VALUE) return null;
+        IndexColumnDefinition columnDefn = defn.getColumnDefinition(0);
+        if (!isStorableType(columnDefn.getColumnType())) return null;
+        NameFactory names = context.getExecutionContext().getValueFactories().getNameFactory();
+        Name propertyName = names.create(columnDefn.getPropertyName());
+        Name nodeTypeName = names.create(defn.getNodeTypeName());
+        if (PseudoColumns.contains(propertyName, true) || JcrLexicon.PRIMARY_TYPE.equals(propertyName)
+            || JcrLexicon.MIXIN_TYPES.equals(propertyName)) {
+            // These values are not read from the property of the same name ...
+            return null;
+        }
+        NodeTypes nodeTypes = context.getNodeTypes();
+        if (!nodeTypes.isSingleValuedProperty(nodeTypeName, propertyName, columnDefn.getColumnType())) return null;
+
+        boolean buffered = context.getHints().restartable;
+        for (PlanNode node = sourceNode.getParent(); node != null; node = node.getParent()) {
+            switch (node.getType()) {
+                case ACCESS:
+                case LIMIT:
+                    break;
+                case PROJECT:
+                    for (Column column : node.getPropertyAsList(Property.PROJECT_COLUMNS, Column.class)) {
+                        Name columnProperty = names.create(column.getPropertyName());
+                        if (!columnProperty.equals(propertyName) && !PseudoColumns.isScore(columnProperty)
+                            && !PseudoColumns.isId(columnProperty)) return null;
+                    }
+                    break;
+                case SELECT:
+                    Constraint criteria = node.getProperty(Property.SELECT_CRITERIA, Constraint.class);
+                    if (!uses(criteria, propertyName, names)
+                        && !impliesNodeTypeCriteria(criteria, nodeTypeName, nodeTypes, names)) return null;
+                    break;
+                case SORT:
+                    for (Object orderBy : node.getPropertyAsList(Property.SORT_ORDER_BY, Object.class)) {
+                        if (!(orderBy instanceof Ordering)) return null;
+                        if (!uses(((Ordering)orderBy).getOperand(), propertyName, names)) return null;
+                    }
+                    buffered = true;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        String workspaceName = sources.getWorkspaceName();
+        return new IndexEntryNodes(workspaceName, propertyName, context.getExecutionContext().getPropertyFactory(),
+                                   context.getNodeCache(workspaceName), buffered);
+    }
+
+    /**
+     * Record that the node type criteria of the SELECT plan nodes above the supplied source are implied by the index, since the
+     * index only contains nodes of its node type.
+     *
+     * @param context the context in which the query is to be executed; may not be null
+     * @param sourceNode the SOURCE plan node; may not be null
+     * @param indexPlan the plan for the index used by the source; may not be null
+     */
+    protected void markNodeTypeCriteriaAsImplied( QueryContext context,
+                                                  PlanNode sourceNode,
+                                                  IndexPlan indexPlan ) {
+        IndexDefinition defn = context.getIndexDefinitions().getIndexDefinitions().get(indexPlan.getName());
+        NameFactory names = context.getExecutionContext().getValueFactories().getNameFactory();
+        Name nodeTypeName = names.create(defn.getNodeTypeName());
+        for (PlanNode node = sourceNode.getParent(); node != null; node = node.getParent()) {
+            if (!node.is(Type.SELECT)) continue;
+            Constraint criteria = node.getProperty(Property.SELECT_CRITERIA, Constraint.class);
+            if (impliesNodeTypeCriteria(criteria, nodeTypeName, context.getNodeTypes(), names)) {
+                context.markCriteriaAsImpliedBySource(node);
+            }
+        }
+    }
+
+    private static boolean isStorableType( int columnType ) {
+        switch (columnType) {
+            case PropertyType.STRING:
+            case PropertyType.LONG:
+            case PropertyType.DOUBLE:
+            case PropertyType.DECIMAL:
+            case PropertyType.BOOLEAN:
+            case PropertyType.DATE:
+            case PropertyType.NAME:
+            case PropertyType.PATH:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean uses( Constraint constraint,
+                                 Name propertyName,
+                                 NameFactory names ) {
+        if (constraint instanceof And) {
+            And and = (And)constraint;
+            return uses(and.left(), propertyName, names) && uses(and.right(), propertyName, names);
+        }
+        if (constraint instanceof Or) {
+            Or or = (Or)constraint;
+            return uses(or.left(), propertyName, names) && uses(or.right(), propertyName, names);
+        }
+        if (constraint instanceof Not) {
+            return uses(((Not)constraint).getConstraint(), propertyName, names);
+        }
+        if (constraint instanceof Comparison) {
+            return uses(((Comparison)constraint).getOperand1(), propertyName, names);
+        }
+        if (constraint instanceof Between) {
+            return uses(((Between)constraint).getOperand(), propertyName, names);
+        }
+        if (constraint instanceof SetCriteria) {
+            return uses(((SetCriteria)constraint).leftOperand(), propertyName, names);
+        }
+        if (constraint instanceof PropertyExistence) {
+            return propertyName.equals(names.create(((PropertyExistence)constraint).getPropertyName()));
+        }
+        return false;
+    }
+
+    private static boolean uses( DynamicOperand operand,
+                                 Name propertyName,
+                                 NameFactory names ) {
+        if (operand instanceof PropertyValue) {
+            return propertyName.equals(names.create(((PropertyValue)operand).getPropertyName()));
+        }
+        if (operand instanceof LowerCase) {
+            return uses(((LowerCase)operand).getOperand(), propertyName, names);
+        }
+        if (operand instanceof UpperCase) {
+            return uses(((UpperCase)operand).getOperand(), propertyName, names);
+        }
+        if (operand instanceof Length) {
+            return uses(((Length)operand).getPropertyValue(), propertyName, names);
+        }
+        return operand instanceof NodeId;
+    }
+
+    /**
+     * Determine whether the supplied criteria is satisfied by every node of the named node type, because it only requires that
+     * the primary type or one of the mixin types of a node is one of the listed types, and every subtype of the node type is
+     * listed.
+     */
+    private static boolean impliesNodeTypeCriteria( Constraint criteria,
+                                                    Name nodeTypeName,
+                                                    NodeTypes nodeTypes,
+                                                    NameFactory names ) {
+        Set<Name> primaryTypes = new HashSet<>();
+        Set<Name> mixinTypes = new HashSet<>();
+        if (!collectNodeTypes(criteria, primaryTypes, mixinTypes, names)) return false;
+        Set<Name> subtypes = nodeTypes.getAllSubtypes(nodeTypeName);
+        if (subtypes.isEmpty()) return false;
+        for (Name subtype : subtypes) {
+            if (!(nodeTypes.isMixin(subtype) ? mixinTypes : primaryTypes).contains(subtype)) return false;
+        }
+        return true;
+    }
+
+    private static boolean collectNodeTypes( Constraint criteria,
+                                             Set<Name> primaryTypes,
+                                             Set<Name> mixinTypes,
+                                             NameFactory names ) {
+        if (criteria instanceof Or) {
+            Or or = (Or)criteria;
+            return collectNodeTypes(or.left(), primaryTypes, mixinTypes, names)
+                   && collectNodeTypes(or.right(), primaryTypes, mixinTypes, names);
+        }
+        DynamicOperand operand = null;
+        Collection<? extends StaticOperand> values = null;
+        if (criteria instanceof Comparison) {
+            Comparison comparison = (Comparison)criteria;
+            if (comparison.operator() != Operator.EQUAL_TO) return false;
+            operand = comparison.getOperand1();
+            values = Collections.singletonList(comparison.getOperand2());
+        } else if (criteria instanceof SetCriteria) {
+            SetCriteria setCriteria = (SetCriteria)criteria;
+            operand = setCriteria.leftOperand();
+            values = setCriteria.rightOperands();
+        } else {
+            return false;
+        }
+        if (!(operand instanceof PropertyValue)) return false;
+        Name propertyName = names.create(((PropertyValue)operand).getPropertyName());
+        Set<Name> types = null;
+        if (JcrLexicon.PRIMARY_TYPE.equals(propertyName)) {
+            types = primaryTypes;
+        } else if (JcrLexicon.MIXIN_TYPES.equals(propertyName)) {
+            types = mixinTypes;
+        } else {
+            return false;
+        }
+        for (StaticOperand value : values) {
+            if (!(value instanceof Literal)) return false;
+            types.add(names.create(((Literal)value).value()));
+        }
+        return true;
+    }
 }
@@ -0,0 +1,329 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.index.IndexDefinition;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.validate.Schemata;
+
+/**
+ * A bounded, least-recently-used cache of the optimized plans of queries and of the {@link QueryCommand}s parsed from query
+ * expressions, so that a query that is executed repeatedly (typically with different values for its bind variables) only has
+ * to be parsed, planned and optimized once.
+ * <p>
+ * A plan is only valid for the node types and the {@link IndexDefinition index definitions} that it was computed with. Both
+ * are immutable snapshots that are replaced whenever they change, so the cache remembers the snapshots of the plans it holds
+ * and discards all of its content as soon as a plan is computed with other snapshots. A plan is never reused with other
+ * {@link Schemata}, workspaces or initial {@link PlanHints hints}, and plans that depend on the values of the bind variables or
+ * that contain subqueries are not cached at all.
+ * </p>
+ * <p>
+ * Plans are copied when they are cached and again when they are returned, since the query engines modify the plans they
+ * execute.
+ * </p>
+ */
+@ThreadSafe
+public final class QueryPlanCache {
+
+    private final int maxSize;
+    private final RepositoryStatistics statistics;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @GuardedBy( "this" )
+    private final Map<PlanKey, CachedPlan> plans;
+    @GuardedBy( "this" )
+    private final Map<ExpressionKey, QueryCommand> parsedQueries;
+    @GuardedBy( "this" )
+    private NodeTypes nodeTypes;
+    @GuardedBy( "this" )
+    private RepositoryIndexes indexDefns;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize the maximum number of plans (and, separately, of parsed queries) that are kept; must be positive
+     * @param statistics the statistics in which the cache hits and misses are recorded; may be null
+     */
+    public QueryPlanCache( int maxSize,
+                           RepositoryStatistics statistics ) {
+        CheckArg.isPositive(maxSize, "maxSize");
+        this.maxSize = maxSize;
+        this.statistics = statistics;
+        this.plans = new LeastRecentlyUsed<>(maxSize);
+        this.parsedQueries = new LeastRecentlyUsed<>(maxSize);
+    }
+
+    /**
+     * Get the maximum number of plans that this cache holds.
+     *
+     * @return the maximum size; always positive
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Find the cached plan of the supplied query. When there is one, the {@link QueryContext#getHints() hints} of the context
+     * are also set to the values that the planner and the optimizer had computed for that plan.
+     *
+     * @param context the context in which the query is to be executed; may not be null
+     * @param query the query; may not be null
+     * @param initialHints a copy of the hints as they were before the query was planned; may not be null
+     * @return a copy of the optimized plan that the caller may modify, or null if no plan was cached for the query
+     */
+    public PlanNode getPlan( QueryContext context,
+                             QueryCommand query,
+                             PlanHints initialHints ) {
+        CachedPlan cached = null;
+        synchronized (this) {
+            if (isCurrent(context)) {
+                cached = plans.get(new PlanKey(query, context, initialHints));
+            }
+        }
+        if (cached == null) {
+            record(misses, ValueMetric.QUERY_PLAN_CACHE_MISSES);
+            return null;
+        }
+        record(hits, ValueMetric.QUERY_PLAN_CACHE_HITS);
+        context.getHints().setAll(cached.hints);
+        return cached.plan.clone();
+    }
+
+    /**
+     * Cache the optimized plan of the supplied query, unless the plan cannot be reused for other executions of the query.
+     *
+     * @param context the context in which the query was planned; may not be null
+     * @param query the query; may not be null
+     * @param initialHints a copy of the hints as they were before the query was planned; may not be null
+     * @param optimizedPlan the optimized plan; may not be null
+     * @return true if the plan was cached, or false otherwise
+     */
+    public boolean putPlan( QueryContext context,
+                            QueryCommand query,
+                            PlanHints initialHints,
+                            PlanNode optimizedPlan ) {
+        if (!isReusable(context)) return false;
+        CachedPlan cached = new CachedPlan(optimizedPlan.clone(), context.getHints().clone());
+        synchronized (this) {
+            if (!isCurrent(context)) {
+                // The node types or indexes have changed, so none of the other plans are valid anymore ...
+                plans.clear();
+                nodeTypes = context.getNodeTypes();
+                indexDefns = context.getIndexDefinitions();
+            }
+            plans.put(new PlanKey(query, context, initialHints), cached);
+        }
+        return true;
+    }
+
+    /**
+     * Find the query that was previously parsed from the supplied expression.
+     *
+     * @param language the query language; may not be null
+     * @param expression the query expression; may not be null
+     * @return the parsed query, or null if the expression has not been parsed before
+     */
+    public synchronized QueryCommand getParsedQuery( String language,
+                                                     String expression ) {
+        return parsedQueries.get(new ExpressionKey(language, expression));
+    }
+
+    /**
+     * Cache the query that was parsed from the supplied expression.
+     *
+     * @param language the query language; may not be null
+     * @param expression the query expression; may not be null
+     * @param query the parsed query; may not be null
+     */
+    public synchronized void putParsedQuery( String language,
+                                             String expression,
+                                             QueryCommand query ) {
+        parsedQueries.put(new ExpressionKey(language, expression), query);
+    }
+
+    /**
+     * Discard all of the cached plans and parsed queries. This should be called whenever something that the plans or parsed
+     * queries depend upon (such as the namespace mappings) changes in a way that does not replace the node types or index
+     * definitions.
+     */
+    public synchronized void invalidate() {
+        plans.clear();
+        parsedQueries.clear();
+        nodeTypes = null;
+        indexDefns = null;
+    }
+
+    /**
+     * Get the number of plans that are currently cached.
+     *
+     * @return the number of cached plans
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /**
+     * Get the number of times that a cached plan was found.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of times that no cached plan was found.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @GuardedBy( "this" )
+    private boolean isCurrent( QueryContext context ) {
+        return nodeTypes == context.getNodeTypes() && indexDefns == context.getIndexDefinitions();
+    }
+
+    private static boolean isReusable( QueryContext context ) {
+        PlanHints hints = context.getHints();
+        return !context.isPlanDependentOnVariableValues() && !hints.hasSubqueries && !hints.planOnly
+               && !context.getProblems().hasProblems();
+    }
+
+    private void record( AtomicLong counter,
+                         ValueMetric metric ) {
+        counter.incrementAndGet();
+        if (statistics != null) statistics.increment(metric);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlanCache (max " + maxSize + " plans, " + hits.get() + " hits, " + misses.get() + " misses)";
+    }
+
+    private static final class LeastRecentlyUsed<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        protected LeastRecentlyUsed( int maxSize ) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<K, V> eldest ) {
+            return size() > maxSize;
+        }
+    }
+
+    @Immutable
+    private static final class CachedPlan {
+        protected final PlanNode plan;
+        protected final PlanHints hints;
+
+        protected CachedPlan( PlanNode plan,
+                              PlanHints hints ) {
+            this.plan = plan;
+            this.hints = hints;
+        }
+    }
+
+    @Immutable
+    private static final class PlanKey {
+        private final QueryCommand query;
+        private final String readableQuery;
+        private final Set<String> workspaceNames;
+        private final Schemata schemata;
+        private final PlanHints initialHints;
+        private final int hc;
+
+        protected PlanKey( QueryCommand query,
+                           QueryContext context,
+                           PlanHints initialHints ) {
+            this.query = query;
+            this.readableQuery = Visitors.readable(query);
+            this.workspaceNames = context.getWorkspaceNames();
+            this.schemata = context.getSchemata();
+            this.initialHints = initialHints;
+            this.hc = Objects.hash(readableQuery, workspaceNames, System.identityHashCode(schemata), initialHints);
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof PlanKey) {
+                PlanKey that = (PlanKey)obj;
+                // The schemata are only ever replaced, never modified. Some query objects (e.g., literals of different types)
+                // are equal even though they are not planned the same way, so the readable forms have to match as well ...
+                return this.hc == that.hc && this.schemata == that.schemata && this.query.equals(that.query)
+                       && this.readableQuery.equals(that.readableQuery)
+                       && this.workspaceNames.equals(that.workspaceNames) && this.initialHints.equals(that.initialHints);
+            }
+            return false;
+        }
+    }
+
+    @Immutable
+    private static final class ExpressionKey {
+        private final String language;
+        private final String expression;
+
+        protected ExpressionKey( String language,
+                                 String expression ) {
+            this.language = language;
+            this.expression = expression;
+        }
+
+        @Override
+        public int hashCode() {
+            return language.hashCode() * 31 + expression.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof ExpressionKey) {
+                ExpressionKey that = (ExpressionKey)obj;
+                return this.language.equals(that.language) && this.expression.equals(that.expression);
+            }
+            return false;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +36,7 @@ import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.RepositoryCache;
 import org.modeshape.jcr.cache.document.NodeCacheIterator;
 import org.modeshape.jcr.cache.document.NodeCacheIterator.NodeFilter;
+import org.modeshape.jcr.query.IndexEntryNodes;
 import org.modeshape.jcr.query.NodeSequence;
 import org.modeshape.jcr.query.NodeSequence.Batch;
 import org.modeshape.jcr.spi.index.Index;
@@ -310,6 +312,10 @@ public class QuerySources {
      * @param parameters the provider-specific index parameters; may not be null, but may be empty
      * @param valueFactories the value factories; never null
      * @param batchSize the ideal number of nodes that are to be included in each batch; always positive           
+     * @param rowLimit the number of nodes that the query will likely need, or {@link Integer#MAX_VALUE} if all of the nodes are
+     *        needed; the first batch will contain at most this many nodes
+     * @param indexEntryNodes the factory for the nodes of the index entries when the query only needs the indexed values, or null
+     *        if the nodes should always be loaded
      * @return the sequence of nodes; null if the index cannot be used (e.g., it might be rebuilding or in an inconsistent state)
      */
     public NodeSequence fromIndex(final Index index,
@@ -319,7 +325,9 @@ public class QuerySources {
                                   final Map<String, Object> variables,
                                   final Map<String, Object> parameters,
                                   final ValueFactories valueFactories,
-                                  final int batchSize) {
+                                  final int batchSize,
+                                  final int rowLimit,
+                                  final IndexEntryNodes indexEntryNodes) {
         if (!index.isEnabled()) {
             return null;
         }
@@ -354,6 +362,11 @@ public class QuerySources {
             public Collection<JoinCondition> getJoinConditions() {
                 return joinConditions;
             }
+
+            @Override
+            public int getRowLimit() {
+                return rowLimit;
+            }
         };
         // Return a node sequence that will lazily get the results from the index ...
         return new NodeSequence() {
@@ -396,10 +409,16 @@ public class QuerySources {
                     }
                     readBatch();
                 }
-                Batch nextBatch = NodeSequence.batchOfKeys(currentBatch.keys().iterator(), 
-                                                           currentBatch.scores().iterator(),
-                                                           currentBatch.size(),
-                                                           workspaceName, repo);
+                Iterable<?> values = indexEntryNodes != null ? currentBatch.values() : null;
+                Batch nextBatch = null;
+                if (values != null) {
+                    // The index supplied the values, so the nodes don't have to be loaded ...
+                    Iterator<CachedNode> nodes = indexEntryNodes.nodesFor(currentBatch.keys().iterator(), values.iterator());
+                    nextBatch = NodeSequence.batchOf(nodes, currentBatch.scores().iterator(), currentBatch.size(), workspaceName);
+                } else {
+                    nextBatch = NodeSequence.batchOfKeys(currentBatch.keys().iterator(), currentBatch.scores().iterator(),
+                                                         currentBatch.size(), workspaceName, repo);
+                }
                 currentBatch = null;
                 return nextBatch;
             }
@@ -416,7 +435,9 @@ public class QuerySources {
                 if (currentBatch != null) {
                     return;
                 }
-                currentBatch = getResults().getNextBatch(batchSize);
+                // Don't ask for (many) more nodes than the query needs, unless some of them were filtered out ...
+                int size = rowCount < rowLimit ? (int)Math.min(batchSize, rowLimit - rowCount) : batchSize;
+                currentBatch = getResults().getNextBatch(size);
                 more = currentBatch.hasNext();
                 rowCount += currentBatch.size();
             }
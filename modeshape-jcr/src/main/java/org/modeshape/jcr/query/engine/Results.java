@@ -15,6 +15,7 @@
  */
 package org.modeshape.jcr.query.engine;
 
+import java.util.function.Supplier;
 import org.modeshape.common.collection.ImmutableProblems;
 import org.modeshape.common.collection.Problems;
 import org.modeshape.common.collection.SimpleProblems;
@@ -36,7 +37,7 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
     private final Columns columns;
     private final NodeSequence rows;
     private final Statistics statistics;
-    private final String plan;
+    private final Supplier<String> plan;
     private final CachedNodeSupplier cachedNodes;
 
     /**
@@ -67,6 +68,26 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
                     CachedNodeSupplier cachedNodes,
                     Problems problems,
                     String plan ) {
+        this(columns, statistics, rows, cachedNodes, problems, plan != null ? () -> plan : null);
+    }
+
+    /**
+     * Create a results object for the supplied context, command, and result columns and with the supplied tuples.
+     * 
+     * @param columns the definition of the query result columns
+     * @param statistics the statistics for this query; may not be null
+     * @param rows the sequence of rows; may not be null
+     * @param cachedNodes the supplier for obtaining cached nodes; may not be null
+     * @param problems the problems; may be null if there are no problems
+     * @param plan the supplier of the text representation of the query plan, which is called each time the plan is requested;
+     *        may be null if the hints did not ask for the plan
+     */
+    public Results( Columns columns,
+                    Statistics statistics,
+                    NodeSequence rows,
+                    CachedNodeSupplier cachedNodes,
+                    Problems problems,
+                    Supplier<String> plan ) {
         assert columns != null;
         assert statistics != null;
         assert rows != null;
@@ -106,7 +127,7 @@ public class Results implements org.modeshape.jcr.query.QueryResults {
 
     @Override
     public String getPlan() {
-        return plan;
+        return plan != null ? plan.get() : null;
     }
 
     @Override
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
@@ -44,6 +45,7 @@ import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.GraphI18n;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryConfiguration;
 import org.modeshape.jcr.RepositoryIndexes;
 import org.modeshape.jcr.api.query.QueryCancelledException;
 import org.modeshape.jcr.api.query.qom.Operator;
@@ -74,6 +76,7 @@ import org.modeshape.jcr.query.engine.process.HashJoinSequence;
 import org.modeshape.jcr.query.engine.process.IntersectSequence;
 import org.modeshape.jcr.query.engine.process.JoinSequence.Range;
 import org.modeshape.jcr.query.engine.process.JoinSequence.RangeProducer;
+import org.modeshape.jcr.query.engine.process.ParallelSequence;
 import org.modeshape.jcr.query.engine.process.SortingSequence;
 import org.modeshape.jcr.query.model.And;
 import org.modeshape.jcr.query.model.ArithmeticOperand;
@@ -163,7 +166,11 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
 
         @Override
         public QueryEngine build() {
-            return new ScanningQueryEngine(context(), repositoryName(), planner(), optimizer());
+            return new ScanningQueryEngine(context(), repositoryName(), planner(), optimizer(), queryExecution(), planCache());
+        }
+
+        protected final RepositoryConfiguration.QueryExecution queryExecution() {
+            return config() != null ? config().getQueryExecution() : null;
         }
 
         @Override
@@ -179,16 +186,61 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
     protected final String repositoryName;
     protected final Planner planner;
     protected final Optimizer optimizer;
+    private final ExecutionContext context;
+    private final RepositoryConfiguration.QueryExecution queryExecution;
+    private final QueryPlanCache planCache;
+    private volatile ExecutorService parallelExecutor;
 
     public ScanningQueryEngine( ExecutionContext context,
                                 String repositoryName,
                                 Planner planner,
                                 Optimizer optimizer ) {
+        this(context, repositoryName, planner, optimizer, null);
+    }
+
+    /**
+     * Create a new query engine.
+     *
+     * @param context the repository's execution context; may not be null
+     * @param repositoryName the name of the repository
+     * @param planner the planner of the queries; may not be null
+     * @param optimizer the optimizer of the query plans; may not be null
+     * @param queryExecution the repository's configuration for executing queries; may be null if the independent branches of
+     *        the queries should only be evaluated concurrently when the queries {@link PlanHints#parallelExecution ask for it}
+     */
+    public ScanningQueryEngine( ExecutionContext context,
+                                String repositoryName,
+                                Planner planner,
+                                Optimizer optimizer,
+                                RepositoryConfiguration.QueryExecution queryExecution ) {
+        this(context, repositoryName, planner, optimizer, queryExecution, null);
+    }
+
+    /**
+     * Create a new query engine.
+     *
+     * @param context the repository's execution context; may not be null
+     * @param repositoryName the name of the repository
+     * @param planner the planner of the queries; may not be null
+     * @param optimizer the optimizer of the query plans; may not be null
+     * @param queryExecution the repository's configuration for executing queries; may be null if the independent branches of
+     *        the queries should only be evaluated concurrently when the queries {@link PlanHints#parallelExecution ask for it}
+     * @param planCache the cache in which the optimized plans are kept; may be null if every query should be planned anew
+     */
+    public ScanningQueryEngine( ExecutionContext context,
+                                String repositoryName,
+                                Planner planner,
+                                Optimizer optimizer,
+                                RepositoryConfiguration.QueryExecution queryExecution,
+                                QueryPlanCache planCache ) {
         assert planner != null;
         assert optimizer != null;
         this.repositoryName = repositoryName;
         this.planner = planner;
         this.optimizer = optimizer;
+        this.context = context;
+        this.queryExecution = queryExecution != null ? queryExecution : new RepositoryConfiguration().getQueryExecution();
+        this.planCache = planCache;
     }
 
     /**
@@ -227,9 +279,15 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                          context.getWorkspaceNames(), repositoryName, query, context.id());
         }
 
-        // Create the canonical plan ...
+        // Create the canonical plan, unless the optimized plan of this query has already been cached ...
         long start = System.nanoTime();
-        PlanNode plan = planner.createPlan(context, query);
+        PlanHints initialHints = null;
+        PlanNode cachedPlan = null;
+        if (planCache != null && !context.getProblems().hasErrors()) {
+            initialHints = context.getHints().clone();
+            cachedPlan = planCache.getPlan(context, query, initialHints);
+        }
+        PlanNode plan = cachedPlan != null ? cachedPlan : planner.createPlan(context, query);
         long duration = Math.abs(System.nanoTime() - start);
         Statistics stats = new Statistics(duration);
         final String workspaceName = context.getWorkspaceNames().iterator().next();
@@ -243,7 +301,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         if (!context.getProblems().hasErrors()) {
             // Optimize the plan ...
             start = System.nanoTime();
-            PlanNode optimizedPlan = optimizer.optimize(context, plan);
+            PlanNode optimizedPlan = cachedPlan != null ? cachedPlan : optimizer.optimize(context, plan);
             duration = Math.abs(System.nanoTime() - start);
             stats = stats.withOptimizationTime(duration);
 
@@ -314,6 +372,11 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                 LOGGER.trace("Computed output columns for query {0}: {1}", context.id(), resultColumns);
             }
 
+            if (initialHints != null && cachedPlan == null) {
+                // Cache the plan before it is executed, since the execution modifies it ...
+                planCache.putPlan(context, query, initialHints, optimizedPlan);
+            }
+
             if (!context.getProblems().hasErrors()) {
                 checkCancelled(context);
                 // Execute the plan ...
@@ -341,7 +404,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         // There were problems somewhere ...
         int width = resultColumns.getColumns().size();
         CachedNodeSupplier cachedNodes = context.getNodeCache(workspaceName);
-        return new Results(resultColumns, stats, NodeSequence.emptySequence(width), cachedNodes, context.getProblems(), null);
+        return new Results(resultColumns, stats, NodeSequence.emptySequence(width), cachedNodes, context.getProblems(), (String)null);
     }
 
     /**
@@ -521,8 +584,22 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
             statistics = statistics.withExecutionTime(Math.abs(System.nanoTime() - nanos));
         }
         final String planDesc = context.getHints().showPlan ? plan.getString() : null;
-        CachedNodeSupplier cachedNodes = context.getNodeCache(workspaceName);
-        return new Results(columns, statistics, rows, cachedNodes, context.getProblems(), planDesc);
+        CachedNodeSupplier cachedNodes = context.getCachedNodes(workspaceName);
+        if (planDesc == null) {
+            return new Results(columns, statistics, rows, cachedNodes, context.getProblems(), (String)null);
+        }
+        // The memory used by the joins is only known once the rows have been read, so append it when the plan is requested ...
+        final BufferManager bufferManager = context.getBufferManager();
+        return new Results(columns, statistics, rows, cachedNodes, context.getProblems(), () -> {
+            List<String> usages = bufferManager.getUsages();
+            if (usages.isEmpty()) return planDesc;
+            StringBuilder sb = new StringBuilder(planDesc);
+            sb.append("Buffers:\n");
+            for (String usage : usages) {
+                sb.append("  ").append(usage).append('\n');
+            }
+            return sb.toString();
+        });
     }
 
     /**
@@ -618,6 +695,9 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
 
                 NodeSequence left = createNodeSequence(originalQuery, joinQueryContext, leftPlan, leftColumns, sources);
                 NodeSequence right = createNodeSequence(originalQuery, joinQueryContext, rightPlan, rightColumns, sources);
+                // The two sides are independent of each other, so they can be evaluated concurrently ...
+                left = inParallel(left, context);
+                right = inParallel(right, context);
 
                 // Figure out the join algorithm ...
                 JoinAlgorithm algorithm = plan.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class);
@@ -633,6 +713,7 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                     case NESTED_LOOP:
                         // rows = new NestedLoopJoinComponent(context, left, right, joinCondition, joinType);
                         // break;
+                    case HASH:
                     case MERGE:
                         if (joinCondition instanceof SameNodeJoinCondition) {
                             SameNodeJoinCondition condition = (SameNodeJoinCondition)joinCondition;
@@ -756,7 +837,8 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                 }
 
                 rows = new HashJoinSequence(workspaceName, left, right, leftExtractor, rightExtractor, joinType,
-                                            context.getBufferManager(), cache, rangeProducer, pack, useHeap);
+                                            context.getBufferManager(), cache, rangeProducer, pack, useHeap,
+                                            queryExecution.getJoinMemoryInBytes(), queryExecution.getJoinPartitions());
                 // For each Constraint object applied to the JOIN, simply create a SelectComponent on top ...
                 RowFilter filter = null;
                 List<Constraint> constraints = plan.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
@@ -798,6 +880,10 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                 // Create the sequence for the plan node under the SELECT ...
                 assert plan.getChildCount() == 1;
                 rows = createNodeSequence(originalQuery, context, plan.getFirstChild(), columns, sources);
+                if (context.isCriteriaImpliedBySource(plan)) {
+                    // Every node from the source satisfies the criteria ...
+                    break;
+                }
                 Constraint constraint = plan.getProperty(Property.SELECT_CRITERIA, Constraint.class);
                 filter = createRowFilter(constraint, context, columns, sources);
                 rows = NodeSequence.filter(rows, filter);
@@ -809,8 +895,10 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
                 PlanNode secondPlan = plan.getLastChild();
                 Columns firstColumns = context.columnsFor(firstPlan);
                 Columns secondColumns = context.columnsFor(secondPlan);
-                NodeSequence first = createNodeSequence(originalQuery, context, firstPlan, firstColumns, sources);
-                NodeSequence second = createNodeSequence(originalQuery, context, secondPlan, secondColumns, sources);
+                NodeSequence first = inParallel(createNodeSequence(originalQuery, context, firstPlan, firstColumns, sources),
+                                                context);
+                NodeSequence second = inParallel(createNodeSequence(originalQuery, context, secondPlan, secondColumns, sources),
+                                                 context);
                 useHeap = 0 >= second.getRowCount() && second.getRowCount() < 100;
                 if (first.width() != second.width()) {
                     // A set operation requires that the 'first' and 'second' sequences have the same width, but this is
@@ -922,8 +1010,10 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
 
                         // Now create the sorting sequence ...
                         if (sortExtractor != null) {
-                            rows = new SortingSequence(workspaceName, rows, sortExtractor, bufferManager, cache, pack, useHeap,
-                                                       allowDuplicates, nullOrder);
+                            CachedNodeSupplier sortedNodes = context.getCachedNodes(workspaceName);
+                            rows = new SortingSequence(workspaceName, rows, sortExtractor, bufferManager, sortedNodes, pack,
+                                                       useHeap, allowDuplicates, nullOrder,
+                                                       queryExecution.getSortMemoryInBytes(), rowsNeededFrom(plan));
                         }
                     }
                 }
@@ -938,6 +1028,84 @@ public class ScanningQueryEngine implements org.modeshape.jcr.query.QueryEngine
         return rows;
     }
 
+    /**
+     * Determine how many of the rows produced by the supplied plan node are needed, based upon a LIMIT node directly above it.
+     *
+     * @param plan the plan node; may not be null
+     * @return the number of rows from the beginning of the node's results that are needed, or {@link Integer#MAX_VALUE} if all
+     *         of the rows are needed
+     */
+    protected int rowsNeededFrom( PlanNode plan ) {
+        PlanNode parent = plan.getParent();
+        if (parent == null || parent.getType() != Type.LIMIT) return Integer.MAX_VALUE;
+        Integer rowLimit = parent.getProperty(Property.LIMIT_COUNT, Integer.class);
+        if (rowLimit == null || rowLimit.intValue() == Integer.MAX_VALUE) return Integer.MAX_VALUE;
+        Integer offset = parent.getProperty(Property.LIMIT_OFFSET, Integer.class);
+        long needed = rowLimit.longValue() + (offset != null ? Math.max(0, offset.intValue()) : 0);
+        return (int)Math.min(needed, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Determine how many of the rows produced by the supplied {@link Type#SOURCE} node are likely to be needed, based upon a
+     * LIMIT node above it. Only the nodes that produce one row for each row of their child (or fewer rows, in the same order)
+     * may appear between the source and the LIMIT; any other node (such as a SORT or JOIN) needs all of the rows.
+     *
+     * @param sourceNode the source node; may not be null
+     * @return the number of rows from the beginning of the source's results that will likely be needed, or
+     *         {@link Integer#MAX_VALUE} if all of the rows are needed
+     */
+    protected int rowsNeededBy( PlanNode sourceNode ) {
+        PlanNode node = sourceNode;
+        PlanNode parent = node.getParent();
+        while (parent != null && parent.isOneOf(Type.SELECT, Type.PROJECT, Type.ACCESS)) {
+            node = parent;
+            parent = node.getParent();
+        }
+        return rowsNeededFrom(node);
+    }
+
+    /**
+     * Evaluate the supplied sequence concurrently with the rest of the query, if the query is to be executed in parallel. This
+     * should only be used for sequences which are independent of the other parts of the query, such as the branches of a join or
+     * of a set operation. Parallel execution is never used within a transaction, since the transaction's changes are only
+     * visible to the transaction's thread.
+     *
+     * @param rows the sequence; may be null
+     * @param context the context in which the query is to be executed; may not be null
+     * @return the sequence which should be used in place of the supplied sequence; null only if {@code rows} is null
+     */
+    protected NodeSequence inParallel( NodeSequence rows,
+                                       ScanQueryContext context ) {
+        if (rows == null || rows.isEmpty() || !isParallel(context)) return rows;
+        return ParallelSequence.evaluate(rows, parallelExecutor(), queryExecution.getMaxQueuedBatches(),
+                                          context::isCancelled);
+    }
+
+    /**
+     * Determine whether the independent branches of the query should be evaluated concurrently.
+     *
+     * @param context the context in which the query is to be executed; may not be null
+     * @return true if the query should be executed in parallel, or false otherwise
+     */
+    protected boolean isParallel( QueryContext context ) {
+        Boolean parallel = context.getHints().parallelExecution;
+        return parallel != null ? parallel.booleanValue() : queryExecution.isParallel();
+    }
+
+    private ExecutorService parallelExecutor() {
+        ExecutorService executor = parallelExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = parallelExecutor;
+                if (executor == null) {
+                    executor = context.getCachedTreadPool(queryExecution.getThreadPoolName(), queryExecution.getMaxPoolSize());
+                    parallelExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     /**
      * Create a node sequence for the given source.
      * 
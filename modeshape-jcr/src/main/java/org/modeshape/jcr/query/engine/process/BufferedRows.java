@@ -31,9 +31,32 @@ import org.modeshape.jcr.query.NodeSequence.RowAccessor;
  */
 public class BufferedRows {
 
+    /**
+     * The estimated number of bytes used by each entry in a buffer, in addition to the keys of the nodes in the row.
+     */
+    protected static final long ENTRY_OVERHEAD = 32L;
+
     private BufferedRows() {
     }
 
+    /**
+     * Estimate the number of bytes used by a buffered row.
+     *
+     * @param row the row; may not be null
+     * @param width the number of nodes in the row
+     * @return the estimated size of the row in bytes
+     */
+    protected static long sizeOf( RowAccessor row,
+                                  int width ) {
+        long size = ENTRY_OVERHEAD;
+        for (int i = 0; i != width; ++i) {
+            CachedNode node = row.getNode(i);
+            // each node is stored as its key and its score ...
+            size += 6 + (node != null ? node.getKey().toString().length() : 0);
+        }
+        return size;
+    }
+
     protected static interface BufferedRow extends RowAccessor {
     }
 
@@ -556,4 +579,55 @@ public class BufferedRows {
             return "MultiNodeRowSerializer";
         }
     }
+
+    /**
+     * A buffered row together with a key, such as the value by which the row is joined or sorted. This is used when rows are
+     * written to buffers which don't keep the keys separately from the rows.
+     */
+    protected static final class KeyedRow {
+        protected final Object key;
+        protected final BufferedRow row;
+
+        protected KeyedRow( Object key,
+                            BufferedRow row ) {
+            this.key = key;
+            this.row = row;
+        }
+    }
+
+    /**
+     * A serializer for {@link KeyedRow}s, which writes the row followed by the key.
+     */
+    protected static final class KeyedRowSerializer implements Serializer<KeyedRow>, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final transient Serializer<Object> keySerializer;
+        private final transient Serializer<BufferedRow> rowSerializer;
+
+        protected KeyedRowSerializer( Serializer<Object> keySerializer,
+                                      Serializer<BufferedRow> rowSerializer ) {
+            this.keySerializer = keySerializer;
+            this.rowSerializer = rowSerializer;
+        }
+
+        @Override
+        public void serialize( DataOutput out,
+                               KeyedRow value ) throws IOException {
+            // the key goes last, since some key serializers may read more than they need ...
+            rowSerializer.serialize(out, value.row);
+            keySerializer.serialize(out, value.key);
+        }
+
+        @Override
+        public KeyedRow deserialize( DataInput in,
+                                     int available ) throws IOException {
+            BufferedRow row = rowSerializer.deserialize(in, -1);
+            Object key = keySerializer.deserialize(in, -1);
+            return new KeyedRow(key, row);
+        }
+
+        @Override
+        public int fixedSize() {
+            return -1; // not fixed size
+        }
+    }
 }
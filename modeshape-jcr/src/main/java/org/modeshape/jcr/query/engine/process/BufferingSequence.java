@@ -49,7 +49,6 @@ public abstract class BufferingSequence extends DelegatingSequence {
     protected final AtomicLong remainingRowCount = new AtomicLong();
     protected final AtomicLong rowsLeftInBatch = new AtomicLong();
 
-    @SuppressWarnings( "unchecked" )
     protected BufferingSequence( String workspaceName,
                                  NodeSequence delegate,
                                  ExtractFromRow extractor,
@@ -69,6 +68,27 @@ public abstract class BufferingSequence extends DelegatingSequence {
         this.rowFactory = BufferedRows.serializer(nodeCache, width);
 
         // Set up the buffer ...
+        this.buffer = createBuffer(bufferMgr, extractor, rowFactory, pack, useHeap, allowDuplicates);
+    }
+
+    /**
+     * Create a buffer that sorts the rows by the values of the supplied extractor.
+     * 
+     * @param bufferMgr the buffer manager; may not be null
+     * @param extractor the extractor for the sortable value; may not be null
+     * @param rowFactory the factory and serializer for the rows; may not be null
+     * @param pack true if the sortable values can be packed together, or false otherwise
+     * @param useHeap true if the buffer is to be kept on the heap, or false if off-heap storage should be used
+     * @param allowDuplicates true if the buffer may contain multiple rows with the same sortable value
+     * @return the new buffer; never null
+     */
+    @SuppressWarnings( "unchecked" )
+    protected static SortingBuffer<Object, BufferedRow> createBuffer( BufferManager bufferMgr,
+                                                                    ExtractFromRow extractor,
+                                                                    BufferedRowFactory<? extends BufferedRow> rowFactory,
+                                                                    boolean pack,
+                                                                    boolean useHeap,
+                                                                    boolean allowDuplicates ) {
         SortingBuffer<Object, BufferedRow> buffer = null;
         TypeFactory<?> keyType = extractor.getType();
         if (allowDuplicates) {
@@ -86,7 +106,7 @@ public abstract class BufferingSequence extends DelegatingSequence {
             buffer = bufferMgr.createSortingBuffer(keySerializer, (BufferedRowFactory<BufferedRow>)rowFactory).keepSize(true)
                               .useHeap(useHeap).make();
         }
-        this.buffer = buffer;
+        return buffer;
     }
 
     @Override
@@ -126,10 +146,10 @@ public abstract class BufferingSequence extends DelegatingSequence {
                 if (value instanceof Object[]) {
                     // Put each of the values in the buffer ...
                     for (Object v : (Object[])value) {
-                        buffer.put(v, createRow(batch));
+                        add(v, createRow(batch));
                     }
                 } else if (value != null) {
-                    buffer.put(value, createRow(batch));
+                    add(value, createRow(batch));
                 } else if (rowsWithNullKey != null) {
                     rowsWithNullKey.addIfAbsent(createRow(batch));
                 }
@@ -144,6 +164,18 @@ public abstract class BufferingSequence extends DelegatingSequence {
         return batchSize;
     }
 
+    /**
+     * Add a row with a non-null sortable value to this sequence's buffer. This is called by
+     * {@link #loadAll(NodeSequence, ExtractFromRow, DistinctBuffer)} for each row (or for each of the row's values).
+     * 
+     * @param value the sortable value; never null
+     * @param row the row; never null
+     */
+    protected void add( Object value,
+                        BufferedRow row ) {
+        buffer.put(value, row);
+    }
+
     protected Batch batchFrom( final Iterator<BufferedRow> rows,
                                final long maxBatchSize ) {
         if (rows == null || !rows.hasNext()) return null;
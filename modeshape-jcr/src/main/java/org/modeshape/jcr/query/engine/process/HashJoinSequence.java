@@ -15,9 +15,12 @@
  */
 package org.modeshape.jcr.query.engine.process;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.mapdb.Serializer;
 import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.collection.MultiIterator;
@@ -26,9 +29,14 @@ import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.CachedNodeSupplier;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.BufferManager.DistinctBuffer;
+import org.modeshape.jcr.query.BufferManager.QueueBuffer;
+import org.modeshape.jcr.query.BufferManager.SortingBuffer;
 import org.modeshape.jcr.query.NodeSequence;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.engine.process.BufferedRows.BufferedRow;
+import org.modeshape.jcr.query.engine.process.BufferedRows.BufferedRowFactory;
+import org.modeshape.jcr.query.engine.process.BufferedRows.KeyedRow;
+import org.modeshape.jcr.query.engine.process.BufferedRows.KeyedRowSerializer;
 import org.modeshape.jcr.query.model.JoinType;
 import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
 
@@ -36,6 +44,14 @@ import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
  * A {@link NodeSequence} implementation that performs an equijoin of two delegate sequences. The hash-join algorithm loads all
  * values on the right side into a buffer that hashes the right join condition value of each row. Then, it iterates through all
  * tuples on the left side and finds which of the values on the right have a matching join condition value.
+ * <p>
+ * When the rows on the right side need more than the configured amount of memory, the join switches to a <i>grace hash
+ * join</i>: the rows on both sides are partitioned by the hash of their join condition values into temporary files managed by
+ * the {@link BufferManager}, and then each partition of the right side is loaded into memory and joined with the corresponding
+ * partition of the left side. This is only possible for equijoins; joins that use a {@link RangeProducer} and cross joins are
+ * always performed in memory. The peak memory and the number of bytes written to disk are
+ * {@link BufferManager#recordUsage(String, long, long) recorded} when the join completes.
+ * </p>
  *
  * @author Randall Hauch (rhauch@redhat.com)
  */
@@ -44,9 +60,23 @@ public class HashJoinSequence extends JoinSequence {
 
     protected final DistinctBuffer<Object> rightMatchedRowKeys;
     protected final DistinctBuffer<BufferedRow> rightRowsWithNullKey;
+    /**
+     * The right rows with several join condition values that have either matched a left row or already been returned as
+     * unmatched. These rows are tracked individually by the {@link #rowIdentifier(BufferedRow) keys of their nodes}, since such
+     * a row is matched when any one of its values is matched.
+     */
+    protected final DistinctBuffer<String> rightRowsWithSeveralKeys;
     protected final RangeProducer<Object> rangeProducer;
+    protected final BufferManager bufferMgr;
+    protected final boolean useHeap;
+    protected final long memoryLimit;
+    protected final int partitionCount;
+    private Partitions partitions;
+    private long memoryUsed;
+    private long peakMemory;
+    private long spilledBytes;
+    private boolean usageRecorded;
 
-    @SuppressWarnings( "unchecked" )
     public HashJoinSequence( String workspaceName,
                              NodeSequence left,
                              NodeSequence right,
@@ -58,8 +88,50 @@ public class HashJoinSequence extends JoinSequence {
                              RangeProducer<?> rangeProducer,
                              boolean pack,
                              boolean useHeap ) {
+        this(workspaceName, left, right, leftExtractor, rightExtractor, joinType, bufferMgr, nodeCache, rangeProducer, pack,
+             useHeap, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Create a hash join that partitions both sides into temporary files when the rows on the right side need more than the
+     * given amount of memory.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param left the left side of the join; may not be null
+     * @param right the right side of the join; may not be null
+     * @param leftExtractor the extractor of the join condition value from the left rows; may not be null
+     * @param rightExtractor the extractor of the join condition value from the right rows; may not be null
+     * @param joinType the type of join; may not be null
+     * @param bufferMgr the buffer manager; may not be null
+     * @param nodeCache the cache of nodes; may not be null
+     * @param rangeProducer the producer of the ranges of right values that match a left value; may be null for equijoins
+     * @param pack true if the buffered values can be packed together, or false otherwise
+     * @param useHeap true if the in-memory buffers are to be kept on the heap, or false if off-heap storage should be used
+     * @param memoryLimit the estimated number of bytes the rows on the right side may use in memory; {@link Long#MAX_VALUE} if
+     *        the join should never spill to disk
+     * @param partitionCount the number of partitions into which both sides are split when the join spills to disk; the join
+     *        never spills to disk if this is less than 2
+     */
+    @SuppressWarnings( "unchecked" )
+    public HashJoinSequence( String workspaceName,
+                             NodeSequence left,
+                             NodeSequence right,
+                             ExtractFromRow leftExtractor,
+                             ExtractFromRow rightExtractor,
+                             JoinType joinType,
+                             BufferManager bufferMgr,
+                             CachedNodeSupplier nodeCache,
+                             RangeProducer<?> rangeProducer,
+                             boolean pack,
+                             boolean useHeap,
+                             long memoryLimit,
+                             int partitionCount ) {
         super(workspaceName, left, right, leftExtractor, rightExtractor, joinType, bufferMgr, nodeCache, pack, useHeap, true);
         this.rangeProducer = (RangeProducer<Object>)rangeProducer;
+        this.bufferMgr = bufferMgr;
+        this.useHeap = useHeap;
+        this.memoryLimit = memoryLimit;
+        this.partitionCount = partitionCount;
         if (useNonMatchingRightRows()) {
             TypeFactory<?> keyType = rightExtractor.getType();
             Serializer<?> keySerializer = bufferMgr.serializerFor(keyType);
@@ -67,16 +139,18 @@ public class HashJoinSequence extends JoinSequence {
                                                                    .useHeap(useHeap).make();
             Serializer<BufferedRow> rowSerializer = (Serializer<BufferedRow>)BufferedRows.serializer(nodeCache, width);
             rightRowsWithNullKey = bufferMgr.createDistinctBuffer(rowSerializer).keepSize(true).useHeap(useHeap).make();
+            rightRowsWithSeveralKeys = bufferMgr.createDistinctBuffer(Serializer.STRING).keepSize(true).useHeap(useHeap).make();
         } else {
             rightMatchedRowKeys = null;
             rightRowsWithNullKey = null;
+            rightRowsWithSeveralKeys = null;
         }
     }
 
     @Override
     protected BatchFactory initialize() {
-        // Load all of the right sequence into the buffer ...
-        int firstBatchSize = loadAll(delegate, extractor, rightRowsWithNullKey);
+        // Load all of the right sequence into the buffer, or into partitions if it doesn't fit in memory ...
+        int firstBatchSize = loadRightRows();
         if (firstBatchSize == 0) {
             // No rows were found on the right, so see if we need to return any nodes ...
             switch (joinType) {
@@ -94,6 +168,10 @@ public class HashJoinSequence extends JoinSequence {
             }
         }
         // Otherwise, there are rows on the left and the right ...
+        if (partitions != null) {
+            // The right rows did not fit in memory, so we'll join one partition at a time ...
+            return new PartitionedHashJoinBatchFactory();
+        }
         switch (joinType) {
             case CROSS:
                 // We use all of the rows on the right for every row on the left; logic is a little different ...
@@ -108,6 +186,117 @@ public class HashJoinSequence extends JoinSequence {
         }
     }
 
+    /**
+     * Determine whether this join can partition its rows into temporary files when they don't fit into memory.
+     *
+     * @return true if the join can spill to disk, or false if it is always performed in memory
+     */
+    protected boolean canSpill() {
+        return memoryLimit != Long.MAX_VALUE && partitionCount > 1 && rangeProducer == null && joinType != JoinType.CROSS;
+    }
+
+    /**
+     * Load all of the rows from the right side into the buffer. If the estimated size of the buffered rows exceeds the
+     * {@link #memoryLimit memory limit} and the join {@link #canSpill() can spill}, then all of the buffered rows and the
+     * remaining rows are instead written to the partitions.
+     *
+     * @return the size of the first non-empty batch, or 0 if there are no rows found
+     */
+    protected int loadRightRows() {
+        boolean canSpill = canSpill();
+        Batch batch = delegate.nextBatch();
+        int batchSize = 0;
+        boolean firstBatchCounted = false;
+        while (batch != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                Object value = extractor.getValueInRow(batch);
+                if (value == null) {
+                    if (rightRowsWithNullKey != null) rightRowsWithNullKey.addIfAbsent(createRow(batch));
+                } else if (partitions != null) {
+                    partitions.addRight(value, createRow(batch));
+                } else {
+                    BufferedRow row = createRow(batch);
+                    if (value instanceof Object[]) {
+                        // Put each of the values in the buffer ...
+                        for (Object v : (Object[])value) {
+                            buffer.put(v, row);
+                            memoryUsed += BufferedRows.sizeOf(row, width);
+                        }
+                    } else {
+                        buffer.put(value, row);
+                        memoryUsed += BufferedRows.sizeOf(row, width);
+                    }
+                    peakMemory = Math.max(peakMemory, memoryUsed);
+                    if (canSpill && memoryUsed > memoryLimit) {
+                        logger.debug("The right side of {0} needs more than {1} bytes, so partitioning it into {2} files", this,
+                                     memoryLimit, partitionCount);
+                        partitions = new Partitions();
+                        buffer.removeAll(partitions::addRight);
+                        memoryUsed = 0L;
+                    }
+                }
+                if (!firstBatchCounted) {
+                    ++batchSize;
+                }
+            }
+            firstBatchCounted = batchSize != 0;
+            batch = delegate.nextBatch();
+        }
+        return batchSize;
+    }
+
+    /**
+     * Determine the partition for the supplied join condition value. Values that are considered equal by the comparator of the
+     * join condition type must end up in the same partition.
+     *
+     * @param value the join condition value; may not be null
+     * @return the partition number
+     */
+    protected int partitionFor( Object value ) {
+        int hash = value instanceof BigDecimal ? ((BigDecimal)value).stripTrailingZeros().hashCode() : value.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % partitionCount;
+    }
+
+    /**
+     * Get the buffer with the rows on the right side that are currently matched against the left rows.
+     *
+     * @return the buffer; never null
+     */
+    protected SortingBuffer<Object, BufferedRow> hashTable() {
+        return partitions != null ? partitions.hashTable : buffer;
+    }
+
+    /**
+     * Record the memory and disk usage of this join with the buffer manager, if that hasn't already been done.
+     */
+    protected void recordUsage() {
+        if (usageRecorded) return;
+        usageRecorded = true;
+        StringBuilder sb = new StringBuilder("hash-join ").append(joinType).append(" on ").append(leftExtractor).append('=')
+                                                         .append(extractor);
+        if (partitions != null) sb.append(" in ").append(partitionCount).append(" partitions");
+        bufferMgr.recordUsage(sb.toString(), peakMemory, spilledBytes);
+    }
+
+    /**
+     * Get an identifier for the supplied right row that is the same for all copies of the row, even those read from
+     * different buffers.
+     *
+     * @param row the right row; may not be null
+     * @return the identifier made up of the keys of the nodes in the row; never null
+     */
+    protected String rowIdentifier( BufferedRow row ) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != width; ++i) {
+            CachedNode node = row.getNode(i);
+            if (node != null) sb.append(node.getKey());
+            sb.append('|');
+        }
+        return sb.toString();
+    }
+
     protected Iterator<BufferedRow> allRightRows() {
         if (rightRowsWithNullKey != null) {
             return SequentialIterator.create(rightRowsWithNullKey.iterator(), buffer.ascending());
@@ -125,8 +314,20 @@ public class HashJoinSequence extends JoinSequence {
                     rightMatchedRowKeys.close();
                 }
             } finally {
-                if (rightRowsWithNullKey != null) {
-                    rightRowsWithNullKey.close();
+                try {
+                    if (rightRowsWithNullKey != null) {
+                        rightRowsWithNullKey.close();
+                    }
+                    if (rightRowsWithSeveralKeys != null) {
+                        rightRowsWithSeveralKeys.close();
+                    }
+                } finally {
+                    if (partitions != null) {
+                        partitions.close();
+                    }
+                    if (peakMemory > 0L) {
+                        recordUsage();
+                    }
                 }
             }
         }
@@ -151,13 +352,18 @@ public class HashJoinSequence extends JoinSequence {
             // Otherwise, we're done with the left side ...
             if (rightMatchedRowKeys == null) {
                 // We never need to return any unused/unmatched rows from the right, so we're done ...
+                recordUsage();
                 return null;
             }
             if (rightRows == null) {
                 // This is the first batch with the unused right rows, so get the iterator ...
                 rightRows = allRightRows();
             }
-            if (!rightRows.hasNext()) return null; // we're done!
+            if (!rightRows.hasNext()) {
+                // we're done!
+                recordUsage();
+                return null;
+            }
             return new RightRowsBatch(rightRows, 100);
         }
 
@@ -218,10 +424,11 @@ public class HashJoinSequence extends JoinSequence {
                 rightMatchingRows = getAllRightRowsFor(matchingValue);
                 if (rightMatchingRows != null && rightMatchingRows.hasNext()) {
                     // Found a match which will be recorded when we go through the right matching rows...
+                    leftRowMatched();
                     return true;
                 }
                 // Did not find any matching rows on the right ...
-                if (useAllLeftRowsWhenNoMatchingRightRows()) {
+                if (useAllLeftRowsWhenNoMatchingRightRows() && includeLeftRowWithoutMatches()) {
                     // We still have to include the left row ...
                     rightMatchingRows = null;
                     return true;
@@ -252,10 +459,31 @@ public class HashJoinSequence extends JoinSequence {
         }
 
         protected Iterator<BufferedRow> getRightRowsFor( Object leftValue ) {
-            return buffer.getAll(leftValue);
+            return hashTable().getAll(leftValue);
+        }
+
+        /**
+         * Called when at least one right row matches the current left row.
+         */
+        protected void leftRowMatched() {
+            // do nothing by default
+        }
+
+        /**
+         * Determine whether the current left row, which has no matching right rows, should be included with no right row.
+         * This is only called for joins that {@link #useAllLeftRowsWhenNoMatchingRightRows() use all left rows}.
+         *
+         * @return true if the left row is to be included, or false otherwise
+         */
+        protected boolean includeLeftRowWithoutMatches() {
+            return true;
         }
 
         protected void recordRightRowsMatched( Object rightKey ) {
+            if (rightKey instanceof Object[]) {
+                if (rightRowsWithSeveralKeys != null) rightRowsWithSeveralKeys.addIfAbsent(rowIdentifier(currentRight));
+                return;
+            }
             if (rightMatchedRowKeys != null) {
                 // We only record the non-null values, since NULL never matches and they will always be unmatched ...
                 // logger.trace("Join found matching rows on right with value {0}", matchingValue);
@@ -411,7 +639,15 @@ public class HashJoinSequence extends JoinSequence {
             while (rightRows.hasNext() && count < maxSize) {
                 currentRight = rightRows.next();
                 Object key = extractor.getValueInRow(currentRight);
-                if (key == null || rightMatchedRowKeys.addIfAbsent(key)) {
+                if (isDeferred(key)) continue;
+                // A row with several values is in the buffer once for each value, but is returned only once ...
+                boolean unmatched;
+                if (key instanceof Object[]) {
+                    unmatched = rightRowsWithSeveralKeys.addIfAbsent(rowIdentifier(currentRight));
+                } else {
+                    unmatched = key == null || rightMatchedRowKeys.addIfAbsent(key);
+                }
+                if (unmatched) {
                     logger.trace("Join found non-matched rows on right with value {0}", key);
                     ++count;
                     return true;
@@ -421,6 +657,17 @@ public class HashJoinSequence extends JoinSequence {
             return false;
         }
 
+        /**
+         * Determine whether the right row with the given join condition value is only known to be unmatched later on, and
+         * should therefore be skipped by this batch.
+         *
+         * @param key the join condition value of the right row; may be null
+         * @return true if the row is to be skipped, or false otherwise
+         */
+        protected boolean isDeferred( Object key ) {
+            return false;
+        }
+
         @Override
         public void nextRow() {
             // This currently presumes that 'hasNext' was called and that 'currentRight' has a value ...
@@ -454,4 +701,421 @@ public class HashJoinSequence extends JoinSequence {
             return 0.0f;
         }
     }
+
+    /**
+     * The partitions of both sides of the join, which are stored in temporary files.
+     */
+    protected final class Partitions implements AutoCloseable {
+        private final List<QueueBuffer<KeyedRow>> rightRows = new ArrayList<>();
+        private final List<QueueBuffer<KeyedRow>> leftRows = new ArrayList<>();
+        private final BufferedRowFactory<? extends BufferedRow> leftRowFactory;
+        /**
+         * The left rows whose join condition values fall into several partitions, which are only known to have no matching
+         * right rows once all of the partitions have been joined. This is only used by joins that use all left rows.
+         */
+        private final QueueBuffer<KeyedRow> leftRowsInSeveralPartitions;
+        /**
+         * The right rows whose join condition values fall into several partitions, which are only known to have no matching
+         * left rows once all of the partitions have been joined. This is only used by joins that use all right rows.
+         */
+        private final QueueBuffer<KeyedRow> rightRowsInSeveralPartitions;
+        private final DistinctBuffer<Long> matchedLeftRows;
+        protected SortingBuffer<Object, BufferedRow> hashTable;
+        private long nextLeftRowId = 0L;
+
+        @SuppressWarnings( "unchecked" )
+        protected Partitions() {
+            Serializer<Object> keySerializer = (Serializer<Object>)bufferMgr.serializerFor(extractor.getType());
+            Serializer<Object> idSerializer = (Serializer<Object>)(Serializer<?>)Serializer.LONG;
+            Serializer<BufferedRow> rightRowSerializer = (Serializer<BufferedRow>)rowFactory;
+            this.leftRowFactory = BufferedRows.serializer(cache, leftWidth);
+            Serializer<BufferedRow> leftRowSerializer = (Serializer<BufferedRow>)leftRowFactory;
+            for (int i = 0; i != partitionCount; ++i) {
+                rightRows.add(bufferMgr.createQueueBuffer(new KeyedRowSerializer(keySerializer, rightRowSerializer)).onDisk(true)
+                                       .make());
+                leftRows.add(bufferMgr.createQueueBuffer(new KeyedRowSerializer(idSerializer, leftRowSerializer)).onDisk(true)
+                                      .make());
+            }
+            if (useAllLeftRowsWhenNoMatchingRightRows()) {
+                leftRowsInSeveralPartitions = bufferMgr.createQueueBuffer(new KeyedRowSerializer(idSerializer,
+                                                                                                 leftRowSerializer))
+                                                       .onDisk(true).make();
+                matchedLeftRows = bufferMgr.createDistinctBuffer(Serializer.LONG).useHeap(useHeap).make();
+            } else {
+                leftRowsInSeveralPartitions = null;
+                matchedLeftRows = null;
+            }
+            if (rightMatchedRowKeys != null) {
+                rightRowsInSeveralPartitions = bufferMgr.createQueueBuffer(new KeyedRowSerializer(keySerializer,
+                                                                                                  rightRowSerializer))
+                                                        .onDisk(true).make();
+            } else {
+                rightRowsInSeveralPartitions = null;
+            }
+        }
+
+        protected void addRight( Object value,
+                                 BufferedRow row ) {
+            if (value instanceof Object[]) {
+                for (Object v : (Object[])value) {
+                    addRight(v, row);
+                }
+                return;
+            }
+            rightRows.get(partitionFor(value)).append(new KeyedRow(value, row));
+            spilledBytes += BufferedRows.sizeOf(row, width);
+            if (rightRowsInSeveralPartitions != null) {
+                // The row may be added once for each of its values, but it is only recorded for its first value ...
+                Object rowValue = extractor.getValueInRow(row);
+                if (rowValue instanceof Object[] && value.equals(firstNonNull((Object[])rowValue))
+                    && inSeveralPartitions((Object[])rowValue)) {
+                    rightRowsInSeveralPartitions.append(new KeyedRow(value, row));
+                    spilledBytes += BufferedRows.sizeOf(row, width);
+                }
+            }
+        }
+
+        private Object firstNonNull( Object[] values ) {
+            for (Object v : values) {
+                if (v != null) return v;
+            }
+            return null;
+        }
+
+        /**
+         * Determine whether the non-null values in the supplied array fall into more than one partition.
+         *
+         * @param values the join condition values of a row; may not be null
+         * @return true if the values are in several partitions, or false otherwise
+         */
+        protected boolean inSeveralPartitions( Object[] values ) {
+            int partition = -1;
+            for (Object v : values) {
+                if (v == null) continue;
+                int p = partitionFor(v);
+                if (partition == -1) partition = p;
+                else if (partition != p) return true;
+            }
+            return false;
+        }
+
+        protected void addLeft( Batch batch ) {
+            Object value = leftExtractor.getValueInRow(batch);
+            int partition = -1;
+            boolean severalPartitions = false;
+            if (value instanceof Object[]) {
+                for (Object v : (Object[])value) {
+                    if (v == null) continue;
+                    int p = partitionFor(v);
+                    if (partition == -1) partition = p;
+                    else if (partition != p) severalPartitions = true;
+                }
+            } else if (value != null) {
+                partition = partitionFor(value);
+            }
+            boolean useAllLeftRows = useAllLeftRowsWhenNoMatchingRightRows();
+            if (partition == -1) {
+                // There is no value that can match any right row ...
+                if (!useAllLeftRows) return;
+                partition = 0;
+            }
+            BufferedRow row = leftRowFactory.createRow(batch);
+            if (!severalPartitions) {
+                leftRows.get(partition).append(new KeyedRow(-1L, row));
+                spilledBytes += BufferedRows.sizeOf(row, leftWidth);
+                return;
+            }
+            // Write the row to all of the partitions of its values ...
+            KeyedRow keyedRow = new KeyedRow(useAllLeftRows ? nextLeftRowId++ : -1L, row);
+            boolean[] written = new boolean[partitionCount];
+            for (Object v : (Object[])value) {
+                if (v == null) continue;
+                int p = partitionFor(v);
+                if (!written[p]) {
+                    written[p] = true;
+                    leftRows.get(p).append(keyedRow);
+                    spilledBytes += BufferedRows.sizeOf(row, leftWidth);
+                }
+            }
+            if (useAllLeftRows) {
+                leftRowsInSeveralPartitions.append(keyedRow);
+                spilledBytes += BufferedRows.sizeOf(row, leftWidth);
+            }
+        }
+
+        /**
+         * Load the given partition of the right side into memory, releasing the previous one.
+         *
+         * @param partition the partition number
+         * @return the rows of the corresponding partition of the left side; never null
+         */
+        protected Iterator<KeyedRow> load( int partition ) {
+            if (hashTable != null) {
+                hashTable.close();
+            }
+            hashTable = createBuffer(bufferMgr, extractor, rowFactory, false, useHeap, true);
+            memoryUsed = 0L;
+            try (QueueBuffer<KeyedRow> rows = rightRows.set(partition, null)) {
+                for (KeyedRow keyedRow : rows) {
+                    hashTable.put(keyedRow.key, keyedRow.row);
+                    memoryUsed += BufferedRows.sizeOf(keyedRow.row, width);
+                }
+            }
+            peakMemory = Math.max(peakMemory, memoryUsed);
+            return leftRows.get(partition).iterator();
+        }
+
+        protected void matched( long leftRowId ) {
+            if (leftRowId >= 0L && matchedLeftRows != null) {
+                matchedLeftRows.addIfAbsent(leftRowId);
+            }
+        }
+
+        /**
+         * Get the left rows that were written to several partitions but didn't match any right row in any of them.
+         *
+         * @return the iterator over the unmatched rows; never null
+         */
+        protected Iterator<KeyedRow> unmatchedLeftRowsInSeveralPartitions() {
+            final Iterator<KeyedRow> rows = leftRowsInSeveralPartitions.iterator();
+            return new Iterator<KeyedRow>() {
+                private KeyedRow next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && rows.hasNext()) {
+                        KeyedRow row = rows.next();
+                        // the identifiers are unique, so this only adds the rows which have never matched ...
+                        if (matchedLeftRows.addIfAbsent((Long)row.key)) next = row;
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public KeyedRow next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    KeyedRow result = next;
+                    next = null;
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * Get the right rows that were written to several partitions. Those that matched a left row in any partition are
+         * filtered out by the {@link RightRowsBatch}.
+         *
+         * @return the iterator over the rows; never null
+         */
+        protected Iterator<BufferedRow> rightRowsInSeveralPartitions() {
+            final Iterator<KeyedRow> rows = rightRowsInSeveralPartitions.iterator();
+            return new Iterator<BufferedRow>() {
+                @Override
+                public boolean hasNext() {
+                    return rows.hasNext();
+                }
+
+                @Override
+                public BufferedRow next() {
+                    return rows.next().row;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            for (QueueBuffer<KeyedRow> rows : rightRows) {
+                // the right partitions are closed as soon as they are loaded ...
+                if (rows != null) rows.close();
+            }
+            for (QueueBuffer<KeyedRow> rows : leftRows) {
+                rows.close();
+            }
+            if (leftRowsInSeveralPartitions != null) leftRowsInSeveralPartitions.close();
+            if (rightRowsInSeveralPartitions != null) rightRowsInSeveralPartitions.close();
+            if (matchedLeftRows != null) matchedLeftRows.close();
+            if (hashTable != null) hashTable.close();
+        }
+    }
+
+    /**
+     * A {@link BatchFactory} that first writes all of the left rows into the partitions, and then joins each partition of the
+     * left side with the corresponding partition of the right side.
+     */
+    protected class PartitionedHashJoinBatchFactory implements BatchFactory {
+        private int partition = -1;
+        private Iterator<KeyedRow> leftRows;
+        private Iterator<BufferedRow> rightRows;
+        private Iterator<KeyedRow> unmatchedLeftRows;
+        private Iterator<BufferedRow> unmatchedRightRows;
+        private Iterator<BufferedRow> rightRowsWithNullKeys;
+
+        protected PartitionedHashJoinBatchFactory() {
+            Batch leftBatch = findNextNonEmptyLeftBatch();
+            while (leftBatch != null) {
+                while (leftBatch.hasNext()) {
+                    leftBatch.nextRow();
+                    partitions.addLeft(leftBatch);
+                }
+                currentLeft = null; // reset ...
+                leftBatch = findNextNonEmptyLeftBatch();
+            }
+        }
+
+        @Override
+        public Batch nextBatch() {
+            while (true) {
+                if (leftRows != null && leftRows.hasNext()) {
+                    return new PartitionedHashJoinBatch(new KeyedRowsBatch(leftRows, leftWidth, batchSize));
+                }
+                if (rightMatchedRowKeys != null && rightRows == null && leftRows != null) {
+                    // Return the unmatched rows of the current partition on the right ...
+                    rightRows = partitions.hashTable.ascending();
+                }
+                if (rightRows != null && rightRows.hasNext()) {
+                    return new RightRowsBatch(rightRows, 100) {
+                        @Override
+                        protected boolean isDeferred( Object key ) {
+                            // rows that are in several partitions may still match in another partition ...
+                            return key instanceof Object[] && partitions.inSeveralPartitions((Object[])key);
+                        }
+                    };
+                }
+                if (++partition < partitionCount) {
+                    // Move on to the next partition ...
+                    leftRows = partitions.load(partition);
+                    rightRows = null;
+                    continue;
+                }
+                // All partitions are done ...
+                if (unmatchedLeftRows == null && partitions.leftRowsInSeveralPartitions != null) {
+                    unmatchedLeftRows = partitions.unmatchedLeftRowsInSeveralPartitions();
+                }
+                if (unmatchedLeftRows != null && unmatchedLeftRows.hasNext()) {
+                    return new LeftOnlyBatch(new KeyedRowsBatch(unmatchedLeftRows, leftWidth, batchSize));
+                }
+                if (unmatchedRightRows == null && partitions.rightRowsInSeveralPartitions != null) {
+                    unmatchedRightRows = partitions.rightRowsInSeveralPartitions();
+                }
+                if (unmatchedRightRows != null && unmatchedRightRows.hasNext()) {
+                    return new RightRowsBatch(unmatchedRightRows, 100);
+                }
+                if (rightRowsWithNullKeys == null && rightRowsWithNullKey != null) {
+                    rightRowsWithNullKeys = rightRowsWithNullKey.iterator();
+                }
+                if (rightRowsWithNullKeys != null && rightRowsWithNullKeys.hasNext()) {
+                    return new RightRowsBatch(rightRowsWithNullKeys, 100);
+                }
+                recordUsage();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A batch of the left rows in one partition, which is joined with the right rows of the same partition.
+     */
+    protected class PartitionedHashJoinBatch extends HashJoinBatch {
+        private final KeyedRowsBatch currentLeft;
+
+        protected PartitionedHashJoinBatch( KeyedRowsBatch currentLeft ) {
+            super(currentLeft);
+            this.currentLeft = currentLeft;
+        }
+
+        @Override
+        protected void leftRowMatched() {
+            partitions.matched(currentLeft.currentKey());
+        }
+
+        @Override
+        protected boolean includeLeftRowWithoutMatches() {
+            // rows that are in several partitions may still match in another partition ...
+            return currentLeft.currentKey() < 0L;
+        }
+    }
+
+    /**
+     * A batch over rows that were read from a partition.
+     */
+    protected class KeyedRowsBatch implements Batch {
+        private final Iterator<KeyedRow> rows;
+        private final int rowWidth;
+        private final int maxSize;
+        private KeyedRow current;
+        private int count = 0;
+
+        protected KeyedRowsBatch( Iterator<KeyedRow> rows,
+                                  int rowWidth,
+                                  int maxSize ) {
+            this.rows = rows;
+            this.rowWidth = rowWidth;
+            this.maxSize = maxSize;
+        }
+
+        protected long currentKey() {
+            return (Long)current.key;
+        }
+
+        @Override
+        public int width() {
+            return rowWidth;
+        }
+
+        @Override
+        public String getWorkspaceName() {
+            return workspaceName;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public long rowCount() {
+            return -1; // don't really know how many ...
+        }
+
+        @Override
+        public boolean hasNext() {
+            return count < maxSize && rows.hasNext();
+        }
+
+        @Override
+        public void nextRow() {
+            current = rows.next();
+            ++count;
+        }
+
+        @Override
+        public CachedNode getNode() {
+            return current.row.getNode();
+        }
+
+        @Override
+        public CachedNode getNode( int index ) {
+            return current.row.getNode(index);
+        }
+
+        @Override
+        public float getScore() {
+            return current.row.getScore();
+        }
+
+        @Override
+        public float getScore( int index ) {
+            return current.row.getScore(index);
+        }
+    }
 }
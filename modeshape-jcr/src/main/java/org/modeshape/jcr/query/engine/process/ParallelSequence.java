@@ -0,0 +1,186 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine.process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.query.NodeSequence;
+
+/**
+ * A {@link NodeSequence} which evaluates another sequence in a separate thread, and hands over the batches produced by that
+ * sequence through a bounded queue. This allows independent branches of a query plan (e.g., the two sides of a join or of a
+ * set operation) to be evaluated concurrently.
+ * <p>
+ * The batches are {@link NodeSequence#copy(Batch) copied} in the producing thread, so that the nodes are loaded and any
+ * criteria are evaluated by that thread rather than by the consumer. The delegate sequence is only ever accessed by the
+ * producing thread, which also closes it when it's done.
+ * </p>
+ * <p>
+ * This class is not thread-safe: there may be only one consumer.
+ * </p>
+ */
+@NotThreadSafe
+public class ParallelSequence extends NodeSequence {
+
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100L;
+
+    /**
+     * Evaluate the supplied sequence in a separate thread obtained from the supplied executor. If the executor does not accept
+     * any more work, the sequence is returned as is and will be evaluated by the caller's thread.
+     *
+     * @param delegate the sequence which should be evaluated; may not be null
+     * @param executor the executor which runs the evaluation; may not be null
+     * @param maxQueuedBatches the maximum number of batches which are produced but not yet consumed; must be positive
+     * @param cancelled the function which determines whether the query has been cancelled, in which case the evaluation of
+     *        the sequence stops; may not be null
+     * @return the sequence which should be used instead of {@code delegate}; never null
+     */
+    public static NodeSequence evaluate( NodeSequence delegate,
+                                         Executor executor,
+                                         int maxQueuedBatches,
+                                         BooleanSupplier cancelled ) {
+        ParallelSequence sequence = new ParallelSequence(delegate, maxQueuedBatches, cancelled);
+        try {
+            executor.execute(sequence.producer);
+            return sequence;
+        } catch (RejectedExecutionException e) {
+            // All the threads are busy, so simply evaluate it in the current thread ...
+            LOGGER.debug("Unable to evaluate {0} in parallel; evaluating it serially", delegate);
+            return delegate;
+        }
+    }
+
+    private final NodeSequence delegate;
+    private final int width;
+    private final long rowCount;
+    private final boolean empty;
+    private final BooleanSupplier cancelled;
+    private final BlockingQueue<Object> queue;
+    private final Runnable producer;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private boolean exhausted;
+
+    protected ParallelSequence( NodeSequence delegate,
+                                int maxQueuedBatches,
+                                BooleanSupplier cancelled ) {
+        assert delegate != null;
+        assert maxQueuedBatches > 0;
+        assert cancelled != null;
+        this.delegate = delegate;
+        this.cancelled = cancelled;
+        // These are obtained before the producer starts, since the delegate is not thread-safe ...
+        this.width = delegate.width();
+        this.rowCount = delegate.getRowCount();
+        this.empty = delegate.isEmpty();
+        this.queue = new ArrayBlockingQueue<>(maxQueuedBatches);
+        this.producer = this::produce;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    @Override
+    public Batch nextBatch() {
+        if (exhausted) return null;
+        Object next = null;
+        try {
+            next = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException(e);
+        }
+        if (next == END) {
+            exhausted = true;
+            Throwable t = failure;
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error) throw (Error)t;
+            if (t != null) throw new IllegalStateException(t);
+            return null;
+        }
+        return (Batch)next;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        exhausted = true;
+        // Make room for the producer, which will notice that this sequence is closed ...
+        queue.clear();
+    }
+
+    protected void produce() {
+        try {
+            Batch batch = null;
+            while (!closed && !cancelled.getAsBoolean() && (batch = delegate.nextBatch()) != null) {
+                if (batch.isEmpty()) continue;
+                // Copy the batch so that all the work is done in this thread ...
+                Batch copy = NodeSequence.copy(batch);
+                if (copy.rowCount() == 0) continue;
+                if (!put(copy)) return;
+            }
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            try {
+                delegate.close();
+            } catch (RuntimeException e) {
+                LOGGER.debug(e, "Error while closing {0}", delegate);
+            }
+            put(END);
+        }
+    }
+
+    private boolean put( Object item ) {
+        try {
+            while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed) return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            // The executor is being shut down, so make sure the consumer is not blocked forever ...
+            Thread.currentThread().interrupt();
+            if (failure == null) failure = e;
+            queue.clear();
+            queue.offer(END);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(parallel " + delegate + ")";
+    }
+}
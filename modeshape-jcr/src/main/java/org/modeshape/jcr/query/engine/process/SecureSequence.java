@@ -15,18 +15,27 @@
  */
 package org.modeshape.jcr.query.engine.process;
 
+import java.util.function.Predicate;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.query.JcrQueryContext;
 import org.modeshape.jcr.query.NodeSequence;
 
 /**
  * A {@link org.modeshape.jcr.query.NodeSequence} implementation which only returns nodes on which an existing query context
- * has {@link org.modeshape.jcr.ModeShapePermissions#READ} permissions.
+ * has {@link org.modeshape.jcr.ModeShapePermissions#READ} permissions. When the context can read all nodes, the nodes are not
+ * checked (or loaded) individually.
  *
  * @author Horia Chiorean (hchiorea@redhat.com)
  */
 public class SecureSequence extends DelegatingSequence {
 
+    private static final NodeSequence.RowFilter NON_NULL_NODES = new NodeSequence.RowFilter() {
+        @Override
+        public boolean isCurrentRowValid( Batch batch ) {
+            return batch.getNode() != null;
+        }
+    };
+
     protected final JcrQueryContext context;
 
     /**
@@ -44,11 +53,19 @@ public class SecureSequence extends DelegatingSequence {
     @Override
     public Batch nextBatch() {
         Batch nextBatch = super.nextBatch();
+        if (context.canReadAllNodes() && !context.hasPendingChanges()) {
+            // There's no need to check (and load) each node, unless the session may have moved or removed some of them ...
+            return NodeSequence.batchFilteredWith(nextBatch, NON_NULL_NODES);
+        }
+        if (nextBatch == null) {
+            return null;
+        }
+        // Filter the whole batch with the same test, which evaluates the roles of the user and each ACL only once ...
+        final Predicate<CachedNode> readable = context.readPermissionTest();
         return NodeSequence.batchFilteredWith(nextBatch, new NodeSequence.RowFilter() {
             @Override
             public boolean isCurrentRowValid( Batch batch ) {
-                CachedNode node = batch.getNode();
-                return context.canRead(node);
+                return readable.test(batch.getNode());
             }
         });
     }
@@ -15,28 +15,68 @@
  */
 package org.modeshape.jcr.query.engine.process;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import org.mapdb.Serializer;
 import org.modeshape.common.collection.SequentialIterator;
 import org.modeshape.jcr.cache.CachedNodeSupplier;
 import org.modeshape.jcr.query.BufferManager;
 import org.modeshape.jcr.query.BufferManager.DistinctBuffer;
+import org.modeshape.jcr.query.BufferManager.QueueBuffer;
 import org.modeshape.jcr.query.NodeSequence;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.engine.process.BufferedRows.BufferedRow;
+import org.modeshape.jcr.query.engine.process.BufferedRows.KeyedRow;
+import org.modeshape.jcr.query.engine.process.BufferedRows.KeyedRowSerializer;
 import org.modeshape.jcr.query.model.NullOrder;
 
 /**
+ * A {@link NodeSequence} that returns the rows of its delegate in ascending order of the values extracted from each row.
+ * <p>
+ * Rows are sorted in a buffer obtained from the {@link BufferManager}. When the rows in the buffer need more than the configured
+ * amount of memory, the sorted contents of the buffer are written into a temporary file as a <i>run</i>, and the buffer is
+ * reused for the subsequent rows. Once all rows have been read, the runs are merged. When only the first rows of the sequence
+ * are needed (e.g., because the sequence is under a LIMIT), only those rows are kept in a bounded in-memory structure, and any
+ * runs are truncated to that number of rows. The number of rows sorted, the number of runs, and the time spent are
+ * {@link BufferManager#recordUsage(String, long, long) recorded} once the rows have been sorted.
+ * </p>
+ * <p>
+ * When duplicates are not allowed, only the first row read for each sortable value is returned, whether the rows are sorted in
+ * the buffer, in runs, or as the first rows. Limiting the number of rows therefore never changes which rows are returned.
+ * </p>
+ *
  * @author Randall Hauch (rhauch@redhat.com)
  */
 public class SortingSequence extends BufferingSequence {
 
     private final DistinctBuffer<BufferedRow> rowsWithNullKey;
     private final NullOrder nullOrder;
+    private final BufferManager bufferMgr;
+    private final boolean allowDuplicates;
+    private final long memoryLimit;
+    private final int rowLimit;
+    private final Comparator<Object> keyComparator;
+    private final Serializer<Object> keySerializer;
+    private final Serializer<BufferedRow> rowSerializer;
+    private final List<QueueBuffer<KeyedRow>> runs = new ArrayList<>();
+    private TreeMap<RankedKey, BufferedRow> topRows;
+    private QueueBuffer<KeyedRow> mergedRows;
     private Iterator<BufferedRow> bufferedRows;
     private int batchSize = 0;
+    private long rowCount;
+    private long rowsSorted;
+    private long rowsAdded;
+    private long memoryUsed;
+    private long peakMemory;
+    private long spilledBytes;
 
-    @SuppressWarnings( {"unchecked"} )
     public SortingSequence( String workspaceName,
                             NodeSequence delegate,
                             ExtractFromRow extractor,
@@ -46,11 +86,55 @@ public class SortingSequence extends BufferingSequence {
                             boolean useHeap,
                             boolean allowDuplicates,
                             NullOrder nullOrder ) {
+        this(workspaceName, delegate, extractor, bufferMgr, nodeCache, pack, useHeap, allowDuplicates, nullOrder, Long.MAX_VALUE,
+             Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a sorting sequence that keeps at most the supplied amount of memory and that only needs to return the supplied
+     * number of rows.
+     *
+     * @param workspaceName the name of the workspace; may not be null
+     * @param delegate the sequence with the rows to be sorted; may not be null
+     * @param extractor the extractor for the values by which the rows are sorted; may not be null
+     * @param bufferMgr the buffer manager; may not be null
+     * @param nodeCache the cache from which the nodes are loaded; may not be null
+     * @param pack true if the sortable values can be packed together, or false otherwise
+     * @param useHeap true if the buffer is to be kept on the heap, or false if off-heap storage should be used
+     * @param allowDuplicates true if the sequence may contain multiple rows with the same sortable value
+     * @param nullOrder the placement of the rows without a sortable value; may be null only if there are no such rows
+     * @param memoryLimit the number of bytes the rows may use before they are written to temporary files; {@link Long#MAX_VALUE}
+     *        if the rows should always be sorted in memory
+     * @param rowLimit the number of rows from the beginning of this sequence that are needed; {@link Integer#MAX_VALUE} if all
+     *        rows are needed
+     */
+    @SuppressWarnings( "unchecked" )
+    public SortingSequence( String workspaceName,
+                            NodeSequence delegate,
+                            ExtractFromRow extractor,
+                            BufferManager bufferMgr,
+                            CachedNodeSupplier nodeCache,
+                            boolean pack,
+                            boolean useHeap,
+                            boolean allowDuplicates,
+                            NullOrder nullOrder,
+                            long memoryLimit,
+                            int rowLimit ) {
         super(workspaceName, delegate, extractor, bufferMgr, nodeCache, pack, useHeap, allowDuplicates);
         this.nullOrder = nullOrder;
+        this.bufferMgr = bufferMgr;
+        this.allowDuplicates = allowDuplicates;
+        this.memoryLimit = memoryLimit;
+        this.rowLimit = rowLimit;
+        this.keyComparator = (Comparator<Object>)extractor.getType().getComparator();
+        this.keySerializer = (Serializer<Object>)bufferMgr.serializerFor(extractor.getType());
         // Create the buffer into which we'll place the rows with null keys ...
-        Serializer<BufferedRow> rowSerializer = (Serializer<BufferedRow>)BufferedRows.serializer(nodeCache, width);
+        this.rowSerializer = (Serializer<BufferedRow>)BufferedRows.serializer(nodeCache, width);
         rowsWithNullKey = bufferMgr.createDistinctBuffer(rowSerializer).keepSize(true).useHeap(useHeap).make();
+        if (rowLimit > 0 && rowLimit < Integer.MAX_VALUE) {
+            // Only the first rows are needed, so keep only those ...
+            topRows = new TreeMap<>();
+        }
     }
 
     @Override
@@ -58,7 +142,7 @@ public class SortingSequence extends BufferingSequence {
         if (bufferedRows == null) {
             bufferedRows = initialize();
         }
-        return super.rowCount() + rowsWithNullKey.size();
+        return rowCount;
     }
 
     @Override
@@ -82,31 +166,187 @@ public class SortingSequence extends BufferingSequence {
      * @return the iterator over the buffered rows in this sequence; may be null if this sequence is empty
      */
     protected Iterator<BufferedRow> initialize() {
+        long start = System.nanoTime();
         // Load everthing into the buffer ...
         batchSize = loadAll(delegate, extractor, rowsWithNullKey);
-        remainingRowCount.set(buffer.size() + rowsWithNullKey.size());
+        Iterator<BufferedRow> sortedRows = null;
+        long sortedRowCount = 0L;
+        int runCount = runs.size();
+        if (topRows != null) {
+            sortedRows = topRows.values().iterator();
+            sortedRowCount = topRows.size();
+        } else if (runs.isEmpty()) {
+            sortedRows = buffer.ascending();
+            sortedRowCount = buffer.size();
+        } else {
+            // Write out the remaining rows, so that all the rows can be merged ...
+            if (buffer.size() != 0L) {
+                spill();
+                runCount = runs.size();
+            }
+            Iterator<KeyedRow> merged = new MergingIterator(runs, keyComparator, allowDuplicates);
+            if (allowDuplicates) {
+                for (QueueBuffer<KeyedRow> run : runs) {
+                    sortedRowCount += run.size();
+                }
+            } else {
+                // We have to know how many distinct rows there are, so merge them into another file ...
+                mergedRows = newRun();
+                while (merged.hasNext()) {
+                    mergedRows.append(merged.next());
+                }
+                closeRuns();
+                merged = mergedRows.iterator();
+                sortedRowCount = mergedRows.size();
+            }
+            // Only the first rows are needed ...
+            sortedRowCount = Math.min(sortedRowCount, rowLimit);
+            sortedRows = rowsOf(merged, sortedRowCount);
+        }
+        rowCount = sortedRowCount + rowsWithNullKey.size();
+        remainingRowCount.set(rowCount);
+        recordUsage(runCount, System.nanoTime() - start);
         // We always return the buffered rows in ascending order of the extracted key ...
         if (rowsWithNullKey.isEmpty()) {
-            return buffer.ascending();
+            return sortedRows;
         }
         // Return the rows with NULL first ...
         assert nullOrder != null;
         switch (nullOrder) {
             case NULLS_FIRST:
-                return SequentialIterator.create(rowsWithNullKey.iterator(), buffer.ascending());
+                return SequentialIterator.create(rowsWithNullKey.iterator(), sortedRows);
             case NULLS_LAST:
-                return SequentialIterator.create(buffer.ascending(), rowsWithNullKey.iterator());
+                return SequentialIterator.create(sortedRows, rowsWithNullKey.iterator());
         }
         assert false;
         return null;
     }
 
+    @Override
+    protected void add( Object value,
+                        BufferedRow row ) {
+        ++rowsSorted;
+        if (topRows != null) {
+            addToTopRows(value, row);
+        } else {
+            addToBuffer(value, row);
+        }
+    }
+
+    private void addToTopRows( Object value,
+                               BufferedRow row ) {
+        if (topRows.putIfAbsent(new RankedKey(value, ++rowsAdded), row) != null) {
+            // There already is a row with the same sortable value, and we always keep the first one ...
+            return;
+        }
+        memoryUsed += BufferedRows.sizeOf(row, width);
+        if (topRows.size() > rowLimit) {
+            // Remove the last row, which can never be one of the first rows ...
+            memoryUsed -= BufferedRows.sizeOf(topRows.pollLastEntry().getValue(), width);
+        }
+        peakMemory = Math.max(peakMemory, memoryUsed);
+        if (memoryUsed > memoryLimit) {
+            // Even the first rows don't fit in memory, so sort them like all the other rows ...
+            TreeMap<RankedKey, BufferedRow> rows = topRows;
+            topRows = null;
+            memoryUsed = 0L;
+            for (Map.Entry<RankedKey, BufferedRow> entry : rows.entrySet()) {
+                addToBuffer(entry.getKey().value, entry.getValue());
+            }
+        }
+    }
+
+    private void addToBuffer( Object value,
+                              BufferedRow row ) {
+        if (!buffer.putIfAbsent(value, row)) {
+            // There already is a row with the same sortable value in this run, and we always keep the first one ...
+            return;
+        }
+        memoryUsed += BufferedRows.sizeOf(row, width);
+        peakMemory = Math.max(peakMemory, memoryUsed);
+        if (memoryUsed > memoryLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * Write the (sorted) rows in the buffer into a new run, and empty the buffer.
+     */
+    protected void spill() {
+        final QueueBuffer<KeyedRow> run = newRun();
+        buffer.removeAll(( key, row ) -> {
+            // Only the first rows of each run can be needed ...
+            if (run.size() < rowLimit) {
+                run.append(new KeyedRow(key, row));
+            }
+        });
+        runs.add(run);
+        spilledBytes += memoryUsed;
+        memoryUsed = 0L;
+    }
+
+    private QueueBuffer<KeyedRow> newRun() {
+        return bufferMgr.createQueueBuffer(new KeyedRowSerializer(keySerializer, rowSerializer)).onDisk(true).make();
+    }
+
+    private void recordUsage( int runCount,
+                              long nanos ) {
+        if (rowsSorted == 0L) return;
+        StringBuilder sb = new StringBuilder("sort on ").append(extractor);
+        sb.append(" rows=").append(rowsSorted);
+        if (topRows != null) {
+            sb.append(" first=").append(rowLimit);
+        }
+        if (runCount > 0) {
+            sb.append(" runs=").append(runCount);
+        }
+        sb.append(" in ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+        bufferMgr.recordUsage(sb.toString(), peakMemory, spilledBytes);
+    }
+
+    private void closeRuns() {
+        try {
+            for (QueueBuffer<KeyedRow> run : runs) {
+                run.close();
+            }
+        } finally {
+            runs.clear();
+        }
+    }
+
+    private static Iterator<BufferedRow> rowsOf( final Iterator<KeyedRow> keyedRows,
+                                                 final long maxRows ) {
+        return new Iterator<BufferedRow>() {
+            private long remaining = maxRows;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0L && keyedRows.hasNext();
+            }
+
+            @Override
+            public BufferedRow next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                --remaining;
+                return keyedRows.next().row;
+            }
+        };
+    }
+
     @Override
     public void close() {
         try {
             super.close();
         } finally {
-            rowsWithNullKey.close();
+            try {
+                rowsWithNullKey.close();
+            } finally {
+                try {
+                    closeRuns();
+                } finally {
+                    if (mergedRows != null) mergedRows.close();
+                }
+            }
         }
     }
 
@@ -114,4 +354,105 @@ public class SortingSequence extends BufferingSequence {
     public String toString() {
         return "(sorting-sequence width=" + width() + " order=" + extractor + " " + delegate + ")";
     }
+
+    /**
+     * The key of one of the first rows, which orders rows with the same sortable value by the order in which they were added.
+     */
+    protected final class RankedKey implements Comparable<RankedKey> {
+        protected final Object value;
+        protected final long rank;
+
+        protected RankedKey( Object value,
+                             long rank ) {
+            this.value = value;
+            this.rank = rank;
+        }
+
+        @Override
+        public int compareTo( RankedKey that ) {
+            int diff = keyComparator.compare(this.value, that.value);
+            if (diff != 0 || !allowDuplicates) return diff;
+            return Long.compare(this.rank, that.rank);
+        }
+    }
+
+    /**
+     * An iterator that merges several sorted runs. Rows with the same sortable value are returned in the order of the runs, and
+     * only the first of them is returned if duplicates are not allowed.
+     */
+    protected static final class MergingIterator implements Iterator<KeyedRow> {
+        private final PriorityQueue<RunHead> heads;
+        private final Comparator<Object> keyComparator;
+        private final boolean allowDuplicates;
+        private KeyedRow next;
+        private Object lastKey;
+        private boolean hasLastKey;
+
+        protected MergingIterator( List<QueueBuffer<KeyedRow>> runs,
+                                   Comparator<Object> keyComparator,
+                                   boolean allowDuplicates ) {
+            this.keyComparator = keyComparator;
+            this.allowDuplicates = allowDuplicates;
+            this.heads = new PriorityQueue<>(Math.max(1, runs.size()));
+            int index = 0;
+            for (QueueBuffer<KeyedRow> run : runs) {
+                Iterator<KeyedRow> rows = run.iterator();
+                if (rows.hasNext()) {
+                    heads.add(new RunHead(rows, index++));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !heads.isEmpty()) {
+                RunHead head = heads.poll();
+                KeyedRow row = head.current;
+                if (head.advance()) {
+                    heads.add(head);
+                }
+                if (!allowDuplicates && hasLastKey && keyComparator.compare(lastKey, row.key) == 0) {
+                    // This row is a duplicate of the last row ...
+                    continue;
+                }
+                lastKey = row.key;
+                hasLastKey = true;
+                next = row;
+            }
+            return next != null;
+        }
+
+        @Override
+        public KeyedRow next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            KeyedRow result = next;
+            next = null;
+            return result;
+        }
+
+        private final class RunHead implements Comparable<RunHead> {
+            private final Iterator<KeyedRow> rows;
+            private final int index;
+            protected KeyedRow current;
+
+            protected RunHead( Iterator<KeyedRow> rows,
+                               int index ) {
+                this.rows = rows;
+                this.index = index;
+                this.current = rows.next();
+            }
+
+            protected boolean advance() {
+                if (!rows.hasNext()) return false;
+                current = rows.next();
+                return true;
+            }
+
+            @Override
+            public int compareTo( RunHead that ) {
+                int diff = keyComparator.compare(this.current.key, that.current.key);
+                return diff != 0 ? diff : Integer.compare(this.index, that.index);
+            }
+        }
+    }
 }
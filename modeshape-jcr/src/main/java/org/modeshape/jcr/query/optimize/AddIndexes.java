@@ -222,8 +222,21 @@ public class AddIndexes implements OptimizerRule {
                                           Collection<JoinCondition> joinConditions,
                                           int costEstimate,
                                           long cardinalityEstimate ) {
+                        addIndex(name, workspaceName, providerName, joinConditions, costEstimate, cardinalityEstimate, -1L);
+                    }
+
+                    @Override
+                    public void addIndex( String name,
+                                          String workspaceName,
+                                          String providerName,
+                                          Collection<JoinCondition> joinConditions,
+                                          int costEstimate,
+                                          long cardinalityEstimate,
+                                          long distinctValuesEstimate ) {
+                        // Each value on the other side of the join matches this fraction of the index's nodes ...
+                        float selectivity = distinctValuesEstimate > 0L ? (float)(1d / distinctValuesEstimate) : 1.0f;
                         IndexPlan indexPlan = new IndexPlan(name, workspaceName, providerName, null, joinConditions,
-                                                            costEstimate, cardinalityEstimate, 1.0f, null);
+                                                            costEstimate, cardinalityEstimate, selectivity, null);
                         indexPlans.add(indexPlan);
                     }
 
@@ -0,0 +1,596 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.engine.IndexPlan;
+import org.modeshape.jcr.query.model.And;
+import org.modeshape.jcr.query.model.Between;
+import org.modeshape.jcr.query.model.ChildNode;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.FullTextSearch;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.Not;
+import org.modeshape.jcr.query.model.Or;
+import org.modeshape.jcr.query.model.PropertyExistence;
+import org.modeshape.jcr.query.model.SameNode;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.model.SetCriteria;
+import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.query.plan.JoinAlgorithm;
+import org.modeshape.jcr.query.plan.JoinEstimate;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.spi.index.IndexCostCalculator;
+
+/**
+ * An {@link OptimizerRule optimizer rule} that chooses the order and the {@link JoinAlgorithm algorithm} of inner joins from the
+ * estimated cardinalities of their sources.
+ * <p>
+ * Each tree of adjacent {@link JoinType#INNER inner} joins is treated as one multi-way join. The cardinality of each of its
+ * sources is taken from the cheapest {@link IndexPlan index} with a known cardinality (which the index providers compute from
+ * their own statistics), reduced by a fixed selectivity for each of the source's criteria that the index does not already
+ * cover. Criteria pushed down to the joins reduce the cardinalities of the joins in the same way. An equi-join matches each
+ * value with as many rows as there are rows per distinct value on either side, which is known for the sides with an index on
+ * the join column that reports its {@link IndexPlan#getSelectivityEstimate() number of distinct values}; otherwise the values
+ * are assumed to be unique. When
+ * the multi-way join has at most {@code exhaustiveLimit} sources, all of the join trees (including bushy ones) are enumerated
+ * with dynamic programming; larger joins are built greedily by always performing the cheapest of the possible joins next.
+ * </p>
+ * <p>
+ * Joins on {@link DescendantNodeJoinCondition descendant nodes} look up the range of descendants of each ancestor, so they
+ * are costed as {@link JoinAlgorithm#NESTED_LOOP nested-loop} joins that must keep the ancestors on the left. All other joins
+ * are costed as {@link JoinAlgorithm#HASH hash} joins that build their right side. The query engine does not have a merge join
+ * that could use already-sorted inputs, so {@link JoinAlgorithm#MERGE} is never chosen.
+ * </p>
+ * <p>
+ * The original join tree is kept unless the chosen one is estimated to be cheaper, and every join in the tree records its
+ * {@link JoinEstimate estimates} in the {@link Property#JOIN_ESTIMATE} property so that they appear in the query plan.
+ * </p>
+ * <p>
+ * This rule must run after the indexes have been {@link OrderIndexesByCost ordered by cost}.
+ * </p>
+ */
+@Immutable
+public class CostBasedJoinOrder implements OptimizerRule {
+
+    public static final int DEFAULT_EXHAUSTIVE_LIMIT = 6;
+    public static final CostBasedJoinOrder INSTANCE = new CostBasedJoinOrder(DEFAULT_EXHAUSTIVE_LIMIT);
+
+    /** The number of nodes assumed for a source when none of its indexes knows its cardinality. */
+    protected static final double UNKNOWN_CARDINALITY = 100000d;
+    /** The cost of adding one row to the hash table of a join, relative to the cost of probing it. */
+    protected static final double HASH_BUILD_COST = 2d;
+    /** The average number of ancestors that a node has among the nodes of the ancestor side of a descendant join. */
+    protected static final double ANCESTORS_PER_NODE = 3d;
+
+    protected static final double EQUALITY_SELECTIVITY = 0.1d;
+    protected static final double RANGE_SELECTIVITY = 1d / 3d;
+    protected static final double LIKE_SELECTIVITY = 0.25d;
+    protected static final double DEFAULT_SELECTIVITY = 0.5d;
+
+    private static final int MAX_EXHAUSTIVE_LIMIT = 16;
+
+    private final int exhaustiveLimit;
+
+    /**
+     * Create a rule instance.
+     *
+     * @param exhaustiveLimit the largest number of sources for which all join trees are enumerated; larger joins are ordered
+     *        greedily
+     */
+    public CostBasedJoinOrder( int exhaustiveLimit ) {
+        this.exhaustiveLimit = Math.max(0, Math.min(exhaustiveLimit, MAX_EXHAUSTIVE_LIMIT));
+    }
+
+    @Override
+    public PlanNode execute( QueryContext context,
+                             PlanNode plan,
+                             LinkedList<OptimizerRule> ruleStack ) {
+        List<PlanNode> roots = new ArrayList<>();
+        for (PlanNode join : plan.findAllAtOrBelow(Type.JOIN)) {
+            if (isInnerJoin(join) && !isInnerJoin(join.getParent())) roots.add(join);
+        }
+        for (PlanNode root : roots) {
+            PlanNode parent = root.getParent();
+            PlanNode replacement = new MultiWayJoin(root).optimize();
+            if (replacement == root) continue;
+            if (parent == null) {
+                plan = replacement;
+            } else {
+                parent.replaceChild(root, replacement);
+            }
+        }
+        return plan;
+    }
+
+    protected static boolean isInnerJoin( PlanNode node ) {
+        return node != null && node.getType() == Type.JOIN && node.getChildCount() == 2
+               && JoinType.INNER == node.getProperty(Property.JOIN_TYPE, JoinType.class)
+               && node.getProperty(Property.JOIN_CONDITION, JoinCondition.class) != null;
+    }
+
+    /**
+     * Estimate the fraction of rows that satisfy the supplied constraint.
+     *
+     * @param constraint the constraint; may not be null
+     * @return the selectivity, between 0 and 1
+     */
+    protected double selectivity( Constraint constraint ) {
+        if (constraint instanceof And) {
+            And and = (And)constraint;
+            return selectivity(and.left()) * selectivity(and.right());
+        }
+        if (constraint instanceof Or) {
+            Or or = (Or)constraint;
+            return Math.min(1d, selectivity(or.left()) + selectivity(or.right()));
+        }
+        if (constraint instanceof Not) {
+            return 1d - selectivity(((Not)constraint).getConstraint());
+        }
+        if (constraint instanceof Comparison) {
+            switch (((Comparison)constraint).operator()) {
+                case EQUAL_TO:
+                    return EQUALITY_SELECTIVITY;
+                case NOT_EQUAL_TO:
+                    return 1d - EQUALITY_SELECTIVITY;
+                case LIKE:
+                    return LIKE_SELECTIVITY;
+                default:
+                    return RANGE_SELECTIVITY;
+            }
+        }
+        if (constraint instanceof SetCriteria) {
+            return Math.min(DEFAULT_SELECTIVITY, EQUALITY_SELECTIVITY * ((SetCriteria)constraint).rightOperands().size());
+        }
+        if (constraint instanceof Between) return LIKE_SELECTIVITY;
+        if (constraint instanceof SameNode || constraint instanceof ChildNode) return EQUALITY_SELECTIVITY;
+        if (constraint instanceof FullTextSearch) return EQUALITY_SELECTIVITY;
+        if (constraint instanceof PropertyExistence) return 1d - EQUALITY_SELECTIVITY;
+        return DEFAULT_SELECTIVITY;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * One join tree of a multi-way join, with its estimates.
+     */
+    protected static final class JoinPlan {
+        protected final int mask;
+        protected final double cardinality;
+        protected final double cost;
+        protected final PlanNode source;
+        protected final JoinPlan left;
+        protected final JoinPlan right;
+        protected final int condition;
+        protected final JoinAlgorithm algorithm;
+
+        protected JoinPlan( int mask,
+                            double cardinality,
+                            double cost,
+                            PlanNode source ) {
+            this(mask, cardinality, cost, source, null, null, -1, null);
+        }
+
+        protected JoinPlan( int mask,
+                            double cardinality,
+                            double cost,
+                            PlanNode source,
+                            JoinPlan left,
+                            JoinPlan right,
+                            int condition,
+                            JoinAlgorithm algorithm ) {
+            this.mask = mask;
+            this.cardinality = cardinality;
+            this.cost = cost;
+            this.source = source;
+            this.left = left;
+            this.right = right;
+            this.condition = condition;
+            this.algorithm = algorithm;
+        }
+
+        protected JoinEstimate estimate() {
+            return new JoinEstimate(round(cost), round(cardinality), round(left.cardinality), round(right.cardinality));
+        }
+
+        private static long round( double value ) {
+            return value >= Long.MAX_VALUE ? Long.MAX_VALUE : Math.round(value);
+        }
+    }
+
+    /**
+     * The sources, join conditions and join criteria of one tree of adjacent inner joins.
+     */
+    protected class MultiWayJoin {
+        private final PlanNode root;
+        private final List<PlanNode> sources = new ArrayList<>();
+        private final List<JoinCondition> conditions = new ArrayList<>();
+        private final List<Constraint> constraints = new ArrayList<>();
+        private final Map<SelectorName, Integer> sourceBySelector = new HashMap<>();
+        private int[][] edges;
+        private int[] constraintMasks;
+        private JoinPlan[] sourcePlans;
+        private double[][] valueSelectivities;
+
+        protected MultiWayJoin( PlanNode root ) {
+            this.root = root;
+            collect(root);
+        }
+
+        private void collect( PlanNode node ) {
+            if (node != root && !isInnerJoin(node)) {
+                int index = sources.size();
+                sources.add(node);
+                for (SelectorName selector : node.getSelectors()) {
+                    sourceBySelector.put(selector, index);
+                }
+                return;
+            }
+            conditions.add(node.getProperty(Property.JOIN_CONDITION, JoinCondition.class));
+            List<Constraint> joinConstraints = node.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
+            if (joinConstraints != null) constraints.addAll(joinConstraints);
+            collect(node.getFirstChild());
+            collect(node.getLastChild());
+        }
+
+        /**
+         * Choose the cheapest join tree and return its root, or annotate and return the original root if that tree is at least as
+         * cheap.
+         *
+         * @return the root of the join tree; never null
+         */
+        protected PlanNode optimize() {
+            int count = sources.size();
+            if (count > Integer.SIZE - 2 || !computeEdges()) return root;
+            computeConstraintMasks();
+            sourcePlans = new JoinPlan[count];
+            for (int i = 0; i != count; ++i) {
+                sourcePlans[i] = estimateSource(i);
+            }
+            computeValueSelectivities();
+
+            Map<PlanNode, JoinPlan> originalPlans = new IdentityHashMap<>();
+            JoinPlan original = evaluate(root, originalPlans);
+            JoinPlan best = count <= exhaustiveLimit ? enumerateAll() : buildGreedily();
+            if (best == null || original != null && best.cost >= original.cost) {
+                for (Map.Entry<PlanNode, JoinPlan> entry : originalPlans.entrySet()) {
+                    entry.getKey().setProperty(Property.JOIN_ALGORITHM, entry.getValue().algorithm);
+                    entry.getKey().setProperty(Property.JOIN_ESTIMATE, entry.getValue().estimate());
+                }
+                return root;
+            }
+            boolean[] placed = new boolean[constraints.size()];
+            return build(best, placed);
+        }
+
+        private boolean computeEdges() {
+            // The join conditions must connect all of the sources without a cycle, so that each join has exactly one ...
+            int count = sources.size();
+            int[] components = new int[count];
+            for (int i = 0; i != count; ++i) {
+                components[i] = i;
+            }
+            edges = new int[conditions.size()][];
+            for (int i = 0; i != edges.length; ++i) {
+                Collection<SelectorName> selectors = Visitors.getSelectorsReferencedBy(conditions.get(i));
+                if (selectors.size() != 2) return false;
+                int[] edge = new int[2];
+                int j = 0;
+                for (SelectorName selector : selectors) {
+                    Integer source = sourceBySelector.get(selector);
+                    if (source == null) return false;
+                    edge[j++] = source;
+                }
+                int first = find(components, edge[0]);
+                int second = find(components, edge[1]);
+                if (first == second) return false;
+                components[first] = second;
+                edges[i] = edge;
+            }
+            return edges.length == count - 1;
+        }
+
+        private int find( int[] components,
+                          int index ) {
+            while (components[index] != index) {
+                index = components[index];
+            }
+            return index;
+        }
+
+        private void computeConstraintMasks() {
+            int all = (1 << sources.size()) - 1;
+            constraintMasks = new int[constraints.size()];
+            for (int i = 0; i != constraintMasks.length; ++i) {
+                int mask = 0;
+                for (SelectorName selector : Visitors.getSelectorsReferencedBy(constraints.get(i))) {
+                    Integer source = sourceBySelector.get(selector);
+                    mask |= source != null ? 1 << source : all;
+                }
+                constraintMasks[i] = mask;
+            }
+        }
+
+        private JoinPlan estimateSource( int index ) {
+            PlanNode source = sources.get(index);
+            double cardinality = 0d;
+            double cost = 0d;
+            boolean found = false;
+            for (PlanNode sourceNode : source.findAllAtOrBelow(Type.SOURCE)) {
+                double[] estimate = estimateSourceNode(source, sourceNode);
+                cardinality = Math.max(cardinality, estimate[0]);
+                cost += estimate[1];
+                found = true;
+            }
+            if (!found) {
+                cardinality = UNKNOWN_CARDINALITY;
+                cost = UNKNOWN_CARDINALITY;
+            }
+            cardinality = Math.max(1d, cardinality);
+            return new JoinPlan(1 << index, cardinality, Math.max(cardinality, cost), source);
+        }
+
+        private double[] estimateSourceNode( PlanNode top,
+                                             PlanNode sourceNode ) {
+            PlanNode access = sourceNode.findAncestor(Type.ACCESS);
+            if (access != null && access.hasProperty(Property.ACCESS_NO_RESULTS)) return new double[] {0d, 0d};
+            // The indexes have been ordered by cost, so use the first one that knows how many nodes it returns ...
+            IndexPlan index = null;
+            for (PlanNode child : sourceNode.getChildren()) {
+                if (child.getType() != Type.INDEX) continue;
+                IndexPlan candidate = child.getProperty(Property.INDEX_SPECIFICATION, IndexPlan.class);
+                if (candidate != null && candidate.getJoinConditions().isEmpty()
+                    && candidate.getCardinalityEstimate() != Long.MAX_VALUE) {
+                    index = candidate;
+                    break;
+                }
+            }
+            double cardinality = index != null ? index.getCardinalityEstimate() : UNKNOWN_CARDINALITY;
+            double costPerRow = index != null ? Math.max(1d, (double)index.getCostEstimate() / IndexCostCalculator.Costs.LOCAL) : 1d;
+            double cost = cardinality * costPerRow;
+            Collection<?> covered = index != null ? index.getConstraints() : Collections.emptyList();
+            // Apply the criteria that the index does not cover ...
+            PlanNode node = sourceNode;
+            while (node != top && (node = node.getParent()) != null) {
+                if (node.getType() != Type.SELECT) continue;
+                Constraint constraint = node.getProperty(Property.SELECT_CRITERIA, Constraint.class);
+                if (constraint != null && !covered.contains(constraint)) cardinality *= selectivity(constraint);
+            }
+            return new double[] {cardinality, cost};
+        }
+
+        /**
+         * Compute, for both sources of each join condition, the fraction of the source's rows that one value from the other
+         * source matches.
+         */
+        private void computeValueSelectivities() {
+            valueSelectivities = new double[edges.length][];
+            for (int i = 0; i != edges.length; ++i) {
+                double[] selectivities = new double[2];
+                for (int j = 0; j != 2; ++j) {
+                    int source = edges[i][j];
+                    // Without statistics each value is assumed to be unique, and a source never has more values than rows ...
+                    double selectivity = 1d / sourcePlans[source].cardinality;
+                    Float indexed = indexedValueSelectivity(sources.get(source), conditions.get(i));
+                    if (indexed != null) selectivity = Math.max(selectivity, indexed);
+                    selectivities[j] = selectivity;
+                }
+                valueSelectivities[i] = selectivities;
+            }
+        }
+
+        private Float indexedValueSelectivity( PlanNode source,
+                                               JoinCondition condition ) {
+            Float result = null;
+            for (PlanNode sourceNode : source.findAllAtOrBelow(Type.SOURCE)) {
+                for (PlanNode child : sourceNode.getChildren()) {
+                    if (child.getType() != Type.INDEX) continue;
+                    IndexPlan index = child.getProperty(Property.INDEX_SPECIFICATION, IndexPlan.class);
+                    if (index == null || !index.hasSelectivityEstimate()) continue;
+                    if (!index.getJoinConditions().contains(condition)) continue;
+                    Float selectivity = index.getSelectivityEstimate();
+                    if (selectivity < 1f && (result == null || selectivity < result)) result = selectivity;
+                }
+            }
+            return result;
+        }
+
+        private JoinPlan evaluate( PlanNode node,
+                                   Map<PlanNode, JoinPlan> plans ) {
+            if (node != root && !isInnerJoin(node)) return sourcePlans[sources.indexOf(node)];
+            JoinPlan left = evaluate(node.getFirstChild(), plans);
+            JoinPlan right = evaluate(node.getLastChild(), plans);
+            if (left == null || right == null) return null;
+            JoinPlan plan = join(left, right, conditions.indexOf(node.getProperty(Property.JOIN_CONDITION, JoinCondition.class)));
+            if (plan != null) plans.put(node, plan);
+            return plan;
+        }
+
+        private JoinPlan join( JoinPlan left,
+                               JoinPlan right,
+                               int condition ) {
+            JoinCondition joinCondition = conditions.get(condition);
+            JoinAlgorithm algorithm = JoinAlgorithm.HASH;
+            double selectivity;
+            if (joinCondition instanceof DescendantNodeJoinCondition) {
+                // The ancestors have to be on the left, so that the range of their descendants can be found ...
+                int ancestor = sourceBySelector.get(((DescendantNodeJoinCondition)joinCondition).ancestorSelectorName());
+                if ((left.mask & (1 << ancestor)) == 0) return null;
+                selectivity = Math.min(1d, ANCESTORS_PER_NODE / sourcePlans[ancestor].cardinality);
+                algorithm = JoinAlgorithm.NESTED_LOOP;
+            } else if (joinCondition instanceof ChildNodeJoinCondition) {
+                // Each child has exactly one parent ...
+                int parent = sourceBySelector.get(((ChildNodeJoinCondition)joinCondition).parentSelectorName());
+                selectivity = 1d / sourcePlans[parent].cardinality;
+            } else {
+                // Each value matches the rows of its distinct value on the side with the most distinct values ...
+                selectivity = Math.min(valueSelectivities[condition][0], valueSelectivities[condition][1]);
+            }
+            int mask = left.mask | right.mask;
+            double cardinality = left.cardinality * right.cardinality * selectivity;
+            for (int i = 0; i != constraintMasks.length; ++i) {
+                int constraintMask = constraintMasks[i];
+                if ((constraintMask & ~mask) == 0 && (constraintMask & ~left.mask) != 0 && (constraintMask & ~right.mask) != 0) {
+                    cardinality *= selectivity(constraints.get(i));
+                }
+            }
+            cardinality = Math.max(1d, cardinality);
+            double cost = left.cost + right.cost + HASH_BUILD_COST * right.cardinality + cardinality;
+            if (algorithm == JoinAlgorithm.NESTED_LOOP) {
+                cost += left.cardinality * Math.log(right.cardinality + 2d) / Math.log(2d);
+            } else {
+                cost += left.cardinality;
+            }
+            return new JoinPlan(mask, cardinality, cost, null, left, right, condition, algorithm);
+        }
+
+        private JoinPlan cheaper( JoinPlan first,
+                                  JoinPlan second ) {
+            if (first == null) return second;
+            if (second == null) return first;
+            return second.cost < first.cost ? second : first;
+        }
+
+        private JoinPlan enumerateAll() {
+            int count = sources.size();
+            JoinPlan[] best = new JoinPlan[1 << count];
+            for (int i = 0; i != count; ++i) {
+                best[1 << i] = sourcePlans[i];
+            }
+            for (int size = 2; size <= count; ++size) {
+                for (int mask = 1; mask != best.length; ++mask) {
+                    if (Integer.bitCount(mask) != size) continue;
+                    for (int i = 0; i != edges.length; ++i) {
+                        int[] edge = edges[i];
+                        if ((mask & (1 << edge[0])) == 0 || (mask & (1 << edge[1])) == 0) continue;
+                        // Removing this join condition splits the (connected) sources into two connected parts ...
+                        int first = reachable(mask, edge[0], i);
+                        int second = mask ^ first;
+                        if (best[first] == null || best[second] == null) continue;
+                        best[mask] = cheaper(best[mask], join(best[first], best[second], i));
+                        best[mask] = cheaper(best[mask], join(best[second], best[first], i));
+                    }
+                }
+            }
+            return best[best.length - 1];
+        }
+
+        private int reachable( int mask,
+                               int start,
+                               int excludedEdge ) {
+            int reached = 1 << start;
+            boolean added = true;
+            while (added) {
+                added = false;
+                for (int i = 0; i != edges.length; ++i) {
+                    if (i == excludedEdge) continue;
+                    int a = 1 << edges[i][0];
+                    int b = 1 << edges[i][1];
+                    if ((mask & a) == 0 || (mask & b) == 0) continue;
+                    if ((reached & a) != 0 && (reached & b) == 0) {
+                        reached |= b;
+                        added = true;
+                    } else if ((reached & b) != 0 && (reached & a) == 0) {
+                        reached |= a;
+                        added = true;
+                    }
+                }
+            }
+            return reached;
+        }
+
+        private JoinPlan buildGreedily() {
+            List<JoinPlan> plans = new ArrayList<>();
+            Collections.addAll(plans, sourcePlans);
+            boolean[] used = new boolean[edges.length];
+            for (int step = 1; step < sources.size(); ++step) {
+                JoinPlan best = null;
+                int bestEdge = -1;
+                for (int i = 0; i != edges.length; ++i) {
+                    if (used[i]) continue;
+                    JoinPlan first = planContaining(plans, edges[i][0]);
+                    JoinPlan second = planContaining(plans, edges[i][1]);
+                    JoinPlan candidate = cheaper(join(first, second, i), join(second, first, i));
+                    if (candidate != null && cheaper(best, candidate) == candidate) {
+                        best = candidate;
+                        bestEdge = i;
+                    }
+                }
+                if (best == null) return null;
+                used[bestEdge] = true;
+                plans.remove(best.left);
+                plans.remove(best.right);
+                plans.add(best);
+            }
+            return plans.get(0);
+        }
+
+        private JoinPlan planContaining( List<JoinPlan> plans,
+                                         int source ) {
+            for (JoinPlan plan : plans) {
+                if ((plan.mask & (1 << source)) != 0) return plan;
+            }
+            throw new IllegalStateException();
+        }
+
+        private PlanNode build( JoinPlan plan,
+                                boolean[] placed ) {
+            if (plan.source != null) {
+                plan.source.removeFromParent();
+                return plan.source;
+            }
+            PlanNode left = build(plan.left, placed);
+            PlanNode right = build(plan.right, placed);
+            PlanNode join = new PlanNode(Type.JOIN);
+            join.addLastChild(left);
+            join.addLastChild(right);
+            join.addSelectors(left.getSelectors());
+            join.addSelectors(right.getSelectors());
+            join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+            join.setProperty(Property.JOIN_ALGORITHM, plan.algorithm);
+            join.setProperty(Property.JOIN_CONDITION, conditions.get(plan.condition));
+            join.setProperty(Property.JOIN_ESTIMATE, plan.estimate());
+            // Each pushed-down criteria goes to the lowest join that has all of its selectors ...
+            List<Constraint> joinConstraints = new LinkedList<>();
+            for (int i = 0; i != placed.length; ++i) {
+                if (!placed[i] && (constraintMasks[i] & ~plan.mask) == 0) {
+                    joinConstraints.add(constraints.get(i));
+                    placed[i] = true;
+                }
+            }
+            if (!joinConstraints.isEmpty()) join.setProperty(Property.JOIN_CONSTRAINTS, joinConstraints);
+            return join;
+        }
+    }
+}
@@ -325,6 +325,8 @@ public class RewriteAsRangeCriteria implements OptimizerRule {
             return literal.value();
         }
         BindVariableName variable = (BindVariableName)operand;
+        // The rewritten criteria depend on this value, so the plan cannot be reused with other values ...
+        context.markPlanAsDependentOnVariableValues();
         return context.getVariables().get(variable.getBindVariableName());
     }
 }
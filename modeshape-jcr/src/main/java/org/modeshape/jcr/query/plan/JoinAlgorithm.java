@@ -21,5 +21,7 @@ package org.modeshape.jcr.query.plan;
 public enum JoinAlgorithm {
     // PARTITIONED_SORT,
     NESTED_LOOP,
-    MERGE
+    MERGE,
+    /** Builds a hash table from the rows of the right side, and probes it with each row of the left side. */
+    HASH
 }
@@ -0,0 +1,83 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.plan;
+
+import org.modeshape.common.annotation.Immutable;
+
+/**
+ * The estimates for a JOIN node that a cost-based optimizer rule used to choose the order of the join's children and its
+ * {@link JoinAlgorithm algorithm}. The estimates are rough orders of magnitude and are meant to explain the plan, not to
+ * predict the actual number of rows.
+ */
+@Immutable
+public final class JoinEstimate {
+
+    private final long cost;
+    private final long cardinality;
+    private final long leftCardinality;
+    private final long rightCardinality;
+
+    public JoinEstimate( long cost,
+                         long cardinality,
+                         long leftCardinality,
+                         long rightCardinality ) {
+        this.cost = cost;
+        this.cardinality = cardinality;
+        this.leftCardinality = leftCardinality;
+        this.rightCardinality = rightCardinality;
+    }
+
+    /**
+     * Get the estimated cost of the join, including the cost of both of its sides.
+     *
+     * @return the cost estimate; never negative
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    /**
+     * Get the estimated number of rows that the join produces.
+     *
+     * @return the cardinality estimate; never negative
+     */
+    public long getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Get the estimated number of rows on the left side of the join.
+     *
+     * @return the cardinality estimate; never negative
+     */
+    public long getLeftCardinality() {
+        return leftCardinality;
+    }
+
+    /**
+     * Get the estimated number of rows on the right side of the join.
+     *
+     * @return the cardinality estimate; never negative
+     */
+    public long getRightCardinality() {
+        return rightCardinality;
+    }
+
+    @Override
+    public String toString() {
+        return "cost~=" + cost + ", cardinality~=" + cardinality + ", left~=" + leftCardinality + ", right~=" + rightCardinality;
+    }
+}
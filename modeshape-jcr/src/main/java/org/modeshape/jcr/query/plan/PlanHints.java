@@ -18,6 +18,7 @@ package org.modeshape.jcr.query.plan;
 import java.io.Serializable;
 import javax.jcr.query.QueryResult;
 import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.util.ObjectUtil;
 import org.modeshape.jcr.query.QueryResults;
 
 @NotThreadSafe
@@ -106,6 +107,12 @@ public final class PlanHints implements Serializable, Cloneable {
      */
     public int rowsKeptInMemory = 200;
 
+    /**
+     * Flag indicating whether the independent branches of the query (e.g., the two sides of a join or of a set operation) should
+     * be evaluated concurrently. The default is {@code null}, meaning that the repository's configuration determines this.
+     */
+    public Boolean parallelExecution = null;
+
     public PlanHints() {
     }
 
@@ -129,31 +136,67 @@ public final class PlanHints implements Serializable, Cloneable {
         sb.append(", useSessionContent=").append(useSessionContent);
         sb.append(", restartable=").append(restartable);
         sb.append(", rowsKeptInMemory=").append(rowsKeptInMemory);
+        sb.append(", parallelExecution=").append(parallelExecution);
         sb.append('}');
         return sb.toString();
     }
 
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if (obj == this) return true;
+        if (obj instanceof PlanHints) {
+            PlanHints that = (PlanHints)obj;
+            return this.hasCriteria == that.hasCriteria && this.hasView == that.hasView && this.hasJoin == that.hasJoin
+                   && this.hasSort == that.hasSort && this.hasSetQuery == that.hasSetQuery && this.hasLimit == that.hasLimit
+                   && this.hasOptionalJoin == that.hasOptionalJoin && this.hasFullTextSearch == that.hasFullTextSearch
+                   && this.hasSubqueries == that.hasSubqueries && this.isExistsQuery == that.isExistsQuery
+                   && this.showPlan == that.showPlan && this.planOnly == that.planOnly
+                   && this.validateColumnExistance == that.validateColumnExistance
+                   && this.includeSystemContent == that.includeSystemContent
+                   && this.useSessionContent == that.useSessionContent
+                   && this.qualifyExpandedColumnNames == that.qualifyExpandedColumnNames && this.restartable == that.restartable
+                   && this.rowsKeptInMemory == that.rowsKeptInMemory
+                   && ObjectUtil.isEqualWithNulls(this.parallelExecution, that.parallelExecution);
+        }
+        return false;
+    }
+
+    /**
+     * Set all of these hints to the values of the supplied hints.
+     *
+     * @param other the hints whose values are to be copied; may not be null
+     */
+    public void setAll( PlanHints other ) {
+        this.hasCriteria = other.hasCriteria;
+        this.hasView = other.hasView;
+        this.hasJoin = other.hasJoin;
+        this.hasSort = other.hasSort;
+        this.hasSetQuery = other.hasSetQuery;
+        this.hasLimit = other.hasLimit;
+        this.hasOptionalJoin = other.hasOptionalJoin;
+        this.hasFullTextSearch = other.hasFullTextSearch;
+        this.hasSubqueries = other.hasSubqueries;
+        this.isExistsQuery = other.isExistsQuery;
+        this.showPlan = other.showPlan;
+        this.planOnly = other.planOnly;
+        this.validateColumnExistance = other.validateColumnExistance;
+        this.includeSystemContent = other.includeSystemContent;
+        this.useSessionContent = other.useSessionContent;
+        this.qualifyExpandedColumnNames = other.qualifyExpandedColumnNames;
+        this.restartable = other.restartable;
+        this.rowsKeptInMemory = other.rowsKeptInMemory;
+        this.parallelExecution = other.parallelExecution;
+    }
+
     @Override
     public PlanHints clone() {
         PlanHints clone = new PlanHints();
-        clone.hasCriteria = this.hasCriteria;
-        clone.hasView = this.hasView;
-        clone.hasJoin = this.hasJoin;
-        clone.hasSort = this.hasSort;
-        clone.hasSetQuery = this.hasSetQuery;
-        clone.hasLimit = this.hasLimit;
-        clone.hasOptionalJoin = this.hasOptionalJoin;
-        clone.hasFullTextSearch = this.hasFullTextSearch;
-        clone.hasSubqueries = this.hasSubqueries;
-        clone.isExistsQuery = this.isExistsQuery;
-        clone.showPlan = this.showPlan;
-        clone.planOnly = this.planOnly;
-        clone.validateColumnExistance = this.validateColumnExistance;
-        clone.includeSystemContent = this.includeSystemContent;
-        clone.useSessionContent = this.useSessionContent;
-        clone.qualifyExpandedColumnNames = this.qualifyExpandedColumnNames;
-        clone.restartable = this.restartable;
-        clone.rowsKeptInMemory = this.rowsKeptInMemory;
+        clone.setAll(this);
         return clone;
     }
 }
@@ -158,6 +158,11 @@ public final class PlanNode implements Iterable<PlanNode>, Readable, Cloneable,
          * object.
          */
         JOIN_CONSTRAINTS,
+        /**
+         * For JOIN nodes, the estimated cost and cardinality that were used to choose the order and algorithm of the join. Value
+         * is a {@link JoinEstimate} object.
+         */
+        JOIN_ESTIMATE,
 
         /** For SOURCE nodes, the literal name of the selector. Value is a {@link SelectorName} object. */
         SOURCE_NAME,
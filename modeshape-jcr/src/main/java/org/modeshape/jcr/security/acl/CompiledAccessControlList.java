@@ -0,0 +1,169 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.security.acl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.jcr.security.Privilege;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.security.SecurityContext;
+import org.modeshape.jcr.security.SimplePrincipal;
+
+/**
+ * The permissions stored in the ACL of one node, compiled into one bitmask of privileges per principal so that checking them
+ * does not require creating {@link Privilege} objects or comparing their names. A privilege that aggregates other privileges
+ * (e.g., {@link Privilege#JCR_WRITE jcr:write}) is compiled into its own bit plus the bits of all of the privileges it
+ * aggregates, so an entry grants a privilege exactly when the {@link JcrAccessControlList#hasPrivileges(SecurityContext, Privilege[])
+ * access list} would.
+ */
+@Immutable
+public final class CompiledAccessControlList {
+
+    private static final Map<String, Long> MASKS_BY_LOCAL_NAME = new HashMap<>();
+
+    static {
+        String[] simplePrivileges = {Privilege.JCR_READ, Privilege.JCR_MODIFY_PROPERTIES, Privilege.JCR_ADD_CHILD_NODES,
+            Privilege.JCR_REMOVE_NODE, Privilege.JCR_REMOVE_CHILD_NODES, Privilege.JCR_READ_ACCESS_CONTROL,
+            Privilege.JCR_MODIFY_ACCESS_CONTROL, Privilege.JCR_LOCK_MANAGEMENT, Privilege.JCR_LIFECYCLE_MANAGEMENT,
+            Privilege.JCR_VERSION_MANAGEMENT, Privilege.JCR_NODE_TYPE_MANAGEMENT, Privilege.JCR_RETENTION_MANAGEMENT};
+        long bit = 1L;
+        for (String privilege : simplePrivileges) {
+            MASKS_BY_LOCAL_NAME.put(localName(privilege), bit);
+            bit <<= 1;
+        }
+        // these are the same aggregates as those in Privileges ...
+        long write = bit | maskOf(Privilege.JCR_MODIFY_PROPERTIES) | maskOf(Privilege.JCR_ADD_CHILD_NODES)
+                     | maskOf(Privilege.JCR_REMOVE_NODE) | maskOf(Privilege.JCR_REMOVE_CHILD_NODES);
+        MASKS_BY_LOCAL_NAME.put(localName(Privilege.JCR_WRITE), write);
+        bit <<= 1;
+        long all = bit;
+        for (long mask : MASKS_BY_LOCAL_NAME.values()) {
+            all |= mask;
+        }
+        MASKS_BY_LOCAL_NAME.put(localName(Privilege.JCR_ALL), all);
+    }
+
+    /**
+     * The ACL without entries, which grants all privileges and applies when no node has an ACL.
+     */
+    public static final CompiledAccessControlList EMPTY = new CompiledAccessControlList(new String[0], new long[0]);
+
+    private final String[] principalNames;
+    private final long[] masks;
+
+    private CompiledAccessControlList( String[] principalNames,
+                                       long[] masks ) {
+        this.principalNames = principalNames;
+        this.masks = masks;
+    }
+
+    /**
+     * Compile the permissions stored in the ACL of a node.
+     *
+     * @param permissions the names of the privileges keyed by the principal names, as stored in the ACL; may not be null
+     * @return the compiled ACL, or null if the permissions contain a privilege that is not known
+     */
+    public static CompiledAccessControlList compile( Map<String, Set<String>> permissions ) {
+        String[] principalNames = new String[permissions.size()];
+        long[] masks = new long[permissions.size()];
+        int i = 0;
+        for (Map.Entry<String, Set<String>> entry : permissions.entrySet()) {
+            long mask = 0L;
+            for (String privilegeName : entry.getValue()) {
+                long privilegeMask = maskOf(privilegeName);
+                if (privilegeMask == 0L) {
+                    return null;
+                }
+                mask |= privilegeMask;
+            }
+            principalNames[i] = entry.getKey();
+            masks[i] = mask;
+            ++i;
+        }
+        return new CompiledAccessControlList(principalNames, masks);
+    }
+
+    /**
+     * Get the bitmask of the privilege with the supplied name, which includes the bits of all the privileges it aggregates.
+     *
+     * @param privilegeName the name of the privilege, in prefixed or expanded form; may not be null
+     * @return the bitmask, or 0 if the privilege is not known
+     */
+    public static long maskOf( String privilegeName ) {
+        Long mask = MASKS_BY_LOCAL_NAME.get(localName(privilegeName));
+        return mask != null ? mask : 0L;
+    }
+
+    private static String localName( String privilegeName ) {
+        int index = privilegeName.indexOf('}');
+        if (index < 0) {
+            index = privilegeName.indexOf(':');
+        }
+        return privilegeName.substring(index + 1);
+    }
+
+    /**
+     * Determine whether this ACL has no entries, in which case it grants all privileges.
+     *
+     * @return true if there are no entries, or false otherwise
+     */
+    public boolean isEmpty() {
+        return principalNames.length == 0;
+    }
+
+    /**
+     * Determine whether one of the entries of this ACL that apply to the user of the supplied security context (via the
+     * 'everyone' principal, the user name or one of the user's roles) grants all of the supplied privileges.
+     *
+     * @param context the security context of the user; may not be null
+     * @param requiredMask the bitmask of the required privileges, as obtained from {@link #maskOf(String)}
+     * @return true if the privileges are granted, or false otherwise
+     */
+    public boolean grants( SecurityContext context,
+                           long requiredMask ) {
+        if (isEmpty()) {
+            return true;
+        }
+        String userName = context.getUserName();
+        if (userName != null && userName.startsWith("<") && userName.endsWith(">")) {
+            userName = userName.substring(1, userName.length() - 1);
+        }
+        for (int i = 0; i != principalNames.length; ++i) {
+            if ((masks[i] & requiredMask) != requiredMask) {
+                continue;
+            }
+            String principalName = principalNames[i];
+            if (principalName.equals(SimplePrincipal.EVERYONE.getName()) || principalName.equals(userName)
+                || context.hasRole(principalName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompiledACL[");
+        for (int i = 0; i != principalNames.length; ++i) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(principalNames[i]).append('=').append(Long.toBinaryString(masks[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -75,4 +75,16 @@ public interface IndexConstraints {
      * @return the parameters; never null but may be empty
      */
     Map<String, Object> getParameters();
+
+    /**
+     * Get the number of results that the query needs from the index, based upon the LIMIT and OFFSET of the query. This is only
+     * a hint: ModeShape may still filter out some of the results and ask for more, so an index should not stop producing results
+     * once it has returned this many. However, an index can use it to avoid preparing or fetching many more results than will
+     * likely be needed.
+     * 
+     * @return the number of results that will likely be needed, or {@link Integer#MAX_VALUE} if all of the results are needed
+     */
+    default int getRowLimit() {
+        return Integer.MAX_VALUE;
+    }
 }
@@ -105,6 +105,30 @@ public interface IndexCostCalculator {
                    int costEstimate,
                    long cardinalityEstimate );
 
+    /**
+     * Add to the query plan the information necessary to signal that the supplied index can be used to answer the query, along
+     * with the number of distinct values in the index. The distinct values tell how many of the index's nodes each value on the
+     * other side of the join conditions is likely to match.
+     *
+     * @param name the name of the index; may not be null
+     * @param workspaceName the name of the workspace for which the index is used; may be null if the index is built-in
+     * @param providerName the name of the provider; may be null if the index is built-in
+     * @param joinConditions the join conditions that should be applied to the index if/when it is used
+     * @param costEstimate an estimate of the cost of using the index for the query in question; must be non-negative
+     * @param cardinalityEstimate an estimate of the number of nodes that will be returned by this index, which for join
+     *        constraints is generally equal to the total number of nodes known to the index; must be non-negative
+     * @param distinctValuesEstimate an estimate of the number of distinct values in the index, or -1 if not known
+     */
+    default void addIndex( String name,
+                           String workspaceName,
+                           String providerName,
+                           Collection<JoinCondition> joinConditions,
+                           int costEstimate,
+                           long cardinalityEstimate,
+                           long distinctValuesEstimate ) {
+        addIndex(name, workspaceName, providerName, joinConditions, costEstimate, cardinalityEstimate);
+    }
+
     /**
      * Add to the query plan the information necessary to signal that the supplied index can be used to answer the query.
      *
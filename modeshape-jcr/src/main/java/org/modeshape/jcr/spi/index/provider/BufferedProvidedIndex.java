@@ -0,0 +1,350 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.spi.index.provider;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.query.qom.Constraint;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.spi.index.IndexConstraints;
+
+/**
+ * A {@link ProvidedIndex} that buffers the updates of an asynchronous index and applies them to the wrapped index in batches,
+ * committing once per batch rather than once per change set.
+ * <p>
+ * Updates of the same node key are coalesced while they are buffered: removing a whole node discards everything buffered for
+ * that node before, and an update of a property value discards any earlier update of the same value. Because every index
+ * kind stores one entry per node, property and value (or per node and property), the last update of an entry always decides
+ * its outcome, so neither rule changes what the index ends up containing. When a batch is applied, the updates are sorted by
+ * node key so that the wrapped index sees them in key order; the only exception are unique indexes, where a value can move
+ * from one node to another and the updates are therefore applied in the order in which they were made.
+ * </p>
+ * <p>
+ * A batch is applied as soon as it holds {@code batchSize} updates, or once its oldest update has been waiting for
+ * {@code maxStalenessInMillis}, whichever comes first. Queries therefore see every change at most that long after it was
+ * made.
+ * </p>
+ *
+ * @param <T> the type of values
+ */
+@ThreadSafe
+final class BufferedProvidedIndex<T> implements ProvidedIndex<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(BufferedProvidedIndex.class);
+
+    private final ProvidedIndex<T> delegate;
+    private final boolean applyInKeyOrder;
+    private final int batchSize;
+    private final long maxStalenessInMillis;
+    private final ScheduledExecutorService scheduler;
+
+    @GuardedBy( "this" )
+    private Map<String, List<Update<T>>> updatesByNodeKey = new TreeMap<>();
+    @GuardedBy( "this" )
+    private int bufferedCount;
+    @GuardedBy( "this" )
+    private long sequence;
+    @GuardedBy( "this" )
+    private long oldestUpdateTime;
+    @GuardedBy( "this" )
+    private ScheduledFuture<?> scheduledFlush;
+
+    BufferedProvidedIndex( ProvidedIndex<T> delegate,
+                           boolean applyInKeyOrder,
+                           int batchSize,
+                           long maxStalenessInMillis,
+                           ScheduledExecutorService scheduler ) {
+        assert delegate != null;
+        assert batchSize > 0;
+        assert maxStalenessInMillis > 0;
+        assert scheduler != null;
+        this.delegate = delegate;
+        this.applyInKeyOrder = applyInKeyOrder;
+        this.batchSize = batchSize;
+        this.maxStalenessInMillis = maxStalenessInMillis;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Apply all of the buffered updates of the supplied index and commit them, or simply commit the index when it does not
+     * buffer its updates. This is what callers that must not leave any changes behind (such as reindexing) should use instead
+     * of {@link ProvidedIndex#commit()}.
+     *
+     * @param index the index; may not be null
+     */
+    static void commitNow( ProvidedIndex<?> index ) {
+        if (index instanceof BufferedProvidedIndex) {
+            ((BufferedProvidedIndex<?>)index).flush();
+        } else {
+            index.commit();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public synchronized void add( String nodeKey,
+                                  String propertyName,
+                                  T value ) {
+        buffer(nodeKey, new Update<>(UpdateType.ADD, propertyName, value, null));
+    }
+
+    @Override
+    public synchronized void add( String nodeKey,
+                                  String propertyName,
+                                  T[] values ) {
+        buffer(nodeKey, new Update<>(UpdateType.ADD, propertyName, null, values));
+    }
+
+    @Override
+    public synchronized void remove( String nodeKey ) {
+        List<Update<T>> updates = updatesByNodeKey.get(nodeKey);
+        if (updates != null) {
+            // Nothing buffered for this node matters once the whole node is removed ...
+            bufferedCount -= updates.size();
+            updates.clear();
+        }
+        buffer(nodeKey, new Update<>(UpdateType.REMOVE_NODE, null, null, null));
+    }
+
+    @Override
+    public synchronized void remove( String nodeKey,
+                                     String propertyName,
+                                     T value ) {
+        buffer(nodeKey, new Update<>(UpdateType.REMOVE, propertyName, value, null));
+    }
+
+    @Override
+    public synchronized void remove( String nodeKey,
+                                     String propertyName,
+                                     T[] values ) {
+        buffer(nodeKey, new Update<>(UpdateType.REMOVE, propertyName, null, values));
+    }
+
+    @Override
+    public synchronized void commit() {
+        if (bufferedCount == 0) return;
+        if (bufferedCount >= batchSize) {
+            flush();
+            return;
+        }
+        if (scheduledFlush == null) {
+            long delay = Math.max(0L, oldestUpdateTime + maxStalenessInMillis - System.currentTimeMillis());
+            scheduledFlush = scheduler.schedule(this::scheduledFlush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @GuardedBy( "this" )
+    private void buffer( String nodeKey,
+                         Update<T> update ) {
+        List<Update<T>> updates = updatesByNodeKey.get(nodeKey);
+        if (updates == null) {
+            updates = new ArrayList<>(4);
+            updatesByNodeKey.put(nodeKey, updates);
+        } else if (update.value != null) {
+            // An earlier update of the same property value is superseded by this one ...
+            for (Iterator<Update<T>> iter = updates.iterator(); iter.hasNext();) {
+                if (update.supersedes(iter.next())) {
+                    iter.remove();
+                    --bufferedCount;
+                }
+            }
+        }
+        if (bufferedCount == 0) oldestUpdateTime = System.currentTimeMillis();
+        update.sequence = ++sequence;
+        updates.add(update);
+        if (++bufferedCount >= batchSize) flush();
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.error(e, JcrI18n.errorApplyingBufferedIndexUpdates, delegate.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Apply all of the buffered updates to the wrapped index and commit them.
+     */
+    synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (bufferedCount == 0) {
+            delegate.commit();
+            return;
+        }
+        Map<String, List<Update<T>>> updates = updatesByNodeKey;
+        int count = bufferedCount;
+        updatesByNodeKey = new TreeMap<>();
+        bufferedCount = 0;
+        if (applyInKeyOrder) {
+            for (Map.Entry<String, List<Update<T>>> entry : updates.entrySet()) {
+                for (Update<T> update : entry.getValue()) {
+                    update.applyTo(entry.getKey(), delegate);
+                }
+            }
+        } else {
+            List<KeyedUpdate<T>> inOrder = new ArrayList<>(count);
+            for (Map.Entry<String, List<Update<T>>> entry : updates.entrySet()) {
+                for (Update<T> update : entry.getValue()) {
+                    inOrder.add(new KeyedUpdate<>(entry.getKey(), update));
+                }
+            }
+            inOrder.sort((first, second) -> Long.compare(first.update.sequence, second.update.sequence));
+            for (KeyedUpdate<T> keyed : inOrder) {
+                keyed.update.applyTo(keyed.nodeKey, delegate);
+            }
+        }
+        delegate.commit();
+        LOGGER.trace("Applied {0} buffered updates to the index '{1}'", count, delegate.getName());
+    }
+
+    @Override
+    public Results filter( IndexConstraints constraints,
+                           long cardinalityEstimate ) {
+        return delegate.filter(constraints, cardinalityEstimate);
+    }
+
+    @Override
+    public long estimateCardinality( List<Constraint> andedConstraints,
+                                     Map<String, Object> variables ) {
+        return delegate.estimateCardinality(andedConstraints, variables);
+    }
+
+    @Override
+    public long estimateTotalCount() {
+        return delegate.estimateTotalCount();
+    }
+
+    @Override
+    public long estimateDistinctValues() {
+        return delegate.estimateDistinctValues();
+    }
+
+    @Override
+    public boolean requiresReindexing() {
+        return delegate.requiresReindexing();
+    }
+
+    @Override
+    public synchronized void clearAllData() {
+        discardBuffered();
+        delegate.clearAllData();
+    }
+
+    @Override
+    public synchronized void shutdown( boolean destroyed ) {
+        if (destroyed) {
+            discardBuffered();
+        } else {
+            flush();
+        }
+        delegate.shutdown(destroyed);
+    }
+
+    @GuardedBy( "this" )
+    private void discardBuffered() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        updatesByNodeKey = new TreeMap<>();
+        bufferedCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "buffered " + delegate;
+    }
+
+    private enum UpdateType {
+        ADD,
+        REMOVE,
+        REMOVE_NODE
+    }
+
+    private static final class Update<T> {
+        protected final UpdateType type;
+        protected final String propertyName;
+        protected final T value;
+        protected final T[] values;
+        protected long sequence;
+
+        protected Update( UpdateType type,
+                          String propertyName,
+                          T value,
+                          T[] values ) {
+            this.type = type;
+            this.propertyName = propertyName;
+            this.value = value;
+            this.values = values;
+        }
+
+        protected boolean supersedes( Update<T> earlier ) {
+            return earlier.value != null && Objects.equals(propertyName, earlier.propertyName) && value.equals(earlier.value);
+        }
+
+        protected void applyTo( String nodeKey,
+                                ProvidedIndex<T> index ) {
+            switch (type) {
+                case ADD:
+                    if (values != null) {
+                        index.add(nodeKey, propertyName, values);
+                    } else {
+                        index.add(nodeKey, propertyName, value);
+                    }
+                    break;
+                case REMOVE:
+                    if (values != null) {
+                        index.remove(nodeKey, propertyName, values);
+                    } else {
+                        index.remove(nodeKey, propertyName, value);
+                    }
+                    break;
+                case REMOVE_NODE:
+                    index.remove(nodeKey);
+                    break;
+            }
+        }
+    }
+
+    private static final class KeyedUpdate<T> {
+        protected final String nodeKey;
+        protected final Update<T> update;
+
+        protected KeyedUpdate( String nodeKey,
+                               Update<T> update ) {
+            this.nodeKey = nodeKey;
+            this.update = update;
+        }
+    }
+}
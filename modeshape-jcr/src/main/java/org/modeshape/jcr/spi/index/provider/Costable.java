@@ -43,4 +43,14 @@ public interface Costable {
      * @return the number of entries, or -1 if not known
      */
     long estimateTotalCount();
+
+    /**
+     * Get the estimated number of distinct values within this index. Together with the {@link #estimateTotalCount() total
+     * count}, this tells how many entries a single value is likely to match.
+     *
+     * @return the number of distinct values, or -1 if not known
+     */
+    default long estimateDistinctValues() {
+        return -1L;
+    }
 }
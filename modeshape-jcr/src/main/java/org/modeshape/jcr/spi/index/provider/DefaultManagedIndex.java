@@ -58,6 +58,11 @@ public final class DefaultManagedIndex implements ManagedIndex {
         return index.estimateTotalCount();
     }
 
+    @Override
+    public long estimateDistinctValues() {
+        return index.estimateDistinctValues();
+    }
+
     @Override
     public long estimateCardinality( List<Constraint> andedConstraints,
                                      Map<String, Object> variables ) {
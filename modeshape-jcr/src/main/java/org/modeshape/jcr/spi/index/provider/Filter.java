@@ -121,6 +121,20 @@ public interface Filter {
          */
         Iterable<Float> scores();
 
+        /**
+         * Returns an {@link Iterable} over the indexed values of the matched nodes from {@link #keys()}, for indexes that store
+         * the values of a single property and can therefore answer a query without the nodes themselves being loaded. This
+         * should have the same order as {@link #keys()}, and a {@code null} element denotes a node whose value is not known.
+         * <p>
+         * By default this method returns {@code null}, meaning that the index does not supply any values.
+         * </p>
+         *
+         * @return an iterable instance, or {@code null} if this batch does not contain the indexed values
+         */
+        default Iterable<?> values() {
+            return null;
+        }
+
         /**
          * Checks if this batch is followed by another batch or is the last batch of the search results.
          * 
@@ -812,7 +812,8 @@ public abstract class IndexProvider {
             // The index does apply to this constraint, but the number of values corresponds to the total number of values
             // in the index (this is a JOIN CONDITON for which there is no literal values) ...
             long total = index.estimateTotalCount();
-            calculator.addIndex(defn.getName(), workspaceName, getName(), applicableJoins, costEstimate, total);
+            calculator.addIndex(defn.getName(), workspaceName, getName(), applicableJoins, costEstimate, total,
+                                index.estimateDistinctValues());
         }
     }
 
@@ -1142,7 +1143,7 @@ public abstract class IndexProvider {
 
                     @Override
                     public void commit(String workspace) {
-                        managedIndex.getIndexChangeAdapter().index().commit();
+                        BufferedProvidedIndex.commitNow(managedIndex.getIndexChangeAdapter().index());
                     }
                 };
             }
@@ -1225,7 +1226,7 @@ public abstract class IndexProvider {
                 Collection<IndexChangeAdapter> adapters = applicableAdapters(workspace);
                 if (adapters != null) {
                     for (IndexChangeAdapter adapter : adapters) {
-                        adapter.index().commit();
+                        BufferedProvidedIndex.commitNow(adapter.index());
                     }
                 }
             }
@@ -166,8 +166,9 @@ public class IndexUsage {
     }
 
     protected boolean indexAppliesTo( And and ) {
-        // look if the index applies to any part of the AND
-        return indexAppliesTo(and.getConstraint1()) || indexAppliesTo(and.getConstraint2());
+        // The top-level ANDed constraints are evaluated one by one, so this is an AND nested within another constraint (e.g.,
+        // an OR or a NOT); the index has to apply to *all* of its parts, since the index will evaluate each of them ...
+        return indexAppliesTo(and.getConstraint1()) && indexAppliesTo(and.getConstraint2());
     }
 
     protected boolean indexAppliesTo( Or or ) {
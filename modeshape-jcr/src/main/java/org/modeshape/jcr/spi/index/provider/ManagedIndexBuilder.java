@@ -51,6 +51,22 @@ import org.modeshape.jcr.value.ValueFactory;
 @Immutable
 public abstract class ManagedIndexBuilder {
 
+    /**
+     * The name of the index property that specifies the maximum number of milliseconds that the updates of an asynchronous
+     * index may be buffered before they are applied and committed. Queries see every change at most this long after it was
+     * made. The updates are not buffered at all unless this property is set to a positive value.
+     */
+    public static final String UPDATE_MAX_STALENESS_PROPERTY = "updateMaxStalenessInMillis";
+
+    /**
+     * The name of the index property that specifies the maximum number of buffered updates of an asynchronous index, after
+     * which they are applied and committed right away. This is only used when
+     * {@link #UPDATE_MAX_STALENESS_PROPERTY updates are buffered}.
+     */
+    public static final String UPDATE_BATCH_SIZE_PROPERTY = "updateBatchSize";
+
+    protected static final int DEFAULT_UPDATE_BATCH_SIZE = 1000;
+
     protected final ExecutionContext context;
     protected final IndexDefinition defn;
     protected final NodeTypes.Supplier nodeTypesSupplier;
@@ -81,7 +97,7 @@ public abstract class ManagedIndexBuilder {
         ProvidedIndex<?> index = null;
         switch (defn.getKind()) {
             case VALUE:
-                index = buildMultiValueIndex(context, defn, workspaceName, nodeTypesSupplier, matcher);
+                index = withUpdateBuffer(buildMultiValueIndex(context, defn, workspaceName, nodeTypesSupplier, matcher), true);
                 for (int i = 0; i < defn.size(); i++) {
                     IndexColumnDefinition columnDef = defn.getColumnDefinition(i);
                     PropertyType type = determineActualPropertyType(columnDef);
@@ -109,7 +125,7 @@ public abstract class ManagedIndexBuilder {
                 } 
                 break;
             case UNIQUE_VALUE: 
-                index = buildUniqueValueIndex(context, defn, workspaceName, nodeTypesSupplier, matcher);
+                index = withUpdateBuffer(buildUniqueValueIndex(context, defn, workspaceName, nodeTypesSupplier, matcher), false);
                 for (int i = 0; i < defn.size(); i++) {
                     IndexColumnDefinition columnDef = defn.getColumnDefinition(i);
                     PropertyType type = determineActualPropertyType(columnDef);
@@ -122,7 +138,7 @@ public abstract class ManagedIndexBuilder {
                 }
                 break;
             case ENUMERATED_VALUE:
-                index = buildEnumeratedIndex(context, defn, workspaceName, nodeTypesSupplier, matcher);
+                index = withUpdateBuffer(buildEnumeratedIndex(context, defn, workspaceName, nodeTypesSupplier, matcher), true);
                 for (int i = 0; i < defn.size(); i++) {
                     IndexColumnDefinition columnDef = defn.getColumnDefinition(i);
                     Name propertyName = name(columnDef.getPropertyName());
@@ -132,7 +148,7 @@ public abstract class ManagedIndexBuilder {
                 }
                 break;
             case NODE_TYPE: 
-                index = buildNodeTypeIndex(context, defn, workspaceName, nodeTypesSupplier, matcher);
+                index = withUpdateBuffer(buildNodeTypeIndex(context, defn, workspaceName, nodeTypesSupplier, matcher), true);
                 if (defn.size() > 1) {
                     throw new IllegalArgumentException("Cannot have a multi column node-type index");
                 }
@@ -143,7 +159,7 @@ public abstract class ManagedIndexBuilder {
                 changeAdapters.add(IndexChangeAdapters.forNodeTypes(property, context, matcher, workspaceName, index));
                 break;
             case TEXT: 
-                index = buildTextIndex(context, defn, workspaceName, nodeTypesSupplier, matcher);
+                index = withUpdateBuffer(buildTextIndex(context, defn, workspaceName, nodeTypesSupplier, matcher), true);
                 ValueFactory<String> valueFactory = (ValueFactory<String>)context.getValueFactories().getValueFactory(PropertyType.STRING);
                 for (int i = 0; i < defn.size(); i++) {
                     IndexColumnDefinition columnDef = defn.getColumnDefinition(i);
@@ -179,6 +195,41 @@ public abstract class ManagedIndexBuilder {
         return new DefaultManagedIndex(index, adapter);
     }
 
+    /**
+     * Wrap the supplied index so that its updates are buffered and applied in batches, if the index definition is asynchronous
+     * and {@link #UPDATE_MAX_STALENESS_PROPERTY asks for it}.
+     *
+     * @param index the provider-specific index; never null
+     * @param applyInKeyOrder true if the updates of different nodes can be applied in any order, or false if they have to be
+     *        applied in the order in which they were made
+     * @return the index to be updated by the change adapters; never null
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    protected ProvidedIndex<?> withUpdateBuffer( ProvidedIndex<?> index,
+                                                 boolean applyInKeyOrder ) {
+        if (defn.isSynchronous()) return index;
+        long maxStaleness = longProperty(UPDATE_MAX_STALENESS_PROPERTY, 0L);
+        if (maxStaleness <= 0L) return index;
+        int batchSize = (int)longProperty(UPDATE_BATCH_SIZE_PROPERTY, DEFAULT_UPDATE_BATCH_SIZE);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The '" + UPDATE_BATCH_SIZE_PROPERTY + "' of an index must be positive: " + defn);
+        }
+        return new BufferedProvidedIndex(index, applyInKeyOrder, batchSize, maxStaleness,
+                                         context.getScheduledThreadPool("modeshape-index-updates"));
+    }
+
+    private long longProperty( String name,
+                               long defaultValue ) {
+        Object value = defn.getIndexProperty(name);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number)value).longValue();
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The '" + name + "' of an index must be a number: " + defn);
+        }
+    }
+
     protected boolean isPrimaryTypeIndex( IndexColumnDefinition columnDefn, PropertyType type ) {
         return matches(columnDefn, JcrLexicon.PRIMARY_TYPE) && isType(type, PropertyType.NAME);
     }
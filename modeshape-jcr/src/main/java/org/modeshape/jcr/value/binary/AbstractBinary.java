@@ -17,11 +17,13 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.common.util.SecureHash;
 import org.modeshape.common.util.SecureHash.Algorithm;
 import org.modeshape.common.util.SelfClosingInputStream;
@@ -62,37 +64,31 @@ public abstract class AbstractBinary implements BinaryValue {
     public int read( byte[] b,
                      long position ) throws IOException, RepositoryException {
         if (getSize() <= position) return -1;
-        InputStream stream = null;
-        Exception error = null;
-        try {
-            stream = getStream();
-            // Read/skip the next 'position' bytes ...
-            long skip = position;
-            while (skip > 0) {
-                long skipped = stream.skip(skip);
-                if (skipped <= 0) return -1;
-                skip -= skipped;
-            }
-            return stream.read(b);
-        } catch (RepositoryException e) {
-            error = e;
-            throw e;
-        } catch (IOException e) {
-            error = e;
-            throw e;
-        } finally {
-            if (stream != null) {
-                try {
-                    stream.close();
-                } catch (RuntimeException t) {
-                    // Only throw if we've not already thrown an exception ...
-                    if (error == null) throw t;
-                } catch (IOException t) {
-                    // Only throw if we've not already thrown an exception ...
-                    if (error == null) throw t;
-                }
-            }
-        }
+        ByteBuffer range = readRange(position, b.length);
+        int numberOfBytes = range.remaining();
+        range.get(b, 0, numberOfBytes);
+        return numberOfBytes;
+    }
+
+    /**
+     * Read part of the content of this binary value. By default this skips over the first <code>position</code> bytes of the
+     * {@link #getStream() stream}, but subclasses whose content can be accessed directly should override this method so that
+     * the cost of reading does not depend on the position.
+     * <p>
+     * The returned buffer is read-only and may be backed directly by the storage (e.g., by a memory-mapped file), so callers
+     * should copy the bytes out of it rather than hold on to it.
+     * </p>
+     *
+     * @param position the zero-based position of the first byte to read; may not be negative
+     * @param length the maximum number of bytes to read; may not be negative
+     * @return the buffer positioned at the first byte that was read, and that has fewer than <code>length</code> bytes remaining
+     *         only if the end of the content was reached; never null
+     * @throws IOException if there is a problem reading the content
+     * @throws RepositoryException if there is a problem accessing the content
+     */
+    public ByteBuffer readRange( long position,
+                                 int length ) throws IOException, RepositoryException {
+        return ByteBuffer.wrap(IoUtil.readBytes(getStream(), position, length)).asReadOnlyBuffer();
     }
 
     @Override
@@ -25,6 +25,7 @@ import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.StringUtil;
+import org.modeshape.jcr.RepositoryStatistics;
 import org.modeshape.jcr.TextExtractors;
 import org.modeshape.jcr.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.mimetype.NullMimeTypeDetector;
@@ -60,6 +61,7 @@ public abstract class AbstractBinaryStore implements BinaryStore {
 
     private volatile TextExtractors extractors;
     private volatile MimeTypeDetector detector = NullMimeTypeDetector.INSTANCE;
+    private volatile RepositoryStatistics statistics;
 
     /**
      * Given a number of bytes representing the length of a file, returns the optimum size for a buffer that should be used
@@ -109,6 +111,11 @@ public abstract class AbstractBinaryStore implements BinaryStore {
         this.detector = mimeTypeDetector; 
     }
 
+    @Override
+    public void setStatistics( RepositoryStatistics statistics ) {
+        this.statistics = statistics;
+    }
+
     @Override
     public final String getText( BinaryValue binary ) throws BinaryStoreException {
         // try and locate an already extracted text from the store
@@ -131,12 +138,9 @@ public abstract class AbstractBinaryStore implements BinaryStore {
 
         // there isn't any text available, so wait for a job to finish and then return the result
         try {
-            CountDownLatch latch = extractors.getWorkerLatch(binary.getKey(), false);
-            if (latch == null) {
-                // There is no latch, so just compute the text here ...
-                latch = extractors.extract(this, binary, new TextExtractorContext(detector()));
-            }
-            // There was a latch, so wait till the work is done ...
+            // This returns the latch of the extraction that is already under way, if there is one ...
+            CountDownLatch latch = extractors.extract(this, binary, new TextExtractorContext(detector()));
+            // Wait till the work is done ...
             if (latch != null && latch.await(DEFAULT_LATCH_WAIT_IN_SECONDS, TimeUnit.SECONDS)) {
                 return getExtractedText(binary);
             }
@@ -246,6 +250,15 @@ public abstract class AbstractBinaryStore implements BinaryStore {
         return detector;
     }
 
+    /**
+     * Get the statistics in which this store can record its metrics
+     *
+     * @return the statistics, or null if this store should not record any metrics
+     */
+    protected final RepositoryStatistics statistics() {
+        return statistics;
+    }
+
     @Override
     public BinaryValue storeValue( InputStream stream, String hint, boolean markAsUnused ) throws BinaryStoreException {
         return storeValue(stream, markAsUnused);
@@ -17,9 +17,12 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.IoUtil;
+import org.modeshape.jcr.RepositoryStatistics;
 import org.modeshape.jcr.TextExtractors;
 import org.modeshape.jcr.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.value.BinaryKey;
@@ -70,6 +73,15 @@ public interface BinaryStore {
      */
     void setMimeTypeDetector( MimeTypeDetector mimeTypeDetector );
 
+    /**
+     * Set the statistics in which the store can record its metrics. By default the store does not record any metrics.
+     *
+     * @param statistics the repository statistics; may be null if no metrics should be recorded
+     */
+    default void setStatistics( RepositoryStatistics statistics ) {
+        // does nothing by default
+    }
+
     /**
      * Store the binary value and return the JCR representation. Note that if the binary content in the supplied stream is already
      * persisted in the store, the store may simply return the binary value referencing the existing content.
@@ -109,6 +121,33 @@ public interface BinaryStore {
      */
     InputStream getInputStream( BinaryKey key ) throws BinaryStoreException;
 
+    /**
+     * Read part of the binary content with the supplied key, without reading the content that precedes it. Stores that keep
+     * their content in random-access storage should override this method, since by default it reads the content from the
+     * {@link #getInputStream(BinaryKey) stream} and skips the first <code>position</code> bytes.
+     * <p>
+     * The returned buffer is read-only and may be backed directly by the storage (e.g., by a memory-mapped file), so callers
+     * should copy the bytes out of it rather than hold on to it.
+     * </p>
+     *
+     * @param key the key to the binary content; never null
+     * @param position the zero-based position of the first byte to read; may not be negative
+     * @param length the maximum number of bytes to read; may not be negative
+     * @return the buffer positioned at the first byte that was read, and that has fewer than <code>length</code> bytes remaining
+     *         only if the end of the content was reached; never null
+     * @throws BinaryStoreException if there is a problem reading the content from the store or if the binary value does not
+     *         exist in the store
+     */
+    default ByteBuffer readRange( BinaryKey key,
+                                  long position,
+                                  int length ) throws BinaryStoreException {
+        try {
+            return ByteBuffer.wrap(IoUtil.readBytes(getInputStream(key), position, length)).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
     /**
      * Searches for a binary which has the given key in this store. The store should return {@code true} as long the binary
      * is still present physically, regardless of any "trash" semantics.
@@ -136,6 +175,27 @@ public interface BinaryStore {
      */
     void markAsUnused( Iterable<BinaryKey> keys ) throws BinaryStoreException;
 
+    /**
+     * Determine whether the binary value with the supplied key is stored in this store but has been
+     * {@link #markAsUnused(Iterable) marked as unused}. By default this looks for the key among {@link #getAllBinaryKeys() the
+     * keys of the used values}, so stores that can check the state of a single value should override this method.
+     *
+     * @param key a non-null {@link BinaryKey} instance
+     * @return {@code true} if the value is in this store and is unused, or {@code false} if it is used or not in this store
+     * @throws BinaryStoreException if there is a problem accessing the store
+     */
+    default boolean isUnused( BinaryKey key ) throws BinaryStoreException {
+        if (!hasBinary(key)) {
+            return false;
+        }
+        for (BinaryKey used : getAllBinaryKeys()) {
+            if (used.equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Remove binary values that have been {@link #markAsUnused(Iterable) unused} for at least the specified amount of time.
      * 
@@ -147,6 +207,38 @@ public interface BinaryStore {
     void removeValuesUnusedLongerThan( long minimumAge,
                                        TimeUnit unit ) throws BinaryStoreException;
 
+    /**
+     * Remove binary values that have been {@link #markAsUnused(Iterable) unused} for at least the specified amount of time, but
+     * without removing more than the supplied number of values per second so that a large number of unused values does not
+     * saturate the storage. Stores that track which values are unused should only examine the values that are old enough to be
+     * removed. By default this method ignores the rate and delegates to {@link #removeValuesUnusedLongerThan(long, TimeUnit)}.
+     *
+     * @param minimumAge the minimum time that a binary value has been {@link #markAsUnused(Iterable) unused} before it can be
+     *        removed; must be non-negative
+     * @param unit the time unit for the minimum age; may not be null
+     * @param maximumRemovalsPerSecond the largest number of values that should be removed per second, or 0 if the removals
+     *        should not be throttled
+     * @return the number of values that were removed, or -1 if this store does not know how many values were removed
+     * @throws BinaryStoreException if there is a problem removing the unused values
+     */
+    default long removeValuesUnusedLongerThan( long minimumAge,
+                                               TimeUnit unit,
+                                               int maximumRemovalsPerSecond ) throws BinaryStoreException {
+        removeValuesUnusedLongerThan(minimumAge, unit);
+        return -1L;
+    }
+
+    /**
+     * Get the number of binary values that are {@link #markAsUnused(Iterable) unused} and waiting to be
+     * {@link #removeValuesUnusedLongerThan(long, TimeUnit) removed}.
+     *
+     * @return the number of unused values, or -1 if this store does not know how many values are unused
+     * @throws BinaryStoreException if there is a problem counting the unused values
+     */
+    default long getUnusedValueCount() throws BinaryStoreException {
+        return -1L;
+    }
+
     /**
      * Get the text that can be extracted from this binary content. If text extraction isn't enabled (either full text search is
      * not enabled or there aren't any configured extractors), this returns {@code null}
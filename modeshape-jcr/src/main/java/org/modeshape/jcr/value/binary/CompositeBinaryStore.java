@@ -17,8 +17,10 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import javax.jcr.RepositoryException;
@@ -26,6 +28,7 @@ import org.modeshape.common.collection.Collections;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.RepositoryStatistics;
 import org.modeshape.jcr.TextExtractors;
 import org.modeshape.jcr.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.mimetype.NullMimeTypeDetector;
@@ -38,6 +41,11 @@ import org.modeshape.jcr.value.BinaryValue;
  * BinaryStores. On retrieval, the CompositeBinaryStore will look in all the other BinaryStores for the value. When storing a
  * value, the CompositeBinaryStore may receive a StorageHint that MAY be used when determining which named BinaryStore to write
  * to. If a storage hint is not provided (or doesn't match a store), the value will be stored in the default store.
+ * <p>
+ * A {@link TieredStoragePolicy} can be {@link #setTieredStoragePolicy(TieredStoragePolicy) set} on the store, in which case the
+ * values that are not accessed recently are moved in the background from a fast named store to a slower one, and moved back once
+ * they are read frequently again.
+ * </p>
  */
 public class CompositeBinaryStore implements BinaryStore {
 
@@ -49,6 +57,9 @@ public class CompositeBinaryStore implements BinaryStore {
 
     private Map<String, BinaryStore> namedStores;
     private BinaryStore defaultBinaryStore;
+    private volatile Map<String, BinaryStore> readOrder;
+    private volatile TieredStorage tiering;
+    private volatile RepositoryStatistics statistics;
 
     /**
      * Initialize a new CompositeBinaryStore using a Map of other BinaryKeys that are keyed by an implementer-provided key. The
@@ -59,6 +70,64 @@ public class CompositeBinaryStore implements BinaryStore {
     public CompositeBinaryStore( Map<String, BinaryStore> namedStores ) {
         this.namedStores = namedStores;
         this.defaultBinaryStore = null;
+        this.readOrder = namedStores;
+    }
+
+    /**
+     * Set the policy with which values are moved between two of the named stores. This should be called before the store is
+     * {@link #start() started}.
+     *
+     * @param policy the tiered storage policy; may not be null
+     * @throws BinaryStoreException if the hot or cold store of the policy is not one of the named stores
+     */
+    public void setTieredStoragePolicy( TieredStoragePolicy policy ) throws BinaryStoreException {
+        CheckArg.isNotNull(policy, "policy");
+        BinaryStore hotStore = namedStores.get(policy.getHotStoreName());
+        if (hotStore == null) {
+            throw new BinaryStoreException(JcrI18n.unableToFindTieredBinaryStore.text(policy.getHotStoreName(), "hot"));
+        }
+        BinaryStore coldStore = namedStores.get(policy.getColdStoreName());
+        if (coldStore == null || coldStore == hotStore) {
+            throw new BinaryStoreException(JcrI18n.unableToFindTieredBinaryStore.text(policy.getColdStoreName(), "cold"));
+        }
+        // Always look in the hot store first, since values that were moved may still be in the other store for a while ...
+        Map<String, BinaryStore> hotStoreFirst = new LinkedHashMap<>();
+        hotStoreFirst.put(policy.getHotStoreName(), hotStore);
+        hotStoreFirst.putAll(namedStores);
+        this.readOrder = hotStoreFirst;
+        TieredStorage tiering = new TieredStorage(policy, hotStore, coldStore);
+        tiering.setStatistics(statistics);
+        this.tiering = tiering;
+    }
+
+    /**
+     * Set the statistics in which the named stores record their metrics, and in which the moves between the tiers of this
+     * store are recorded.
+     *
+     * @param statistics the repository statistics; may be null
+     */
+    @Override
+    public void setStatistics( RepositoryStatistics statistics ) {
+        this.statistics = statistics;
+        for (BinaryStore namedStore : namedStores.values()) {
+            namedStore.setStatistics(statistics);
+        }
+        TieredStorage tiering = this.tiering;
+        if (tiering != null) {
+            tiering.setStatistics(statistics);
+        }
+    }
+
+    /**
+     * Immediately move the values that have not been accessed recently from the hot to the cold store of the
+     * {@link #setTieredStoragePolicy(TieredStoragePolicy) tiered storage policy}, rather than waiting for the next background
+     * pass.
+     *
+     * @return the number of values that were moved; 0 if there is no tiered storage policy
+     */
+    public int moveColdValues() {
+        TieredStorage tiering = this.tiering;
+        return tiering != null ? tiering.demoteColdValues() : 0;
     }
 
     /**
@@ -73,6 +142,9 @@ public class CompositeBinaryStore implements BinaryStore {
             bs.start();
         }
 
+        if (tiering != null) {
+            tiering.start();
+        }
     }
 
     /**
@@ -80,6 +152,10 @@ public class CompositeBinaryStore implements BinaryStore {
      */
     @Override
     public void shutdown() {
+        if (tiering != null) {
+            tiering.shutdown();
+        }
+
         Iterator<Map.Entry<String, BinaryStore>> it = getNamedStoreIterator();
 
         while (it.hasNext()) {
@@ -150,6 +226,9 @@ public class CompositeBinaryStore implements BinaryStore {
         BinaryStore binaryStore = selectBinaryStore(hint);
         BinaryValue bv = binaryStore.storeValue(stream, markAsUnused);
         logger.debug("Stored binary " + bv.getKey() + " into binary store " + binaryStore + " used=" + markAsUnused);
+        if (tiering != null && bv instanceof StoredBinaryValue) {
+            tiering.accessed(bv.getKey(), binaryStore);
+        }
         return bv;
     }
 
@@ -205,7 +284,35 @@ public class CompositeBinaryStore implements BinaryStore {
 
     @Override
     public InputStream getInputStream( BinaryKey key ) throws BinaryStoreException {
-        Iterator<Map.Entry<String, BinaryStore>> it = getNamedStoreIterator();
+        Iterator<Map.Entry<String, BinaryStore>> it = readOrder.entrySet().iterator();
+
+        while (it.hasNext()) {
+            final Map.Entry<String, BinaryStore> entry = it.next();
+
+            final String binaryStoreKey = entry.getKey();
+
+            BinaryStore binaryStore = entry.getValue();
+            logger.trace("Checking binary store " + binaryStoreKey + " for key " + key);
+            try {
+                InputStream stream = binaryStore.getInputStream(key);
+                if (tiering != null) {
+                    tiering.accessed(key, binaryStore);
+                }
+                return stream;
+            } catch (BinaryStoreException e) {
+                // this exception is "normal", and is thrown
+                logger.trace(e, "The named store " + binaryStoreKey + " raised exception");
+            }
+        }
+
+        throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(key, this.toString()));
+    }
+
+    @Override
+    public ByteBuffer readRange( BinaryKey key,
+                                 long position,
+                                 int length ) throws BinaryStoreException {
+        Iterator<Map.Entry<String, BinaryStore>> it = readOrder.entrySet().iterator();
 
         while (it.hasNext()) {
             final Map.Entry<String, BinaryStore> entry = it.next();
@@ -215,7 +322,11 @@ public class CompositeBinaryStore implements BinaryStore {
             BinaryStore binaryStore = entry.getValue();
             logger.trace("Checking binary store " + binaryStoreKey + " for key " + key);
             try {
-                return binaryStore.getInputStream(key);
+                ByteBuffer range = binaryStore.readRange(key, position, length);
+                if (tiering != null) {
+                    tiering.accessed(key, binaryStore);
+                }
+                return range;
             } catch (BinaryStoreException e) {
                 // this exception is "normal", and is thrown
                 logger.trace(e, "The named store " + binaryStoreKey + " raised exception");
@@ -296,6 +407,44 @@ public class CompositeBinaryStore implements BinaryStore {
         }
     }
 
+    @Override
+    public long removeValuesUnusedLongerThan( long minimumAge,
+                                              TimeUnit unit,
+                                              int maximumRemovalsPerSecond ) throws BinaryStoreException {
+        Iterator<Map.Entry<String, BinaryStore>> it = getNamedStoreIterator();
+
+        // The stores are cleaned one after the other, so each can use the whole rate ...
+        long removed = -1L;
+        while (it.hasNext()) {
+            Map.Entry<String, BinaryStore> entry = it.next();
+
+            final String binaryStoreKey = entry.getKey();
+            BinaryStore bs = entry.getValue();
+
+            try {
+                long removedFromStore = bs.removeValuesUnusedLongerThan(minimumAge, unit, maximumRemovalsPerSecond);
+                if (removedFromStore >= 0L) {
+                    removed = Math.max(removed, 0L) + removedFromStore;
+                }
+            } catch (BinaryStoreException e) {
+                logger.debug(e, "The named store " + binaryStoreKey + " raised exception");
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public long getUnusedValueCount() throws BinaryStoreException {
+        long unused = -1L;
+        for (BinaryStore bs : namedStores.values()) {
+            long unusedInStore = bs.getUnusedValueCount();
+            if (unusedInStore >= 0L) {
+                unused = Math.max(unused, 0L) + unusedInStore;
+            }
+        }
+        return unused;
+    }
+
     @Override
     public String getText( BinaryValue binary ) throws BinaryStoreException {
 
@@ -317,6 +466,7 @@ public class CompositeBinaryStore implements BinaryStore {
             BinaryStore bs = entry.getValue();
             try {
                 if (bs.hasBinary(binary.getKey())) {
+                    copyExtractedText(binary, bs);
                     return bs.getText(binary);
                 }
             } catch (BinaryStoreException e) {
@@ -330,6 +480,56 @@ public class CompositeBinaryStore implements BinaryStore {
         throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(binary.getKey(), this));
     }
 
+    /**
+     * Make sure the text of a binary value is not extracted again when the value is read from a named store other than the one
+     * in which its text was stored, by copying the text that was extracted in another named store.
+     *
+     * @param binary the binary value; may not be null
+     * @param destination the store that holds the value; may not be null
+     */
+    private void copyExtractedText( BinaryValue binary,
+                                    BinaryStore destination ) {
+        if (!(destination instanceof AbstractBinaryStore) || !(binary instanceof StoredBinaryValue)) {
+            return;
+        }
+        try {
+            if (((AbstractBinaryStore)destination).getExtractedText(binary) != null) {
+                return;
+            }
+            for (BinaryStore bs : namedStores.values()) {
+                if (bs != destination && copyExtractedText(binary, bs, destination)) {
+                    return;
+                }
+            }
+        } catch (BinaryStoreException e) {
+            // the text will be extracted again ...
+            logger.debug(e, "Unable to copy the extracted text of {0} between the named stores", binary.getKey());
+        }
+    }
+
+    /**
+     * Copy the text extracted from the binary value from one store to another.
+     *
+     * @param binary the binary value; may not be null
+     * @param source the store in which the text may have been stored; may not be null
+     * @param destination the store into which the text should be copied; may not be null
+     * @return true if the text was copied, or false if it was not stored in the source store or the stores do not store text
+     * @throws BinaryStoreException if there is a problem reading or storing the text
+     */
+    static boolean copyExtractedText( BinaryValue binary,
+                                      BinaryStore source,
+                                      BinaryStore destination ) throws BinaryStoreException {
+        if (!(source instanceof AbstractBinaryStore) || !(destination instanceof AbstractBinaryStore)) {
+            return false;
+        }
+        String extractedText = ((AbstractBinaryStore)source).getExtractedText(binary);
+        if (extractedText == null) {
+            return false;
+        }
+        ((AbstractBinaryStore)destination).storeExtractedText(binary, extractedText);
+        return true;
+    }
+
     @Override
     public String getMimeType( BinaryValue binary,
                                String name ) throws IOException, RepositoryException {
@@ -0,0 +1,390 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.value.BinaryKey;
+
+/**
+ * The layout of a file in which a {@link FileSystemBinaryStore} keeps a compressed binary value. The content is compressed in
+ * independent blocks of {@value #BLOCK_SIZE} bytes, so that a range of the content can be read by decompressing only the blocks
+ * that contain it.
+ * <p>
+ * The file starts with a magic number followed by the SHA-1 of the uncompressed content, which makes it impossible to confuse
+ * with a binary value that is stored as is, followed by the codec, the uncompressed length, the number of blocks, the
+ * compressed length of each block, and finally the compressed blocks.
+ * </p>
+ */
+@Immutable
+final class CompressedFile {
+
+    protected static final int BLOCK_SIZE = 1 << 16;
+
+    private static final byte[] MAGIC = {'M', 'S', 'D', 'E', 'F', 'L', 'T', '1'};
+    private static final int SHA1_LENGTH = 20;
+    private static final int HEADER_SIZE = MAGIC.length + SHA1_LENGTH + 1 + 8 + 4;
+
+    private final BinaryKey key;
+    private final CompressionCodec codec;
+    private final long length;
+    /** The position of each compressed block within the file, followed by the length of the file */
+    private final long[] blockPositions;
+
+    protected CompressedFile( BinaryKey key,
+                              CompressionCodec codec,
+                              long length,
+                              long[] blockPositions ) {
+        this.key = key;
+        this.codec = codec;
+        this.length = length;
+        this.blockPositions = blockPositions;
+    }
+
+    /**
+     * Get the codec with which the content was compressed.
+     *
+     * @return the codec; never null
+     */
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Get the length of the uncompressed content.
+     *
+     * @return the number of bytes in the binary value
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Compress the content of the supplied file into another file.
+     *
+     * @param source the file with the uncompressed content; may not be null
+     * @param numberOfBytes the length of the uncompressed content
+     * @param key the SHA-1 of the uncompressed content; may not be null
+     * @param codec the codec used to compress the content; may not be null or {@link CompressionCodec#NONE}
+     * @param target the file to which the compressed content is written; may not be null
+     * @return the length of the compressed file
+     * @throws IOException if either of the files cannot be read or written
+     */
+    protected static long compress( File source,
+                                    long numberOfBytes,
+                                    BinaryKey key,
+                                    CompressionCodec codec,
+                                    File target ) throws IOException {
+        assert codec != CompressionCodec.NONE;
+        int blockCount = (int)((numberOfBytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4 * blockCount);
+        header.put(MAGIC).put(key.toBytes()).put(codec.id()).putLong(numberOfBytes).putInt(blockCount);
+        Deflater deflater = codec.newDeflater();
+        try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            byte[] compressed = new byte[BLOCK_SIZE + (BLOCK_SIZE >> 3)];
+            output.position(header.capacity());
+            for (int i = 0; i != blockCount; ++i) {
+                block.clear();
+                while (block.hasRemaining() && input.read(block) != -1) {
+                    // keep reading until the block is full ...
+                }
+                deflater.reset();
+                deflater.setInput(block.array(), 0, block.position());
+                deflater.finish();
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+                header.putInt(compressedLength);
+                write(output, ByteBuffer.wrap(compressed, 0, compressedLength), output.position());
+            }
+            header.flip();
+            write(output, header, 0L);
+            return output.size();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void write( FileChannel channel,
+                               ByteBuffer buffer,
+                               long position ) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.position(position);
+    }
+
+    /**
+     * Read the layout of the supplied file, if it contains compressed content.
+     *
+     * @param file the file in which a binary value is stored; may not be null
+     * @param key the key of the binary value; may not be null
+     * @return the layout of the compressed content, or null if the file does not contain compressed content
+     * @throws IOException if the file cannot be read
+     */
+    protected static CompressedFile open( File file,
+                                          BinaryKey key ) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            byte[] sha1 = new byte[SHA1_LENGTH];
+            input.readFully(sha1);
+            if (!Arrays.equals(magic, MAGIC) || !Arrays.equals(sha1, key.toBytes())) {
+                return null;
+            }
+            CompressionCodec codec = CompressionCodec.fromId(input.readByte());
+            if (codec == null || codec == CompressionCodec.NONE) {
+                throw new IOException(JcrI18n.unableToReadCompressedBinaryValue.text(key));
+            }
+            long length = input.readLong();
+            int blockCount = input.readInt();
+            long[] blockPositions = new long[blockCount + 1];
+            blockPositions[0] = HEADER_SIZE + 4L * blockCount;
+            for (int i = 0; i != blockCount; ++i) {
+                blockPositions[i + 1] = blockPositions[i] + input.readInt();
+            }
+            return new CompressedFile(key, codec, length, blockPositions);
+        }
+    }
+
+    /**
+     * Decompress the content of the file as it is read from the supplied stream.
+     *
+     * @param file the stream with the content of the compressed file, starting at its first byte; may not be null
+     * @param statistics the statistics in which the decompression is recorded; may be null
+     * @return the stream with the uncompressed content; never null
+     */
+    protected InputStream inputStream( InputStream file,
+                                       RepositoryStatistics statistics ) {
+        return new InflatingInputStream(file, statistics);
+    }
+
+    /**
+     * Read a range of the uncompressed content, by decompressing only the blocks that contain it.
+     *
+     * @param file the compressed file; may not be null
+     * @param position the zero-based position within the uncompressed content of the first byte to read; may not be negative
+     * @param length the maximum number of bytes to read; may not be negative
+     * @param statistics the statistics in which the decompression is recorded; may be null
+     * @return a read-only buffer with the bytes that were read, which are fewer than <code>length</code> only if the end of the
+     *         content was reached; never null
+     * @throws IOException if the file cannot be read
+     */
+    protected ByteBuffer read( File file,
+                               long position,
+                               int length,
+                               RepositoryStatistics statistics ) throws IOException {
+        if (position >= this.length) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer result = ByteBuffer.allocate((int)Math.min(length, this.length - position));
+        int index = (int)(position / BLOCK_SIZE);
+        int offset = (int)(position % BLOCK_SIZE);
+        Inflater inflater = new Inflater(true);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] block = new byte[BLOCK_SIZE];
+            ByteBuffer compressed = ByteBuffer.allocate(0);
+            while (result.hasRemaining()) {
+                int compressedLength = (int)(blockPositions[index + 1] - blockPositions[index]);
+                if (compressed.capacity() < compressedLength) {
+                    compressed = ByteBuffer.allocate(compressedLength);
+                }
+                compressed.clear().limit(compressedLength);
+                while (compressed.hasRemaining()) {
+                    if (channel.read(compressed, blockPositions[index] + compressed.position()) == -1) {
+                        throw new EOFException(JcrI18n.unableToReadCompressedBinaryValue.text(key));
+                    }
+                }
+                int blockLength = inflate(index, compressed.array(), compressedLength, inflater, block, statistics);
+                int count = Math.min(result.remaining(), blockLength - offset);
+                result.put(block, offset, count);
+                offset = 0;
+                ++index;
+            }
+        } finally {
+            inflater.end();
+        }
+        result.flip();
+        return result.asReadOnlyBuffer();
+    }
+
+    private int blockLength( int index ) {
+        return (int)Math.min(BLOCK_SIZE, length - (long)index * BLOCK_SIZE);
+    }
+
+    private int inflate( int index,
+                         byte[] compressed,
+                         int compressedLength,
+                         Inflater inflater,
+                         byte[] block,
+                         RepositoryStatistics statistics ) throws IOException {
+        long start = System.nanoTime();
+        int blockLength = blockLength(index);
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        int inflated = 0;
+        try {
+            while (inflated < blockLength) {
+                int count = inflater.inflate(block, inflated, blockLength - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(JcrI18n.unableToReadCompressedBinaryValue.text(key), e);
+        }
+        if (inflated != blockLength) {
+            throw new IOException(JcrI18n.unableToReadCompressedBinaryValue.text(key));
+        }
+        if (statistics != null) {
+            statistics.increment(ValueMetric.BINARY_BYTES_DECOMPRESSED, blockLength);
+            statistics.increment(ValueMetric.BINARY_DECOMPRESSION_TIME, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+        return blockLength;
+    }
+
+    /**
+     * A stream that decompresses the blocks one at a time as they are read.
+     */
+    private final class InflatingInputStream extends InputStream {
+        private final InputStream file;
+        private final RepositoryStatistics statistics;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private byte[] compressed = new byte[0];
+        private int nextBlock = -1;
+        private int position;
+        private int limit;
+        private boolean closed;
+
+        protected InflatingInputStream( InputStream file,
+                                        RepositoryStatistics statistics ) {
+            this.file = file;
+            this.statistics = statistics;
+        }
+
+        private boolean fill() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (nextBlock == -1) {
+                // Skip the header ...
+                skipFully(blockPositions[0]);
+                nextBlock = 0;
+            }
+            if (nextBlock == blockPositions.length - 1) {
+                return false;
+            }
+            int compressedLength = (int)(blockPositions[nextBlock + 1] - blockPositions[nextBlock]);
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            readFully(compressed, compressedLength);
+            limit = inflate(nextBlock++, compressed, compressedLength, inflater, block, statistics);
+            position = 0;
+            return true;
+        }
+
+        private void skipFully( long count ) throws IOException {
+            while (count > 0) {
+                long skipped = file.skip(count);
+                if (skipped <= 0) {
+                    if (file.read() == -1) {
+                        throw new EOFException(JcrI18n.unableToReadCompressedBinaryValue.text(key));
+                    }
+                    skipped = 1;
+                }
+                count -= skipped;
+            }
+        }
+
+        private void readFully( byte[] buffer,
+                                int length ) throws IOException {
+            for (int offset = 0; offset < length;) {
+                int count = file.read(buffer, offset, length - offset);
+                if (count == -1) {
+                    throw new EOFException(JcrI18n.unableToReadCompressedBinaryValue.text(key));
+                }
+                offset += count;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read( byte[] b,
+                         int off,
+                         int len ) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int count = Math.min(len, limit - position);
+            System.arraycopy(block, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inflater.end();
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.util.zip.Deflater;
+
+/**
+ * The codecs with which a {@link FileSystemBinaryStore} can compress the binary values it stores. All of the codecs produce
+ * content in the Deflate format, and they only differ in how much time they spend looking for a better compression ratio.
+ */
+public enum CompressionCodec {
+
+    /**
+     * Store the binary values as is.
+     */
+    NONE("none", 0, Deflater.NO_COMPRESSION),
+
+    /**
+     * Compress the binary values as fast as possible, for content that is read and written often.
+     */
+    DEFLATE_FAST("deflate-fast", 1, Deflater.BEST_SPEED),
+
+    /**
+     * Compress the binary values with a balance between the speed and the compression ratio.
+     */
+    DEFLATE("deflate", 2, Deflater.DEFAULT_COMPRESSION),
+
+    /**
+     * Compress the binary values as much as possible, for content that is rarely written.
+     */
+    DEFLATE_BEST("deflate-best", 3, Deflater.BEST_COMPRESSION);
+
+    private final String literal;
+    private final byte id;
+    private final int level;
+
+    private CompressionCodec( String literal,
+                              int id,
+                              int level ) {
+        this.literal = literal;
+        this.id = (byte)id;
+        this.level = level;
+    }
+
+    /**
+     * Get the name of this codec, as used in the repository configuration.
+     *
+     * @return the name; never null
+     */
+    public String getLiteral() {
+        return literal;
+    }
+
+    /**
+     * Get the codec with the supplied name.
+     *
+     * @param literal the name of the codec, which is case-insensitive; may be null
+     * @return the codec, or null if there is no codec with the supplied name
+     */
+    public static CompressionCodec fromLiteral( String literal ) {
+        for (CompressionCodec codec : values()) {
+            if (codec.literal.equalsIgnoreCase(literal)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    protected byte id() {
+        return id;
+    }
+
+    protected static CompressionCodec fromId( byte id ) {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    protected Deflater newDeflater() {
+        return new Deflater(level, true);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.util.Random;
+import org.modeshape.common.annotation.NotThreadSafe;
+
+/**
+ * Finds content-defined chunk boundaries in a stream of bytes, using a "gear" rolling hash over (roughly) the last 64 bytes.
+ * Because a boundary only depends on the bytes right before it, inserting or removing content in one part of a binary only
+ * changes the chunks around that part, so that binaries which share large blocks of content also share most of their chunks.
+ * <p>
+ * Chunks are never shorter than a quarter of the average size (except for the last one) and never longer than four times the
+ * average size.
+ * </p>
+ */
+@NotThreadSafe
+final class ContentDefinedChunker {
+
+    /**
+     * The random values for each byte; the seed is fixed so that the boundaries never change between processes.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6d6f646573686170L);
+        for (int i = 0; i != GEAR.length; ++i) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minimumSize;
+    private final int maximumSize;
+    private final long mask;
+    private long hash;
+    private int size;
+
+    /**
+     * Create a chunker for chunks of the given average size.
+     *
+     * @param averageSize the average size of the chunks, in bytes; must be a power of two that is at least 256
+     */
+    ContentDefinedChunker( int averageSize ) {
+        assert averageSize >= 256 && Integer.bitCount(averageSize) == 1;
+        this.minimumSize = averageSize / 4;
+        this.maximumSize = averageSize * 4;
+        // Use the high-order bits, since they depend on more of the preceding bytes than the low-order bits ...
+        this.mask = -1L << (64 - Integer.numberOfTrailingZeros(averageSize));
+    }
+
+    /**
+     * Get the size of the largest chunk that this chunker will produce.
+     *
+     * @return the maximum chunk size in bytes
+     */
+    int maximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Find the end of the current chunk within the supplied bytes.
+     *
+     * @param bytes the bytes that follow those already seen; may not be null
+     * @param offset the offset of the first byte to be considered
+     * @param length the number of bytes to consider
+     * @return the number of bytes (starting at <code>offset</code>) that complete the current chunk, or -1 if the current chunk
+     *         continues past the supplied bytes
+     */
+    int nextBoundary( byte[] bytes,
+                      int offset,
+                      int length ) {
+        for (int i = 0; i != length; ++i) {
+            hash = (hash << 1) + GEAR[bytes[offset + i] & 0xff];
+            if (++size >= minimumSize && ((hash & mask) == 0 || size >= maximumSize)) {
+                hash = 0L;
+                size = 0;
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
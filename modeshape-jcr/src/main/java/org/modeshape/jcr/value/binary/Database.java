@@ -18,18 +18,23 @@ package org.modeshape.jcr.value.binary;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import org.modeshape.common.database.DatabaseType;
 import org.modeshape.common.database.DatabaseUtil;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.value.BinaryKey;
@@ -93,7 +98,9 @@ public class Database {
     private static final String UNUSED_CONTENT_STMT_KEY = "get_unused_content";
     private static final String MARK_UNUSED_STMT_KEY = "mark_unused";
     private static final String MARK_USED_STMT_KEY = "mark_used";
-    private static final String REMOVE_EXPIRED_STMT_KEY = "remove_expired";
+    private static final String GET_EXPIRED_KEYS_STMT_KEY = "get_expired_keys";
+    private static final String REMOVE_EXPIRED_CONTENT_STMT_KEY = "remove_expired_content";
+    private static final String COUNT_UNUSED_STMT_KEY = "count_unused";
     private static final String GET_MIMETYPE_STMT_KEY = "get_mimetype";
     private static final String SET_MIMETYPE_STMT_KEY = "set_mimetype";
     private static final String GET_EXTRACTED_TEXT_STMT_KEY = "get_extracted_text";
@@ -300,6 +307,63 @@ public class Database {
         }
     }
 
+    /**
+     * Read part of the content of the binary value with the supplied key, using the positional access of the JDBC {@link Blob}
+     * so that the content preceding the range does not have to be transferred. Drivers that cannot expose the content column
+     * as a blob (e.g., for a PostgreSQL BYTEA) skip to the range in the content's stream instead.
+     *
+     * @param key a {@link BinaryKey} the key of the binary value, may not be null
+     * @param position the zero-based position of the first byte to read; may not be negative
+     * @param length the maximum number of bytes to read; may not be negative
+     * @param connection a {@link Connection} instance, may not be null
+     * @return the bytes that were read, or {@code null} if the binary was not found
+     * @throws SQLException if anything unexpected fails
+     * @throws IOException if the content stream cannot be read
+     */
+    protected byte[] readContentRange( BinaryKey key,
+                                       long position,
+                                       int length,
+                                       Connection connection ) throws SQLException, IOException {
+        byte[] content = readRangeFromStatement(USED_CONTENT_STMT_KEY, key, position, length, connection);
+        return content != null ? content : readRangeFromStatement(UNUSED_CONTENT_STMT_KEY, key, position, length, connection);
+    }
+
+    private byte[] readRangeFromStatement( String statement,
+                                           BinaryKey key,
+                                           long position,
+                                           int length,
+                                           Connection connection ) throws SQLException, IOException {
+        try (PreparedStatement readContentStatement = prepareStatement(statement, connection)) {
+            readContentStatement.setString(1, key.toString());
+            try (ResultSet rs = executeQuery(readContentStatement)) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Blob blob;
+                try {
+                    blob = rs.getBlob(1);
+                } catch (SQLException e) {
+                    LOGGER.debug(e, "Cannot read the content of {0} as a blob, so reading it as a stream", key);
+                    InputStream stream = rs.getBinaryStream(1);
+                    return stream != null ? IoUtil.readBytes(stream, position, length) : new byte[0];
+                }
+                if (blob == null) {
+                    return new byte[0];
+                }
+                try {
+                    long size = blob.length();
+                    if (position >= size) {
+                        return new byte[0];
+                    }
+                    // Blob positions start at 1 ...
+                    return blob.getBytes(position + 1, (int)Math.min(length, size - position));
+                } finally {
+                    blob.free();
+                }
+            }
+        }
+    }
+
     private InputStream readStreamFromStatement( String statement, BinaryKey key, Connection connection ) throws SQLException {
         PreparedStatement readContentStatement = prepareStatement(statement, connection);
         try {
@@ -341,11 +405,46 @@ public class Database {
         }
     }
 
-    protected void removeExpiredContent( long deadline,
-                                         Connection connection ) throws SQLException {
-        try (PreparedStatement removedExpiredSql = prepareStatement(REMOVE_EXPIRED_STMT_KEY, connection)) {
-            removedExpiredSql.setTimestamp(1, new java.sql.Timestamp(deadline));
-            execute(removedExpiredSql);
+    protected List<BinaryKey> getExpiredKeys( long deadline,
+                                              int maxKeys,
+                                              Connection connection ) throws SQLException {
+        List<BinaryKey> keys = new ArrayList<>();
+        try (PreparedStatement getExpiredKeysSql = prepareStatement(GET_EXPIRED_KEYS_STMT_KEY, connection)) {
+            getExpiredKeysSql.setTimestamp(1, new Timestamp(deadline));
+            getExpiredKeysSql.setMaxRows(maxKeys);
+            ResultSet rs = executeQuery(getExpiredKeysSql);
+            while (rs.next() && keys.size() < maxKeys) {
+                keys.add(new BinaryKey(rs.getString(1)));
+            }
+            return keys;
+        }
+    }
+
+    protected int removeExpiredContent( Iterable<BinaryKey> keys,
+                                        long deadline,
+                                        Connection connection ) throws SQLException {
+        try (PreparedStatement removeExpiredSql = prepareStatement(REMOVE_EXPIRED_CONTENT_STMT_KEY, connection)) {
+            Timestamp timestamp = new Timestamp(deadline);
+            for (BinaryKey key : keys) {
+                // the usage is checked again, since the content may have been used again since the keys were read
+                removeExpiredSql.setString(1, key.toString());
+                removeExpiredSql.setTimestamp(2, timestamp);
+                removeExpiredSql.addBatch();
+            }
+            int removed = 0;
+            for (int count : executeBatch(removeExpiredSql)) {
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    removed += Math.max(count, 1);
+                }
+            }
+            return removed;
+        }
+    }
+
+    protected long countUnusedContent( Connection connection ) throws SQLException {
+        try (PreparedStatement countUnusedSql = prepareStatement(COUNT_UNUSED_STMT_KEY, connection)) {
+            ResultSet rs = executeQuery(countUnusedSql);
+            return rs.next() ? rs.getLong(1) : 0L;
         }
     }
 
@@ -413,6 +512,11 @@ public class Database {
         return sql.executeQuery();
     }
 
+    private int[] executeBatch( PreparedStatement sql ) throws SQLException {
+        LOGGER.trace("Executing batch statement: {0}", sql);
+        return sql.executeBatch();
+    }
+
     private void executeUpdate( PreparedStatement sql ) throws SQLException {
         LOGGER.trace("Executing update statement: {0}", sql);
         sql.executeUpdate();
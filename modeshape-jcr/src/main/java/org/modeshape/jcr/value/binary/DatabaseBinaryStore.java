@@ -17,15 +17,18 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.value.BinaryKey;
@@ -84,6 +87,7 @@ import com.zaxxer.hikari.HikariDataSource;
 public class DatabaseBinaryStore extends AbstractBinaryStore {
     private static final boolean ALIVE = true;
     private static final boolean UNUSED = false;
+    private static final int GARBAGE_COLLECTION_BATCH_SIZE = 100;
 
     /**
      * JDBC params
@@ -229,6 +233,19 @@ public class DatabaseBinaryStore extends AbstractBinaryStore {
         }
     }
 
+    @Override
+    public ByteBuffer readRange( BinaryKey key,
+                                 long position,
+                                 int length ) throws BinaryStoreException {
+        CheckArg.isNonNegative(position, "position");
+        CheckArg.isNonNegative(length, "length");
+        byte[] content = dbCall(connection -> database.readContentRange(key, position, length, connection));
+        if (content == null) {
+            throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(key, database.getTableName()));
+        }
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
     @Override
     public void markAsUsed(final Iterable<BinaryKey> keys ) throws BinaryStoreException {
         dbCall(connection -> {
@@ -247,14 +264,49 @@ public class DatabaseBinaryStore extends AbstractBinaryStore {
         });
     }
 
+    @Override
+    public boolean isUnused( final BinaryKey key ) throws BinaryStoreException {
+        return dbCall(connection -> database.contentExists(key, UNUSED, connection));
+    }
+
     @Override
     public void removeValuesUnusedLongerThan( final long minimumAge,
                                               final TimeUnit unit ) throws BinaryStoreException {
-        dbCall(connection -> {
-            long deadline = System.currentTimeMillis() - unit.toMillis(minimumAge);
-            database.removeExpiredContent(deadline, connection);
-            return null;
-        });
+        removeValuesUnusedLongerThan(minimumAge, unit, 0);
+    }
+
+    @Override
+    public long removeValuesUnusedLongerThan( final long minimumAge,
+                                              final TimeUnit unit,
+                                              final int maximumRemovalsPerSecond ) throws BinaryStoreException {
+        final long deadline = System.currentTimeMillis() - unit.toMillis(minimumAge);
+        Throttle throttle = new Throttle(maximumRemovalsPerSecond);
+        // Remove the expired rows in small transactions rather than with one large delete, so that the table is never locked
+        // for long ...
+        long removed = 0L;
+        while (true) {
+            final List<BinaryKey> expired = dbCall(connection -> database.getExpiredKeys(deadline,
+                                                                                         GARBAGE_COLLECTION_BATCH_SIZE,
+                                                                                         connection));
+            if (expired.isEmpty() || !throttle.acquire(expired.size())) {
+                break;
+            }
+            int removedInBatch = dbCall(connection -> {
+                connection.setAutoCommit(false);
+                return database.removeExpiredContent(expired, deadline, connection);
+            });
+            removed += removedInBatch;
+            if (removedInBatch == 0 || expired.size() < GARBAGE_COLLECTION_BATCH_SIZE) {
+                // either everything has been removed, or the remaining rows cannot be removed now ...
+                break;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public long getUnusedValueCount() throws BinaryStoreException {
+        return dbCall(database::countUnusedContent);
     }
 
     @Override
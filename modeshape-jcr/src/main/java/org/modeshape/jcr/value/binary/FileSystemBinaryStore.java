@@ -17,28 +17,56 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import javax.jcr.RepositoryException;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.IoUtil;
-import org.modeshape.common.util.SecureHash;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.common.util.SecureHash.Algorithm;
-import org.modeshape.common.util.SecureHash.HashingInputStream;
 import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.value.BinaryKey;
 import org.modeshape.jcr.value.BinaryValue;
 
@@ -46,6 +74,11 @@ import org.modeshape.jcr.value.BinaryValue;
  * A {@link BinaryStore} that stores files in a directory on the file system. The store does use file locks to prevent other
  * processes from concurrently writing the files, and it also uses an internal set of locks to prevent multiple threads from
  * simultaneously writing to the persisted files.
+ * <p>
+ * The store can {@link #setCompressionCodecs(Map) compress} binary values, using a codec that depends on the MIME type of each
+ * value. The key of a compressed value is still the SHA-1 of its uncompressed content, so the same content is only stored once
+ * regardless of how it is compressed, and the content is decompressed as it is read.
+ * </p>
  */
 @ThreadSafe
 public class FileSystemBinaryStore extends AbstractBinaryStore {
@@ -56,6 +89,57 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
     private static final String MIME_TYPE_SUFFIX = "-mime-type";
     private static final String TEMP_FILE_PREFIX = "ms-fs-binstore";
     private static final String TEMP_FILE_SUFFIX = "hashing";
+    private static final String STAGING_DIRECTORY_NAME = "staging";
+    private static final String CHUNKS_DIRECTORY_NAME = "chunks";
+    private static final String CHUNK_REFERENCES_SUFFIX = "-refs";
+    private static final String CHUNK_MANIFEST_SUFFIX = "-chunks";
+    private static final String CHUNK_LOCK_PREFIX = "chunk-";
+    private static final byte[] CHUNK_MANIFEST_MAGIC = {'M', 'S', 'C', 'H', 'U', 'N', 'K', '1'};
+    private static final int SHA1_LENGTH = 20;
+    private static final int CHUNK_MANIFEST_HEADER_SIZE = CHUNK_MANIFEST_MAGIC.length + SHA1_LENGTH + 8 + 4;
+    private static final String UNUSED_INDEX_FILE_NAME = ".unused-binaries";
+    private static final int GARBAGE_COLLECTION_BATCH_SIZE = 1 << 10;
+    private static final String COMPRESSED_SUFFIX = "-compressed";
+    private static final String COMPRESSION_MARKER_FILE_NAME = ".compressed-binaries";
+    private static final int MIME_TYPE_SAMPLE_SIZE = 1 << 16;
+
+    /**
+     * The MIME type pattern that matches the binary values whose MIME type has no codec, or whose MIME type cannot be determined.
+     */
+    public static final String ANY_MIME_TYPE = "*";
+
+    /**
+     * The smallest average size of the chunks into which binary values can be split.
+     */
+    public static final int MINIMUM_DEDUP_CHUNK_SIZE = 1 << 10;
+
+    /**
+     * The largest average size of the chunks into which binary values can be split.
+     */
+    public static final int MAXIMUM_DEDUP_CHUNK_SIZE = 1 << 24;
+
+    private static final int MAXIMUM_MAPPED_FILES = 256;
+    private static final int MAXIMUM_CACHED_MANIFESTS = 4096;
+    private static final ChunkManifest NOT_CHUNKED = new ChunkManifest(new BinaryKey[0], new long[1]);
+    private static final CompressedFile NOT_COMPRESSED = new CompressedFile(null, CompressionCodec.NONE, 0L, new long[1]);
+
+    private static final int INGEST_BUFFER_SIZE = 1 << 18; // 256K
+    private static final int INGEST_BUFFER_COUNT = 4;
+
+    /**
+     * The threads that compute the SHA-1 of large binary values while they are being written. These are daemon threads that
+     * only live while they are used, so the pool never needs to be shut down.
+     */
+    private static final ExecutorService HASHING_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final ThreadFactory delegate = new NamedThreadFactory("modeshape-binary-hashing");
+
+        @Override
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = delegate.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     
     private static final ConcurrentHashMap<String, FileSystemBinaryStore> INSTANCES = new ConcurrentHashMap<String, FileSystemBinaryStore>();
 
@@ -84,6 +168,14 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
     private final File trash;
     private final NamedLocks locks = new NamedLocks();
     private volatile boolean initialized = false;
+    private volatile boolean chunksPresent = false;
+    private volatile boolean compressedPresent = false;
+    private volatile Map<String, CompressionCodec> compressionCodecs = Collections.emptyMap();
+    private volatile int dedupChunkSize = 0;
+    private final MappedFiles mappedFiles = new MappedFiles(MAXIMUM_MAPPED_FILES);
+    private final Map<BinaryKey, ChunkManifest> manifests = Collections.synchronizedMap(new LayoutCache<ChunkManifest>());
+    private final Map<BinaryKey, CompressedFile> compressedFiles = Collections.synchronizedMap(new LayoutCache<CompressedFile>());
+    private volatile UnusedBinaryIndex unusedIndex;
 
     protected FileSystemBinaryStore( File directory ) {
         this(directory, new File(directory, TRASH_DIRECTORY_NAME));
@@ -98,27 +190,100 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         return directory;
     }
 
+    /**
+     * Set the average size of the content-defined chunks into which large binary values are split, so that binary values
+     * sharing large blocks of content store those blocks only once. Only binary values that are larger than the largest chunk
+     * (four times the average) are split, and values that are already stored are not affected.
+     *
+     * @param averageChunkSizeInBytes the average chunk size, which is rounded down to a power of two between
+     *        {@value #MINIMUM_DEDUP_CHUNK_SIZE} and {@value #MAXIMUM_DEDUP_CHUNK_SIZE}; or 0 if binary values should not be
+     *        split into chunks (the default)
+     */
+    public void setDedupChunkSizeInBytes( int averageChunkSizeInBytes ) {
+        CheckArg.isNonNegative(averageChunkSizeInBytes, "averageChunkSizeInBytes");
+        int chunkSize = Integer.highestOneBit(averageChunkSizeInBytes);
+        this.dedupChunkSize = chunkSize == 0 ? 0 : Math.min(MAXIMUM_DEDUP_CHUNK_SIZE, Math.max(MINIMUM_DEDUP_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * Get the average size of the content-defined chunks into which large binary values are split.
+     *
+     * @return the average chunk size in bytes, or 0 if binary values are not split into chunks
+     */
+    public int getDedupChunkSizeInBytes() {
+        return dedupChunkSize;
+    }
+
+    /**
+     * Set the codecs with which binary values are compressed, by MIME type. Each MIME type can be a specific type (e.g.,
+     * "application/xml"), all of the subtypes of a type (e.g., "text/*"), or {@value #ANY_MIME_TYPE} for the values whose MIME
+     * type has no codec or cannot be determined. The MIME type of a value is determined from its first bytes by the
+     * {@link #setMimeTypeDetector(MimeTypeDetector) MIME type detector}, or when the detector cannot determine it, by
+     * {@link #guessMimeType(byte[]) recognizing} XML and other text.
+     * <p>
+     * Values are only compressed when that makes them smaller, and values that are split into chunks are not compressed. Changing
+     * the codecs does not affect the values that are already stored.
+     * </p>
+     *
+     * @param codecsByMimeType the codecs keyed by MIME type; may be null or empty if binary values should not be compressed (the
+     *        default)
+     */
+    public void setCompressionCodecs( Map<String, CompressionCodec> codecsByMimeType ) {
+        Map<String, CompressionCodec> codecs = new HashMap<>();
+        if (codecsByMimeType != null) {
+            for (Map.Entry<String, CompressionCodec> entry : codecsByMimeType.entrySet()) {
+                CheckArg.isNotNull(entry.getKey(), "mimeType");
+                CheckArg.isNotNull(entry.getValue(), "codec");
+                codecs.put(entry.getKey().trim().toLowerCase(), entry.getValue());
+            }
+        }
+        this.compressionCodecs = Collections.unmodifiableMap(codecs);
+    }
+
+    /**
+     * Get the codecs with which binary values are compressed.
+     *
+     * @return the codecs keyed by MIME type; never null but empty if binary values are not compressed
+     */
+    public Map<String, CompressionCodec> getCompressionCodecs() {
+        return compressionCodecs;
+    }
+
     @Override
     public BinaryValue storeValue( InputStream stream, boolean markAsUnused ) throws BinaryStoreException {
         File tmpFile = null;
         BinaryValue value = null;
         try {
-            // Write the contents to a temporary file, and while we do grab the SHA-1 hash and the length ...
-            HashingInputStream hashingStream = SecureHash.createHashingStream(Algorithm.SHA_1, stream);
-            tmpFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
-            IoUtil.write(hashingStream, new BufferedOutputStream(new FileOutputStream(tmpFile)),
-                         AbstractBinaryStore.MEDIUM_BUFFER_SIZE);
-            byte[] sha1 = hashingStream.getHash();
-            BinaryKey key = new BinaryKey(sha1);
-
-            final long numberOfBytes = tmpFile.length();
+            MessageDigest digest = MessageDigest.getInstance(Algorithm.SHA_1.digestName());
+            // Read the first buffer, and if that holds all of the (small) content then don't touch the disk at all ...
+            ByteBuffer buffer = ByteBuffer.allocate(INGEST_BUFFER_SIZE);
+            boolean endOfStream = fill(stream, buffer);
+            if (endOfStream && buffer.position() < getMinimumBinarySizeInBytes()) {
+                byte[] content = Arrays.copyOf(buffer.array(), buffer.position());
+                return new InMemoryBinaryValue(this, new BinaryKey(digest.digest(content)), content);
+            }
+            // Keep the first bytes, from which the MIME type (and therefore the codec) can be determined ...
+            Map<String, CompressionCodec> codecs = this.compressionCodecs;
+            byte[] sample = codecs.isEmpty() ? null : Arrays.copyOf(buffer.array(),
+                                                                    Math.min(buffer.position(), MIME_TYPE_SAMPLE_SIZE));
+
+            // Write the contents to a staging file, and while we do grab the SHA-1 hash and the length ...
+            tmpFile = createStagingFile(TEMP_FILE_SUFFIX);
+            final long numberOfBytes;
+            try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE)) {
+                numberOfBytes = endOfStream ? writeAndHash(buffer, channel, digest) : writeAndHashInParallel(stream, buffer,
+                                                                                                              channel, digest);
+            }
+            BinaryKey key = new BinaryKey(digest.digest());
+
             if (numberOfBytes < getMinimumBinarySizeInBytes()) {
                 // The content is small enough to just store in-memory ...
                 byte[] content = IoUtil.readBytes(tmpFile);
                 tmpFile.delete();
                 value = new InMemoryBinaryValue(this, key, content);
             } else {
-                value = saveTempFileToStore(tmpFile, key, numberOfBytes);
+                CompressionCodec codec = sample != null ? compressionCodecFor(key, sample, codecs) : CompressionCodec.NONE;
+                value = saveTempFileToStore(tmpFile, key, numberOfBytes, dedupChunkSize, codec);
                 if (markAsUnused) {
                     markAsUnused(key);
                 }
@@ -140,9 +305,174 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         }
     }
 
+    private CompressionCodec compressionCodecFor( BinaryKey key,
+                                                  byte[] sample,
+                                                  Map<String, CompressionCodec> codecs ) {
+        String mimeType = null;
+        if (codecs.size() > 1 || !codecs.containsKey(ANY_MIME_TYPE)) {
+            try {
+                // The detectors only look at the first bytes of the content, so give them those rather than the whole content ...
+                mimeType = detector().mimeTypeOf(null, new InMemoryBinaryValue(this, key, sample));
+            } catch (IOException | RepositoryException e) {
+                logger.debug(e, "Unable to determine the MIME type of binary value {0} in {1}", key, directory);
+            }
+            if (mimeType == null) {
+                mimeType = guessMimeType(sample);
+            }
+        }
+        return compressionCodecFor(mimeType, codecs);
+    }
+
+    /**
+     * Guess the MIME type of content for which the MIME type detector could not determine one, which it usually cannot without
+     * the name of the content. This only tells XML and other text apart from any other content.
+     *
+     * @param sample the first bytes of the content; may not be null
+     * @return "application/xml" or "text/plain" if the sample looks like XML or other text, or null otherwise
+     */
+    protected static String guessMimeType( byte[] sample ) {
+        int start = 0;
+        if (sample.length >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF) {
+            // Skip the UTF-8 byte order mark ...
+            start = 3;
+        }
+        int firstNonWhitespace = -1;
+        for (int i = start; i != sample.length; ++i) {
+            int b = sample[i] & 0xFF;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') {
+                // Text doesn't contain control characters ...
+                return null;
+            }
+            if (firstNonWhitespace == -1 && b > 0x20) {
+                firstNonWhitespace = i;
+            }
+        }
+        if (firstNonWhitespace != -1
+            && new String(sample, firstNonWhitespace, Math.min(5, sample.length - firstNonWhitespace),
+                          StandardCharsets.US_ASCII).equals("<?xml")) {
+            return "application/xml";
+        }
+        return "text/plain";
+    }
+
+    /**
+     * Find the codec for the supplied MIME type, which is the codec for the MIME type itself, otherwise the codec for all of the
+     * subtypes of its type, otherwise the codec for {@value #ANY_MIME_TYPE}.
+     *
+     * @param mimeType the MIME type, which may include parameters; may be null if the MIME type is not known
+     * @param codecs the codecs keyed by (lowercase) MIME type; may not be null
+     * @return the codec; never null
+     */
+    protected static CompressionCodec compressionCodecFor( String mimeType,
+                                                           Map<String, CompressionCodec> codecs ) {
+        CompressionCodec codec = null;
+        if (mimeType != null) {
+            int semicolon = mimeType.indexOf(';');
+            String type = (semicolon != -1 ? mimeType.substring(0, semicolon) : mimeType).trim().toLowerCase();
+            codec = codecs.get(type);
+            int slash = type.indexOf('/');
+            if (codec == null && slash != -1) {
+                codec = codecs.get(type.substring(0, slash + 1) + ANY_MIME_TYPE);
+            }
+        }
+        if (codec == null) {
+            codec = codecs.get(ANY_MIME_TYPE);
+        }
+        return codec != null ? codec : CompressionCodec.NONE;
+    }
+
+    /**
+     * Read from the stream until the buffer is full or the stream is exhausted.
+     *
+     * @param stream the stream to read; may not be null
+     * @param buffer the heap buffer to fill; may not be null
+     * @return true if the end of the stream was reached, or false if the buffer is full
+     * @throws IOException if the stream cannot be read
+     */
+    private static boolean fill( InputStream stream,
+                                 ByteBuffer buffer ) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read == -1) {
+                return true;
+            }
+            buffer.position(buffer.position() + read);
+        }
+        return false;
+    }
+
+    private static long writeAndHash( ByteBuffer buffer,
+                                      FileChannel channel,
+                                      MessageDigest digest ) throws IOException {
+        buffer.flip();
+        long numberOfBytes = buffer.remaining();
+        digest.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return numberOfBytes;
+    }
+
+    /**
+     * Copy the remaining content of the stream into the channel, while computing the hash on another thread. The hashing thread
+     * consumes each buffer after it has been filled, and hands it back for reuse once it has been digested, so that reading and
+     * writing on this thread are never blocked by the hashing except when all of the buffers are waiting to be hashed.
+     */
+    private static long writeAndHashInParallel( InputStream stream,
+                                                ByteBuffer first,
+                                                FileChannel channel,
+                                                MessageDigest digest ) throws IOException {
+        PipelinedHasher hasher = new PipelinedHasher(digest);
+        Future<?> hashing = HASHING_POOL.submit(hasher);
+        long numberOfBytes = 0L;
+        try {
+            ByteBuffer buffer = first;
+            boolean endOfStream = false;
+            while (true) {
+                buffer.flip();
+                numberOfBytes += buffer.remaining();
+                ByteBuffer output = buffer.duplicate();
+                hasher.digest(buffer);
+                while (output.hasRemaining()) {
+                    channel.write(output);
+                }
+                if (endOfStream) {
+                    break;
+                }
+                buffer = hasher.nextFreeBuffer();
+                endOfStream = fill(stream, buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            hasher.finish();
+        }
+        try {
+            hashing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return numberOfBytes;
+    }
+
+    private File createStagingFile( String suffix ) throws IOException, BinaryStoreException {
+        if (!initialized) {
+            initialize(directory);
+        }
+        File staging = new File(directory, STAGING_DIRECTORY_NAME);
+        staging.mkdirs();
+        return File.createTempFile(TEMP_FILE_PREFIX, suffix, staging);
+    }
+
     private BinaryValue saveTempFileToStore( File tmpFile,
                                              BinaryKey key,
-                                             long numberOfBytes ) throws BinaryStoreException {
+                                             long numberOfBytes,
+                                             int chunkSize,
+                                             CompressionCodec codec ) throws BinaryStoreException {
         // Now that we know the SHA-1, find the File object that corresponds to the existing persisted file ...
         File persistedFile = findFile(directory, key, true);
 
@@ -157,13 +487,361 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
                 return new StoredBinaryValue(this, key, numberOfBytes);
             }
 
-            // Otherwise, we need to persist the data, which we'll do by moving our temporary file ...
-            moveFileExclusively(tmpFile, persistedFile, key);
+            if (chunkSize > 0 && numberOfBytes > chunkSize * 4L) {
+                // Store the content in chunks, and persist the list of chunks instead of the content ...
+                File manifest = storeChunks(tmpFile, key, numberOfBytes, new ContentDefinedChunker(chunkSize));
+                moveFileExclusively(manifest, persistedFile, key);
+            } else if (codec != CompressionCodec.NONE && storeCompressed(tmpFile, key, numberOfBytes, codec, persistedFile)) {
+                // The compressed content was persisted instead ...
+            } else {
+                // Otherwise, we need to persist the data, which we'll do by moving our temporary file ...
+                moveFileExclusively(tmpFile, persistedFile, key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new StoredBinaryValue(this, key, numberOfBytes);
+    }
+
+    /**
+     * Compress the content of the supplied file and persist the compressed content, unless compressing the content does not make
+     * it smaller.
+     *
+     * @return true if the compressed content was persisted, or false if the content should be persisted as is
+     */
+    private boolean storeCompressed( File tmpFile,
+                                     BinaryKey key,
+                                     long numberOfBytes,
+                                     CompressionCodec codec,
+                                     File persistedFile ) throws BinaryStoreException {
+        File compressed = null;
+        try {
+            compressed = createStagingFile(TEMP_FILE_SUFFIX + COMPRESSED_SUFFIX);
+            long compressedLength = CompressedFile.compress(tmpFile, numberOfBytes, key, codec, compressed);
+            if (compressedLength >= numberOfBytes) {
+                return false;
+            }
+            if (!compressedPresent) {
+                // Remember that this store has compressed values, so that they are decompressed after a restart ...
+                new File(directory, COMPRESSION_MARKER_FILE_NAME).createNewFile();
+                compressedPresent = true;
+            }
+            moveFileExclusively(compressed, persistedFile, key);
+            RepositoryStatistics statistics = statistics();
+            if (statistics != null) {
+                statistics.increment(ValueMetric.BINARY_BYTES_SAVED_BY_COMPRESSION, numberOfBytes - compressedLength);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        } finally {
+            if (compressed != null) {
+                compressed.delete();
+            }
+        }
+    }
+
+    /**
+     * Split the content of the supplied file into content-defined chunks, store each chunk that is not already stored, and
+     * write the manifest that lists the chunks. Each chunk records a reference to the binary value, and is only removed when
+     * the last binary value referencing it is removed.
+     * <p>
+     * The manifest starts with a magic number followed by the SHA-1 of the whole content, which makes it impossible to confuse
+     * with a binary value that is stored as is, followed by the total length, the number of chunks, and the SHA-1 and length of
+     * each chunk.
+     * </p>
+     *
+     * @return the staging file containing the manifest
+     */
+    private File storeChunks( File tmpFile,
+                              BinaryKey key,
+                              long numberOfBytes,
+                              ContentDefinedChunker chunker ) throws BinaryStoreException {
+        List<BinaryKey> chunkKeys = new ArrayList<>();
+        List<Integer> chunkLengths = new ArrayList<>();
+        try (FileChannel content = FileChannel.open(tmpFile.toPath(), StandardOpenOption.READ)) {
+            MessageDigest chunkDigest = MessageDigest.getInstance(Algorithm.SHA_1.digestName());
+            ByteBuffer buffer = ByteBuffer.allocate(INGEST_BUFFER_SIZE);
+            long chunkStart = 0L;
+            long position = 0L;
+            while (content.read(buffer) != -1) {
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                int offset = 0;
+                int remaining = buffer.remaining();
+                while (remaining > 0) {
+                    int length = chunker.nextBoundary(bytes, offset, remaining);
+                    if (length == -1) {
+                        chunkDigest.update(bytes, offset, remaining);
+                        break;
+                    }
+                    chunkDigest.update(bytes, offset, length);
+                    offset += length;
+                    remaining -= length;
+                    long chunkEnd = position + offset;
+                    chunkKeys.add(storeChunk(content, chunkStart, chunkEnd - chunkStart, chunkDigest.digest(), key));
+                    chunkLengths.add((int)(chunkEnd - chunkStart));
+                    chunkStart = chunkEnd;
+                }
+                position += buffer.limit();
+                buffer.clear();
+            }
+            if (chunkStart < numberOfBytes) {
+                chunkKeys.add(storeChunk(content, chunkStart, numberOfBytes - chunkStart, chunkDigest.digest(), key));
+                chunkLengths.add((int)(numberOfBytes - chunkStart));
+            }
+
+            File manifest = createStagingFile(TEMP_FILE_SUFFIX + CHUNK_MANIFEST_SUFFIX);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(manifest)))) {
+                output.write(CHUNK_MANIFEST_MAGIC);
+                output.write(key.toBytes());
+                output.writeLong(numberOfBytes);
+                output.writeInt(chunkKeys.size());
+                for (int i = 0; i != chunkKeys.size(); ++i) {
+                    output.write(chunkKeys.get(i).toBytes());
+                    output.writeInt(chunkLengths.get(i));
+                }
+            }
+            return manifest;
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SystemFailureException(e);
+        }
+    }
 
+    private BinaryKey storeChunk( FileChannel content,
+                                  long position,
+                                  long length,
+                                  byte[] sha1,
+                                  BinaryKey owner ) throws IOException, BinaryStoreException {
+        BinaryKey chunkKey = new BinaryKey(sha1);
+        File chunkFile = findFile(chunksDirectory(), chunkKey, true);
+        final Lock lock = locks.writeLock(CHUNK_LOCK_PREFIX + chunkKey);
+        try {
+            // Record the reference before the content, so that the chunk can never be removed while it is being used ...
+            File references = new File(chunkFile.getParentFile(), chunkFile.getName() + CHUNK_REFERENCES_SUFFIX);
+            references.mkdirs();
+            new File(references, owner.toString()).createNewFile();
+            if (!chunkFile.exists()) {
+                File tmpChunk = createStagingFile(TEMP_FILE_SUFFIX);
+                try (FileChannel output = FileChannel.open(tmpChunk.toPath(), StandardOpenOption.WRITE)) {
+                    for (long copied = 0L; copied < length;) {
+                        copied += content.transferTo(position + copied, length - copied, output);
+                    }
+                }
+                moveFileExclusively(tmpChunk, chunkFile, chunkKey);
+            }
+            chunksPresent = true;
+            return chunkKey;
         } finally {
             lock.unlock();
         }
-        return new StoredBinaryValue(this, key, persistedFile.length());
+    }
+
+    private File chunksDirectory() {
+        return new File(directory, CHUNKS_DIRECTORY_NAME);
+    }
+
+    /**
+     * Get the list of chunks for the binary value stored in the supplied file, if the binary value was stored in chunks.
+     *
+     * @param persistedFile the file in which the binary value is stored; may not be null
+     * @param key the key of the binary value; may not be null
+     * @return the keys and lengths of the chunks, or null if the binary value was not stored in chunks
+     */
+    private ChunkManifest chunkManifest( File persistedFile,
+                                         BinaryKey key ) throws BinaryStoreException {
+        ChunkManifest manifest = manifests.get(key);
+        if (manifest == null) {
+            manifest = readChunkManifest(persistedFile, key);
+            // Stored values never change, so remember whether this one is stored in chunks ...
+            manifests.put(key, manifest != null ? manifest : NOT_CHUNKED);
+        }
+        return manifest != NOT_CHUNKED ? manifest : null;
+    }
+
+    /**
+     * Get the layout of the compressed content of the binary value stored in the supplied file, if the binary value was
+     * compressed.
+     *
+     * @param persistedFile the file in which the binary value is stored; may not be null
+     * @param key the key of the binary value; may not be null
+     * @return the layout of the compressed content, or null if the binary value was not compressed
+     */
+    private CompressedFile compressedFile( File persistedFile,
+                                           BinaryKey key ) throws BinaryStoreException {
+        CompressedFile compressed = compressedFiles.get(key);
+        if (compressed == null) {
+            try {
+                compressed = CompressedFile.open(persistedFile, key);
+            } catch (IOException e) {
+                throw new BinaryStoreException(e);
+            }
+            compressedFiles.put(key, compressed != null ? compressed : NOT_COMPRESSED);
+        }
+        return compressed != NOT_COMPRESSED ? compressed : null;
+    }
+
+    private ChunkManifest readChunkManifest( File persistedFile,
+                                             BinaryKey key ) throws BinaryStoreException {
+        if (persistedFile.length() < CHUNK_MANIFEST_HEADER_SIZE) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(persistedFile)))) {
+            byte[] magic = new byte[CHUNK_MANIFEST_MAGIC.length];
+            input.readFully(magic);
+            byte[] sha1 = new byte[SHA1_LENGTH];
+            input.readFully(sha1);
+            if (!Arrays.equals(magic, CHUNK_MANIFEST_MAGIC) || !Arrays.equals(sha1, key.toBytes())) {
+                return null;
+            }
+            long numberOfBytes = input.readLong();
+            int count = input.readInt();
+            BinaryKey[] chunkKeys = new BinaryKey[count];
+            long[] offsets = new long[count + 1];
+            for (int i = 0; i != count; ++i) {
+                input.readFully(sha1);
+                chunkKeys[i] = new BinaryKey(sha1);
+                offsets[i + 1] = offsets[i] + input.readInt();
+            }
+            assert offsets[count] == numberOfBytes;
+            return new ChunkManifest(chunkKeys, offsets);
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
+    private InputStream chunkedInputStream( final ChunkManifest manifest ) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < manifest.chunkKeys.length;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                BinaryKey chunkKey = manifest.chunkKeys[next++];
+                try {
+                    File chunkFile = findFile(chunksDirectory(), chunkKey, false);
+                    return new BufferedInputStream(new FileInputStream(chunkFile),
+                                                   AbstractBinaryStore.bestBufferSize(chunkFile.length()));
+                } catch (IOException | BinaryStoreException e) {
+                    throw new SystemFailureException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove the references from the chunks of a binary value that has been removed, and remove the chunks that are no longer
+     * referenced by any binary value.
+     */
+    private void releaseChunks( ChunkManifest manifest,
+                                BinaryKey owner ) throws BinaryStoreException {
+        File chunksDirectory = chunksDirectory();
+        for (BinaryKey chunkKey : manifest.chunkKeys) {
+            File chunkFile = findFile(chunksDirectory, chunkKey, false);
+            final Lock lock = locks.writeLock(CHUNK_LOCK_PREFIX + chunkKey);
+            try {
+                File references = new File(chunkFile.getParentFile(), chunkFile.getName() + CHUNK_REFERENCES_SUFFIX);
+                new File(references, owner.toString()).delete();
+                String[] remaining = references.list();
+                if (remaining == null || remaining.length == 0) {
+                    // Not used anymore, so remove the chunk ...
+                    mappedFiles.remove(chunkKey);
+                    chunkFile.delete();
+                    references.delete();
+                    pruneEmptyDirectories(chunksDirectory, chunkFile.getParentFile());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The list of chunks of a binary value that was stored in chunks.
+     */
+    protected static final class ChunkManifest {
+        protected final BinaryKey[] chunkKeys;
+        /** The offset of each chunk within the binary value, followed by the length of the binary value */
+        protected final long[] offsets;
+
+        protected ChunkManifest( BinaryKey[] chunkKeys,
+                                 long[] offsets ) {
+            this.chunkKeys = chunkKeys;
+            this.offsets = offsets;
+        }
+    }
+
+    /**
+     * The layouts of the most recently used binary values, such as their chunk manifests, including whether a binary value does
+     * not have such a layout.
+     */
+    private static final class LayoutCache<T> extends LinkedHashMap<BinaryKey, T> {
+        private static final long serialVersionUID = 1L;
+
+        protected LayoutCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<BinaryKey, T> eldest ) {
+            return size() > MAXIMUM_CACHED_MANIFESTS;
+        }
+    }
+
+    /**
+     * Digests the buffers handed to it by the thread that writes them, and hands them back for reuse.
+     */
+    private static final class PipelinedHasher implements Runnable {
+        private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final MessageDigest digest;
+        private final BlockingQueue<ByteBuffer> filled = new LinkedBlockingQueue<>();
+        private final BlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<>();
+        private int allocated = 1;
+
+        protected PipelinedHasher( MessageDigest digest ) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (ByteBuffer buffer = filled.take(); buffer != END; buffer = filled.take()) {
+                    digest.update(buffer);
+                    buffer.clear();
+                    free.add(buffer);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SystemFailureException(e);
+            }
+        }
+
+        protected void digest( ByteBuffer buffer ) {
+            filled.add(buffer);
+        }
+
+        protected ByteBuffer nextFreeBuffer() throws InterruptedException {
+            ByteBuffer buffer = free.poll();
+            if (buffer == null) {
+                if (allocated < INGEST_BUFFER_COUNT) {
+                    ++allocated;
+                    return ByteBuffer.allocate(INGEST_BUFFER_SIZE);
+                }
+                buffer = free.take();
+            }
+            return buffer;
+        }
+
+        protected void finish() {
+            filled.add(END);
+        }
     }
 
     private void sleep( long millis ) {
@@ -178,6 +856,9 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         File trashFile = findFile(trash, key, createIfAbsent);
         if (trashFile.exists() && trashFile.canRead()) {
             // we found an existing trash file
+            if (createIfAbsent) {
+                recordUnused(key, false);
+            }
             return trashFile;
         }
 
@@ -197,6 +878,7 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
             if (!trashFile.exists() || !trashFile.canRead()) {
                 IoUtil.write("", new BufferedOutputStream(new FileOutputStream(trashFile)));
             }
+            recordUnused(key, false);
             return trashFile;
         } catch (IOException e) {
             throw new BinaryStoreException(e);
@@ -208,6 +890,7 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
     private boolean removeTrashFile(BinaryKey key) throws BinaryStoreException {
         File trashFile = getTrashFile(key, false);
         if (trashFile == null) {
+            recordUsed(key);
             return false;
         }
 
@@ -218,18 +901,83 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
                 if (!trashFile.delete()) {
                     //we weren't able to remove it for some reason, so at least touch it
                     touch(trashFile);
+                    recordUnused(key, true);
                     return false;
                 }
                 //we successfully removed the file
+                recordUsed(key);
                 return true;
             }
             //some other thread already removed the file
+            recordUsed(key);
             return false;
         } finally {
             lock.unlock();
         }
     }
 
+    private UnusedBinaryIndex unusedIndex() throws BinaryStoreException {
+        UnusedBinaryIndex index = unusedIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = unusedIndex;
+                if (index == null) {
+                    index = new UnusedBinaryIndex(new File(directory, UNUSED_INDEX_FILE_NAME));
+                    try {
+                        index.load();
+                        // There may be no index yet (e.g., the trash was written by an earlier version), or the last records of
+                        // its log may have been lost in a crash, so check it against the trash once ...
+                        List<File> trashFiles = new ArrayList<>();
+                        collectTrashFiles(trash, trashFiles);
+                        trashFiles.sort((file1, file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+                        Map<BinaryKey, Long> trashed = new LinkedHashMap<>();
+                        for (File trashFile : trashFiles) {
+                            trashed.put(new BinaryKey(trashFile.getName()), trashFile.lastModified());
+                        }
+                        index.reconcile(trashed);
+                    } catch (IOException e) {
+                        throw new BinaryStoreException(e);
+                    }
+                    unusedIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private void collectTrashFiles( File parentDirectory,
+                                    List<File> trashFiles ) {
+        File[] files = parentDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectTrashFiles(file, trashFiles);
+            } else if (file.isFile() && file.getName().length() == 2 * SHA1_LENGTH) {
+                // we know that the files in the trash have the name as sha1
+                trashFiles.add(file);
+            }
+        }
+    }
+
+    private void recordUnused( BinaryKey key,
+                               boolean refresh ) throws BinaryStoreException {
+        try {
+            unusedIndex().unused(key, System.currentTimeMillis(), refresh);
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
+    private void recordUsed( BinaryKey key ) throws BinaryStoreException {
+        try {
+            unusedIndex().used(key);
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
     protected void moveFileExclusively( File original,
                                         File destination,
                                         BinaryKey key ) throws BinaryStoreException {
@@ -248,11 +996,14 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
             // First, obtain an exclusive lock on the original file ...
             FileLocks.WrappedLock fileLock = FileLocks.get().writeLock(original);
             try {
-                // The perform the move/rename (which may not work on all platforms) ...
-                if (original.renameTo(destination)) {
-                    // This worked, so simply return ...
-                    return;
-                }
+                // The perform an atomic move/rename, which works when both files are on the same file system ...
+                Files.move(original.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                // This worked, so simply return ...
+                return;
+            } catch (IOException e) {
+                // The files are on different file systems, or the platform doesn't allow moving the file ...
+                logger.debug("Unable to atomically move {0} to {1}, so copying it instead: {2}", original, destination,
+                             e.getMessage());
             } finally {
                 fileLock.unlock();
             }
@@ -260,27 +1011,14 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
             // The move/rename didn't work, so we have to copy from the original ...
 
             // Create the new file and obtain an exclusive lock on it ...
-            final int bufferSize = AbstractBinaryStore.bestBufferSize(original.length());
             fileLock = FileLocks.get().writeLock(destination);
-            try {
-                // Create a buffered output stream to the destination file ...
-                // (Note that the Channels.newOutputStream does not create a buffered stream)
+            try (FileChannel originalChannel = FileChannel.open(original.toPath(), StandardOpenOption.READ)) {
+                // Copy the content directly between the channels, which avoids copying it through the heap ...
                 FileChannel destinationChannel = fileLock.lockedFileChannel();
-                OutputStream output = Channels.newOutputStream(destinationChannel);
-                output = new BufferedOutputStream(output, bufferSize);
-
-                // Create an input stream to the original file ...
-                // (Note that the Channels.newInputStream does not create a buffered stream)
-                RandomAccessFile originalRaf = new RandomAccessFile(original, "r");
-                FileChannel originalChannel = originalRaf.getChannel();
-                InputStream input = Channels.newInputStream(originalChannel);
-                input = new BufferedInputStream(input, bufferSize);
-
-                // Copy the content ...
-                IoUtil.write(input, output, bufferSize);
-
-                // Close the file ...
-                originalRaf.close();
+                long length = originalChannel.size();
+                for (long copied = 0L; copied < length;) {
+                    copied += originalChannel.transferTo(copied, length - copied, destinationChannel);
+                }
             } finally {
                 try {
                     fileLock.unlock();
@@ -297,8 +1035,7 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
                                    BinaryKey key,
                                    boolean createParentDirsIfMissing ) throws BinaryStoreException {
         if (!initialized) {
-            initializeStorage(directory);
-            initialized = true;
+            initialize(directory);
         }
         String sha1 = key.toString();
         File first = new File(directory, sha1.substring(0, 2));
@@ -318,11 +1055,97 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         if (!persistedFile.exists() || !persistedFile.canRead()) {
             throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(key, directory.getPath()));
         }
+        ChunkManifest manifest = chunksPresent ? chunkManifest(persistedFile, key) : null;
+        if (manifest != null) {
+            return chunkedInputStream(manifest);
+        }
+
+        CompressedFile compressed = compressedPresent ? compressedFile(persistedFile, key) : null;
 
         // We now know that the file (which does exist) is not being written by this process, but another
         // process might be actively writing to it. So use an InputStream that lazily obtains a shared lock
         // when the stream is used, and always releases the lock (even in the case of exceptions).
-        return new SharedLockingInputStream(key, persistedFile, locks);
+        InputStream stream = new SharedLockingInputStream(key, persistedFile, locks);
+        return compressed != null ? compressed.inputStream(stream, statistics()) : stream;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This store reads the range from a memory-mapped view of the file, so that reading a range costs the same regardless of
+     * its position. The returned buffer is usually such a view, except when the range spans several chunks of a binary value
+     * that is stored in chunks, when the file is small enough to simply be read, and when the binary value is compressed (in
+     * which case only the compressed blocks containing the range are read and decompressed).
+     * </p>
+     */
+    @Override
+    public ByteBuffer readRange( BinaryKey key,
+                                 long position,
+                                 int length ) throws BinaryStoreException {
+        CheckArg.isNonNegative(position, "position");
+        CheckArg.isNonNegative(length, "length");
+        File persistedFile = findFile(directory, key, false);
+        if (!persistedFile.exists() || !persistedFile.canRead()) {
+            throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(key, directory.getPath()));
+        }
+        try {
+            ChunkManifest manifest = chunksPresent ? chunkManifest(persistedFile, key) : null;
+            if (manifest != null) {
+                return readChunkedRange(manifest, position, length);
+            }
+            CompressedFile compressed = compressedPresent ? compressedFile(persistedFile, key) : null;
+            if (compressed != null) {
+                return compressed.read(persistedFile, position, length, statistics());
+            }
+            return mappedFiles.read(key, persistedFile, position, length);
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
+    private ByteBuffer readChunkedRange( ChunkManifest manifest,
+                                         long position,
+                                         int length ) throws IOException, BinaryStoreException {
+        long[] offsets = manifest.offsets;
+        long size = offsets[offsets.length - 1];
+        if (position >= size) {
+            return ByteBuffer.allocate(0);
+        }
+        int numberOfBytes = (int)Math.min(length, size - position);
+        // Find the chunk containing the first byte ...
+        int index = Arrays.binarySearch(offsets, position);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        ByteBuffer result = null;
+        while (true) {
+            BinaryKey chunkKey = manifest.chunkKeys[index];
+            File chunkFile = findFile(chunksDirectory(), chunkKey, false);
+            int remaining = result == null ? numberOfBytes : result.remaining();
+            ByteBuffer range = mappedFiles.read(chunkKey, chunkFile, position - offsets[index], remaining);
+            if (result == null) {
+                if (range.remaining() == numberOfBytes) {
+                    // The whole range is within this chunk ...
+                    return range;
+                }
+                result = ByteBuffer.allocate(numberOfBytes);
+            }
+            position += range.remaining();
+            result.put(range);
+            if (!result.hasRemaining()) {
+                break;
+            }
+            ++index;
+        }
+        result.flip();
+        return result.asReadOnlyBuffer();
+    }
+
+    private void initialize( File directory ) throws BinaryStoreException {
+        initializeStorage(directory);
+        chunksPresent = chunksDirectory().exists();
+        compressedPresent = new File(directory, COMPRESSION_MARKER_FILE_NAME).exists();
+        initialized = true;
     }
 
     @SuppressWarnings( "unused" )
@@ -390,6 +1213,11 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         }
     }
 
+    @Override
+    public boolean isUnused( BinaryKey key ) throws BinaryStoreException {
+        return findFile(directory, key, false).exists() && getTrashFile(key, false) != null;
+    }
+
     protected void markAsUnused( BinaryKey key ) throws BinaryStoreException {
         File persistedFile = findFile(directory, key, false);
         if (!persistedFile.exists()) {
@@ -476,72 +1304,93 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
     @Override
     public void removeValuesUnusedLongerThan( long minimumAge,
                                               TimeUnit unit ) throws BinaryStoreException {
+        removeValuesUnusedLongerThan(minimumAge, unit, 0);
+    }
+
+    @Override
+    public long removeValuesUnusedLongerThan( long minimumAge,
+                                              TimeUnit unit,
+                                              int maximumRemovalsPerSecond ) throws BinaryStoreException {
         long oldestTimestamp = System.currentTimeMillis() - TimeUnit.MILLISECONDS.convert(minimumAge, unit);
+        UnusedBinaryIndex index = unusedIndex();
+        Throttle throttle = new Throttle(maximumRemovalsPerSecond);
+        long removed = 0L;
+        // Only look at the values that have been unused long enough. Each of these is either removed from the index or, if it
+        // cannot be removed right now, moved to the end of the index, so this always finishes ...
+        List<BinaryKey> candidates;
+        while (!(candidates = index.unusedBefore(oldestTimestamp, GARBAGE_COLLECTION_BATCH_SIZE)).isEmpty()) {
+            for (BinaryKey key : candidates) {
+                if (!throttle.acquire(1)) {
+                    return removed;
+                }
+                if (removeUnusedValue(key)) {
+                    ++removed;
+                }
+            }
+        }
         try {
-            removeFilesOlderThan(oldestTimestamp, trash);
+            index.compactIfNeeded();
         } catch (IOException e) {
             throw new BinaryStoreException(e);
-        } catch (BinaryStoreException bse) {
-            throw bse;
         }
+        return removed;
     }
 
-    private void removeFilesOlderThan( long oldestTimestamp,
-                                       File parentDirectory ) throws IOException, BinaryStoreException {
-        if (parentDirectory == null || !parentDirectory.exists() || parentDirectory.isFile()) {
-            return;
-        }
-        boolean pruneTrashRequired = false;
-        boolean pruneMainRequired = false;
-        File[] files = parentDirectory.listFiles();
-        if (files == null) {
-            return;
-        }
-        File mainDirectoryToPrune = null;
-        for (File fileOrDir : files) {
-            if (fileOrDir == null || !fileOrDir.exists()) {
-                continue;
-            }
-            // The file or directory should exist at this point (at least for now) ...
-            if (fileOrDir.isDirectory()) {
-                removeFilesOlderThan(oldestTimestamp, fileOrDir);
-            } else if (fileOrDir.isFile()) {
-                File file = fileOrDir;
-                if (file.lastModified() < oldestTimestamp) {
-                    // we know that the files in the trash have the name as sha1
-                    String sha1 = file.getName();
-                    BinaryKey key = new BinaryKey(sha1);
-                    File persistedFile = findFile(directory, key, false);
-                    if (persistedFile.exists() && persistedFile.canRead()) {
-                        Lock lock = locks.writeLock(sha1);
-                        try {
-                            if (persistedFile.exists()) {
-                                // only remove the trash files if we successfully deleted the main file
-                                // otherwise we'll try this again later on
-                                if (persistedFile.delete() && removeTrashFile(key)) {
-                                    pruneTrashRequired = true;
-                                    pruneMainRequired = true;
-                                    mainDirectoryToPrune = persistedFile.getParentFile();
-                                }
-                            }
-                        } finally {
-                            lock.unlock();
-                        }
-                    } else {
-                        // the persisted file doesn't exist anymore, so remove all trash files
-                        if (removeAllTrashFilesFor(key)) {
-                            pruneTrashRequired = true;
-                        }
-                    }
+    @Override
+    public long getUnusedValueCount() throws BinaryStoreException {
+        return unusedIndex().size();
+    }
+
+    private boolean removeUnusedValue( BinaryKey key ) throws BinaryStoreException {
+        File trashFile = findFile(trash, key, false);
+        File persistedFile = findFile(directory, key, false);
+        Lock lock = locks.writeLock(key.toString());
+        try {
+            if (!trashFile.exists()) {
+                // the value has been used again since it became a candidate ...
+                recordUsed(key);
+                return false;
+            }
+            if (!persistedFile.exists() || !persistedFile.canRead()) {
+                // the persisted file doesn't exist anymore, so remove all trash files
+                if (removeAllTrashFilesFor(key)) {
+                    pruneEmptyDirectories(trash, trashFile.getParentFile());
                 }
+                return false;
             }
+            ChunkManifest manifest = chunksPresent ? chunkManifest(persistedFile, key) : null;
+            mappedFiles.remove(key);
+            manifests.remove(key);
+            compressedFiles.remove(key);
+            // only remove the trash file if we successfully deleted the main file
+            // otherwise we'll try this again in a later pass
+            if (!persistedFile.delete()) {
+                recordUnused(key, true);
+                return false;
+            }
+            if (manifest != null) {
+                releaseChunks(manifest, key);
+            }
+            if (removeTrashFile(key)) {
+                pruneEmptyDirectories(trash, trashFile.getParentFile());
+            }
+            pruneEmptyDirectories(directory, persistedFile.getParentFile());
+            return true;
+        } finally {
+            lock.unlock();
         }
-        if (pruneTrashRequired) {
-            // at least one file was removed, so cleanup the dir structure
-            pruneEmptyDirectories(trash, parentDirectory);
-        }
-        if (pruneMainRequired && mainDirectoryToPrune != null) {
-            pruneEmptyDirectories(directory, mainDirectoryToPrune);
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        UnusedBinaryIndex index = unusedIndex;
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                logger.debug(e, "Unable to close the index of unused binary values in {0}", directory);
+            }
         }
     }
 
@@ -585,9 +1434,9 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
                                    BinaryKey key) throws BinaryStoreException {
         File tmpFile = null;
         try {
-            tmpFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX + EXTRACTED_TEXT_SUFFIX);
+            tmpFile = createStagingFile(TEMP_FILE_SUFFIX + EXTRACTED_TEXT_SUFFIX);
             IoUtil.write(string, new BufferedOutputStream(new FileOutputStream(tmpFile)));
-            saveTempFileToStore(tmpFile, key, tmpFile.length());
+            saveTempFileToStore(tmpFile, key, tmpFile.length(), 0, CompressionCodec.NONE);
         } catch (IOException e) {
             throw new BinaryStoreException(e);
         } finally {
@@ -18,6 +18,7 @@ package org.modeshape.jcr.value.binary;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.util.CheckArg;
@@ -84,4 +85,13 @@ public class InMemoryBinaryValue extends AbstractBinary {
     protected InputStream internalStream() {
         return new ByteArrayInputStream(this.bytes);
     }
+
+    @Override
+    public ByteBuffer readRange( long position,
+                                 int length ) {
+        CheckArg.isNonNegative(position, "position");
+        CheckArg.isNonNegative(length, "length");
+        int offset = (int)Math.min(position, bytes.length);
+        return ByteBuffer.wrap(bytes, offset, Math.min(length, bytes.length - offset)).slice().asReadOnlyBuffer();
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.value.BinaryKey;
+
+/**
+ * A bounded cache of read-only, memory-mapped views of the (immutable) files in which binary values are stored, used to read
+ * ranges of those files without copying them through the heap. Files are mapped in regions of up to 1GB, and each region is
+ * only mapped the first time it is read. Small files are not mapped, but are read with a positional read instead.
+ * <p>
+ * The mappings of the least recently used files are dropped when the cache is full, though the memory is only unmapped once
+ * the buffers are garbage collected.
+ * </p>
+ */
+@ThreadSafe
+final class MappedFiles {
+
+    private static final int REGION_SIZE = 1 << 30;
+    private static final long MINIMUM_MAPPED_SIZE = 1 << 16;
+
+    private final Map<BinaryKey, MappedFile> files;
+
+    protected MappedFiles( final int maximumNumberOfFiles ) {
+        this.files = new LinkedHashMap<BinaryKey, MappedFile>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<BinaryKey, MappedFile> eldest ) {
+                return size() > maximumNumberOfFiles;
+            }
+        };
+    }
+
+    /**
+     * Read a range of the supplied file.
+     *
+     * @param key the key of the content in the file; may not be null
+     * @param file the file containing the content with the given key; may not be null
+     * @param position the zero-based position of the first byte to read; may not be negative
+     * @param length the maximum number of bytes to read; may not be negative
+     * @return a read-only buffer with the bytes that were read, which are fewer than <code>length</code> only if the end of the
+     *         file was reached; never null
+     * @throws IOException if the file cannot be read
+     */
+    protected ByteBuffer read( BinaryKey key,
+                               File file,
+                               long position,
+                               int length ) throws IOException {
+        MappedFile mapped;
+        synchronized (files) {
+            mapped = files.get(key);
+        }
+        if (mapped == null) {
+            long size = file.length();
+            if (size < MINIMUM_MAPPED_SIZE) {
+                return readDirectly(file, size, position, length);
+            }
+            mapped = new MappedFile(file, size);
+            synchronized (files) {
+                MappedFile existing = files.putIfAbsent(key, mapped);
+                if (existing != null) {
+                    mapped = existing;
+                }
+            }
+        }
+        return mapped.read(position, length);
+    }
+
+    /**
+     * Forget the mapping of the file with the supplied key, which should be called before the file is removed.
+     *
+     * @param key the key of the content in the file; may not be null
+     */
+    protected void remove( BinaryKey key ) {
+        synchronized (files) {
+            files.remove(key);
+        }
+    }
+
+    private static ByteBuffer readDirectly( File file,
+                                            long size,
+                                            long position,
+                                            int length ) throws IOException {
+        if (position >= size) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(length, size - position));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1) {
+                // keep reading
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static final class MappedFile {
+        private final File file;
+        private final long size;
+        private final AtomicReferenceArray<MappedByteBuffer> regions;
+
+        protected MappedFile( File file,
+                              long size ) {
+            this.file = file;
+            this.size = size;
+            this.regions = new AtomicReferenceArray<>((int)((size + REGION_SIZE - 1) / REGION_SIZE));
+        }
+
+        protected ByteBuffer read( long position,
+                                   int length ) throws IOException {
+            if (position >= size) {
+                return ByteBuffer.allocate(0);
+            }
+            int numberOfBytes = (int)Math.min(length, size - position);
+            int index = (int)(position / REGION_SIZE);
+            int offset = (int)(position % REGION_SIZE);
+            if (offset + numberOfBytes <= REGION_SIZE) {
+                // The range is within a single region, so just return a view of it ...
+                ByteBuffer view = region(index).duplicate();
+                view.position(offset).limit(offset + numberOfBytes);
+                return view.slice();
+            }
+            // Otherwise the range spans two (or more) regions, so copy it ...
+            ByteBuffer result = ByteBuffer.allocate(numberOfBytes);
+            while (result.hasRemaining()) {
+                ByteBuffer view = region(index++).duplicate();
+                view.position(offset).limit(Math.min(view.capacity(), offset + result.remaining()));
+                result.put(view);
+                offset = 0;
+            }
+            result.flip();
+            return result.asReadOnlyBuffer();
+        }
+
+        private MappedByteBuffer region( int index ) throws IOException {
+            MappedByteBuffer region = regions.get(index);
+            if (region == null) {
+                long start = (long)index * REGION_SIZE;
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+                }
+                if (!regions.compareAndSet(index, null, region)) {
+                    region = regions.get(index);
+                }
+            }
+            return region;
+        }
+    }
+}
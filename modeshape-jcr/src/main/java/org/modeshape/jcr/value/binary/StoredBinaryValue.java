@@ -17,6 +17,7 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.jcr.value.BinaryKey;
@@ -69,6 +70,12 @@ public class StoredBinaryValue extends AbstractBinary {
     protected InputStream internalStream() throws RepositoryException {
         return store.getInputStream(getKey());
     }
+
+    @Override
+    public ByteBuffer readRange( long position,
+                                 int length ) throws RepositoryException {
+        return store.readRange(getKey(), position, length);
+    }
     
     protected String mimeType() {
         return this.mimeType;
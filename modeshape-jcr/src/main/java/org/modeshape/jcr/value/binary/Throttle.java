@@ -0,0 +1,62 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.util.concurrent.TimeUnit;
+import org.modeshape.common.annotation.NotThreadSafe;
+
+/**
+ * Spaces out the operations of a background task (e.g., the removals of a garbage collection pass or the bytes copied by a
+ * migration) so that they do not exceed a maximum rate, which keeps such tasks from saturating the storage while the repository
+ * is being used.
+ */
+@NotThreadSafe
+final class Throttle {
+
+    private final long nanosPerPermit;
+    private long nextPermit = System.nanoTime();
+
+    /**
+     * @param maximumPermitsPerSecond the largest number of permits per second, or 0 if the operations should not be throttled
+     */
+    protected Throttle( long maximumPermitsPerSecond ) {
+        this.nanosPerPermit = maximumPermitsPerSecond > 0L ? TimeUnit.SECONDS.toNanos(1) / maximumPermitsPerSecond : 0L;
+    }
+
+    /**
+     * Wait until the supplied number of permits can be used without exceeding the maximum rate.
+     *
+     * @param permits the number of permits for the operations that are about to be performed; must be positive
+     * @return true if the operations can be performed, or false if the thread was interrupted while waiting
+     */
+    protected boolean acquire( int permits ) {
+        if (nanosPerPermit == 0L) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long wait = nextPermit - now;
+        nextPermit = Math.max(nextPermit, now) + nanosPerPermit * permits;
+        if (wait > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.NamedThreadFactory;
+import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.RepositoryStatistics;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.BinaryValue;
+
+/**
+ * The engine that applies a {@link TieredStoragePolicy} to two of the named stores of a {@link CompositeBinaryStore}. It tracks
+ * how often and how recently each binary value is stored or read, periodically moves the values in the hot store that have not
+ * been accessed recently to the cold store, and moves values in the cold store back to the hot store as soon as they are read
+ * frequently again. All moves are done by a single background thread, and the bytes they copy are throttled to the policy's
+ * maximum throughput.
+ * <p>
+ * The accesses are only tracked in memory, so after a restart every value is treated as if it was last accessed when tracking
+ * started. The first background pass therefore looks at all of the values in the hot store, but later passes only look at the
+ * values whose accesses were tracked. Reads never wait for the background thread: they only record the access and, when a value
+ * should be promoted, hand it to the background thread.
+ * </p>
+ */
+@ThreadSafe
+final class TieredStorage {
+
+    private static final Logger LOGGER = Logger.getLogger(TieredStorage.class);
+
+    private final TieredStoragePolicy policy;
+    private final BinaryStore hotStore;
+    private final BinaryStore coldStore;
+    private final Map<BinaryKey, Accesses> accesses = new ConcurrentHashMap<>();
+    private final Set<BinaryKey> pendingPromotions = Collections.newSetFromMap(new ConcurrentHashMap<BinaryKey, Boolean>());
+    private final Throttle throttle;
+    private final AtomicBoolean demoting = new AtomicBoolean();
+    private volatile long trackingSince = System.currentTimeMillis();
+    private volatile boolean scannedHotStore;
+    private volatile RepositoryStatistics statistics;
+    private volatile ScheduledExecutorService executor;
+
+    protected TieredStorage( TieredStoragePolicy policy,
+                             BinaryStore hotStore,
+                             BinaryStore coldStore ) {
+        this.policy = policy;
+        this.hotStore = hotStore;
+        this.coldStore = coldStore;
+        this.throttle = new Throttle(policy.getMaxBytesPerSecond());
+    }
+
+    protected void setStatistics( RepositoryStatistics statistics ) {
+        this.statistics = statistics;
+    }
+
+    protected synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        trackingSince = System.currentTimeMillis();
+        scannedHotStore = false;
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            private final ThreadFactory delegate = new NamedThreadFactory("modeshape-binary-tiering");
+
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = delegate.newThread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = policy.getMigrationIntervalMillis();
+        executor.scheduleWithFixedDelay(this::demoteColdValues, interval, interval, TimeUnit.MILLISECONDS);
+        this.executor = executor;
+    }
+
+    protected synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Record that a binary value was stored in or read from one of the stores, and schedule it to be moved back to the hot store
+     * if it was read from the cold store often enough.
+     *
+     * @param key the key of the value that was accessed; may not be null
+     * @param store the store in which the value was accessed; may not be null
+     */
+    protected void accessed( BinaryKey key,
+                             BinaryStore store ) {
+        long now = System.currentTimeMillis();
+        int recentAccesses = accesses.computeIfAbsent(key, k -> new Accesses()).record(now, policy.getColdAfterMillis(),
+                                                                                      store == hotStore);
+        if (store == coldStore && policy.getPromoteAfterReads() > 0 && recentAccesses >= policy.getPromoteAfterReads()
+            && pendingPromotions.add(key)) {
+            ScheduledExecutorService executor = this.executor;
+            if (executor != null) {
+                try {
+                    executor.execute(this::promotePendingValues);
+                } catch (RejectedExecutionException e) {
+                    // we're shutting down, so the value stays where it is ...
+                }
+            }
+        }
+    }
+
+    /**
+     * Move all of the values in the hot store that have not been accessed recently to the cold store. This does nothing if
+     * another thread is already moving the values.
+     *
+     * @return the number of values that were moved
+     */
+    protected int demoteColdValues() {
+        if (!demoting.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            long accessedBefore = System.currentTimeMillis() - policy.getColdAfterMillis();
+            if (trackingSince > accessedBefore) {
+                // values that haven't been accessed since tracking started aren't known to be cold yet ...
+                return 0;
+            }
+            int demoted = 0;
+            if (!scannedHotStore) {
+                // the values that were in the hot store before tracking started are only known to the store itself ...
+                for (BinaryKey key : hotStore.getAllBinaryKeys()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return demoted;
+                    }
+                    if (!accesses.containsKey(key) && demote(key)) {
+                        ++demoted;
+                    }
+                }
+                scannedHotStore = true;
+            }
+            // all other values in the hot store were stored or read since then, so only their accesses need to be checked ...
+            for (Map.Entry<BinaryKey, Accesses> entry : accesses.entrySet()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                BinaryKey key = entry.getKey();
+                Accesses recent = entry.getValue();
+                // forget the accesses that are too old to matter, and move the value if it was last accessed in the hot store ...
+                if (recent.lastAccess < accessedBefore && accesses.remove(key, recent) && recent.inHotStore
+                    && hotStore.hasBinary(key) && demote(key)) {
+                    ++demoted;
+                }
+            }
+            return demoted;
+        } catch (BinaryStoreException e) {
+            LOGGER.error(e, JcrI18n.errorMovingBinaryValuesBetweenTiers, policy.getHotStoreName(), policy.getColdStoreName(),
+                         e.getMessage());
+            return 0;
+        } finally {
+            demoting.set(false);
+        }
+    }
+
+    private boolean demote( BinaryKey key ) {
+        if (pendingPromotions.contains(key) || !move(key, hotStore, coldStore)) {
+            return false;
+        }
+        increment(ValueMetric.BINARY_VALUES_DEMOTED, 1L);
+        return true;
+    }
+
+    /**
+     * Move the values that were recently read often enough from the cold store back to the hot store. This is only called by
+     * the background thread.
+     *
+     * @return the number of values that were moved
+     */
+    protected int promotePendingValues() {
+        int promoted = 0;
+        for (Iterator<BinaryKey> iter = pendingPromotions.iterator(); iter.hasNext();) {
+            BinaryKey key = iter.next();
+            iter.remove();
+            if (move(key, coldStore, hotStore)) {
+                // the value is now in the hot store, where it is moved back once it isn't read anymore ...
+                accesses.computeIfAbsent(key, k -> new Accesses()).movedToHotStore(System.currentTimeMillis());
+                ++promoted;
+                increment(ValueMetric.BINARY_VALUES_PROMOTED, 1L);
+            }
+        }
+        return promoted;
+    }
+
+    private boolean move( BinaryKey key,
+                          BinaryStore source,
+                          BinaryStore destination ) {
+        try (InputStream stream = new ThrottledInputStream(source.getInputStream(key))) {
+            BinaryValue moved = destination.storeValue(stream, false);
+            // and the text extracted from the value is moved along with it, so that it is not extracted again ...
+            CompositeBinaryStore.copyExtractedText(moved, source, destination);
+            Set<BinaryKey> keys = Collections.singleton(key);
+            if (source.isUnused(key)) {
+                // the value was deleted while it was being copied, so the copy must not keep it alive ...
+                destination.markAsUnused(keys);
+            }
+            // the value is removed from the source store by the garbage collection, and until then it can still be read ...
+            source.markAsUnused(keys);
+            return true;
+        } catch (BinaryStoreException | IOException e) {
+            String from = source == hotStore ? policy.getHotStoreName() : policy.getColdStoreName();
+            String to = destination == hotStore ? policy.getHotStoreName() : policy.getColdStoreName();
+            LOGGER.warn(JcrI18n.errorMovingBinaryValueBetweenTiers, key, from, to, e.getMessage());
+            return false;
+        }
+    }
+
+    private void increment( ValueMetric metric,
+                            long value ) {
+        RepositoryStatistics statistics = this.statistics;
+        if (statistics != null) {
+            statistics.increment(metric, value);
+        }
+    }
+
+    /**
+     * The accesses of one binary value within the last period, after which a value is considered cold, and whether the value
+     * was last accessed in the hot store.
+     */
+    private static final class Accesses {
+        protected volatile long lastAccess;
+        protected volatile boolean inHotStore;
+        private int count;
+
+        protected synchronized int record( long now,
+                                           long period,
+                                           boolean inHotStore ) {
+            if (now - lastAccess > period) {
+                count = 0;
+            }
+            lastAccess = now;
+            this.inHotStore = inHotStore;
+            return ++count;
+        }
+
+        protected synchronized void movedToHotStore( long now ) {
+            lastAccess = now;
+            inHotStore = true;
+        }
+    }
+
+    /**
+     * A stream that limits how fast the content of a value is copied between the stores, and counts the copied bytes.
+     */
+    private final class ThrottledInputStream extends FilterInputStream {
+
+        protected ThrottledInputStream( InputStream in ) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copied(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b,
+                         int off,
+                         int len ) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                copied(count);
+            }
+            return count;
+        }
+
+        private void copied( int count ) throws IOException {
+            increment(ValueMetric.BINARY_BYTES_MIGRATED, count);
+            if (!throttle.acquire(count)) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.util.concurrent.TimeUnit;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.util.CheckArg;
+
+/**
+ * The policy with which a {@link CompositeBinaryStore} moves binary values between a fast ("hot") named store and a slower or
+ * cheaper ("cold") named store. Values in the hot store that have not been read for a while are periodically moved to the cold
+ * store in the background, and values in the cold store that are read frequently again are moved back to the hot store. All of
+ * these moves share a maximum throughput, so that they do not starve the reads of the repository.
+ */
+@Immutable
+public final class TieredStoragePolicy {
+
+    private final String hotStoreName;
+    private final String coldStoreName;
+    private final long coldAfterMillis;
+    private final int promoteAfterReads;
+    private final long migrationIntervalMillis;
+    private final long maxBytesPerSecond;
+
+    /**
+     * Create a new policy.
+     *
+     * @param hotStoreName the name of the store in which new and frequently read values are kept; may not be null
+     * @param coldStoreName the name of the store to which values that are rarely read are moved; may not be null
+     * @param coldAfter the time after its last read that a value in the hot store is moved to the cold store; must be positive
+     * @param promoteAfterReads the number of reads of a value in the cold store (within the <code>coldAfter</code> time) after
+     *        which it is moved back to the hot store, or 0 if values are never moved back
+     * @param migrationInterval the time between the background passes that move values to the cold store; must be positive
+     * @param unit the time unit of <code>coldAfter</code> and <code>migrationInterval</code>; may not be null
+     * @param maxBytesPerSecond the largest number of bytes per second that are copied between the stores, or 0 if the
+     *        throughput is not limited
+     */
+    public TieredStoragePolicy( String hotStoreName,
+                                String coldStoreName,
+                                long coldAfter,
+                                int promoteAfterReads,
+                                long migrationInterval,
+                                TimeUnit unit,
+                                long maxBytesPerSecond ) {
+        CheckArg.isNotNull(hotStoreName, "hotStoreName");
+        CheckArg.isNotNull(coldStoreName, "coldStoreName");
+        CheckArg.isPositive(coldAfter, "coldAfter");
+        CheckArg.isNonNegative(promoteAfterReads, "promoteAfterReads");
+        CheckArg.isPositive(migrationInterval, "migrationInterval");
+        CheckArg.isNotNull(unit, "unit");
+        CheckArg.isNonNegative(maxBytesPerSecond, "maxBytesPerSecond");
+        this.hotStoreName = hotStoreName;
+        this.coldStoreName = coldStoreName;
+        this.coldAfterMillis = unit.toMillis(coldAfter);
+        this.promoteAfterReads = promoteAfterReads;
+        this.migrationIntervalMillis = unit.toMillis(migrationInterval);
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Get the name of the store in which new and frequently read values are kept.
+     *
+     * @return the name of the hot store; never null
+     */
+    public String getHotStoreName() {
+        return hotStoreName;
+    }
+
+    /**
+     * Get the name of the store to which rarely read values are moved.
+     *
+     * @return the name of the cold store; never null
+     */
+    public String getColdStoreName() {
+        return coldStoreName;
+    }
+
+    /**
+     * Get the time after its last read that a value in the hot store is moved to the cold store.
+     *
+     * @return the time in milliseconds; always positive
+     */
+    public long getColdAfterMillis() {
+        return coldAfterMillis;
+    }
+
+    /**
+     * Get the number of recent reads of a value in the cold store after which it is moved back to the hot store.
+     *
+     * @return the number of reads, or 0 if values are never moved back
+     */
+    public int getPromoteAfterReads() {
+        return promoteAfterReads;
+    }
+
+    /**
+     * Get the time between the background passes that move values to the cold store.
+     *
+     * @return the time in milliseconds; always positive
+     */
+    public long getMigrationIntervalMillis() {
+        return migrationIntervalMillis;
+    }
+
+    /**
+     * Get the largest number of bytes per second that are copied between the stores.
+     *
+     * @return the maximum throughput, or 0 if the throughput is not limited
+     */
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "tiering from '" + hotStoreName + "' to '" + coldStoreName + "' after " + coldAfterMillis + "ms";
+    }
+}
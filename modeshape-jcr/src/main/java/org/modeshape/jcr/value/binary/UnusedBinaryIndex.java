@@ -0,0 +1,259 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.value.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.value.BinaryKey;
+
+/**
+ * A persistent index of the binary values that are marked as unused, and the time since which each is unused. This allows a
+ * garbage collection pass to examine only the values that have been unused long enough to be removed, rather than every file in
+ * the trash.
+ * <p>
+ * The index is kept in memory in the order in which values became unused, and every change is appended to a log file from which
+ * the index is loaded when the store is next used. The log is rewritten with only the current entries once it holds mostly
+ * obsolete records.
+ * </p>
+ * <p>
+ * The appended records are not forced to disk, so the last of them can be lost when the operating system crashes. The trash
+ * itself is therefore the authority on which values are unused, and the loaded index is {@link #reconcile(Map) reconciled}
+ * with it.
+ * </p>
+ */
+@ThreadSafe
+final class UnusedBinaryIndex {
+
+    private static final byte UNUSED = 'U';
+    private static final byte USED = 'R';
+    private static final int KEY_LENGTH = 20;
+    private static final int RECORD_SIZE = 1 + KEY_LENGTH + 8;
+    private static final int MINIMUM_RECORDS_BEFORE_COMPACTION = 1 << 12;
+
+    private final File file;
+    private final Map<BinaryKey, Long> unusedSince = new LinkedHashMap<>();
+    private FileChannel log;
+    private long records;
+    private long lastTimestamp;
+
+    protected UnusedBinaryIndex( File file ) {
+        this.file = file;
+    }
+
+    /**
+     * Load the index from its log file.
+     *
+     * @return true if the log file existed and was loaded, or false if there is no log file and the index is empty
+     * @throws IOException if the log file cannot be read
+     */
+    protected synchronized boolean load() throws IOException {
+        unusedSince.clear();
+        records = 0L;
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            byte[] hash = new byte[KEY_LENGTH];
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                endOfFile = channel.read(buffer) == -1;
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    byte type = buffer.get();
+                    buffer.get(hash);
+                    long timestamp = buffer.getLong();
+                    BinaryKey key = new BinaryKey(hash);
+                    unusedSince.remove(key);
+                    if (type == UNUSED) {
+                        unusedSince.put(key, timestamp);
+                        lastTimestamp = Math.max(lastTimestamp, timestamp);
+                    }
+                    ++records;
+                }
+                buffer.compact();
+            }
+            if (buffer.position() > 0) {
+                // a record was only partially written before a crash, so drop it before anything else is appended ...
+                channel.truncate(records * RECORD_SIZE);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record that the binary value with the supplied key is unused, unless it is already recorded as unused.
+     *
+     * @param key the key of the binary value; may not be null
+     * @param since the time in milliseconds since which the value is unused, which is moved forward if needed to keep the
+     *        entries ordered by time
+     * @param refresh true if a value that is already unused should be treated as if it just became unused
+     * @throws IOException if the change cannot be written to the log
+     */
+    protected synchronized void unused( BinaryKey key,
+                                        long since,
+                                        boolean refresh ) throws IOException {
+        if (unusedSince.containsKey(key)) {
+            if (!refresh) {
+                return;
+            }
+            unusedSince.remove(key);
+        }
+        long timestamp = Math.max(lastTimestamp, since);
+        lastTimestamp = timestamp;
+        unusedSince.put(key, timestamp);
+        append(UNUSED, key, timestamp);
+    }
+
+    /**
+     * Record that the binary value with the supplied key is used again or has been removed.
+     *
+     * @param key the key of the binary value; may not be null
+     * @throws IOException if the change cannot be written to the log
+     */
+    protected synchronized void used( BinaryKey key ) throws IOException {
+        if (unusedSince.remove(key) != null) {
+            append(USED, key, 0L);
+        }
+    }
+
+    /**
+     * Make the index agree with the values that are actually in the trash, after the records of some changes were lost from the
+     * log. Values in the trash that are not recorded as unused (or that were recorded before they last became unused) are
+     * recorded as unused, and values that are no longer in the trash are forgotten.
+     *
+     * @param trashed the time in milliseconds since which each value in the trash is unused, in the order of those times; may
+     *        not be null
+     * @throws IOException if the changes cannot be written to the log
+     */
+    protected synchronized void reconcile( Map<BinaryKey, Long> trashed ) throws IOException {
+        for (BinaryKey key : new ArrayList<>(unusedSince.keySet())) {
+            if (!trashed.containsKey(key)) {
+                used(key);
+            }
+        }
+        for (Map.Entry<BinaryKey, Long> entry : trashed.entrySet()) {
+            Long since = unusedSince.get(entry.getKey());
+            if (since == null || since < entry.getValue()) {
+                unused(entry.getKey(), entry.getValue(), true);
+            }
+        }
+    }
+
+    /**
+     * Get the keys of the binary values that have been unused since before the supplied time, in the order in which they became
+     * unused.
+     *
+     * @param timestamp the time in milliseconds before which the values must have become unused
+     * @param maximum the maximum number of keys to return; must be positive
+     * @return the keys; never null but possibly empty
+     */
+    protected synchronized List<BinaryKey> unusedBefore( long timestamp,
+                                                         int maximum ) {
+        List<BinaryKey> result = new ArrayList<>(Math.min(maximum, unusedSince.size()));
+        for (Map.Entry<BinaryKey, Long> entry : unusedSince.entrySet()) {
+            if (entry.getValue() >= timestamp || result.size() == maximum) {
+                break;
+            }
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of binary values that are recorded as unused.
+     *
+     * @return the number of unused values
+     */
+    protected synchronized int size() {
+        return unusedSince.size();
+    }
+
+    /**
+     * Rewrite the log file with only the current entries if most of its records are obsolete.
+     *
+     * @throws IOException if the log file cannot be rewritten
+     */
+    protected synchronized void compactIfNeeded() throws IOException {
+        if (records < MINIMUM_RECORDS_BEFORE_COMPACTION || records < 2L * unusedSince.size()) {
+            return;
+        }
+        close();
+        File compacted = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            for (Map.Entry<BinaryKey, Long> entry : unusedSince.entrySet()) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    write(channel, buffer);
+                }
+                buffer.put(UNUSED).put(entry.getKey().toBytes()).putLong(entry.getValue());
+            }
+            write(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = unusedSince.size();
+    }
+
+    /**
+     * Close the log file, which is reopened when the index next changes.
+     *
+     * @throws IOException if the log file cannot be closed
+     */
+    protected synchronized void close() throws IOException {
+        if (log != null) {
+            try {
+                log.close();
+            } finally {
+                log = null;
+            }
+        }
+    }
+
+    private void append( byte type,
+                         BinaryKey key,
+                         long timestamp ) throws IOException {
+        if (log == null) {
+            file.getParentFile().mkdirs();
+            log = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        assert key.toBytes().length == KEY_LENGTH;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(type).put(key.toBytes()).putLong(timestamp);
+        write(log, record);
+        ++records;
+    }
+
+    private static void write( FileChannel channel,
+                               ByteBuffer buffer ) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -35,6 +35,7 @@ import org.modeshape.schematic.SchematicDb;
 import org.modeshape.schematic.SchematicEntry;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.schematic.document.EditableDocument;
+import org.modeshape.schematic.internal.document.LazyDocument;
 
 /**
  * {@link SchematicDb} implementation which uses H2's MV Store to store data in memory or on disk.
@@ -121,6 +122,9 @@ public class FileDb implements SchematicDb {
         Document content = entry.content();
         if (content instanceof EditableDocument) {
             source = SchematicEntry.create(entry.id(), ((EditableDocument) content).unwrap()).source();
+        } else if (source instanceof LazyDocument || content instanceof LazyDocument) {
+            // lazily read documents can't be edited in place later on in the same transaction
+            source = source.clone();
         }
         txContent.put(key, source);
     }
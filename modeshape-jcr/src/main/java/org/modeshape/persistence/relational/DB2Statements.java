@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Statements specialization for DB2.
@@ -28,8 +29,16 @@ public class DB2Statements extends DefaultStatements {
 
     private static final List<Integer> IGNORABLE_ERROR_CODES = Arrays.asList(-601, -204);
 
-    protected DB2Statements( RelationalDbConfig config, Map<String, String> statements ) {
-        super(config, statements);
+    protected DB2Statements( RelationalDbConfig config, Map<String, String> statements, Executor decoder ) {
+        super(config, statements, decoder);
+    }
+
+    /**
+     * DB2 handles larger parameter lists well, as long as the statement text stays within the statement heap.
+     */
+    @Override
+    protected int defaultLoadBatchSize() {
+        return 2000;
     }
 
     @Override
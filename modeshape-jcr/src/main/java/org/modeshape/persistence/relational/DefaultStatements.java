@@ -15,6 +15,7 @@
  */
 package org.modeshape.persistence.relational;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,6 +28,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -34,6 +38,7 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.schematic.document.Bson;
 import org.modeshape.schematic.document.Document;
 
@@ -46,16 +51,19 @@ import org.modeshape.schematic.document.Document;
 public class DefaultStatements implements Statements {
     
     protected static final int DEFAULT_MAX_STATEMENT_PARAM_COUNT = 1000;
+    protected static final int DEFAULT_LOAD_BATCH_SIZE = 1000;
     private static final String PLACEHOLDER_STRING = "#";
     
     protected final Logger logger = Logger.getLogger(getClass());
     
     private final Map<String, String> statements;
     private final RelationalDbConfig config;
+    private final Executor decoder;
 
-    protected DefaultStatements( RelationalDbConfig config, Map<String, String> statements ) {
+    protected DefaultStatements( RelationalDbConfig config, Map<String, String> statements, Executor decoder ) {
         this.statements = statements;
         this.config = config;
+        this.decoder = decoder;
     }
 
     @Override
@@ -119,7 +127,7 @@ public class DefaultStatements implements Statements {
                 if (!rs.next()) {
                     return null;
                 }
-                return readDocument(rs.getBinaryStream(1));
+                return readDocument(rs.getBytes(1));
             }
         }
     }
@@ -132,22 +140,66 @@ public class DefaultStatements implements Statements {
         if (ids.isEmpty()) {
             return new ArrayList<>();
         }
+        List<String> idList = new ArrayList<>(ids);
+        int batchSize = loadBatchSize();
+        int fullBatches = idList.size() / batchSize;
+        int lastBatchSize = idList.size() % batchSize;
+        
+        // the rows are read on this thread, while the actual decoding of each document is handed off to the decoder
+        // so that it overlaps with the fetching of the next rows and batches
+        List<CompletableFuture<Document>> documents = new ArrayList<>(idList.size());
         String getMultipleStatement = statements.get(GET_MULTIPLE);
-        String formattedStatement = formatStatementWithMultipleParams(getMultipleStatement, ids.size());
-        try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
-            int paramIdx = 1;
-            for (String id : ids) {
-                ps.setString(paramIdx++, id);
+        if (fullBatches > 0) {
+            // all the full batches share the same SQL so reuse the same prepared statement
+            String formattedStatement = formatStatementWithMultipleParams(getMultipleStatement, batchSize);
+            try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
+                for (int i = 0; i < fullBatches; i++) {
+                    loadBatch(ps, idList.subList(i * batchSize, (i + 1) * batchSize), documents);
+                }
+            }
+        }
+        if (lastBatchSize > 0) {
+            String formattedStatement = formatStatementWithMultipleParams(getMultipleStatement, lastBatchSize);
+            try (PreparedStatement ps = connection.prepareStatement(formattedStatement)) {
+                loadBatch(ps, idList.subList(fullBatches * batchSize, idList.size()), documents);
             }
+        }
         
-            try (ResultSet rs = ps.executeQuery()) {
-                List<R> results = new ArrayList<>();
-                while (rs.next()) {
-                    Document document = readDocument(rs.getBinaryStream(1));
-                    results.add(parser.apply(document));
-                }
-                return results;
+        // the parser is always applied on the calling thread, because it may depend on thread-bound (transactional) state
+        List<R> results = new ArrayList<>(documents.size());
+        for (CompletableFuture<Document> document : documents) {
+            results.add(parser.apply(awaitDocument(document)));
+        }
+        return results;
+    }
+    
+    private void loadBatch(PreparedStatement ps, List<String> ids, List<CompletableFuture<Document>> documents)
+            throws SQLException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loading a batch of {0} ids from {1}", ids.size(), tableName());
+        }
+        int paramIdx = 1;
+        for (String id : ids) {
+            ps.setString(paramIdx++, id);
+        }
+        ps.setFetchSize(Math.min(ids.size(), config.fetchSize()));
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                byte[] content = rs.getBytes(1);
+                documents.add(CompletableFuture.supplyAsync(() -> readDocument(content), decoder));
+            }
+        }
+    }
+    
+    private Document awaitDocument(CompletableFuture<Document> document) {
+        try {
+            return document.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw new RelationalProviderException(cause);
         }
     }
 
@@ -245,6 +297,27 @@ public class DefaultStatements implements Statements {
     protected int maxStatementParamCount() {
         return DEFAULT_MAX_STATEMENT_PARAM_COUNT;
     }
+
+    /**
+     * Returns the maximum number of ids which are bound to a single statement when loading multiple documents. If the 
+     * configuration does not explicitly specify a value, the {@link #defaultLoadBatchSize() DB specific default} is used.
+     * 
+     * @return a positive number
+     */
+    protected int loadBatchSize() {
+        int configuredBatchSize = config.loadBatchSize();
+        return configuredBatchSize > 0 ? configuredBatchSize : defaultLoadBatchSize();
+    }
+
+    /**
+     * Returns the default number of ids which are bound to a single statement when loading multiple documents. Subclasses 
+     * should override this based on the limits the particular DB has on the number of parameters per statement.
+     * 
+     * @return a positive number
+     */
+    protected int defaultLoadBatchSize() {
+        return DEFAULT_LOAD_BATCH_SIZE;
+    }
    
     protected void logTableInfo( String message ) {
         if (logger.isDebugEnabled()) {
@@ -256,12 +329,16 @@ public class DefaultStatements implements Statements {
         return config.tableName();
     }
 
-    protected Document readDocument(InputStream is) {
-        try (InputStream contentStream = config.compress() ? new GZIPInputStream(is) : is) {
-            return Bson.read(contentStream);
-        } catch (IOException e) {
-            throw new RelationalProviderException(e);
+    protected Document readDocument(byte[] content) {
+        if (config.compress()) {
+            try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(content))) {
+                content = IoUtil.readBytes(is);
+            } catch (IOException e) {
+                throw new RelationalProviderException(e);
+            }
         }
+        // the fields are only decoded when they're accessed, which is usually just a fraction of them
+        return Bson.readLazily(content);
     }
 
     protected byte[] writeDocument(Document content)  {
@@ -17,6 +17,7 @@ package org.modeshape.persistence.relational;
 
 import java.sql.SQLException;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Statements specialization for Oracle DB.
@@ -26,8 +27,16 @@ import java.util.Map;
  */
 public class OracleStatements extends DefaultStatements {
 
-    protected OracleStatements( RelationalDbConfig config, Map<String, String> statements ) {
-        super(config, statements);
+    protected OracleStatements( RelationalDbConfig config, Map<String, String> statements, Executor decoder ) {
+        super(config, statements, decoder);
+    }
+
+    /**
+     * Oracle limits each IN list to 1000 expressions, but multiple lists can be OR-ed together within the same statement.
+     */
+    @Override
+    protected int defaultLoadBatchSize() {
+        return 4000;
     }
     
     @Override
@@ -30,11 +30,16 @@ import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.modeshape.common.database.DatabaseType;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.schematic.SchematicDb;
 import org.modeshape.schematic.SchematicEntry;
@@ -56,6 +61,8 @@ public class RelationalDb implements SchematicDb {
     private final RelationalDbConfig config;
     private final Statements statements;
     private final TransactionalCaches transactionalCaches;
+    private final int decodeThreads;
+    private volatile ExecutorService decoderPool;
 
     protected RelationalDb(Document configDoc) {
         this.connectionsByTxId = new ConcurrentHashMap<>();
@@ -63,22 +70,23 @@ public class RelationalDb implements SchematicDb {
         this.config = new RelationalDbConfig(configDoc);
         this.dsManager = new DataSourceManager(config);
         DatabaseType dbType = dsManager.dbType();
-        this.statements = createStatements(dbType);
+        this.decodeThreads = config.decodeThreads();
+        this.statements = createStatements(dbType, this::decode);
         this.transactionalCaches = new TransactionalCaches();
     }
 
-    private Statements createStatements(DatabaseType dbType) {
+    private Statements createStatements(DatabaseType dbType, Executor decoder) {
         Map<String, String> statementsFile = loadStatementsResource();
         switch (dbType.name()) {
             case ORACLE:
-                return new OracleStatements(config, statementsFile);
+                return new OracleStatements(config, statementsFile, decoder);
             case SQLSERVER:
-                return new SQLServerStatements(config, statementsFile);
+                return new SQLServerStatements(config, statementsFile, decoder);
             case DB2: {
-                return new DB2Statements(config, statementsFile);
+                return new DB2Statements(config, statementsFile, decoder);
             }
             default:
-                return new DefaultStatements(config, statementsFile);
+                return new DefaultStatements(config, statementsFile, decoder);
         }
     }
 
@@ -89,6 +97,9 @@ public class RelationalDb implements SchematicDb {
 
     @Override
     public void start() {
+        if (decodeThreads > 0 && decoderPool == null) {
+            decoderPool = Executors.newFixedThreadPool(decodeThreads, new NamedThreadFactory("modeshape-db-decoder"));
+        }
         if (config.createOnStart()) {
             runWithConnection(statements::createTable, false);
         }
@@ -112,6 +123,26 @@ public class RelationalDb implements SchematicDb {
         
         // and clear the caches
         transactionalCaches.stop();
+        
+        // and stop decoding documents, after the documents of the loads that are still running have been decoded
+        ExecutorService decoderPool = this.decoderPool;
+        this.decoderPool = null;
+        if (decoderPool != null) {
+            decoderPool.shutdown();
+        }
+    }
+
+    private void decode( Runnable decoding ) {
+        ExecutorService decoderPool = this.decoderPool;
+        if (decoderPool != null) {
+            try {
+                decoderPool.execute(decoding);
+                return;
+            } catch (RejectedExecutionException e) {
+                // the db is being stopped, so decode the document on this thread ...
+            }
+        }
+        decoding.run();
     }
 
     private void cleanupConnections() {
@@ -46,10 +46,13 @@ public final class RelationalDbConfig {
     public static final String PASSWORD = "password";
     public static final String DATASOURCE_JNDI_NAME = "dataSourceJndiName";
     public static final String POOL_SIZE = "poolSize";
+    public static final String LOAD_BATCH_SIZE = "loadBatchSize";
+    public static final String DECODE_THREADS = "decodeThreads";
     
     protected static final List<String> ALL_FIELDS = Arrays.asList(Schematic.TYPE_FIELD, DROP_ON_EXIT, CREATE_ON_START, TABLE_NAME,
                                                                    FETCH_SIZE, COMPRESS, CONNECTION_URL, DRIVER, USERNAME,
-                                                                   PASSWORD, DATASOURCE_JNDI_NAME, POOL_SIZE);
+                                                                   PASSWORD, DATASOURCE_JNDI_NAME, POOL_SIZE, LOAD_BATCH_SIZE,
+                                                                   DECODE_THREADS);
     
     protected static final String DEFAULT_CONNECTION_URL = "jdbc:h2:mem:modeshape;DB_CLOSE_DELAY=0;MVCC=TRUE";
     protected static final String DEFAULT_DRIVER = "org.h2.Driver";
@@ -60,6 +63,8 @@ public final class RelationalDbConfig {
     protected static final String DEFAULT_MIN_IDLE = "1";
     protected static final String DEFAULT_IDLE_TIMEOUT = String.valueOf(TimeUnit.MINUTES.toMillis(1));
     protected static final int DEFAULT_FETCH_SIZE = 1000;
+    protected static final int DEFAULT_LOAD_BATCH_SIZE = 0;
+    protected static final int DEFAULT_DECODE_THREADS = 2;
     
     private final Document config;
     private final boolean createOnStart;
@@ -67,6 +72,8 @@ public final class RelationalDbConfig {
     private final String tableName;
     private final int fetchSize;
     private final boolean compress;
+    private final int loadBatchSize;
+    private final int decodeThreads;
     private final String connectionUrl;
     private final String datasourceJNDIName; 
     
@@ -78,6 +85,8 @@ public final class RelationalDbConfig {
         this.tableName = config.getString(TABLE_NAME, DEFAULT_TABLE_NAME);
         this.fetchSize = propertyAsInt(config, FETCH_SIZE, DEFAULT_FETCH_SIZE);
         this.compress = propertyAsBoolean(config, COMPRESS, false);
+        this.loadBatchSize = propertyAsInt(config, LOAD_BATCH_SIZE, DEFAULT_LOAD_BATCH_SIZE);
+        this.decodeThreads = propertyAsInt(config, DECODE_THREADS, DEFAULT_DECODE_THREADS);
         this.connectionUrl = config.getString(CONNECTION_URL, DEFAULT_CONNECTION_URL);
     }
 
@@ -133,6 +142,25 @@ public final class RelationalDbConfig {
     protected boolean compress() {
         return compress;
     }
+
+    /**
+     * Returns the maximum number of ids which are loaded via a single statement when loading multiple documents.
+     * 
+     * @return the configured batch size or a value {@code <= 0} if the DB specific default should be used.
+     */
+    protected int loadBatchSize() {
+        return loadBatchSize;
+    }
+
+    /**
+     * Returns the number of threads which decode (decompress and parse) documents in parallel with the reading of the rows
+     * when loading multiple documents.
+     * 
+     * @return the number of decoder threads; a value {@code <= 0} means documents are decoded by the calling thread.
+     */
+    protected int decodeThreads() {
+        return decodeThreads;
+    }
     
     private String propertyAsString(Document document, String fieldName, String defaultValue) {
         Object value = document.get(fieldName);
@@ -17,6 +17,7 @@ package org.modeshape.persistence.relational;
 
 import java.sql.SQLException;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Statements specialization for Microsoft SQL Server.
@@ -25,8 +26,16 @@ import java.util.Map;
  * @since 5.4
  */
 public class SQLServerStatements extends DefaultStatements {
-    protected SQLServerStatements(RelationalDbConfig config, Map<String, String> statements) {
-        super(config, statements);
+    protected SQLServerStatements(RelationalDbConfig config, Map<String, String> statements, Executor decoder) {
+        super(config, statements, decoder);
+    }
+
+    /**
+     * SQL Server does not allow more than 2100 parameters per statement.
+     */
+    @Override
+    protected int defaultLoadBatchSize() {
+        return 2000;
     }
     
     @Override
@@ -23,8 +23,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.schematic.SchematicEntry;
 import org.modeshape.schematic.document.Document;
 import org.modeshape.schematic.internal.document.BasicDocument;
+import org.modeshape.schematic.internal.document.LazyDocument;
 
 /**
  * Class which provides a set of in-memory caches for each ongoing transaction, attempting to relieve some of the "read pressure"
@@ -146,6 +148,10 @@ public final class TransactionalCaches {
         }
         
         protected Document putForWriting(String id, Document doc) {
+            if (doc instanceof LazyDocument || SchematicEntry.content(doc) instanceof LazyDocument) {
+                // lazily read documents can't be edited in place, so always store a copy
+                doc = doc.clone();
+            }
             if (write.replace(id, doc) == null) {
                 // when storing a value for the first time, clone it for the write cache 
                 write.putIfAbsent(id, doc.clone());
@@ -30,6 +30,7 @@ import java.util.SimpleTimeZone;
 import java.util.regex.Pattern;
 import org.modeshape.schematic.internal.document.BsonReader;
 import org.modeshape.schematic.internal.document.BsonWriter;
+import org.modeshape.schematic.internal.document.LazyDocument;
 
 /**
  * A utility class for working with BSON documents.
@@ -201,6 +202,19 @@ public class Bson {
         return SHARED_READER.read(input);
     }
 
+    /**
+     * Create a read-only {@link Document} view over the supplied binary BSON representation. Unlike {@link #read(InputStream)},
+     * the fields are only decoded when they are accessed, so this is much cheaper when only some of the fields are needed.
+     * 
+     * @param bytes the BSON representation of a document; may not be null and must not be changed afterwards
+     * @return the read-only {@link Document} view; never null
+     * @throws IllegalArgumentException if the bytes do not start with a valid document length
+     * @see LazyDocument
+     */
+    public static Document readLazily( byte[] bytes ) {
+        return new LazyDocument(bytes);
+    }
+
     /**
      * Get the {@link Type} constant that describes the type of value for the given field name.
      * 
@@ -281,6 +281,11 @@ public class BsonWriter {
             output.writeByte(Type.DOCUMENT);
             writeCString(name, output);
         }
+        if (document instanceof LazyDocument) {
+            // the document is still in its BSON form, so simply copy it ...
+            ((LazyDocument)document).writeTo(output);
+            return;
+        }
         // Write the size for the document; we'll come back to this after we write the array ...
         int arraySizePosition = output.size();
         output.writeInt(-1);
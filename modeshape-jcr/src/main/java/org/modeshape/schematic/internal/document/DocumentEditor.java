@@ -658,11 +658,11 @@ public class DocumentEditor implements EditableDocument {
         if (this == o) {
             return true;
         }
-        if (!(o instanceof MutableDocument) && ! (o instanceof DocumentEditor)) {
+        if (!(o instanceof MutableDocument) && !(o instanceof LazyDocument) && ! (o instanceof DocumentEditor)) {
             return false;
         }
         
-        if (o instanceof MutableDocument) {
+        if (o instanceof MutableDocument || o instanceof LazyDocument) {
             return Objects.equals(document, o); 
         } else {
             DocumentEditor that = (DocumentEditor) o;
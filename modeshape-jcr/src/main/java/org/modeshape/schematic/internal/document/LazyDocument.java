@@ -0,0 +1,785 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.schematic.internal.document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import org.modeshape.schematic.annotation.ThreadSafe;
+import org.modeshape.schematic.document.Array;
+import org.modeshape.schematic.document.Binary;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Code;
+import org.modeshape.schematic.document.CodeWithScope;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.EditableDocument;
+import org.modeshape.schematic.document.Editor;
+import org.modeshape.schematic.document.Json;
+import org.modeshape.schematic.document.MaxKey;
+import org.modeshape.schematic.document.MinKey;
+import org.modeshape.schematic.document.Null;
+import org.modeshape.schematic.document.ObjectId;
+import org.modeshape.schematic.document.Symbol;
+import org.modeshape.schematic.internal.io.BsonDataOutput;
+
+/**
+ * A read-only {@link Document} which is backed directly by its BSON representation. Unlike the documents produced by
+ * {@link BsonReader}, nothing is decoded up front: the first access to any field scans the top-level elements once to build a
+ * compact index of their names and offsets, and each value is only decoded (and then remembered) when it is first requested.
+ * Nested documents are themselves lazy views over the same byte array, while nested arrays are fully decoded when accessed.
+ * <p>
+ * This makes reading a few fields of a large document (e.g. the key, parent or a single property of a node with many
+ * properties) considerably cheaper, both in terms of CPU and of heap. Because the view cannot be changed, {@link #editable()}
+ * and {@link #edit(boolean) edit(false)} are not supported; use {@link #clone()} to obtain a mutable copy.
+ * </p>
+ * <p>
+ * The byte array is never copied, so it must not be changed after the view has been created. Corrupt content is only detected
+ * when the document is first accessed, in which case an {@link IllegalStateException} is thrown.
+ * </p>
+ */
+@ThreadSafe
+public final class LazyDocument implements Document {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final DocumentValueFactory VALUE_FACTORY = BsonReader.VALUE_FACTORY;
+    private static final BsonReader ARRAY_READER = new BsonReader();
+    /**
+     * Documents with more fields than this use a hash table to look up the fields, rather than a linear scan of the names.
+     */
+    private static final int MAX_FIELDS_FOR_LINEAR_LOOKUP = 8;
+    /**
+     * Marks a decoded value that is {@code null}, so that it is not decoded again.
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private transient volatile Index index;
+
+    /**
+     * Create a view over the BSON representation of a document.
+     *
+     * @param bytes the BSON representation of the document; may not be null and must not be changed afterwards
+     * @throws IllegalArgumentException if the bytes do not start with a valid document length
+     */
+    public LazyDocument( byte[] bytes ) {
+        this(bytes, 0);
+    }
+
+    protected LazyDocument( byte[] bytes,
+                            int offset ) {
+        if (offset < 0 || offset + 5 > bytes.length) {
+            throw new IllegalArgumentException("Not enough bytes for a BSON document at offset " + offset);
+        }
+        int length = readInt(bytes, offset);
+        if (length < 5 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("Invalid BSON document length " + length + " at offset " + offset);
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Write the BSON representation of this document to the supplied output, without decoding any of the fields.
+     *
+     * @param output the output; may not be null
+     */
+    protected void writeTo( BsonDataOutput output ) {
+        output.write(bytes, offset, length);
+    }
+
+    @Override
+    public Object get( String name ) {
+        Index index = index();
+        int i = index.indexOf(name);
+        return i < 0 ? null : value(index, i);
+    }
+
+    @Override
+    public Boolean getBoolean( String name ) {
+        Object value = get(name);
+        return (value instanceof Boolean) ? (Boolean)value : null;
+    }
+
+    @Override
+    public boolean getBoolean( String name,
+                               boolean defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Boolean) ? ((Boolean)value).booleanValue() : defaultValue;
+    }
+
+    @Override
+    public Integer getInteger( String name ) {
+        Object value = get(name);
+        return (value instanceof Integer) ? (Integer)value : null;
+    }
+
+    @Override
+    public int getInteger( String name,
+                           int defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Integer) ? ((Integer)value).intValue() : defaultValue;
+    }
+
+    @Override
+    public Long getLong( String name ) {
+        Object value = get(name);
+        if (value instanceof Long) return (Long)value;
+        if (value instanceof Integer) return new Long(((Integer)value).longValue());
+        return null;
+    }
+
+    @Override
+    public long getLong( String name,
+                         long defaultValue ) {
+        Object value = get(name);
+        if (value instanceof Long) return ((Long)value).longValue();
+        if (value instanceof Integer) return ((Integer)value).longValue();
+        return defaultValue;
+    }
+
+    @Override
+    public Double getDouble( String name ) {
+        Object value = get(name);
+        return (value instanceof Double) ? (Double)value : null;
+    }
+
+    @Override
+    public double getDouble( String name,
+                             double defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Double) ? ((Double)value).doubleValue() : defaultValue;
+    }
+
+    @Override
+    public Number getNumber( String name ) {
+        Object value = get(name);
+        return (value instanceof Number) ? (Number)value : null;
+    }
+
+    @Override
+    public Number getNumber( String name,
+                             Number defaultValue ) {
+        Object value = get(name);
+        return (value instanceof Number) ? (Number)value : defaultValue;
+    }
+
+    @Override
+    public String getString( String name ) {
+        return getString(name, null);
+    }
+
+    @Override
+    public String getString( String name,
+                             String defaultValue ) {
+        Object value = get(name);
+        if (value != null) {
+            if (value instanceof String) {
+                return (String)value;
+            }
+            if (value instanceof Symbol) {
+                return ((Symbol)value).getSymbol();
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public List<?> getArray( String name ) {
+        Object value = get(name);
+        return (value instanceof List) ? (List<?>)value : null;
+    }
+
+    @Override
+    public Document getDocument( String name ) {
+        Object value = get(name);
+        return (value instanceof Document) ? (Document)value : null;
+    }
+
+    @Override
+    public boolean isNull( String name ) {
+        return get(name) instanceof Null;
+    }
+
+    @Override
+    public boolean isNullOrMissing( String name ) {
+        return Null.matches(get(name));
+    }
+
+    @Override
+    public MaxKey getMaxKey( String name ) {
+        Object value = get(name);
+        return (value instanceof MaxKey) ? (MaxKey)value : null;
+    }
+
+    @Override
+    public MinKey getMinKey( String name ) {
+        Object value = get(name);
+        return (value instanceof MinKey) ? (MinKey)value : null;
+    }
+
+    @Override
+    public Code getCode( String name ) {
+        Object value = get(name);
+        return (value instanceof Code) ? (Code)value : null;
+    }
+
+    @Override
+    public CodeWithScope getCodeWithScope( String name ) {
+        Object value = get(name);
+        return (value instanceof CodeWithScope) ? (CodeWithScope)value : null;
+    }
+
+    @Override
+    public ObjectId getObjectId( String name ) {
+        Object value = get(name);
+        return (value instanceof ObjectId) ? (ObjectId)value : null;
+    }
+
+    @Override
+    public Binary getBinary( String name ) {
+        Object value = get(name);
+        return (value instanceof Binary) ? (Binary)value : null;
+    }
+
+    @Override
+    public Date getDate( String name ) {
+        Object value = get(name);
+        return (value instanceof Date) ? (Date)value : null;
+    }
+
+    @Override
+    public Symbol getSymbol( String name ) {
+        Object value = get(name);
+        if (value != null) {
+            if (value instanceof Symbol) {
+                return (Symbol)value;
+            }
+            if (value instanceof String) {
+                return new Symbol((String)value);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Pattern getPattern( String name ) {
+        Object value = get(name);
+        return (value instanceof Pattern) ? (Pattern)value : null;
+    }
+
+    @Override
+    public UUID getUuid( String name ) {
+        return getUuid(name, null);
+    }
+
+    @Override
+    public UUID getUuid( String name,
+                         UUID defaultValue ) {
+        Object value = get(name);
+        if (value != null) {
+            if (value instanceof UUID) {
+                return (UUID)value;
+            }
+            if (value instanceof String) {
+                try {
+                    return UUID.fromString((String)value);
+                } catch (IllegalArgumentException e) {
+                    // do nothing ...
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public int getType( String name ) {
+        return Bson.getTypeForValue(get(name));
+    }
+
+    @Override
+    public Map<String, ?> toMap() {
+        return Collections.unmodifiableMap(copy());
+    }
+
+    @Override
+    public Iterable<Field> fields() {
+        return () -> {
+            final Index index = index();
+            return new Iterator<Field>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < index.size();
+                }
+
+                @Override
+                public Field next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int i = next++;
+                    return new ImmutableField(index.names[i], value(index, i));
+                }
+            };
+        };
+    }
+
+    @Override
+    public boolean containsField( String name ) {
+        return index().indexOf(name) >= 0;
+    }
+
+    @Override
+    public boolean containsAll( Document document ) {
+        if (document == null) {
+            return true;
+        }
+        for (Field field : document.fields()) {
+            Object thisValue = this.get(field.getName());
+            Object thatValue = field.getValue();
+            if (!BsonUtils.valuesAreEqual(thisValue, thatValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(index().names)));
+    }
+
+    @Override
+    public int size() {
+        return index().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public MutableDocument clone() {
+        Index index = index();
+        BasicDocument clone = new BasicDocument(index.size());
+        for (int i = 0; i != index.size(); ++i) {
+            Object value = value(index, i);
+            if (value instanceof Array) {
+                value = ((Array)value).clone();
+            } else if (value instanceof Document) {
+                value = ((Document)value).clone();
+            } // every other kind of value is immutable
+            clone.put(index.names[i], value);
+        }
+        return clone;
+    }
+
+    @Override
+    public Document with( Map<String, Object> changedFields ) {
+        return copy().with(changedFields);
+    }
+
+    @Override
+    public Document with( String fieldName,
+                          Object value ) {
+        return copy().with(fieldName, value);
+    }
+
+    @Override
+    public Document with( ValueTransformer transformer ) {
+        BasicDocument copy = copy();
+        Document result = copy.with(transformer);
+        return result == copy ? this : result;
+    }
+
+    @Override
+    public Document withVariablesReplaced( Properties properties ) {
+        BasicDocument copy = copy();
+        Document result = copy.withVariablesReplaced(properties);
+        return result == copy ? this : result;
+    }
+
+    @Override
+    public Document withVariablesReplacedWithSystemProperties() {
+        BasicDocument copy = copy();
+        Document result = copy.withVariablesReplacedWithSystemProperties();
+        return result == copy ? this : result;
+    }
+
+    @Override
+    public Editor edit( boolean clone ) {
+        if (!clone) {
+            throw new UnsupportedOperationException("A lazily-read BSON document cannot be edited in place");
+        }
+        return clone().edit(false);
+    }
+
+    @Override
+    public EditableDocument editable() {
+        throw new UnsupportedOperationException("A lazily-read BSON document cannot be edited in place");
+    }
+
+    @Override
+    public int hashCode() {
+        // same as the hash code of a map (and therefore of a BasicDocument) with the same fields
+        Index index = index();
+        int hash = 0;
+        for (int i = 0; i != index.size(); ++i) {
+            Object value = value(index, i);
+            hash += index.names[i].hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof Iterable) {
+            // Probably an array
+            return false;
+        }
+        if (obj instanceof Document) {
+            Document that = (Document)obj;
+            if (this.size() != that.size()) {
+                return false;
+            }
+            for (Field thisField : fields()) {
+                Object thisValue = thisField.getValue();
+                Object thatValue = that.get(thisField.getName());
+                if (!BsonUtils.valuesAreEqual(thisValue, thatValue)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Json.write(this);
+    }
+
+    /**
+     * Create a shallow, mutable copy of this document. Any nested documents are shared with this document.
+     *
+     * @return the copy; never null
+     */
+    private BasicDocument copy() {
+        Index index = index();
+        BasicDocument copy = new BasicDocument(index.size());
+        for (int i = 0; i != index.size(); ++i) {
+            copy.put(index.names[i], value(index, i));
+        }
+        return copy;
+    }
+
+    private Index index() {
+        Index index = this.index;
+        if (index == null) {
+            // several threads may do this concurrently, but the result is always the same ...
+            index = buildIndex();
+            this.index = index;
+        }
+        return index;
+    }
+
+    private Index buildIndex() {
+        int end = offset + length - 1;
+        if (bytes[end] != Bson.END_OF_DOCUMENT) {
+            throw corrupt(end);
+        }
+        int count = 0;
+        String[] names = new String[8];
+        int[] valueOffsets = new int[8];
+        byte[] types = new byte[8];
+        int pos = offset + 4;
+        while (pos < end) {
+            byte type = bytes[pos++];
+            if (type == Bson.END_OF_DOCUMENT) {
+                break;
+            }
+            int nameEnd = indexOfTerminator(pos, end);
+            if (count == names.length) {
+                int newLength = count * 2;
+                names = Arrays.copyOf(names, newLength);
+                valueOffsets = Arrays.copyOf(valueOffsets, newLength);
+                types = Arrays.copyOf(types, newLength);
+            }
+            names[count] = new String(bytes, pos, nameEnd - pos, StandardCharsets.UTF_8);
+            types[count] = type;
+            valueOffsets[count] = nameEnd + 1;
+            ++count;
+            pos = nameEnd + 1 + valueLength(type, nameEnd + 1, end);
+            if (pos > end) {
+                throw corrupt(pos);
+            }
+        }
+        if (count != names.length) {
+            names = Arrays.copyOf(names, count);
+            valueOffsets = Arrays.copyOf(valueOffsets, count);
+            types = Arrays.copyOf(types, count);
+        }
+        return new Index(names, valueOffsets, types);
+    }
+
+    private int valueLength( byte type,
+                             int pos,
+                             int end ) {
+        switch (type) {
+            case Bson.Type.DOUBLE:
+            case Bson.Type.DATETIME:
+            case Bson.Type.INT64:
+            case Bson.Type.TIMESTAMP:
+                return 8;
+            case Bson.Type.INT32:
+                return 4;
+            case Bson.Type.BOOLEAN:
+                return 1;
+            case Bson.Type.OBJECTID:
+                return 12;
+            case Bson.Type.STRING:
+            case Bson.Type.SYMBOL:
+            case Bson.Type.JAVASCRIPT:
+                return 4 + readLength(pos, end);
+            case Bson.Type.DOCUMENT:
+            case Bson.Type.ARRAY:
+            case Bson.Type.JAVASCRIPT_WITH_SCOPE:
+                return readLength(pos, end);
+            case Bson.Type.BINARY:
+                return 5 + readLength(pos, end);
+            case Bson.Type.REGEX:
+                int patternEnd = indexOfTerminator(pos, end);
+                return indexOfTerminator(patternEnd + 1, end) + 1 - pos;
+            case Bson.Type.NULL:
+            case Bson.Type.UNDEFINED:
+            case Bson.Type.DBPOINTER:
+            case Bson.Type.MINKEY:
+            case Bson.Type.MAXKEY:
+                // like the BsonReader, there's nothing to read for these types ...
+                return 0;
+            default:
+                throw corrupt(pos - 1);
+        }
+    }
+
+    private int readLength( int pos,
+                            int end ) {
+        if (pos + 4 > end) {
+            throw corrupt(pos);
+        }
+        int length = readInt(bytes, pos);
+        if (length < 0) {
+            throw corrupt(pos);
+        }
+        return length;
+    }
+
+    private int indexOfTerminator( int pos,
+                                   int end ) {
+        for (int i = pos; i < end; ++i) {
+            if (bytes[i] == 0) {
+                return i;
+            }
+        }
+        throw corrupt(pos);
+    }
+
+    private Object value( Index index,
+                          int i ) {
+        Object value = index.values.get(i);
+        if (value == null) {
+            value = decode(index.types[i], index.valueOffsets[i]);
+            if (value == null) {
+                value = NULL_VALUE;
+            }
+            // a concurrent decode of the same value produces an equivalent result, so keep whichever one is set first ...
+            if (!index.values.compareAndSet(i, null, value)) {
+                value = index.values.get(i);
+            }
+        }
+        return value == NULL_VALUE ? null : value;
+    }
+
+    private Object decode( byte type,
+                           int pos ) {
+        switch (type) {
+            case Bson.Type.DOUBLE:
+                return VALUE_FACTORY.createDouble(Double.longBitsToDouble(readLong(bytes, pos)));
+            case Bson.Type.STRING:
+            case Bson.Type.SYMBOL:
+                return readString(pos);
+            case Bson.Type.DOCUMENT:
+                return new LazyDocument(bytes, pos);
+            case Bson.Type.ARRAY:
+                try {
+                    return ARRAY_READER.readArray(new ByteArrayInputStream(bytes, pos, readInt(bytes, pos)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to read the BSON array at offset " + pos, e);
+                }
+            case Bson.Type.BINARY:
+                int binaryLength = readInt(bytes, pos);
+                byte subtype = bytes[pos + 4];
+                if (subtype == Bson.BinaryType.UUID) {
+                    return new UUID(readLong(bytes, pos + 5), readLong(bytes, pos + 13));
+                }
+                return VALUE_FACTORY.createBinary(subtype, Arrays.copyOfRange(bytes, pos + 5, pos + 5 + binaryLength));
+            case Bson.Type.OBJECTID:
+                return VALUE_FACTORY.createObjectId(Arrays.copyOfRange(bytes, pos, pos + 12));
+            case Bson.Type.BOOLEAN:
+                return VALUE_FACTORY.createBoolean(bytes[pos] != 0);
+            case Bson.Type.DATETIME:
+                return VALUE_FACTORY.createDate(readLong(bytes, pos));
+            case Bson.Type.NULL:
+                return VALUE_FACTORY.createNull();
+            case Bson.Type.REGEX:
+                int patternEnd = indexOfTerminator(pos, offset + length);
+                int flagsEnd = indexOfTerminator(patternEnd + 1, offset + length);
+                return VALUE_FACTORY.createRegex(new String(bytes, pos, patternEnd - pos, StandardCharsets.UTF_8),
+                                                 new String(bytes, patternEnd + 1, flagsEnd - patternEnd - 1,
+                                                            StandardCharsets.UTF_8));
+            case Bson.Type.JAVASCRIPT:
+                return VALUE_FACTORY.createCode(readString(pos));
+            case Bson.Type.JAVASCRIPT_WITH_SCOPE:
+                // skip the total length ...
+                int codePos = pos + 4;
+                String code = readString(codePos);
+                Document scope = new LazyDocument(bytes, codePos + 4 + readInt(bytes, codePos));
+                return VALUE_FACTORY.createCode(code, scope);
+            case Bson.Type.INT32:
+                return VALUE_FACTORY.createInt(readInt(bytes, pos));
+            case Bson.Type.TIMESTAMP:
+                int inc = readInt(bytes, pos);
+                int time = readInt(bytes, pos + 4);
+                return VALUE_FACTORY.createTimestamp(time, inc);
+            case Bson.Type.INT64:
+                return VALUE_FACTORY.createLong(readLong(bytes, pos));
+            case Bson.Type.MINKEY:
+                return MinKey.getInstance();
+            case Bson.Type.MAXKEY:
+                return MaxKey.getInstance();
+            default:
+                // DBPOINTER and UNDEFINED are ignored, like in the BsonReader ...
+                return null;
+        }
+    }
+
+    private String readString( int pos ) {
+        // the length includes the zero-byte terminator
+        int length = readInt(bytes, pos);
+        return VALUE_FACTORY.createString(new String(bytes, pos + 4, length - 1, StandardCharsets.UTF_8));
+    }
+
+    private IllegalStateException corrupt( int pos ) {
+        return new IllegalStateException("Invalid BSON content at offset " + pos);
+    }
+
+    private static int readInt( byte[] bytes,
+                                int pos ) {
+        return (bytes[pos + 3] & 0xFF) << 24 | (bytes[pos + 2] & 0xFF) << 16 | (bytes[pos + 1] & 0xFF) << 8 | (bytes[pos] & 0xFF);
+    }
+
+    private static long readLong( byte[] bytes,
+                                  int pos ) {
+        return (readInt(bytes, pos + 4) & 0xFFFFFFFFL) << 32 | (readInt(bytes, pos) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The names, types and value offsets of the top-level fields of a document, plus the values which have been decoded so far.
+     */
+    private static final class Index {
+        private final String[] names;
+        private final int[] valueOffsets;
+        private final byte[] types;
+        private final AtomicReferenceArray<Object> values;
+        /**
+         * An open-addressing hash table with the (1-based) positions of the names, or null if the names are scanned linearly.
+         */
+        private final int[] table;
+
+        protected Index( String[] names,
+                         int[] valueOffsets,
+                         byte[] types ) {
+            this.names = names;
+            this.valueOffsets = valueOffsets;
+            this.types = types;
+            this.values = new AtomicReferenceArray<>(names.length);
+            if (names.length > MAX_FIELDS_FOR_LINEAR_LOOKUP) {
+                int[] table = new int[Integer.highestOneBit(names.length * 2 - 1) << 1];
+                int mask = table.length - 1;
+                for (int i = 0; i != names.length; ++i) {
+                    int slot = names[i].hashCode() & mask;
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = i + 1;
+                }
+                this.table = table;
+            } else {
+                this.table = null;
+            }
+        }
+
+        protected int size() {
+            return names.length;
+        }
+
+        protected int indexOf( String name ) {
+            if (name == null) {
+                return -1;
+            }
+            if (table == null) {
+                for (int i = 0; i != names.length; ++i) {
+                    if (names[i].equals(name)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int mask = table.length - 1;
+            int slot = name.hashCode() & mask;
+            int entry;
+            while ((entry = table[slot]) != 0) {
+                if (names[entry - 1].equals(name)) {
+                    return entry - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
@@ -710,6 +710,155 @@ public class JcrQueryManagerTest extends MultiUseAbstractTest {
         validateQuery().rowCount(13).validate(query, query.execute());
     }
 
+    @Test
+    public void shouldReturnSameResultsWhenExecutingSetOperationsAndJoinsInParallel() throws RepositoryException {
+        String sql1 = "SELECT [jcr:path] FROM [nt:unstructured] AS other WHERE ISCHILDNODE(other,'/Other')";
+        String sql2 = "SELECT [jcr:path] FROM [nt:unstructured] AS category WHERE ISCHILDNODE(category,'/Cars')";
+        String join = "SELECT category.[jcr:path], car.[jcr:path] FROM [nt:unstructured] AS category "
+                      + "JOIN [car:Car] AS car ON ISCHILDNODE(car,category) WHERE ISCHILDNODE(category,'/Cars')";
+        String[] statements = {sql1 + " UNION " + sql2, sql1 + " UNION ALL " + sql1, sql1 + " INTERSECT " + sql1,
+            sql1 + " EXCEPT " + sql2, join, join + " UNION " + join};
+        for (String sql : statements) {
+            org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)session.getWorkspace()
+                                                                                               .getQueryManager()
+                                                                                               .createQuery(sql,
+                                                                                                            Query.JCR_SQL2);
+            query.executeInParallel(false);
+            List<String> serial = rowsAsStrings(query.execute());
+            query.executeInParallel(true);
+            List<String> parallel = rowsAsStrings(query.execute());
+            assertThat("Unexpected results for " + sql, parallel.size(), is(serial.size()));
+            assertThat("Unexpected results for " + sql, new HashSet<>(parallel), is(new HashSet<>(serial)));
+        }
+    }
+
+    @Test
+    public void shouldStreamResultsWithoutKnowingTheirSize() throws RepositoryException {
+        String sql = "SELECT [jcr:path] FROM [car:Car] ORDER BY [jcr:path]";
+        org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)session.getWorkspace()
+                                                                                           .getQueryManager()
+                                                                                           .createQuery(sql, Query.JCR_SQL2);
+        List<String> buffered = rowsAsStrings(query.execute());
+        query.streamResults(true);
+        QueryResult result = query.execute();
+        RowIterator rows = result.getRows();
+        assertThat(rows.getSize(), is(-1L));
+        List<String> streamed = new ArrayList<>();
+        while (rows.hasNext()) {
+            streamed.add(rows.nextRow().getValue("jcr:path") + " ");
+        }
+        assertThat(streamed, is(buffered));
+        assertThat(streamed.size(), is(13));
+        try {
+            result.getRows();
+            fail("Should not be able to iterate over streamed results more than once");
+        } catch (RepositoryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldStreamFirstRowsOfQueryWithLimit() throws RepositoryException {
+        String sql = "SELECT [jcr:path] FROM [car:Car] WHERE [car:year] > 2000 LIMIT 3 OFFSET 2";
+        org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)session.getWorkspace()
+                                                                                           .getQueryManager()
+                                                                                           .createQuery(sql, Query.JCR_SQL2);
+        int buffered = rowsAsStrings(query.execute()).size();
+        query.streamResults(true);
+        assertThat(rowsAsStrings(query.execute()).size(), is(buffered));
+        assertThat(buffered, is(3));
+    }
+
+    @Test
+    public void shouldPageThroughResultsUsingContinuationTokens() throws RepositoryException {
+        assertPagesMatchAllResults("SELECT [jcr:path] FROM [car:Car] WHERE [car:year] > 2000 ORDER BY [car:year]", 3);
+        assertPagesMatchAllResults("SELECT [jcr:path] FROM [car:Car] ORDER BY [car:maker] DESC, [car:year]", 4);
+        assertPagesMatchAllResults("SELECT [jcr:path] FROM [car:Car] ORDER BY [car:msrp] NULLS FIRST", 5);
+        assertPagesMatchAllResults("SELECT [jcr:path] FROM [nt:unstructured] WHERE ISDESCENDANTNODE('/Cars') ORDER BY [car:year] DESC",
+                                   2);
+    }
+
+    @Test
+    public void shouldNotAllowKeysetPaginationOfQueriesOrderedByPseudoColumnsOrWithJoins() throws RepositoryException {
+        String[] sqls = {"SELECT [jcr:path] FROM [car:Car] ORDER BY [jcr:path]",
+            "SELECT car.[jcr:path] FROM [car:Car] AS car JOIN [nt:unstructured] AS parent ON ISCHILDNODE(car,parent) ORDER BY car.[car:year]"};
+        for (String sql : sqls) {
+            org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)session.getWorkspace()
+                                                                                               .getQueryManager()
+                                                                                               .createQuery(sql, Query.JCR_SQL2);
+            try {
+                query.startAfter(null);
+                fail("Should not allow keyset pagination of " + sql);
+            } catch (InvalidQueryException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test( expected = InvalidQueryException.class )
+    public void shouldNotAllowContinuationTokenFromResultsOfDifferentlyOrderedQuery() throws RepositoryException {
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)queryManager.createQuery("SELECT [jcr:path] FROM [car:Car] ORDER BY [car:year]",
+                                                                                                             Query.JCR_SQL2);
+        query.startAfter(null);
+        query.setLimit(2);
+        org.modeshape.jcr.api.query.QueryResult result = query.execute();
+        NodeIterator nodes = result.getNodes();
+        nodes.nextNode();
+        String token = result.getContinuationToken();
+        assertThat(token, is(notNullValue()));
+        org.modeshape.jcr.api.query.Query other = (org.modeshape.jcr.api.query.Query)queryManager.createQuery("SELECT [jcr:path] FROM [car:Car] ORDER BY [car:year] DESC",
+                                                                                                             Query.JCR_SQL2);
+        other.startAfter(token);
+    }
+
+    private void assertPagesMatchAllResults( String sql,
+                                             int pageSize ) throws RepositoryException {
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        List<String> expected = new ArrayList<>();
+        org.modeshape.jcr.api.query.Query query = (org.modeshape.jcr.api.query.Query)queryManager.createQuery(sql, Query.JCR_SQL2);
+        query.startAfter(null);
+        for (NodeIterator nodes = query.execute().getNodes(); nodes.hasNext();) {
+            expected.add(nodes.nextNode().getPath());
+        }
+        assertThat(expected.isEmpty(), is(false));
+
+        List<String> paged = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        while (true) {
+            query = (org.modeshape.jcr.api.query.Query)queryManager.createQuery(sql, Query.JCR_SQL2);
+            query.setLimit(pageSize);
+            query.startAfter(token);
+            org.modeshape.jcr.api.query.QueryResult result = query.execute();
+            int rows = 0;
+            for (NodeIterator nodes = result.getNodes(); nodes.hasNext(); ++rows) {
+                paged.add(nodes.nextNode().getPath());
+            }
+            if (rows == 0) break;
+            assertThat(rows <= pageSize, is(true));
+            token = result.getContinuationToken();
+            assertThat(token, is(notNullValue()));
+            ++pages;
+        }
+        assertThat(sql, paged, is(expected));
+        assertThat(pages, is((expected.size() + pageSize - 1) / pageSize));
+    }
+
+    private List<String> rowsAsStrings( QueryResult result ) throws RepositoryException {
+        List<String> rows = new ArrayList<>();
+        String[] columnNames = result.getColumnNames();
+        for (RowIterator iter = result.getRows(); iter.hasNext();) {
+            Row row = iter.nextRow();
+            StringBuilder sb = new StringBuilder();
+            for (String columnName : columnNames) {
+                sb.append(row.getValue(columnName)).append(' ');
+            }
+            rows.add(sb.toString());
+        }
+        return rows;
+    }
+
     @FixFor( "MODE-2297" )
     @Test
     public void shouldExecuteQueryUsingSetOperationOfQueriesWithoutJoins() throws RepositoryException {
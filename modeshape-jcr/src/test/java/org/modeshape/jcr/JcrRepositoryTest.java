@@ -45,6 +45,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.jcr.ItemExistsException;
 import javax.jcr.NamespaceException;
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.NoSuchWorkspaceException;
@@ -727,6 +728,40 @@ public class JcrRepositoryTest {
 
     }
 
+    @Test
+    public void shouldSeeCommittedChangesWithDocumentCacheEnabled() throws Exception {
+        shutdownDefaultRepository();
+
+        RepositoryConfiguration config = RepositoryConfiguration.read("{ \"name\" : \"repoName\", "
+                                                                      + "\"storage\" : { \"documentCache\" : { \"maxSizeInMb\" : 1 } } }");
+        config = new RepositoryConfiguration(config.getDocument(), "repoName", new TestingEnvironment());
+        assertTrue(config.getDocumentCache().isEnabled());
+        repository = new JcrRepository(config);
+        repository.start();
+
+        session = createSession();
+        Node node = session.getRootNode().addNode("cached");
+        node.setProperty("value", "v1");
+        session.save();
+
+        JcrSession reader = createSession();
+        try {
+            assertThat(reader.getNode("/cached").getProperty("value").getString(), is("v1"));
+
+            node.setProperty("value", "v2");
+            session.save();
+            reader.refresh(false);
+            assertThat(reader.getNode("/cached").getProperty("value").getString(), is("v2"));
+
+            node.remove();
+            session.save();
+            reader.refresh(false);
+            assertFalse(reader.nodeExists("/cached"));
+        } finally {
+            reader.logout();
+        }
+    }
+
     protected void assertAccessibleWorkspace( Session session,
                                               String workspaceName ) throws Exception {
         assertContains(session.getWorkspace().getAccessibleWorkspaceNames(), workspaceName);
@@ -1231,6 +1266,152 @@ public class JcrRepositoryTest {
         }
     }
 
+    @Test
+    public void shouldAppendChildrenToSameParentFromConcurrentSessions() throws Exception {
+        final int numThreads = 10;
+        final int numSaves = 20;
+        JcrSession session = repository.login();
+        session.getRootNode().addNode("folder", "nt:folder");
+        session.save();
+        session.logout();
+
+        final JcrRepository repository = this.repository;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                final String prefix = "child" + i + "-";
+                results.add(executor.submit(() -> {
+                    // every save appends a child to the same parent, whose lock is only acquired right before it's written ...
+                    Session threadSession = repository.login();
+                    try {
+                        Node folder = threadSession.getNode("/folder");
+                        for (int j = 0; j < numSaves; j++) {
+                            folder.addNode(prefix + j, "nt:folder");
+                            threadSession.save();
+                        }
+                    } finally {
+                        threadSession.logout();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        session = repository.login();
+        assertEquals(numThreads * numSaves, session.getNode("/folder").getNodes().getSize());
+        session.logout();
+        assertTrue(repository.getRepositoryStatistics().getLockWaitHistogram().getTotalCount() > 0);
+    }
+
+    @Test
+    public void shouldNotAppendChildrenWithSameNameFromConcurrentSessions() throws Exception {
+        final int numThreads = 8;
+        JcrSession session = repository.login();
+        session.getRootNode().addNode("folder", "nt:folder");
+        session.save();
+        session.logout();
+
+        final JcrRepository repository = this.repository;
+        final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        int saved = 0;
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                results.add(executor.submit(() -> {
+                    Session threadSession = repository.login();
+                    try {
+                        threadSession.getNode("/folder").addNode("child", "nt:folder");
+                        barrier.await();
+                        threadSession.save();
+                        return true;
+                    } catch (ItemExistsException e) {
+                        return false;
+                    } finally {
+                        threadSession.logout();
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                if (result.get(60, TimeUnit.SECONDS)) {
+                    ++saved;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, saved);
+        session = repository.login();
+        assertEquals(1, session.getNode("/folder").getNodes().getSize());
+        session.logout();
+    }
+
+    @Test
+    public void shouldGroupConcurrentSavesWhenGroupCommitIsEnabled() throws Exception {
+        shutdownDefaultRepository();
+        repository = TestingUtil.startRepositoryWithConfig("config/repo-config-group-commit.json");
+        final int numThreads = 20;
+        final int numSaves = 10;
+        JcrSession session = repository.login();
+        for (int i = 0; i < numThreads; i++) {
+            session.getRootNode().addNode("parent" + i);
+        }
+        session.save();
+        session.logout();
+
+        final JcrRepository repository = this.repository;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                final String parentPath = "/parent" + i;
+                results.add(executor.submit(() -> {
+                    // each save adds a child to its own parent, so none of the saves conflict ...
+                    Session threadSession = repository.login();
+                    try {
+                        Node parent = threadSession.getNode(parentPath);
+                        for (int j = 0; j < numSaves; j++) {
+                            parent.addNode("child" + j);
+                            threadSession.save();
+                        }
+                    } finally {
+                        threadSession.logout();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        session = repository.login();
+        for (int i = 0; i < numThreads; i++) {
+            assertEquals(numSaves, session.getNode("/parent" + i).getNodes().getSize());
+        }
+        // conflicting saves are committed one after the other ...
+        session.getNode("/parent0").setProperty("prop", "value");
+        Session other = repository.login();
+        other.getNode("/parent0").setProperty("other", "value");
+        session.save();
+        other.save();
+        session.logout();
+        other.logout();
+        session = repository.login();
+        assertEquals("value", session.getNode("/parent0").getProperty("prop").getString());
+        assertEquals("value", session.getNode("/parent0").getProperty("other").getString());
+        session.logout();
+    }
+
     @Test
     @FixFor( "MODE-2056" )
     public void shouldReturnActiveSessions() throws Exception {
@@ -18,6 +18,7 @@ package org.modeshape.jcr;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -47,7 +48,9 @@ import org.modeshape.common.FixFor;
 import org.modeshape.common.util.FileUtil;
 import org.modeshape.jcr.api.index.IndexManager;
 import org.modeshape.jcr.api.query.Query;
+import org.modeshape.jcr.cache.document.LocalDocumentStore;
 import org.modeshape.jcr.query.engine.IndexPlanners;
+import org.modeshape.schematic.document.EditableDocument;
 
 /**
  * This test verifies that the local index provider works when the indexes are updated <em>synchronous</em>. See
@@ -539,6 +542,54 @@ public class LocalIndexProviderTest extends AbstractIndexProviderTest {
         validateQuery().rowCount(2L).validate(query, query.execute());
     }
 
+    @Test
+    public void shouldUseTextIndexForFullTextSearchOnIndexedProperty() throws Exception {
+        registerTextIndex("titleText", "mix:title", "Title text index", "*", "jcr:title", PropertyType.STRING);
+
+        // print = true;
+
+        Node book1 = session().getRootNode().addNode("myFirstBook");
+        book1.addMixin("mix:title");
+        book1.setProperty("jcr:title", "The Title");
+
+        Node book2 = session().getRootNode().addNode("mySecondBook");
+        book2.addMixin("mix:title");
+        book2.setProperty("jcr:title", "A Different Title");
+
+        Node other = session().getRootNode().addNode("somethingElse");
+        other.setProperty("jcr:title", "The Title");
+
+        session.save();
+
+        Query query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.[jcr:title], 'title')");
+        validateQuery().rowCount(2L).useIndex("titleText").hasNodesAtPaths("/myFirstBook", "/mySecondBook")
+                       .validate(query, query.execute());
+
+        query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.[jcr:title], '\"different title\"')");
+        validateQuery().rowCount(1L).useIndex("titleText").hasNodesAtPaths("/mySecondBook").validate(query, query.execute());
+
+        query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.[jcr:title], $text)");
+        query.bindValue("text", valueFactory().createValue("diff*"));
+        validateQuery().rowCount(1L).useIndex("titleText").hasNodesAtPaths("/mySecondBook").validate(query, query.execute());
+
+        // Negations and searches of all properties can't use the index ...
+        query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.[jcr:title], '-different')");
+        validateQuery().rowCount(1L).useNoIndexes().validate(query, query.execute());
+
+        query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.*, 'title')");
+        validateQuery().rowCount(2L).useNoIndexes().validate(query, query.execute());
+
+        // Changes are reflected in the index ...
+        book1.setProperty("jcr:title", "Something Else");
+        session.save();
+
+        query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.[jcr:title], 'title')");
+        validateQuery().rowCount(1L).useIndex("titleText").hasNodesAtPaths("/mySecondBook").validate(query, query.execute());
+
+        query = jcrSql2Query("SELECT * FROM [mix:title] AS book WHERE CONTAINS(book.[jcr:title], 'something')");
+        validateQuery().rowCount(1L).useIndex("titleText").hasNodesAtPaths("/myFirstBook").validate(query, query.execute());
+    }
+
     @Test
     public void shouldUseSingleColumnNodeDepthIndexInQueryAgainstSameNodeType() throws Exception {
         registerValueIndex("depthIndex", "nt:unstructured", "Node depth index", "*", "mode:depth", PropertyType.LONG);
@@ -720,6 +771,36 @@ public class LocalIndexProviderTest extends AbstractIndexProviderTest {
         assertStorageLocationUnchangedAfterRestart();
     }
 
+    @Test
+    public void shouldResumeInterruptedReindexingOnStartup() throws Exception {
+        registerValueIndex("ref1", "nt:unstructured", "", null, "ref1", PropertyType.STRING);
+        Node parent = session.getRootNode().addNode("parent", "nt:unstructured");
+        for (int i = 0; i != 300; i++) {
+            parent.addNode("child" + i, "nt:unstructured").setProperty("ref1", "value" + (i % 3));
+        }
+        session.save();
+        waitForIndexes();
+
+        // Simulate a full reindexing of the workspace which was interrupted right after clearing the indexes ...
+        String rootKey = session.getRootNode().key().toString();
+        String workspaceName = session.getWorkspace().getName();
+        LocalDocumentStore store = repository.runningState().documentStore().localStore();
+        store.runInTransaction(() -> {
+            EditableDocument checkpoint = store.edit(ParallelReindexer.CHECKPOINTS_KEY, true).setDocument(rootKey);
+            checkpoint.setString("workspace", workspaceName);
+            return null;
+        }, 0, ParallelReindexer.CHECKPOINTS_KEY);
+        repository.runningState().queryManager().getIndexWriter().clearAllIndexes();
+
+        stopRepository();
+        startRepository();
+        waitForIndexes();
+
+        Query query = jcrSql2Query("SELECT * FROM [nt:unstructured] WHERE ref1 = 'value1'");
+        validateQuery().rowCount(100L).useIndex("ref1").validate(query, query.execute());
+        assertNull(repository.runningState().documentStore().localStore().get(ParallelReindexer.CHECKPOINTS_KEY));
+    }
+
     protected void assertStorageLocationUnchangedAfterRestart() throws Exception {
         // register the total size and last modified timestamp of the place where indexes are stored for the default provider..
         File indexesDir = new File("target/persistent_repository/indexes/local");
@@ -1416,4 +1497,44 @@ public class LocalIndexProviderTest extends AbstractIndexProviderTest {
                 .validate(query, query.execute());
         
     }
+
+    @Test
+    public void shouldAnswerQueryUsingOnlyIndexedValuesFromIndexEntries() throws Exception {
+        registerValueIndex("titleIndex", "mix:title", null, "*", "jcr:title", PropertyType.STRING);
+
+        Node root = session().getRootNode();
+        for (String title : new String[] {"Gamma", "Alpha", "Delta", "Beta"}) {
+            Node book = root.addNode("book" + title);
+            book.addMixin("mix:title");
+            book.setProperty("jcr:title", title);
+        }
+        // Create a node that is not a 'mix:title' and therefore won't be included in the results ...
+        Node other = root.addNode("somethingElse");
+        other.setProperty("jcr:title", "Epsilon");
+        session.save();
+
+        final List<String> expectedTitles = Arrays.asList("Beta", "Delta", "Gamma");
+        Query query = jcrSql2Query("SELECT [jcr:title] FROM [mix:title] WHERE [jcr:title] > 'Alpha' ORDER BY [jcr:title]");
+        validateQuery()
+                .rowCount(3L)
+                .useIndex("titleIndex")
+                .onEachRow((rowNumber, row) -> {
+                    String title = expectedTitles.get(rowNumber - 1);
+                    assertEquals(title, row.getValue("jcr:title").getString());
+                    assertEquals("/book" + title, row.getNode().getPath());
+                })
+                .validate(query, query.execute());
+
+        // The rows must reflect the changes of the session that haven't been saved ...
+        session.getNode("/bookDelta").setProperty("jcr:title", "Delta (changed)");
+        validateQuery()
+                .rowCount(3L)
+                .useIndex("titleIndex")
+                .onEachRow((rowNumber, row) -> {
+                    String title = expectedTitles.get(rowNumber - 1);
+                    String expected = "Delta".equals(title) ? "Delta (changed)" : title;
+                    assertEquals(expected, row.getValue("jcr:title").getString());
+                })
+                .validate(query, query.execute());
+    }
 }
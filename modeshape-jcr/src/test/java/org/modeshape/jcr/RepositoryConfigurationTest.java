@@ -25,6 +25,8 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -32,13 +34,18 @@ import org.modeshape.common.FixFor;
 import org.modeshape.common.collection.Problems;
 import org.modeshape.jcr.RepositoryConfiguration.AnonymousSecurity;
 import org.modeshape.jcr.RepositoryConfiguration.Default;
+import org.modeshape.jcr.RepositoryConfiguration.DocumentCache;
 import org.modeshape.jcr.RepositoryConfiguration.DocumentOptimization;
 import org.modeshape.jcr.RepositoryConfiguration.FieldName;
+import org.modeshape.jcr.RepositoryConfiguration.GroupCommit;
 import org.modeshape.jcr.RepositoryConfiguration.Indexes;
 import org.modeshape.jcr.RepositoryConfiguration.JaasSecurity;
+import org.modeshape.jcr.RepositoryConfiguration.QueryExecution;
 import org.modeshape.jcr.RepositoryConfiguration.Security;
 import org.modeshape.jcr.api.index.IndexDefinition;
 import org.modeshape.jcr.api.index.IndexDefinition.IndexKind;
+import org.modeshape.jcr.value.binary.CompressionCodec;
+import org.modeshape.jcr.value.binary.TieredStoragePolicy;
 import org.modeshape.schematic.Schematic;
 import org.modeshape.schematic.document.Document;
 
@@ -155,6 +162,28 @@ public class RepositoryConfigurationTest {
         assertValid("config/composite-binary-storage.json");
     }
 
+    @Test
+    public void shouldSuccessfullyValidateCompositeBinaryStorageWithTieringConfiguration() {
+        RepositoryConfiguration config = assertValid("config/composite-binary-storage-with-tiering.json");
+        TieredStoragePolicy policy = config.getBinaryStorage().getTieredStoragePolicy();
+        assertThat(policy.getHotStoreName(), is("default"));
+        assertThat(policy.getColdStoreName(), is("archive"));
+        assertThat(policy.getColdAfterMillis(), is(TimeUnit.HOURS.toMillis(48)));
+        assertThat(policy.getPromoteAfterReads(), is(5));
+        assertThat(policy.getMigrationIntervalMillis(), is(TimeUnit.HOURS.toMillis(1)));
+        assertThat(policy.getMaxBytesPerSecond(), is(1048576L));
+    }
+
+    @Test
+    public void shouldSuccessfullyValidateFileBinaryStorageWithCompressionConfiguration() {
+        RepositoryConfiguration config = assertValid("config/file-binary-storage-with-compression.json");
+        Map<String, CompressionCodec> codecs = config.getBinaryStorage().getCompressionCodecs();
+        assertThat(codecs.size(), is(3));
+        assertThat(codecs.get("application/xml"), is(CompressionCodec.DEFLATE_BEST));
+        assertThat(codecs.get("text/*"), is(CompressionCodec.DEFLATE_FAST));
+        assertThat(codecs.get("*"), is(CompressionCodec.NONE));
+    }
+
     @Test
     public void shouldSuccessfullyValidateCompositeBinaryStorageWithoutDefaultNamedStoreConfiguration() {
         assertNotValid(1, "config/composite-binary-storage-without-default.json");
@@ -418,6 +447,105 @@ public class RepositoryConfigurationTest {
         assertThat(opt.isEnabled(), is(false));
     }
 
+    @Test
+    public void shouldNotEnableDocumentCacheByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        assertThat(config.getDocumentCache(), is(notNullValue()));
+        assertThat(config.getDocumentCache().isEnabled(), is(false));
+    }
+
+    @Test
+    public void shouldEnableDocumentCacheWithEmptyDocumentCacheField() {
+        Document doc = Schematic.newDocument(FieldName.NAME, "repoName", FieldName.STORAGE,
+                                             Schematic.newDocument(FieldName.DOCUMENT_CACHE, Schematic.newDocument()));
+        RepositoryConfiguration config = new RepositoryConfiguration(doc, "repoName");
+        DocumentCache cache = config.getDocumentCache();
+        assertThat(cache.isEnabled(), is(true));
+        assertThat(cache.getMaxSizeInMb(), is(Default.DOCUMENT_CACHE_SIZE_IN_MB));
+        assertThat(cache.getBlockSizeInBytes(), is(Default.DOCUMENT_CACHE_BLOCK_SIZE));
+    }
+
+    @Test
+    public void shouldReadDocumentCacheConfiguration() {
+        RepositoryConfiguration config = assertValid("config/repo-config-document-cache.json");
+        DocumentCache cache = config.getDocumentCache();
+        assertThat(cache.isEnabled(), is(true));
+        assertThat(cache.getMaxSizeInMb(), is(16));
+        assertThat(cache.getMaxSizeInBytes(), is(16L * 1024 * 1024));
+        assertThat(cache.getBlockSizeInBytes(), is(1024));
+    }
+
+    @Test
+    public void shouldUseDefaultNumberOfLockStripes() {
+        assertThat(new RepositoryConfiguration("repoName").getLockStripes(), is(Default.LOCK_STRIPES));
+        Document doc = Schematic.newDocument(FieldName.NAME, "repoName", FieldName.LOCK_STRIPES, 128);
+        assertThat(new RepositoryConfiguration(doc, "repoName").getLockStripes(), is(128));
+    }
+
+    @Test
+    public void shouldReadReindexingThreadsAndCheckpointInterval() {
+        RepositoryConfiguration.Reindexing reindexing = new RepositoryConfiguration("repoName").getReindexing();
+        assertThat(reindexing.getThreads(), is(Default.REINDEXING_THREADS));
+        assertThat(reindexing.getCheckpointIntervalInSeconds(), is(Default.REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS));
+        Document doc = Schematic.newDocument(FieldName.NAME, "repoName", FieldName.REINDEXING,
+                                             Schematic.newDocument(FieldName.REINDEXING_THREADS, 2,
+                                                                   FieldName.REINDEXING_CHECKPOINT_INTERVAL_IN_SECONDS, 0));
+        RepositoryConfiguration config = new RepositoryConfiguration(doc, "repoName");
+        assertValid(config);
+        assertThat(config.getReindexing().getThreads(), is(2));
+        assertThat(config.getReindexing().getCheckpointIntervalInSeconds(), is(0));
+    }
+
+    @Test
+    public void shouldNotEnableGroupCommitByDefault() {
+        GroupCommit groupCommit = new RepositoryConfiguration("repoName").getGroupCommit();
+        assertThat(groupCommit.isEnabled(), is(false));
+        assertThat(groupCommit.getMaxBatchSize(), is(Default.GROUP_COMMIT_MAX_BATCH_SIZE));
+        assertThat(groupCommit.getWindowInMillis(), is(Default.GROUP_COMMIT_WINDOW_IN_MILLIS));
+    }
+
+    @Test
+    public void shouldEnableGroupCommitWithEmptyGroupCommitField() {
+        Document doc = Schematic.newDocument(FieldName.NAME, "repoName", FieldName.STORAGE,
+                                             Schematic.newDocument(FieldName.GROUP_COMMIT, Schematic.newDocument()));
+        GroupCommit groupCommit = new RepositoryConfiguration(doc, "repoName").getGroupCommit();
+        assertThat(groupCommit.isEnabled(), is(true));
+        assertThat(groupCommit.getMaxBatchSize(), is(Default.GROUP_COMMIT_MAX_BATCH_SIZE));
+        assertThat(groupCommit.getWindowInMillis(), is(Default.GROUP_COMMIT_WINDOW_IN_MILLIS));
+    }
+
+    @Test
+    public void shouldReadGroupCommitConfiguration() {
+        GroupCommit groupCommit = assertValid("config/repo-config-group-commit.json").getGroupCommit();
+        assertThat(groupCommit.isEnabled(), is(true));
+        assertThat(groupCommit.getMaxBatchSize(), is(16));
+        assertThat(groupCommit.getWindowInMillis(), is(5L));
+    }
+
+    @Test
+    public void shouldNotExecuteQueriesInParallelByDefault() {
+        QueryExecution queryExecution = new RepositoryConfiguration("repoName").getQueryExecution();
+        assertThat(queryExecution.isParallel(), is(false));
+        assertThat(queryExecution.getThreadPoolName(), is(Default.QUERY_POOL));
+        assertThat(queryExecution.getMaxPoolSize(), is(Runtime.getRuntime().availableProcessors()));
+        assertThat(queryExecution.getMaxQueuedBatches(), is(Default.QUERY_MAX_QUEUED_BATCHES));
+        assertThat(queryExecution.isCostBasedJoins(), is(false));
+        assertThat(queryExecution.getExhaustiveJoinLimit(), is(Default.QUERY_EXHAUSTIVE_JOIN_LIMIT));
+        assertThat(queryExecution.getPlanCacheSize(), is(Default.QUERY_PLAN_CACHE_SIZE));
+    }
+
+    @Test
+    public void shouldReadQueryExecutionConfiguration() {
+        QueryExecution queryExecution = assertValid("config/repo-config-parallel-queries.json").getQueryExecution();
+        assertThat(queryExecution.isParallel(), is(true));
+        assertThat(queryExecution.getThreadPoolName(), is("query-workers"));
+        assertThat(queryExecution.getMaxPoolSize(), is(3));
+        assertThat(queryExecution.getMaxQueuedBatches(), is(8));
+        assertThat(queryExecution.isCostBasedJoins(), is(true));
+        assertThat(queryExecution.getExhaustiveJoinLimit(), is(4));
+        assertThat(queryExecution.getPlanCacheSize(), is(100));
+    }
+
     @Test
     @FixFor( "MODE-1683" )
     public void shouldReadJournalingConfiguration() {
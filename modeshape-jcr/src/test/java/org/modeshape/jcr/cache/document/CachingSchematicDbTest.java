@@ -0,0 +1,116 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.schematic.SchematicDb;
+import org.modeshape.schematic.SchematicEntry;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.internal.document.BasicDocument;
+
+public class CachingSchematicDbTest {
+
+    private static final String KEY = "doc1";
+
+    private final Map<String, Document> committed = new ConcurrentHashMap<>();
+    private final Map<String, Document> pending = new ConcurrentHashMap<>();
+    private final AtomicReference<Runnable> whileCommitting = new AtomicReference<>();
+    private ExecutorService readers;
+    private CachingSchematicDb db;
+
+    @Before
+    public void beforeEach() {
+        readers = Executors.newSingleThreadExecutor();
+        SchematicDb delegate = (SchematicDb)Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                   new Class<?>[] {SchematicDb.class}, this::delegateTo);
+        db = new CachingSchematicDb(delegate, new OffHeapDocumentCache(1024 * 1024), null);
+    }
+
+    @After
+    public void afterEach() {
+        readers.shutdownNow();
+    }
+
+    /**
+     * The underlying database, which only makes the changes visible once they are committed.
+     */
+    private Object delegateTo( Object proxy,
+                               Method method,
+                               Object[] args ) {
+        switch (method.getName()) {
+            case "get":
+                return committed.get(args[0]);
+            case "put":
+                pending.put((String)args[0], ((SchematicEntry)args[1]).source());
+                return null;
+            case "txCommitted":
+                committed.putAll(pending);
+                pending.clear();
+                Runnable hook = whileCommitting.get();
+                if (hook != null) {
+                    hook.run();
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    @Test
+    public void shouldNotReturnCachedContentOfDocumentsWhileTheirChangesAreCommitted() throws Exception {
+        committed.put(KEY, entry(1).source());
+        db.txStarted("tx1");
+        db.put(KEY, entry(2));
+        // another transaction reads (and caches) the committed content ...
+        assertThat(versionReadByOtherTransaction(), is(1));
+        assertThat(db.cache().contains(KEY), is(true));
+
+        whileCommitting.set(() -> {
+            try {
+                assertThat(versionReadByOtherTransaction(), is(2));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        db.txCommitted("tx1");
+        assertThat(db.cache().contains(KEY), is(false));
+        assertThat(versionReadByOtherTransaction(), is(2));
+        assertThat(db.cache().contains(KEY), is(true));
+    }
+
+    private int versionReadByOtherTransaction() throws Exception {
+        return readers.submit(() -> {
+            Document entry = db.get(KEY);
+            return SchematicEntry.fromDocument(entry).content().getInteger("version");
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    private static SchematicEntry entry( int version ) {
+        return SchematicEntry.create(KEY, new BasicDocument("version", version));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.TransactionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.TestingEnvironment;
+import org.modeshape.jcr.TestingUtil;
+import org.modeshape.jcr.txn.DefaultTransactionManagerLookup;
+import org.modeshape.jcr.txn.Transactions;
+import org.modeshape.jcr.txn.Transactions.Transaction;
+import org.modeshape.schematic.Schematic;
+import org.modeshape.schematic.SchematicDb;
+
+public class GroupCommitterTest {
+
+    private SchematicDb db;
+    private Transactions txns;
+    private LocalDocumentStore localStore;
+    private ExecutorService executor;
+    private final List<String> persistedKeys = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> committedKeys = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void beforeTest() throws Exception {
+        db = Schematic.getDb(new TestingEnvironment().defaultPersistenceConfiguration());
+        db.start();
+        TransactionManager tm = new DefaultTransactionManagerLookup().getTransactionManager();
+        TestRepositoryEnvironment repoEnv = new TestRepositoryEnvironment(tm, db);
+        txns = repoEnv.getTransactions();
+        localStore = new LocalDocumentStore(db, repoEnv);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        try {
+            executor.shutdownNow();
+            db.stop();
+        } finally {
+            TestingUtil.killTransaction(txns.getTransactionManager());
+        }
+    }
+
+    @Test
+    public void shouldCommitSingleSaveWithoutWaitingForOthers() throws Exception {
+        GroupCommitter committer = new GroupCommitter(txns, 10, TimeUnit.MINUTES.toMillis(1));
+        // the window is long, but an interrupted leader stops waiting for more saves ...
+        Thread.currentThread().interrupt();
+        PutDocument save = new PutDocument("key1");
+        assertTrue(committer.commit(save));
+        assertTrue(Thread.interrupted());
+        assertTrue(save.committed);
+        assertNotNull(localStore.get("key1"));
+    }
+
+    @Test
+    public void shouldCommitConcurrentSavesInOneTransaction() throws Exception {
+        int numSaves = 8;
+        GroupCommitter committer = new GroupCommitter(txns, numSaves, TimeUnit.MINUTES.toMillis(1));
+        List<PutDocument> saves = new ArrayList<>();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i != numSaves; ++i) {
+            PutDocument save = new PutDocument("key" + i);
+            saves.add(save);
+            results.add(executor.submit(() -> committer.commit(save)));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        String txId = saves.get(0).txId;
+        assertNotNull(txId);
+        for (PutDocument save : saves) {
+            assertEquals(txId, save.txId);
+            assertTrue(save.committed);
+            assertNotNull(localStore.get(save.key));
+        }
+        // the saves are published in the order they were persisted ...
+        assertEquals(numSaves, committedKeys.size());
+        assertEquals(persistedKeys, committedKeys);
+    }
+
+    @Test
+    public void shouldCommitConflictingSavesInSeparateTransactions() throws Exception {
+        GroupCommitter committer = new GroupCommitter(txns, 2, TimeUnit.MINUTES.toMillis(1));
+        PutDocument first = new PutDocument("key1");
+        PutDocument second = new PutDocument("key1");
+        Future<Boolean> firstResult = executor.submit(() -> committer.commit(first));
+        Future<Boolean> secondResult = executor.submit(() -> committer.commit(second));
+        assertTrue(firstResult.get(10, TimeUnit.SECONDS));
+        assertTrue(secondResult.get(10, TimeUnit.SECONDS));
+        assertNotNull(first.txId);
+        assertNotNull(second.txId);
+        assertNotEquals(first.txId, second.txId);
+    }
+
+    @Test
+    public void shouldRollBackWholeGroupWhenAnySaveFails() throws Exception {
+        GroupCommitter committer = new GroupCommitter(txns, 2, TimeUnit.MINUTES.toMillis(1));
+        PutDocument good = new PutDocument("key1");
+        PutDocument bad = new PutDocument("key2") {
+            @Override
+            public void persist( Transaction txn ) throws Exception {
+                super.persist(txn);
+                throw new IllegalStateException("expected");
+            }
+        };
+        Future<Boolean> goodResult = executor.submit(() -> committer.commit(good));
+        Future<Boolean> badResult = executor.submit(() -> committer.commit(bad));
+        assertFalse(goodResult.get(10, TimeUnit.SECONDS));
+        assertFalse(badResult.get(10, TimeUnit.SECONDS));
+        assertTrue(good.rolledBack);
+        assertTrue(bad.rolledBack);
+        assertFalse(good.committed);
+        assertNull(localStore.get("key1"));
+        assertNull(localStore.get("key2"));
+        assertTrue(committedKeys.isEmpty());
+    }
+
+    protected class PutDocument implements GroupCommitter.Participant {
+        protected final String key;
+        protected volatile String txId;
+        protected volatile boolean committed;
+        protected volatile boolean rolledBack;
+
+        protected PutDocument( String key ) {
+            this.key = key;
+        }
+
+        @Override
+        public Set<String> keysToLock() {
+            return Collections.singleton(key);
+        }
+
+        @Override
+        public void persist( Transaction txn ) throws Exception {
+            txId = txn.id();
+            persistedKeys.add(key);
+            localStore.lockDocuments(key);
+            localStore.put(key, Schematic.newDocument("key", key));
+        }
+
+        @Override
+        public void committed( Transaction txn ) {
+            committed = true;
+            committedKeys.add(key);
+        }
+
+        @Override
+        public void rolledBack() {
+            rolledBack = true;
+        }
+    }
+}
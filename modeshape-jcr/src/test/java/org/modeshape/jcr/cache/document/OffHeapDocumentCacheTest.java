@@ -0,0 +1,140 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.cache.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapDocumentCacheTest {
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_COUNT = 64;
+
+    private OffHeapDocumentCache cache;
+
+    @Before
+    public void beforeEach() {
+        // use a single segment so that the eviction order is predictable
+        cache = new OffHeapDocumentCache(BLOCK_COUNT * BLOCK_SIZE, 1, BLOCK_SIZE);
+    }
+
+    @Test
+    public void shouldReturnCachedContent() {
+        byte[] content = content(100, (byte)7);
+        cache.put("doc1", content, cache.stamp("doc1"));
+        assertThat(cache.get("doc1"), is(content));
+        assertThat(cache.contains("doc1"), is(true));
+        assertThat(cache.size(), is(1L));
+        assertThat(cache.usedBytes(), is(2L * BLOCK_SIZE));
+        assertThat(cache.hitCount(), is(1L));
+    }
+
+    @Test
+    public void shouldReturnNullForMissingContent() {
+        assertThat(cache.get("missing"), is(nullValue()));
+        assertThat(cache.contains("missing"), is(false));
+        assertThat(cache.missCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotCacheContentReadBeforeAnInvalidation() {
+        long stamp = cache.stamp("doc1");
+        cache.invalidate("doc2");
+        cache.put("doc1", content(10, (byte)1), stamp);
+        assertThat(cache.contains("doc1"), is(false));
+        assertThat(cache.usedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldRemoveInvalidatedContent() {
+        cache.put("doc1", content(10, (byte)1), cache.stamp("doc1"));
+        cache.invalidate("doc1");
+        assertThat(cache.get("doc1"), is(nullValue()));
+        assertThat(cache.size(), is(0L));
+        assertThat(cache.usedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldReplaceExistingContent() {
+        cache.put("doc1", content(10, (byte)1), cache.stamp("doc1"));
+        byte[] newContent = content(300, (byte)2);
+        cache.put("doc1", newContent, cache.stamp("doc1"));
+        assertThat(cache.get("doc1"), is(newContent));
+        assertThat(cache.size(), is(1L));
+        assertThat(cache.usedBytes(), is(5L * BLOCK_SIZE));
+    }
+
+    @Test
+    public void shouldNotCacheVeryLargeContent() {
+        cache.put("doc1", content(BLOCK_COUNT * BLOCK_SIZE / 2, (byte)1), cache.stamp("doc1"));
+        assertThat(cache.contains("doc1"), is(false));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedContentWhenFull() {
+        // each document uses 8 blocks, so only 8 of them fit ...
+        for (int i = 0; i != 8; ++i) {
+            String id = "doc" + i;
+            cache.put(id, content(8 * BLOCK_SIZE, (byte)i), cache.stamp(id));
+        }
+        assertThat(cache.size(), is(8L));
+        assertThat(cache.put("doc8", content(8 * BLOCK_SIZE, (byte)8), cache.stamp("doc8")), is(1));
+        assertThat(cache.contains("doc0"), is(false));
+        assertThat(cache.contains("doc8"), is(true));
+        assertThat(cache.evictionCount(), is(1L));
+    }
+
+    @Test
+    public void shouldPreferEvictingContentThatWasAccessedOnlyOnce() {
+        for (int i = 0; i != 8; ++i) {
+            String id = "doc" + i;
+            cache.put(id, content(8 * BLOCK_SIZE, (byte)i), cache.stamp(id));
+        }
+        // the oldest entry is accessed again, so it's protected ...
+        assertThat(cache.get("doc0"), is(content(8 * BLOCK_SIZE, (byte)0)));
+        cache.put("doc8", content(8 * BLOCK_SIZE, (byte)8), cache.stamp("doc8"));
+        assertThat(cache.contains("doc0"), is(true));
+        assertThat(cache.contains("doc1"), is(false));
+    }
+
+    @Test
+    public void shouldRemoveAllContentWhenCleared() {
+        for (int i = 0; i != 4; ++i) {
+            String id = "doc" + i;
+            cache.put(id, content(100, (byte)i), cache.stamp(id));
+        }
+        cache.clear();
+        assertThat(cache.size(), is(0L));
+        assertThat(cache.usedBytes(), is(0L));
+        cache.put("doc1", content(100, (byte)1), cache.stamp("doc1"));
+        assertThat(cache.get("doc1"), is(content(100, (byte)1)));
+    }
+
+    private byte[] content( int length,
+                            byte value ) {
+        byte[] result = new byte[length];
+        Arrays.fill(result, value);
+        // make sure the block boundaries are respected
+        for (int i = 0; i < length; i += BLOCK_SIZE) {
+            result[i] = (byte)(i / BLOCK_SIZE);
+        }
+        return result;
+    }
+}
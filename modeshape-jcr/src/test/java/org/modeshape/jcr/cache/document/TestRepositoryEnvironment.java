@@ -60,4 +60,9 @@ public class TestRepositoryEnvironment implements RepositoryEnvironment {
     public LockingService lockingService() {
         return lockingService;
     }
+
+    @Override
+    public GroupCommitter groupCommitter() {
+        return null;
+    }
 }
@@ -19,6 +19,7 @@ package org.modeshape.jcr.index.local;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -170,6 +171,19 @@ public abstract class AbstractLocalIndexTest {
         assertTrue("Not all expected values were found in results: " + expectedValues, expectedValues.isEmpty());
     }
 
+    protected long estimateCardinality( LocalIndex<?> index,
+                                        Operator op,
+                                        Object value ) {
+        return index.estimateCardinality(new ArrayList<>(constraints(propertyName, op, value).getConstraints()),
+                                         Collections.<String, Object>emptyMap());
+    }
+
+    protected void assertApproximately( long actual,
+                                        long expected,
+                                        double tolerance ) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected * tolerance);
+    }
+
     protected void validateResults(LinkedList<String> expectedValues, Filter.Results results) {
         Filter.ResultBatch batch;
         while ((batch = results.getNextBatch(Integer.MAX_VALUE)).size() > 0) {
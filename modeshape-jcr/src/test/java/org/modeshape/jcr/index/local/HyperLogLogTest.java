@@ -0,0 +1,66 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.local;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void shouldEstimateNothingWhenEmpty() {
+        assertThat(new HyperLogLog().estimate(), is(0L));
+    }
+
+    @Test
+    public void shouldCountSmallNumbersOfValuesAlmostExactly() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i != 100; ++i) {
+            sketch.add("value" + i);
+            sketch.add("value" + i);
+        }
+        assertApproximately(sketch.estimate(), 100L, 0.02d);
+    }
+
+    @Test
+    public void shouldEstimateLargeNumbersOfDistinctValues() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long i = 0; i != 1000000L; ++i) {
+            sketch.add(i);
+        }
+        assertApproximately(sketch.estimate(), 1000000L, 0.05d);
+    }
+
+    @Test
+    public void shouldRestoreSketchFromBytes() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i != 10000; ++i) {
+            sketch.add("value" + i);
+        }
+        HyperLogLog restored = new HyperLogLog(sketch.toBytes());
+        assertThat(restored.estimate(), is(sketch.estimate()));
+        restored.clear();
+        assertThat(restored.estimate(), is(0L));
+    }
+
+    private void assertApproximately( long actual,
+                                      long expected,
+                                      double tolerance ) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected * tolerance);
+    }
+}
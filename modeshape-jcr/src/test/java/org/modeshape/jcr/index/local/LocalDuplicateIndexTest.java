@@ -144,4 +144,36 @@ public class LocalDuplicateIndexTest extends AbstractLocalIndexTest {
         assertNoMatch(index, Operator.EQUAL_TO, 30L);
         assertThat(index.estimateTotalCount(), is(8L));
     }
+
+    @Test
+    public void shouldEstimateDistinctValuesAndMatchesOfLargeIndex() {
+        LocalDuplicateIndex<Long> index = duplicateValueIndex(Long.class);
+        for (int i = 1; i <= 50000; ++i) {
+            index.add(key(i), "test", (long)(i % 100));
+        }
+        index.commit();
+        assertThat(index.estimateTotalCount(), is(50000L));
+        assertApproximately(index.estimateDistinctValues(), 100L, 0.05d);
+        assertApproximately(estimateCardinality(index, Operator.EQUAL_TO, 42L), 500L, 0.5d);
+        assertApproximately(estimateCardinality(index, Operator.LESS_THAN, 50L), 25000L, 0.05d);
+        assertThat(estimateCardinality(index, Operator.GREATER_THAN, 100L), is(0L));
+    }
+
+    @Test
+    public void shouldPersistStatisticsWithIndex() {
+        LocalDuplicateIndex<Long> index = duplicateValueIndex(Long.class);
+        for (int i = 1; i <= 50000; ++i) {
+            index.add(key(i), "test", (long)(i % 1000));
+        }
+        index.commit();
+        long distinct = index.estimateDistinctValues();
+        long lessThan = estimateCardinality(index, Operator.LESS_THAN, 250L);
+        assertApproximately(distinct, 1000L, 0.05d);
+        assertApproximately(lessThan, 12500L, 0.05d);
+
+        // Reopen the index from the same database ...
+        LocalDuplicateIndex<Long> reopened = duplicateValueIndex(Long.class);
+        assertThat(reopened.estimateDistinctValues(), is(distinct));
+        assertThat(estimateCardinality(reopened, Operator.LESS_THAN, 250L), is(lessThan));
+    }
 }
@@ -0,0 +1,295 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.index.local;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import javax.jcr.query.qom.Constraint;
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.query.model.FullTextSearch;
+import org.modeshape.jcr.spi.index.provider.Filter;
+
+public class LocalTextIndexTest extends AbstractLocalIndexTest {
+
+    @Test
+    public void shouldAllowCreatingTextIndex() {
+        LocalTextIndex index = textIndex(db, false);
+        assertThat(index.estimateTotalCount(), is(0L));
+        assertThat(index.requiresReindexing(), is(true));
+    }
+
+    @Test
+    public void shouldFindNodesWithMatchingTokens() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+        assertThat(index.estimateTotalCount(), is(4L));
+
+        assertMatches(index, "title", 1, 2, 3);
+        assertMatches(index, "TITLE", 1, 2, 3);
+        assertMatches(index, "different", 2);
+        assertMatches(index, "2015", 4);
+        assertMatches(index, "missing");
+    }
+
+    @Test
+    public void shouldFindNodesContainingTermsWithinTokens() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+
+        assertMatches(index, "tit", 1, 2, 3);
+        assertMatches(index, "ferent", 2);
+        assertMatches(index, "\"ent tit\"", 2);
+        assertMatches(index, "\"ent title\"", 2);
+        assertMatches(index, "\"ent it\"");
+        assertMatches(index, "01", 4);
+    }
+
+    @Test
+    public void shouldReturnAllNodesThatSatisfyTheConstraint() {
+        LocalTextIndex index = textIndex(db, false);
+        String[] texts = {"A scar on the cars", "Carpool", "Incarnation", "The red car park", "A bored carrot", "Nothing here"};
+        for (int i = 0; i != texts.length; ++i) {
+            index.add(key(i + 1), propertyName, texts[i]);
+        }
+        for (String expression : new String[] {"car", "CAR", "ar", "arro", "\"red car\"", "\"ed car\"", "\"red car park\"",
+            "\"bored carrot\"", "\"ored carr\"", "car*", "c*r", "ation"}) {
+            // Find the nodes that the constraint itself accepts, as if there were no index ...
+            FullTextSearch.Term term = search(propertyName, expression).getTerm();
+            List<String> scanned = new ArrayList<>();
+            for (int i = 0; i != texts.length; ++i) {
+                if (term.matches(texts[i])) scanned.add(key(i + 1));
+            }
+            List<String> indexed = resultsFor(index, expression);
+            assertThat(expression, indexed.containsAll(scanned), is(true));
+        }
+    }
+
+    @Test
+    public void shouldScoreNodesByTermFrequencyAndTextLength() {
+        LocalTextIndex index = textIndex(db, false);
+        index.add(key(1), propertyName, "a title among many other words in a rather long piece of text");
+        index.add(key(2), propertyName, "title");
+        index.add(key(3), propertyName, "title title");
+        index.add(key(4), propertyName, "nothing to see here");
+
+        assertThat(resultsFor(index, "title"), is(Arrays.asList(key(3), key(2), key(1))));
+    }
+
+    @Test
+    public void shouldMatchPhrasesUsingTokenPositions() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+
+        assertMatches(index, "\"the title\"", 1);
+        assertMatches(index, "\"different title\"", 2);
+        assertMatches(index, "\"title the\"");
+        assertMatches(index, "\"yet another\"", 3);
+        assertMatches(index, "\"another title\"", 3);
+        assertMatches(index, "\"yet title\"");
+    }
+
+    @Test
+    public void shouldExpandWildcardsInTerms() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+
+        assertMatches(index, "tit*", 1, 2, 3);
+        assertMatches(index, "dif%", 2);
+        assertMatches(index, "*other", 3);
+        assertMatches(index, "t?e", 1, 2, 3);
+        assertMatches(index, "\"a diff* tit*\"", 2);
+        assertMatches(index, "x*");
+    }
+
+    @Test
+    public void shouldEvaluateConjunctionsDisjunctionsAndNegations() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+
+        assertMatches(index, "different title", 2);
+        assertMatches(index, "different OR another", 2, 3);
+        assertMatches(index, "different OR missing", 2);
+        // Negations can't be evaluated by the index, so they're left to the query engine ...
+        assertMatches(index, "title -different", 1, 2, 3);
+    }
+
+    @Test
+    public void shouldOnlyMatchTheSearchedProperty() {
+        LocalTextIndex index = textIndex(db, false);
+        index.add(key(1), "jcr:title", "The Title");
+        index.add(key(1), "jcr:description", "A book about cooking");
+        index.add(key(2), "jcr:title", "Cooking");
+
+        assertMatches(index, "jcr:title", "cooking", 2);
+        assertMatches(index, "jcr:description", "cooking", 1);
+        assertMatches(index, "jcr:description", "title");
+        assertMatches(index, null, "cooking", 1, 2);
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveIndexedText() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+
+        index.add(key(1), propertyName, "A Brand New Name");
+        assertMatches(index, "title", 2, 3);
+        assertMatches(index, "brand", 1);
+
+        index.remove(key(2), propertyName, "A Different Title");
+        assertMatches(index, "title", 3);
+        assertMatches(index, "different");
+
+        index.remove(key(3));
+        assertMatches(index, "title");
+        assertThat(index.estimateTotalCount(), is(2L));
+
+        index.clearAllData();
+        assertMatches(index, "brand");
+        assertThat(index.estimateTotalCount(), is(0L));
+    }
+
+    @Test
+    public void shouldStemPluralsWhenEnabled() {
+        LocalTextIndex index = textIndex(db, true);
+        index.add(key(1), propertyName, "Cooking with cherries");
+        index.add(key(2), propertyName, "A cherry on top");
+        index.add(key(3), propertyName, "Books and glasses");
+
+        assertMatches(index, "cherry", 1, 2);
+        assertMatches(index, "cherries", 1, 2);
+        assertMatches(index, "book", 3);
+        assertMatches(index, "glasses", 3);
+    }
+
+    @Test
+    public void shouldEstimateCardinalityFromTermFrequencies() {
+        LocalTextIndex index = textIndex(db, false);
+        loadTitles(index);
+
+        assertThat(index.estimateCardinality(constraintsFor(propertyName, "title"), variables()), is(3L));
+        assertThat(index.estimateCardinality(constraintsFor(propertyName, "different title"), variables()), is(1L));
+        assertThat(index.estimateCardinality(constraintsFor(propertyName, "different OR another"), variables()), is(2L));
+        assertThat(index.estimateCardinality(constraintsFor(propertyName, "missing"), variables()), is(0L));
+    }
+
+    @Test
+    public void shouldOnlyNarrowSearchesWithIndexableTerms() {
+        assertThat(LocalTextIndex.canNarrow(search(propertyName, "title"), variables()), is(true));
+        assertThat(LocalTextIndex.canNarrow(search(propertyName, "title -other"), variables()), is(true));
+        assertThat(LocalTextIndex.canNarrow(search(propertyName, "title OR other"), variables()), is(true));
+        assertThat(LocalTextIndex.canNarrow(search(propertyName, "-other"), variables()), is(false));
+        assertThat(LocalTextIndex.canNarrow(search(propertyName, "title OR -other"), variables()), is(false));
+        assertThat(LocalTextIndex.canNarrow(search(propertyName, "*"), variables()), is(false));
+    }
+
+    @Test
+    public void shouldPersistIndexInFile() throws Exception {
+        File dir = new File("target/local-text-index");
+        FileUtil.delete(dir);
+        dir.mkdirs();
+        File file = new File(dir, "indexes.db");
+
+        DB fileDb = DBMaker.newFileDB(file).make();
+        LocalTextIndex index = textIndex(fileDb, false);
+        loadTitles(index);
+        index.commit();
+        fileDb.close();
+
+        fileDb = DBMaker.newFileDB(file).make();
+        index = textIndex(fileDb, false);
+        assertThat(index.requiresReindexing(), is(false));
+        assertMatches(index, "\"the title\"", 1);
+        assertMatches(index, "title", 1, 2, 3);
+
+        // Changing the analyzer requires the index to be rebuilt ...
+        index = textIndex(fileDb, true);
+        assertThat(index.requiresReindexing(), is(true));
+        assertMatches(index, "title");
+        fileDb.close();
+        FileUtil.delete(dir);
+    }
+
+    protected LocalTextIndex textIndex( DB db,
+                                        boolean stemming ) {
+        return LocalTextIndex.create("myIndex", "myWorkspace", db, context.getValueFactories().getStringFactory(),
+                                     TextAnalyzer.forStemming(stemming));
+    }
+
+    protected void loadTitles( LocalTextIndex index ) {
+        index.add(key(1), propertyName, "The Title");
+        index.add(key(2), propertyName, "A Different Title");
+        index.add(key(3), propertyName, "Yet-Another_Title");
+        index.add(key(4), propertyName, "Published in 2015");
+    }
+
+    protected void assertMatches( LocalTextIndex index,
+                                  String expression,
+                                  int... keys ) {
+        assertMatches(index, propertyName, expression, keys);
+    }
+
+    protected void assertMatches( LocalTextIndex index,
+                                  String propertyName,
+                                  String expression,
+                                  int... keys ) {
+        assertThat(new HashSet<>(resultsFor(index, propertyName, expression)), is(new HashSet<>(keyList(keys))));
+    }
+
+    protected List<String> resultsFor( LocalTextIndex index,
+                                       String expression ) {
+        return resultsFor(index, propertyName, expression);
+    }
+
+    protected List<String> resultsFor( LocalTextIndex index,
+                                       String propertyName,
+                                       String expression ) {
+        List<String> actual = new ArrayList<>();
+        Filter.Results results = index.filter(constraints(search(propertyName, expression)), -1);
+        Filter.ResultBatch batch;
+        while ((batch = results.getNextBatch(2)).size() > 0) {
+            for (NodeKey key : batch.keys()) {
+                actual.add(key.toString());
+            }
+        }
+        results.close();
+        return actual;
+    }
+
+    protected List<Constraint> constraintsFor( String propertyName,
+                                               String expression ) {
+        return new ArrayList<>(constraints(search(propertyName, expression)).getConstraints());
+    }
+
+    protected FullTextSearch search( String propertyName,
+                                     String expression ) {
+        return new FullTextSearch(selector(), propertyName, expression);
+    }
+
+    protected Map<String, Object> variables() {
+        return Collections.emptyMap();
+    }
+}
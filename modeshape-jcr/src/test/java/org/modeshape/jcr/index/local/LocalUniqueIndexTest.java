@@ -143,4 +143,34 @@ public class LocalUniqueIndexTest extends AbstractLocalIndexTest {
         assertNoMatch(index, Operator.EQUAL_TO, 30L);
         assertThat(index.estimateTotalCount(), is(8L));
     }
+
+    @Test
+    public void shouldEstimateRangesOfLargeIndexFromHistogram() {
+        LocalUniqueIndex<Long> index = uniqueValueIndex(Long.class);
+        loadLongIndex(index, 100000);
+        index.commit();
+        assertThat(index.estimateTotalCount(), is(100000L));
+        assertThat(index.estimateDistinctValues(), is(100000L));
+
+        assertApproximately(estimateCardinality(index, Operator.LESS_THAN, 250000L), 24999L, 0.05d);
+        assertApproximately(estimateCardinality(index, Operator.GREATER_THAN_OR_EQUAL_TO, 400000L), 60001L, 0.05d);
+        assertApproximately(estimateCardinality(index, Operator.NOT_EQUAL_TO, 400000L), 99999L, 0.05d);
+        // Small ranges are counted exactly ...
+        assertThat(estimateCardinality(index, Operator.GREATER_THAN, 999900L), is(10L));
+        assertThat(estimateCardinality(index, Operator.EQUAL_TO, 500000L), is(1L));
+        assertThat(estimateCardinality(index, Operator.EQUAL_TO, 500001L), is(0L));
+    }
+
+    @Test
+    public void shouldKeepHistogramUpToDateAsValuesAreRemoved() {
+        LocalUniqueIndex<Long> index = uniqueValueIndex(Long.class);
+        loadLongIndex(index, 100000);
+        index.commit();
+        for (int i = 1; i <= 50000; ++i) {
+            index.remove(key(i));
+        }
+        assertApproximately(estimateCardinality(index, Operator.LESS_THAN, 750000L), 24999L, 0.1d);
+        index.commit();
+        assertApproximately(estimateCardinality(index, Operator.LESS_THAN, 750000L), 24999L, 0.05d);
+    }
 }
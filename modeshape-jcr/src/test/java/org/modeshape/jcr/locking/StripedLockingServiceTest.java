@@ -0,0 +1,218 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.locking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link StripedLockingService}, which also runs all the {@link StandaloneLockingServiceTest tests} of the
+ * per-name locks.
+ */
+public class StripedLockingServiceTest extends StandaloneLockingServiceTest {
+
+    @Override
+    protected LockingService newLockingService() {
+        return new StripedLockingService(0, 1024, null);
+    }
+
+    @Override
+    @Test
+    public void unlockShouldReleaseReentrantLocks() throws Exception {
+        // names share stripes, so each lock has to be released as many times as it was acquired ...
+        StripedLockingService service = new StripedLockingService(0, 1024, null);
+        String[] locks = { "lock1", "lock2", "lock3" };
+        CompletableFuture.runAsync(() -> {
+            assertLock(service, true, locks);
+            assertLock(service, true, locks);
+            assertTrue(service.unlock(locks));
+        }).get();
+        assertTrue(service.isLocked("lock1"));
+        assertFalse(service.tryLock(locks));
+        assertTrue(service.unlock(locks));
+        assertFalse(service.isLocked("lock1"));
+        assertTrue(service.tryLock(locks));
+        assertTrue(service.unlock(locks));
+    }
+
+    @Test
+    public void shouldRoundUpTheNumberOfStripesToPowerOfTwo() {
+        assertEquals(1, new StripedLockingService(0, 1, null).stripeCount());
+        assertEquals(1024, new StripedLockingService(0, 1000, null).stripeCount());
+        assertEquals(4096, new StripedLockingService(0, 4096, null).stripeCount());
+    }
+
+    @Test
+    public void shouldLockNamesSharingStripeOnlyOnce() throws Exception {
+        StripedLockingService service = new StripedLockingService(0, 1, null);
+        assertLock(service, true, "lock1", "lock2", "lock3");
+        assertTrue(service.unlock("lock1", "lock2", "lock3"));
+        assertFalse(service.isLocked("lock1"));
+    }
+
+    @Test
+    public void shouldExcludeOtherThreadsFromNamesSharingStripe() throws Exception {
+        StripedLockingService service = new StripedLockingService(0, 1, null);
+        assertLock(service, true, "lock1");
+        CompletableFuture.runAsync(() -> assertLock(service, false, "lock2")).get();
+        // but the stripe can be released from another thread ...
+        CompletableFuture.runAsync(() -> assertTrue(service.unlock("lock1"))).get();
+        CompletableFuture.runAsync(() -> {
+            assertLock(service, true, "lock2");
+            assertTrue(service.unlock("lock2"));
+        }).get();
+    }
+
+    @Test
+    public void shouldNotDeadlockWhenLockingNamesInDifferentOrders() throws Exception {
+        StripedLockingService service = new StripedLockingService(0, 64, null);
+        int threadCount = 8;
+        int iterations = 500;
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i != threadCount; ++i) {
+                String[] names = i % 2 == 0 ? new String[] { "a", "b", "c", "d" } : new String[] { "d", "c", "b", "a" };
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j != iterations; ++j) {
+                        assertTrue(service.tryLock(10, TimeUnit.SECONDS, names));
+                        if (holders.incrementAndGet() != 1) violations.incrementAndGet();
+                        holders.decrementAndGet();
+                        service.unlock(names);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    public void shouldNotHoldStripesOfUnrelatedNamesWhenLockingManyNames() throws Exception {
+        StripedLockingService service = new StripedLockingService(0, 64, null);
+        String[] names = names("node", 50);
+        assertLock(service, true, names);
+        CompletableFuture.runAsync(() -> {
+            for (String other : names("other", 20)) {
+                assertLock(service, true, other);
+                assertTrue(service.unlock(other));
+            }
+        }).get();
+        assertTrue(service.unlock(names));
+    }
+
+    @Test
+    public void shouldExcludeOtherThreadsFromNamesLockedSeparately() throws Exception {
+        StripedLockingService service = new StripedLockingService(0, 64, null);
+        String[] names = names("node", 50);
+        assertLock(service, true, names);
+        assertTrue(service.isLocked("node7"));
+        CompletableFuture.runAsync(() -> {
+            assertLock(service, false, "node7");
+            assertLock(service, false, "node7", "other");
+            assertLock(service, false, names);
+        }).get();
+        assertTrue(service.unlock(names));
+        assertFalse(service.isLocked("node7"));
+        CompletableFuture.runAsync(() -> {
+            assertLock(service, true, "node7");
+            assertTrue(service.unlock("node7"));
+        }).get();
+    }
+
+    @Test
+    public void shouldExcludeCallersLockingFewAndManyNamesFromEachOther() throws Exception {
+        StripedLockingService service = new StripedLockingService(0, 64, null);
+        String[] allNames = names("node", 32);
+        AtomicInteger[] holders = new AtomicInteger[allNames.length];
+        for (int i = 0; i != holders.length; ++i) {
+            holders[i] = new AtomicInteger();
+        }
+        AtomicInteger violations = new AtomicInteger();
+        int threadCount = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i != threadCount; ++i) {
+                int thread = i;
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j != 300; ++j) {
+                        // every other call locks all of the names, and the others lock only two of them ...
+                        int first = (thread + j) % allNames.length;
+                        int[] indexes = (thread + j) % 2 == 0 ? range(allNames.length)
+                                                               : new int[] { first, (first + 7) % allNames.length };
+                        String[] names = new String[indexes.length];
+                        for (int k = 0; k != indexes.length; ++k) {
+                            names[k] = allNames[indexes[k]];
+                        }
+                        assertTrue(service.tryLock(10, TimeUnit.SECONDS, names));
+                        for (int index : indexes) {
+                            if (holders[index].incrementAndGet() != 1) violations.incrementAndGet();
+                        }
+                        for (int index : indexes) {
+                            holders[index].decrementAndGet();
+                        }
+                        service.unlock(names);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertEquals(0, violations.get());
+        for (String name : allNames) {
+            assertFalse(service.isLocked(name));
+        }
+    }
+
+    private static String[] names( String prefix,
+                                   int count ) {
+        String[] names = new String[count];
+        for (int i = 0; i != count; ++i) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    private static int[] range( int count ) {
+        int[] range = new int[count];
+        for (int i = 0; i != count; ++i) {
+            range[i] = i;
+        }
+        return range;
+    }
+}
@@ -20,8 +20,10 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,6 +31,7 @@ import org.mapdb.BTreeKeySerializer;
 import org.mapdb.Serializer;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.query.BufferManager.DistinctBuffer;
+import org.modeshape.jcr.query.BufferManager.QueueBuffer;
 import org.modeshape.jcr.query.BufferManager.SortingBuffer;
 import org.modeshape.jcr.query.model.TypeSystem;
 import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
@@ -194,4 +197,47 @@ public class BufferManagerTest {
             assertThat(iter.hasNext(), is(false));
         }
     }
+
+    @SuppressWarnings( "unchecked" )
+    @Test
+    public void shouldRemoveAllValuesFromSortWithDuplicateKeysBuffer() {
+        TypeFactory<String> stringType = types.getStringFactory();
+        Serializer<String> strSerializer = (Serializer<String>)mgr.serializerFor(stringType);
+        Comparator<String> keyComparator = stringType.getComparator();
+        try (SortingBuffer<String, String> buffer = mgr.createSortingWithDuplicatesBuffer(strSerializer, keyComparator,
+                                                                                          strSerializer).useHeap(true)
+                                                       .keepSize(true).make()) {
+            buffer.put("value2", "first");
+            buffer.put("value1", "first");
+            buffer.put("value1", "second");
+            List<String> removed = new ArrayList<>();
+            buffer.removeAll((key, value) -> removed.add(key + "=" + value));
+            assertThat(removed.toString(), is("[value1=first, value1=second, value2=first]"));
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldCreateQueueBufferOnDisk() {
+        try (QueueBuffer<String> buffer = mgr.createQueueBuffer(Serializer.STRING).onDisk(true).make()) {
+            for (int i = 0; i != 1000; ++i) {
+                buffer.append("value" + i);
+            }
+            assertThat(buffer.size(), is(1000L));
+            Iterator<String> iter = buffer.iterator();
+            for (int i = 0; i != 1000; ++i) {
+                assertThat(iter.next(), is("value" + i));
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void shouldRecordUsage() {
+        mgr.recordUsage("join", 100L, 0L);
+        mgr.recordUsage("big join", 1000L, 2000L);
+        assertThat(mgr.getUsages().size(), is(2));
+        assertThat(mgr.getUsages().get(0), is("join peakMemory=100 bytes"));
+        assertThat(mgr.getUsages().get(1), is("big join peakMemory=1000 bytes, spilled=2000 bytes"));
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.BufferManager;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.TypeSystem;
+import org.modeshape.jcr.query.parse.JcrSql2QueryParser;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.Schemata;
+
+public class QueryPlanCacheTest {
+
+    private ExecutionContext executionContext;
+    private TypeSystem typeSystem;
+    private Schemata schemata;
+    private RepositoryIndexes indexDefns;
+    private NodeTypes nodeTypes;
+    private QueryPlanCache cache;
+
+    @Before
+    public void beforeEach() {
+        executionContext = new ExecutionContext();
+        typeSystem = executionContext.getValueFactories().getTypeSystem();
+        schemata = mock(Schemata.class);
+        indexDefns = mock(RepositoryIndexes.class);
+        nodeTypes = mock(NodeTypes.class);
+        cache = new QueryPlanCache(2, null);
+    }
+
+    @Test
+    public void shouldReturnCopyOfCachedPlanAndRestoreComputedHints() {
+        QueryCommand query = parse("SELECT * FROM [nt:base] WHERE [jcr:title] = $title");
+        QueryContext context = context("workspace");
+        PlanHints initialHints = context.getHints().clone();
+        PlanNode plan = plan();
+        context.getHints().hasCriteria = true;
+        assertThat(cache.putPlan(context, query, initialHints, plan), is(true));
+        // Modifying the plan that was cached should not affect the cache ...
+        plan.getFirstChild().setProperty(PlanNode.Property.VARIABLE_NAME, "modified");
+
+        QueryContext another = context("workspace");
+        PlanNode cached = cache.getPlan(another, parse("SELECT * FROM [nt:base] WHERE [jcr:title] = $title"),
+                                        another.getHints().clone());
+        assertThat(cached, is(notNullValue()));
+        assertThat(cached, is(not(sameInstance(plan))));
+        assertThat(cached.getFirstChild().getProperty(PlanNode.Property.VARIABLE_NAME), is(nullValue()));
+        assertThat(another.getHints().hasCriteria, is(true));
+        assertThat(cache.getPlan(another, query, initialHints), is(not(sameInstance(cached))));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(0L));
+    }
+
+    @Test
+    public void shouldNotReusePlansForOtherWorkspacesHintsOrSchemata() {
+        QueryCommand query = parse("SELECT * FROM [nt:base]");
+        QueryContext context = context("workspace");
+        cache.putPlan(context, query, context.getHints().clone(), plan());
+
+        assertThat(cache.getPlan(context("other"), query, new PlanHints()), is(nullValue()));
+        PlanHints hints = new PlanHints();
+        hints.includeSystemContent = false;
+        assertThat(cache.getPlan(context("workspace"), query, hints), is(nullValue()));
+        schemata = mock(Schemata.class);
+        assertThat(cache.getPlan(context("workspace"), query, new PlanHints()), is(nullValue()));
+        assertThat(cache.getMissCount(), is(3L));
+    }
+
+    @Test
+    public void shouldNotReusePlansOfQueriesThatOnlyDifferInTheOrderOfNulls() {
+        QueryCommand nullsLast = parse("SELECT * FROM [nt:base] ORDER BY [jcr:title] DESC NULLS LAST");
+        QueryCommand nullsFirst = parse("SELECT * FROM [nt:base] ORDER BY [jcr:title] DESC NULLS FIRST");
+        cache.putPlan(context("workspace"), nullsLast, new PlanHints(), plan());
+        assertThat(cache.getPlan(context("workspace"), nullsFirst, new PlanHints()), is(nullValue()));
+        assertThat(cache.getPlan(context("workspace"), nullsLast, new PlanHints()), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldNotCachePlansThatCannotBeReused() {
+        QueryCommand query = parse("SELECT * FROM [nt:base] WHERE [jcr:title] > $title");
+        QueryContext context = context("workspace");
+        context.markPlanAsDependentOnVariableValues();
+        assertThat(cache.putPlan(context, query, new PlanHints(), plan()), is(false));
+
+        context = context("workspace");
+        context.getHints().hasSubqueries = true;
+        assertThat(cache.putPlan(context, query, new PlanHints(), plan()), is(false));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldDiscardAllPlansWhenNodeTypesOrIndexesChange() {
+        QueryCommand query1 = parse("SELECT * FROM [nt:base]");
+        QueryCommand query2 = parse("SELECT * FROM [nt:unstructured]");
+        cache.putPlan(context("workspace"), query1, new PlanHints(), plan());
+        assertThat(cache.getPlan(context("workspace"), query1, new PlanHints()), is(notNullValue()));
+
+        nodeTypes = mock(NodeTypes.class);
+        assertThat(cache.getPlan(context("workspace"), query1, new PlanHints()), is(nullValue()));
+        cache.putPlan(context("workspace"), query2, new PlanHints(), plan());
+        assertThat(cache.size(), is(1));
+
+        indexDefns = mock(RepositoryIndexes.class);
+        assertThat(cache.getPlan(context("workspace"), query2, new PlanHints()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedPlans() {
+        QueryCommand query1 = parse("SELECT * FROM [nt:base]");
+        QueryCommand query2 = parse("SELECT * FROM [nt:unstructured]");
+        QueryCommand query3 = parse("SELECT * FROM [nt:file]");
+        cache.putPlan(context("workspace"), query1, new PlanHints(), plan());
+        cache.putPlan(context("workspace"), query2, new PlanHints(), plan());
+        // Use the first plan so that the second is the least recently used ...
+        assertThat(cache.getPlan(context("workspace"), query1, new PlanHints()), is(notNullValue()));
+        cache.putPlan(context("workspace"), query3, new PlanHints(), plan());
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getPlan(context("workspace"), query1, new PlanHints()), is(notNullValue()));
+        assertThat(cache.getPlan(context("workspace"), query2, new PlanHints()), is(nullValue()));
+        assertThat(cache.getPlan(context("workspace"), query3, new PlanHints()), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldCacheParsedQueriesUntilInvalidated() {
+        String expression = "SELECT * FROM [nt:base]";
+        QueryCommand query = parse(expression);
+        assertThat(cache.getParsedQuery("JCR-SQL2", expression), is(nullValue()));
+        cache.putParsedQuery("JCR-SQL2", expression, query);
+        assertThat(cache.getParsedQuery("JCR-SQL2", expression), is(sameInstance(query)));
+        assertThat(cache.getParsedQuery("sql", expression), is(nullValue()));
+
+        cache.putPlan(context("workspace"), query, new PlanHints(), plan());
+        cache.invalidate();
+        assertThat(cache.getParsedQuery("JCR-SQL2", expression), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+
+    protected QueryContext context( String workspaceName ) {
+        return new QueryContext(executionContext, mock(RepositoryCache.class), Collections.singleton(workspaceName), schemata,
+                                indexDefns, nodeTypes, mock(BufferManager.class));
+    }
+
+    protected QueryCommand parse( String expression ) {
+        return new JcrSql2QueryParser().parseQuery(expression, typeSystem);
+    }
+
+    protected PlanNode plan() {
+        PlanNode project = new PlanNode(Type.PROJECT);
+        new PlanNode(Type.SOURCE, project);
+        return project;
+    }
+}
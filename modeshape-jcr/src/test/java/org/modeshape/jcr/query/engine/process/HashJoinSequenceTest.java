@@ -16,18 +16,26 @@
 package org.modeshape.jcr.query.engine.process;
 
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.query.AbstractNodeSequenceTest;
 import org.modeshape.jcr.query.BufferManager;
+import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.NodeSequence.Batch;
 import org.modeshape.jcr.query.NodeSequence.RowAccessor;
 import org.modeshape.jcr.query.RowExtractors;
 import org.modeshape.jcr.query.RowExtractors.ExtractFromRow;
 import org.modeshape.jcr.query.engine.process.JoinSequence.RangeProducer;
 import org.modeshape.jcr.query.model.JoinType;
 import org.modeshape.jcr.query.model.TypeSystem;
+import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
 import org.modeshape.jcr.value.ValueTypeSystem;
 
 /**
@@ -268,6 +276,126 @@ public class HashJoinSequenceTest extends AbstractNodeSequenceTest {
                                             RowExtractors.extractPath(1, cache, types), nodeCount * nodeCount));
     }
 
+    @Test
+    public void shouldInnerJoinParentToChildInPartitionsOnDisk() {
+        assertSameRowsWhenPartitioned(JoinType.INNER, RowExtractors.extractNodeKey(0, cache, types),
+                                      RowExtractors.extractParentNodeKey(0, cache, types));
+    }
+
+    @Test
+    public void shouldLeftOuterJoinParentToChildInPartitionsOnDisk() {
+        assertSameRowsWhenPartitioned(JoinType.LEFT_OUTER, RowExtractors.extractNodeKey(0, cache, types),
+                                      RowExtractors.extractParentNodeKey(0, cache, types));
+    }
+
+    @Test
+    public void shouldRightOuterJoinParentToChildInPartitionsOnDisk() {
+        assertSameRowsWhenPartitioned(JoinType.RIGHT_OUTER, RowExtractors.extractNodeKey(0, cache, types),
+                                      RowExtractors.extractParentNodeKey(0, cache, types));
+    }
+
+    @Test
+    public void shouldFullOuterJoinParentToChildInPartitionsOnDisk() {
+        assertSameRowsWhenPartitioned(JoinType.FULL_OUTER, RowExtractors.extractNodeKey(0, cache, types),
+                                      RowExtractors.extractParentNodeKey(0, cache, types));
+    }
+
+    @Test
+    public void shouldLeftOuterJoinOnMultipleValuesInPartitionsOnDisk() {
+        // Each left row has values in (most likely) different partitions ...
+        final ExtractFromRow nodeKey = RowExtractors.extractNodeKey(0, cache, types);
+        final ExtractFromRow parentKey = RowExtractors.extractParentNodeKey(0, cache, types);
+        ExtractFromRow keys = new ExtractFromRow() {
+            @Override
+            public TypeFactory<?> getType() {
+                return nodeKey.getType();
+            }
+
+            @Override
+            public Object getValueInRow( RowAccessor row ) {
+                return new Object[] {nodeKey.getValueInRow(row), parentKey.getValueInRow(row)};
+            }
+        };
+        assertSameRowsWhenPartitioned(JoinType.LEFT_OUTER, keys, parentKey);
+        assertSameRowsWhenPartitioned(JoinType.INNER, keys, parentKey);
+    }
+
+    @Test
+    public void shouldRightAndFullOuterJoinOnMultipleValuesInPartitionsOnDisk() {
+        // Each right row has its own key and a key that matches nothing, which are (most likely) in different partitions;
+        // the rows with children must only be matched, even when they match in a later partition ...
+        final ExtractFromRow nodeKey = RowExtractors.extractNodeKey(0, cache, types);
+        ExtractFromRow parentKey = RowExtractors.extractParentNodeKey(0, cache, types);
+        ExtractFromRow keys = new ExtractFromRow() {
+            @Override
+            public TypeFactory<?> getType() {
+                return nodeKey.getType();
+            }
+
+            @Override
+            public Object getValueInRow( RowAccessor row ) {
+                Object key = nodeKey.getValueInRow(row);
+                if (key == null) return null;
+                return new Object[] {key, "unmatched-" + key};
+            }
+        };
+        assertSameRowsWhenPartitioned(JoinType.RIGHT_OUTER, parentKey, keys);
+        assertSameRowsWhenPartitioned(JoinType.FULL_OUTER, parentKey, keys);
+    }
+
+    @Test
+    public void shouldNotPartitionJoinThatFitsInMemory() {
+        HashJoinSequence join = new HashJoinSequence(workspaceName(), allNodes(), allNodes(),
+                                                     RowExtractors.extractNodeKey(0, cache, types),
+                                                     RowExtractors.extractParentNodeKey(0, cache, types), JoinType.INNER,
+                                                     bufferMgr, cache, null, false, true, Long.MAX_VALUE - 1, 4);
+        List<String> rows = rowsOf(join);
+        assertFalse(rows.isEmpty());
+        assertThat(bufferMgr.getUsages().size(), is(1));
+        String usage = bufferMgr.getUsages().get(0);
+        assertTrue(usage, usage.contains("peakMemory="));
+        assertFalse(usage, usage.contains("spilled="));
+    }
+
+    protected void assertSameRowsWhenPartitioned( JoinType joinType,
+                                                  ExtractFromRow leftExtractor,
+                                                  ExtractFromRow rightExtractor ) {
+        boolean pack = false;
+        boolean useHeap = true;
+        HashJoinSequence inMemory = new HashJoinSequence(workspaceName(), allNodes(), allNodes(), leftExtractor, rightExtractor,
+                                                         joinType, bufferMgr, cache, null, pack, useHeap);
+        List<String> expected = rowsOf(inMemory);
+        // Allow just a few rows in memory, so that the join has to use partitions ...
+        long memoryLimit = 100L;
+        HashJoinSequence partitioned = new HashJoinSequence(workspaceName(), allNodes(), allNodes(), leftExtractor,
+                                                            rightExtractor, joinType, bufferMgr, cache, null, pack, useHeap,
+                                                            memoryLimit, 4);
+        List<String> actual = rowsOf(partitioned);
+        assertFalse(actual.isEmpty());
+        assertThat(actual, is(expected));
+        List<String> usages = bufferMgr.getUsages();
+        String usage = usages.get(usages.size() - 1);
+        assertTrue(usage, usage.contains("in 4 partitions"));
+        assertTrue(usage, usage.contains("spilled="));
+    }
+
+    protected List<String> rowsOf( NodeSequence sequence ) {
+        List<String> rows = new ArrayList<>();
+        try {
+            Batch batch = null;
+            while ((batch = sequence.nextBatch()) != null) {
+                while (batch.hasNext()) {
+                    batch.nextRow();
+                    rows.add(rowAsString(batch));
+                }
+            }
+        } finally {
+            sequence.close();
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
     protected Verifier leftInnerJoinVerifier( final ExtractFromRow leftExtractor,
                                               final ExtractFromRow rightExtractor ) {
         return new Verifier() {
@@ -0,0 +1,161 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.engine.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.query.AbstractNodeSequenceTest;
+import org.modeshape.jcr.query.NodeSequence;
+import org.modeshape.jcr.query.NodeSequence.Batch;
+
+public class ParallelSequenceTest extends AbstractNodeSequenceTest {
+
+    private ExecutorService executor;
+
+    @Override
+    @Before
+    public void beforeEach() {
+        super.beforeEach();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    @After
+    public void afterEach() {
+        executor.shutdownNow();
+        super.afterEach();
+    }
+
+    @Test
+    public void shouldReturnAllRowsInOrder() {
+        List<NodeKey> expected = keysIn(allNodes(1.0f, 3));
+        NodeSequence parallel = ParallelSequence.evaluate(allNodes(1.0f, 3), executor, 2, () -> false);
+        assertThat(parallel instanceof ParallelSequence, is(true));
+        assertThat(keysIn(parallel), is(expected));
+    }
+
+    @Test
+    public void shouldReturnAllRowsOfUnionOfParallelBranches() {
+        long count = countRows(allNodes());
+        NodeSequence first = ParallelSequence.evaluate(allNodes(1.0f, 2), executor, 1, () -> false);
+        NodeSequence second = ParallelSequence.evaluate(allNodes(1.0f, 5), executor, 1, () -> false);
+        assertThat(countRows(NodeSequence.append(first, second)), is(2 * count));
+    }
+
+    @Test
+    public void shouldDescribeDelegateBeforeEvaluating() {
+        NodeSequence delegate = allNodes();
+        NodeSequence parallel = ParallelSequence.evaluate(delegate, executor, 2, () -> false);
+        assertThat(parallel.width(), is(1));
+        assertThat(parallel.isEmpty(), is(false));
+        countRows(parallel);
+    }
+
+    @Test
+    public void shouldEvaluateSeriallyWhenExecutorIsBusy() {
+        ExecutorService busy = Executors.newSingleThreadExecutor();
+        busy.shutdown();
+        NodeSequence delegate = allNodes();
+        assertThat(ParallelSequence.evaluate(delegate, busy, 2, () -> false), is(sameInstance(delegate)));
+    }
+
+    @Test
+    public void shouldPropagateFailureOfDelegate() {
+        final RuntimeException failure = new IllegalStateException("expected");
+        NodeSequence failing = new DelegatingSequence(allNodes(1.0f, 2)) {
+            private int count = 0;
+
+            @Override
+            public Batch nextBatch() {
+                if (++count > 2) throw failure;
+                return super.nextBatch();
+            }
+        };
+        NodeSequence parallel = ParallelSequence.evaluate(failing, executor, 1, () -> false);
+        try {
+            countRows(parallel);
+            fail("Expected the failure of the delegate");
+        } catch (IllegalStateException e) {
+            assertThat(e, is(sameInstance(failure)));
+        }
+    }
+
+    @Test
+    public void shouldStopEvaluatingDelegateWhenClosed() throws Exception {
+        AtomicInteger batchCount = new AtomicInteger();
+        AtomicBoolean delegateClosed = new AtomicBoolean();
+        NodeSequence delegate = new DelegatingSequence(allNodes(1.0f, 1)) {
+            @Override
+            public Batch nextBatch() {
+                batchCount.incrementAndGet();
+                return super.nextBatch();
+            }
+
+            @Override
+            public void close() {
+                delegateClosed.set(true);
+                super.close();
+            }
+        };
+        NodeSequence parallel = ParallelSequence.evaluate(delegate, executor, 1, () -> false);
+        assertThat(parallel.nextBatch().hasNext(), is(true));
+        parallel.close();
+        assertThat(parallel.nextBatch() == null, is(true));
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(delegateClosed.get(), is(true));
+        // only a few batches were read, since the queue holds a single batch ...
+        assertThat(batchCount.get() < countRows(allNodes()), is(true));
+    }
+
+    @Test
+    public void shouldStopEvaluatingDelegateWhenQueryIsCancelled() {
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+        NodeSequence parallel = ParallelSequence.evaluate(allNodes(1.0f, 1), executor, 1, cancelled::get);
+        assertThat(countRows(parallel), is(0L));
+    }
+
+    private List<NodeKey> keysIn( NodeSequence sequence ) {
+        List<NodeKey> keys = new ArrayList<>();
+        try {
+            Batch batch = null;
+            while ((batch = sequence.nextBatch()) != null) {
+                while (batch.hasNext()) {
+                    batch.nextRow();
+                    CachedNode node = batch.getNode();
+                    keys.add(node != null ? node.getKey() : null);
+                }
+            }
+        } finally {
+            sequence.close();
+        }
+        return keys;
+    }
+}
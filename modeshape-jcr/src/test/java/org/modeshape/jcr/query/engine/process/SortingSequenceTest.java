@@ -17,10 +17,13 @@ package org.modeshape.jcr.query.engine.process;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -123,8 +126,149 @@ public class SortingSequenceTest extends AbstractNodeSequenceTest {
         assertSorted(sorted, extractor);
     }
 
-    protected void assertSorted( NodeSequence sequence,
-                                 ExtractFromRow extractor ) {
+    @Test
+    public void shouldSortSequenceWithDuplicatesInRunsOnDisk() {
+        ExtractFromRow extractor = RowExtractors.extractParentNodeKey(0, cache, types);
+        assertSameValuesWhenSpilled(extractor, true, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldSortSequenceWithoutDuplicatesInRunsOnDisk() {
+        ExtractFromRow extractor = RowExtractors.extractParentNodeKey(0, cache, types);
+        assertSameValuesWhenSpilled(extractor, false, Integer.MAX_VALUE);
+        extractor = RowExtractors.extractPath(0, cache, types);
+        assertSameValuesWhenSpilled(extractor, false, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldReturnFirstRowsOfSequenceInRunsOnDisk() {
+        ExtractFromRow extractor = RowExtractors.extractPath(0, cache, types);
+        assertSameValuesWhenSpilled(extractor, true, 5);
+        assertSameValuesWhenSpilled(extractor, false, 5);
+    }
+
+    @Test
+    public void shouldReturnFirstRowsOfSequence() {
+        boolean useHeap = false;
+        boolean pack = false;
+        ExtractFromRow extractor = RowExtractors.extractPath(0, cache, types);
+        for (boolean allowDups : new boolean[] {true, false}) {
+            SortingSequence all = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                      allowDups, NullOrder.NULLS_LAST);
+            List<Object> expected = valuesOf(all, extractor).subList(0, 3);
+            SortingSequence first = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                        allowDups, NullOrder.NULLS_LAST, Long.MAX_VALUE, 3);
+            assertThat(first.getRowCount(), is(3L));
+            assertThat(valuesOf(first, extractor), is(expected));
+            String usage = lastUsage();
+            assertTrue(usage, usage.contains("first=3"));
+        }
+    }
+
+    @Test
+    public void shouldKeepFirstOfRowsWithSameValueWhenReturningFirstRows() {
+        ExtractFromRow parentKey = RowExtractors.extractParentNodeKey(0, cache, types);
+        ExtractFromRow nodeKey = RowExtractors.extractNodeKey(0, cache, types);
+        // Find the first row for each parent ...
+        Map<Object, Object> firstChildren = new HashMap<>();
+        NodeSequence all = allNodes();
+        Batch batch = null;
+        while ((batch = all.nextBatch()) != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                firstChildren.putIfAbsent(parentKey.getValueInRow(batch), nodeKey.getValueInRow(batch));
+            }
+        }
+        SortingSequence first = new SortingSequence(workspaceName(), allNodes(), parentKey, bufferMgr, cache, false, true,
+                                                    false, NullOrder.NULLS_LAST, Long.MAX_VALUE, 3);
+        int count = 0;
+        while ((batch = first.nextBatch()) != null) {
+            while (batch.hasNext()) {
+                batch.nextRow();
+                Object parent = parentKey.getValueInRow(batch);
+                if (parent == null) continue; // the rows with NULL are always returned
+                assertThat(nodeKey.getValueInRow(batch), is(firstChildren.get(parent)));
+                ++count;
+            }
+        }
+        first.close();
+        assertThat(count, is(3));
+    }
+
+    @Test
+    public void shouldReturnSameRowsWithAndWithoutLimitWhenSortValuesAreDuplicated() {
+        ExtractFromRow parentKey = RowExtractors.extractParentNodeKey(0, cache, types);
+        ExtractFromRow nodeKey = RowExtractors.extractNodeKey(0, cache, types);
+        int rowLimit = 2;
+        // Sort by the parent, so that every parent with several children has several rows with the same sortable value ...
+        List<Object> all = nodeKeysWithParent(new SortingSequence(workspaceName(), allNodes(), parentKey, bufferMgr, cache, false,
+                                                                  true, false, NullOrder.NULLS_LAST), parentKey, nodeKey);
+        assertTrue(all.size() > rowLimit);
+        List<Object> first = nodeKeysWithParent(new SortingSequence(workspaceName(), allNodes(), parentKey, bufferMgr, cache,
+                                                                    false, true, false, NullOrder.NULLS_LAST, Long.MAX_VALUE,
+                                                                    rowLimit), parentKey, nodeKey);
+        assertThat(first, is(all.subList(0, rowLimit)));
+        // The same rows are returned when the rows are written to several runs ...
+        long memoryLimit = 100L;
+        List<Object> allSpilled = nodeKeysWithParent(new SortingSequence(workspaceName(), allNodes(), parentKey, bufferMgr, cache,
+                                                                         false, true, false, NullOrder.NULLS_LAST, memoryLimit,
+                                                                         Integer.MAX_VALUE), parentKey, nodeKey);
+        assertThat(allSpilled, is(all));
+        List<Object> firstSpilled = nodeKeysWithParent(new SortingSequence(workspaceName(), allNodes(), parentKey, bufferMgr,
+                                                                           cache, false, true, false, NullOrder.NULLS_LAST,
+                                                                           memoryLimit, rowLimit), parentKey, nodeKey);
+        assertThat(firstSpilled, is(first));
+    }
+
+    protected List<Object> nodeKeysWithParent( NodeSequence sequence,
+                                               ExtractFromRow parentKey,
+                                               ExtractFromRow nodeKey ) {
+        List<Object> keys = new ArrayList<Object>();
+        try {
+            Batch batch = null;
+            while ((batch = sequence.nextBatch()) != null) {
+                while (batch.hasNext()) {
+                    batch.nextRow();
+                    // the rows with NULL are always returned ...
+                    if (parentKey.getValueInRow(batch) != null) {
+                        keys.add(nodeKey.getValueInRow(batch));
+                    }
+                }
+            }
+        } finally {
+            sequence.close();
+        }
+        return keys;
+    }
+
+    protected void assertSameValuesWhenSpilled( ExtractFromRow extractor,
+                                                boolean allowDups,
+                                                int rowLimit ) {
+        boolean useHeap = true;
+        boolean pack = false;
+        SortingSequence inMemory = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                       allowDups, NullOrder.NULLS_LAST);
+        long expectedCount = Math.min(inMemory.getRowCount(), rowLimit);
+        List<Object> expected = valuesOf(inMemory, extractor);
+        expected = expected.subList(0, (int)expectedCount);
+        // Allow just a few rows in memory, so that the rows have to be written to several runs ...
+        long memoryLimit = 100L;
+        SortingSequence spilled = new SortingSequence(workspaceName(), allNodes(), extractor, bufferMgr, cache, pack, useHeap,
+                                                      allowDups, NullOrder.NULLS_LAST, memoryLimit, rowLimit);
+        assertThat(spilled.getRowCount(), is(expectedCount));
+        assertThat(valuesOf(spilled, extractor), is(expected));
+        String usage = lastUsage();
+        assertTrue(usage, usage.contains("runs="));
+        assertTrue(usage, usage.contains("spilled="));
+    }
+
+    protected String lastUsage() {
+        List<String> usages = bufferMgr.getUsages();
+        return usages.get(usages.size() - 1);
+    }
+
+    protected List<Object> valuesOf( NodeSequence sequence,
+                                     ExtractFromRow extractor ) {
         List<Object> values = new ArrayList<Object>();
         // Iterate over the batches ...
         try {
@@ -140,6 +284,12 @@ public class SortingSequenceTest extends AbstractNodeSequenceTest {
         } finally {
             sequence.close();
         }
+        return values;
+    }
+
+    protected void assertSorted( NodeSequence sequence,
+                                 ExtractFromRow extractor ) {
+        List<Object> values = valuesOf(sequence, extractor);
         @SuppressWarnings( "unchecked" )
         Comparator<Object> comparator = (Comparator<Object>)extractor.getType().getComparator();
         List<Object> naturallySorted = new ArrayList<Object>(values);
@@ -0,0 +1,233 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.Collections;
+import java.util.LinkedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.NodeTypes;
+import org.modeshape.jcr.RepositoryIndexes;
+import org.modeshape.jcr.api.query.qom.Operator;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.AbstractQueryTest;
+import org.modeshape.jcr.query.BufferManager;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.engine.IndexPlan;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.Or;
+import org.modeshape.jcr.query.model.PropertyValue;
+import org.modeshape.jcr.query.plan.JoinAlgorithm;
+import org.modeshape.jcr.query.plan.JoinEstimate;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.Schemata;
+
+public class CostBasedJoinOrderTest extends AbstractQueryTest {
+
+    private QueryContext context;
+
+    @Before
+    public void beforeEach() {
+        context = new QueryContext(new ExecutionContext(), mock(RepositoryCache.class), Collections.singleton("workspace"),
+                                   mock(Schemata.class), mock(RepositoryIndexes.class), mock(NodeTypes.class),
+                                   mock(BufferManager.class));
+    }
+
+    @Test
+    public void shouldJoinSmallSourcesBeforeJoiningLargeOnes() {
+        PlanNode a = source("A", 1000000L);
+        PlanNode b = source("B", 1000000L);
+        PlanNode c = source("C", 10L);
+        PlanNode lower = join(a, b, equiJoin("A", "B"));
+        PlanNode upper = join(lower, c, equiJoin("B", "C"));
+
+        PlanNode result = execute(CostBasedJoinOrder.INSTANCE, upper);
+        assertThat(result, is(notSameInstance(upper)));
+        assertSelectors(result, "A", "B", "C");
+        assertThat(result.getFirstChild(), is(sameInstance(a)));
+        PlanNode right = result.getLastChild();
+        assertThat(right.getType(), is(Type.JOIN));
+        // The small source is the build side of the hash join ...
+        assertChildren(right, b, c);
+        assertThat(right.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+        assertThat(right.getProperty(Property.JOIN_ESTIMATE, JoinEstimate.class).getRightCardinality(), is(10L));
+        assertThat(result.getProperty(Property.JOIN_ESTIMATE, JoinEstimate.class).getCardinality(), is(10L));
+    }
+
+    @Test
+    public void shouldOrderLargeJoinsGreedily() {
+        PlanNode a = source("A", 1000000L);
+        PlanNode b = source("B", 1000000L);
+        PlanNode c = source("C", 10L);
+        PlanNode lower = join(a, b, equiJoin("A", "B"));
+        PlanNode upper = join(lower, c, equiJoin("B", "C"));
+
+        PlanNode result = execute(new CostBasedJoinOrder(0), upper);
+        assertThat(result.getFirstChild(), is(sameInstance(a)));
+        assertChildren(result.getLastChild(), b, c);
+    }
+
+    @Test
+    public void shouldKeepOriginalJoinsThatAreAlreadyCheapest() {
+        PlanNode b = source("B", 1000000L);
+        PlanNode c = source("C", 10L);
+        PlanNode join = join(b, c, equiJoin("B", "C"));
+
+        PlanNode result = execute(CostBasedJoinOrder.INSTANCE, join);
+        assertThat(result, is(sameInstance(join)));
+        assertChildren(join, b, c);
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+        JoinEstimate estimate = join.getProperty(Property.JOIN_ESTIMATE, JoinEstimate.class);
+        assertThat(estimate, is(notNullValue()));
+        assertThat(estimate.getLeftCardinality(), is(1000000L));
+        assertThat(estimate.getRightCardinality(), is(10L));
+    }
+
+    @Test
+    public void shouldBuildSmallerSideOfTwoWayJoin() {
+        PlanNode b = source("B", 10L);
+        PlanNode c = source("C", 1000000L);
+        PlanNode join = join(b, c, equiJoin("B", "C"));
+
+        PlanNode result = execute(CostBasedJoinOrder.INSTANCE, join);
+        assertChildren(result, c, b);
+        assertThat(result.getProperty(Property.JOIN_CONDITION, JoinCondition.class),
+                   is(join.getProperty(Property.JOIN_CONDITION, JoinCondition.class)));
+    }
+
+    @Test
+    public void shouldKeepAncestorsOnLeftSideOfDescendantJoins() {
+        PlanNode ancestors = source("Ancestor", 1000000L);
+        PlanNode descendants = source("Descendant", 10L);
+        PlanNode join = join(ancestors, descendants, new DescendantNodeJoinCondition(selector("Ancestor"),
+                                                                                     selector("Descendant")));
+
+        PlanNode result = execute(CostBasedJoinOrder.INSTANCE, join);
+        assertThat(result, is(sameInstance(join)));
+        assertChildren(join, ancestors, descendants);
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+    }
+
+    @Test
+    public void shouldMoveJoinCriteriaToLowestJoinWithAllOfTheirSelectors() {
+        PlanNode a = source("A", 1000000L);
+        PlanNode b = source("B", 1000000L);
+        PlanNode c = source("C", 10L);
+        PlanNode lower = join(a, b, equiJoin("A", "B"));
+        PlanNode upper = join(lower, c, equiJoin("B", "C"));
+        Constraint criteria = new Or(new Comparison(new PropertyValue(selector("B"), "x"), Operator.EQUAL_TO, new Literal("1")),
+                                     new Comparison(new PropertyValue(selector("C"), "y"), Operator.EQUAL_TO, new Literal("2")));
+        upper.setProperty(Property.JOIN_CONSTRAINTS, Collections.singletonList(criteria));
+
+        PlanNode result = execute(CostBasedJoinOrder.INSTANCE, upper);
+        assertThat(result.hasProperty(Property.JOIN_CONSTRAINTS), is(false));
+        assertPropertyIsList(result.getLastChild(), Property.JOIN_CONSTRAINTS, Constraint.class, criteria);
+    }
+
+    @Test
+    public void shouldNotReorderOuterJoins() {
+        PlanNode b = source("B", 10L);
+        PlanNode c = source("C", 1000000L);
+        PlanNode join = join(b, c, equiJoin("B", "C"));
+        join.setProperty(Property.JOIN_TYPE, JoinType.LEFT_OUTER);
+
+        PlanNode result = execute(CostBasedJoinOrder.INSTANCE, join);
+        assertThat(result, is(sameInstance(join)));
+        assertChildren(join, b, c);
+        assertThat(join.hasProperty(Property.JOIN_ESTIMATE), is(false));
+    }
+
+    @Test
+    public void shouldEstimateEquiJoinsFromDistinctValuesOfIndexes() {
+        PlanNode b = source("B", 1000L);
+        PlanNode c = source("C", 1000L);
+        EquiJoinCondition condition = equiJoin("B", "C");
+        PlanNode join = join(b, c, condition);
+
+        execute(CostBasedJoinOrder.INSTANCE, join);
+        // Without statistics the values are assumed to be unique ...
+        assertThat(join.getProperty(Property.JOIN_ESTIMATE, JoinEstimate.class).getCardinality(), is(1000L));
+
+        // Each side has only 10 distinct values, so each value matches 100 rows on the other side ...
+        joinIndex(b, condition, 10L);
+        joinIndex(c, condition, 10L);
+        execute(CostBasedJoinOrder.INSTANCE, join);
+        assertThat(join.getProperty(Property.JOIN_ESTIMATE, JoinEstimate.class).getCardinality(), is(100000L));
+    }
+
+    private PlanNode execute( CostBasedJoinOrder rule,
+                              PlanNode plan ) {
+        return rule.execute(context, plan, new LinkedList<OptimizerRule>());
+    }
+
+    private PlanNode source( String selectorName,
+                             long cardinality ) {
+        PlanNode access = new PlanNode(Type.ACCESS, selector(selectorName));
+        PlanNode source = new PlanNode(Type.SOURCE, access, selector(selectorName));
+        PlanNode index = new PlanNode(Type.INDEX, source, selector(selectorName));
+        index.setProperty(Property.INDEX_SPECIFICATION, new IndexPlan(selectorName + "Index", "workspace", "local", null, null,
+                                                                      100, cardinality, null, null));
+        return access;
+    }
+
+    private void joinIndex( PlanNode access,
+                            JoinCondition condition,
+                            long distinctValues ) {
+        PlanNode source = access.getFirstChild();
+        PlanNode index = new PlanNode(Type.INDEX, source, source.getSelectors());
+        index.setProperty(Property.INDEX_SPECIFICATION, new IndexPlan(source.getSelectors().iterator().next() + "JoinIndex",
+                                                                      "workspace", "local", null,
+                                                                      Collections.singletonList(condition), 100, 1000L,
+                                                                      1f / distinctValues, null));
+    }
+
+    private PlanNode join( PlanNode left,
+                           PlanNode right,
+                           JoinCondition condition ) {
+        PlanNode join = new PlanNode(Type.JOIN);
+        join.addLastChild(left);
+        join.addLastChild(right);
+        join.addSelectors(left.getSelectors());
+        join.addSelectors(right.getSelectors());
+        join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+        join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+        join.setProperty(Property.JOIN_CONDITION, condition);
+        return join;
+    }
+
+    private EquiJoinCondition equiJoin( String selector1,
+                                        String selector2 ) {
+        return new EquiJoinCondition(selector(selector1), "id", selector(selector2), "id");
+    }
+
+    private static <T> org.hamcrest.Matcher<T> notSameInstance( T instance ) {
+        return org.hamcrest.core.IsNot.not(sameInstance(instance));
+    }
+}
@@ -18,6 +18,7 @@ package org.modeshape.jcr.security;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -434,6 +435,21 @@ public class AccessControlManagerTest extends MultiUseAbstractTest {
         }
     }
 
+    @Test
+    public void shouldReevaluatePermissionsWhenAccessListsChange() throws Exception {
+        ((Node)session.getNode("/")).addNode("aclCache").addNode("child");
+        session.save();
+        assertTrue(session.hasPermission("/aclCache/child", "add_node"));
+
+        setPolicy("/aclCache", Privilege.JCR_READ, Privilege.JCR_MODIFY_ACCESS_CONTROL, Privilege.JCR_READ_ACCESS_CONTROL);
+        assertTrue(session.hasPermission("/aclCache/child", "read"));
+        assertFalse(session.hasPermission("/aclCache/child", "add_node"));
+
+        acm.removePolicy("/aclCache", acl("/aclCache"));
+        session.save();
+        assertTrue(session.hasPermission("/aclCache/child", "add_node"));
+    }
+
     private static void setPolicy( String path,
                                    String... privileges ) throws UnsupportedRepositoryOperationException, RepositoryException {
         AccessControlManager acm = session.getAccessControlManager();
@@ -0,0 +1,106 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.security.acl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.jcr.security.Privilege;
+import org.junit.Test;
+import org.modeshape.jcr.security.SecurityContext;
+
+public class CompiledAccessControlListTest {
+
+    private static final long READ = CompiledAccessControlList.maskOf(Privilege.JCR_READ);
+    private static final long ADD_CHILD_NODES = CompiledAccessControlList.maskOf(Privilege.JCR_ADD_CHILD_NODES);
+    private static final long MODIFY_ACCESS_CONTROL = CompiledAccessControlList.maskOf(Privilege.JCR_MODIFY_ACCESS_CONTROL);
+
+    @Test
+    public void shouldGrantPrivilegesAggregatedByThoseInTheEntries() {
+        CompiledAccessControlList acl = compile("john", "jcr:read", "jcr:write");
+        SecurityContext john = context("john");
+        assertTrue(acl.grants(john, READ));
+        assertTrue(acl.grants(john, READ | ADD_CHILD_NODES));
+        assertTrue(acl.grants(john, CompiledAccessControlList.maskOf("jcr:write")));
+        assertFalse(acl.grants(john, MODIFY_ACCESS_CONTROL));
+        assertFalse(acl.grants(john, CompiledAccessControlList.maskOf("jcr:all")));
+
+        acl = compile("john", "jcr:all");
+        assertTrue(acl.grants(john, READ | ADD_CHILD_NODES | MODIFY_ACCESS_CONTROL));
+    }
+
+    @Test
+    public void shouldOnlyGrantPrivilegesToMatchingPrincipals() {
+        Map<String, Set<String>> permissions = new HashMap<>();
+        permissions.put("everyone", Collections.singleton("jcr:read"));
+        permissions.put("john", Collections.singleton("jcr:addChildNodes"));
+        permissions.put("admin", Collections.singleton("jcr:all"));
+        CompiledAccessControlList acl = CompiledAccessControlList.compile(permissions);
+
+        assertTrue(acl.grants(context("mary"), READ));
+        assertFalse(acl.grants(context("mary"), ADD_CHILD_NODES));
+        assertTrue(acl.grants(context("<john>"), ADD_CHILD_NODES));
+        // every privilege has to be granted by the same entry ...
+        assertFalse(acl.grants(context("john"), READ | ADD_CHILD_NODES));
+        assertTrue(acl.grants(context("mary", "admin"), READ | ADD_CHILD_NODES));
+    }
+
+    @Test
+    public void shouldNotCompileUnknownPrivileges() {
+        assertNull(compile("john", "jcr:read", "jcr:fly"));
+    }
+
+    @Test
+    public void shouldGrantAllPrivilegesWhenEmpty() {
+        assertTrue(CompiledAccessControlList.EMPTY.grants(context("john"), CompiledAccessControlList.maskOf("jcr:all")));
+    }
+
+    private static CompiledAccessControlList compile( String principalName,
+                                                      String... privilegeNames ) {
+        Set<String> privileges = new HashSet<>(Arrays.asList(privilegeNames));
+        return CompiledAccessControlList.compile(Collections.singletonMap(principalName, privileges));
+    }
+
+    private static SecurityContext context( final String userName,
+                                            final String... roles ) {
+        return new SecurityContext() {
+            @Override
+            public boolean isAnonymous() {
+                return false;
+            }
+
+            @Override
+            public String getUserName() {
+                return userName;
+            }
+
+            @Override
+            public boolean hasRole( String roleName ) {
+                return Arrays.asList(roles).contains(roleName);
+            }
+
+            @Override
+            public void logout() {
+            }
+        };
+    }
+}
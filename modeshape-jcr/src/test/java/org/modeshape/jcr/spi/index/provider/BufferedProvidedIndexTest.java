@@ -0,0 +1,222 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.jcr.spi.index.provider;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.jcr.query.qom.Constraint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.spi.index.IndexConstraints;
+
+public class BufferedProvidedIndexTest {
+
+    private ScheduledExecutorService scheduler;
+    private RecordingIndex delegate;
+
+    @Before
+    public void beforeEach() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        delegate = new RecordingIndex();
+    }
+
+    @After
+    public void afterEach() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void shouldNotApplyUpdatesBeforeTheBatchIsFlushed() {
+        BufferedProvidedIndex<String> index = buffered(true, 100, 60000L);
+        index.add("k1", "p", "a");
+        index.commit();
+        assertThat(delegate.operations.isEmpty(), is(true));
+        index.flush();
+        assertThat(delegate.operations, is(Arrays.asList("add k1 p a", "commit")));
+    }
+
+    @Test
+    public void shouldDiscardBufferedUpdatesOfRemovedNode() {
+        BufferedProvidedIndex<String> index = buffered(true, 100, 60000L);
+        index.add("k1", "p", "a");
+        index.add("k1", "q", "b");
+        index.add("k2", "p", "a");
+        index.remove("k1");
+        index.add("k1", "p", "c");
+        index.flush();
+        assertThat(delegate.operations, is(Arrays.asList("remove k1", "add k1 p c", "add k2 p a", "commit")));
+    }
+
+    @Test
+    public void shouldKeepOnlyLastUpdateOfSamePropertyValue() {
+        BufferedProvidedIndex<String> index = buffered(true, 100, 60000L);
+        index.add("k1", "p", "a");
+        index.add("k1", "p", "b");
+        index.remove("k1", "p", "a");
+        index.add("k1", "p", "a");
+        index.add("k1", "p", "a");
+        index.flush();
+        assertThat(delegate.operations, is(Arrays.asList("add k1 p b", "add k1 p a", "commit")));
+    }
+
+    @Test
+    public void shouldApplyUpdatesInNodeKeyOrder() {
+        BufferedProvidedIndex<String> index = buffered(true, 100, 60000L);
+        index.add("k3", "p", "a");
+        index.add("k1", "p", "b");
+        index.remove("k2", "p", "c");
+        index.flush();
+        assertThat(delegate.operations, is(Arrays.asList("add k1 p b", "remove k2 p c", "add k3 p a", "commit")));
+    }
+
+    @Test
+    public void shouldApplyUpdatesOfUniqueIndexInOrderTheyWereMade() {
+        BufferedProvidedIndex<String> index = buffered(false, 100, 60000L);
+        index.add("k3", "p", "a");
+        index.remove("k3", "p", "a");
+        index.add("k1", "p", "a");
+        index.flush();
+        assertThat(delegate.operations, is(Arrays.asList("remove k3 p a", "add k1 p a", "commit")));
+    }
+
+    @Test
+    public void shouldFlushWhenBatchIsFull() {
+        BufferedProvidedIndex<String> index = buffered(true, 3, 60000L);
+        index.add("k1", "p", "a");
+        index.add("k2", "p", "a");
+        assertThat(delegate.operations.isEmpty(), is(true));
+        index.add("k3", "p", "a");
+        assertThat(delegate.operations, is(Arrays.asList("add k1 p a", "add k2 p a", "add k3 p a", "commit")));
+    }
+
+    @Test
+    public void shouldFlushOnceOldestUpdateIsStale() throws Exception {
+        BufferedProvidedIndex<String> index = buffered(true, 100, 50L);
+        index.add("k1", "p", "a");
+        index.commit();
+        index.add("k2", "p", "a");
+        index.commit();
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (delegate.operations().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(delegate.operations(), is(Arrays.asList("add k1 p a", "add k2 p a", "commit")));
+    }
+
+    @Test
+    public void shouldDiscardBufferedUpdatesWhenClearingAllData() {
+        BufferedProvidedIndex<String> index = buffered(true, 100, 60000L);
+        index.add("k1", "p", "a");
+        index.clearAllData();
+        index.flush();
+        assertThat(delegate.operations, is(Arrays.asList("clear", "commit")));
+    }
+
+    private BufferedProvidedIndex<String> buffered( boolean applyInKeyOrder,
+                                                    int batchSize,
+                                                    long maxStalenessInMillis ) {
+        return new BufferedProvidedIndex<>(delegate, applyInKeyOrder, batchSize, maxStalenessInMillis, scheduler);
+    }
+
+    protected static class RecordingIndex implements ProvidedIndex<String> {
+        protected final List<String> operations = new ArrayList<>();
+
+        protected synchronized List<String> operations() {
+            return new ArrayList<>(operations);
+        }
+
+        @Override
+        public synchronized void add( String nodeKey,
+                                      String propertyName,
+                                      String value ) {
+            operations.add("add " + nodeKey + " " + propertyName + " " + value);
+        }
+
+        @Override
+        public synchronized void add( String nodeKey,
+                                      String propertyName,
+                                      String[] values ) {
+            operations.add("add " + nodeKey + " " + propertyName + " " + Arrays.toString(values));
+        }
+
+        @Override
+        public synchronized void remove( String nodeKey ) {
+            operations.add("remove " + nodeKey);
+        }
+
+        @Override
+        public synchronized void remove( String nodeKey,
+                                         String propertyName,
+                                         String value ) {
+            operations.add("remove " + nodeKey + " " + propertyName + " " + value);
+        }
+
+        @Override
+        public synchronized void remove( String nodeKey,
+                                         String propertyName,
+                                         String[] values ) {
+            operations.add("remove " + nodeKey + " " + propertyName + " " + Arrays.toString(values));
+        }
+
+        @Override
+        public synchronized void commit() {
+            operations.add("commit");
+        }
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public Results filter( IndexConstraints constraints,
+                               long cardinalityEstimate ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long estimateCardinality( List<Constraint> andedConstraints,
+                                         Map<String, Object> variables ) {
+            return 0;
+        }
+
+        @Override
+        public long estimateTotalCount() {
+            return 0;
+        }
+
+        @Override
+        public boolean requiresReindexing() {
+            return false;
+        }
+
+        @Override
+        public synchronized void clearAllData() {
+            operations.add("clear");
+        }
+
+        @Override
+        public void shutdown( boolean destroyed ) {
+        }
+    }
+}
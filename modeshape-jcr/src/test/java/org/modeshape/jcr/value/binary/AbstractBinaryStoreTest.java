@@ -19,12 +19,14 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -35,6 +37,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.jcr.Binary;
 import javax.jcr.RepositoryException;
 import org.junit.Assert;
@@ -156,6 +159,31 @@ public abstract class AbstractBinaryStoreTest {
         return res;
     }
 
+    @Test
+    public void shouldReadRangesOfStoredBinary() throws Exception {
+        BinaryValue value = getBinaryStore().storeValue(new ByteArrayInputStream(STORED_LARGE_BINARY), false);
+        assertRange(getBinaryStore().readRange(STORED_LARGE_KEY, 0, 100), 0, 100);
+        assertRange(getBinaryStore().readRange(STORED_LARGE_KEY, 5000, 3000), 5000, 3000);
+        // at the end of the content, the range is shorter than requested ...
+        assertRange(getBinaryStore().readRange(STORED_LARGE_KEY, LARGE_BINARY_SIZE - 10, 100), LARGE_BINARY_SIZE - 10, 10);
+        assertEquals(0, getBinaryStore().readRange(STORED_LARGE_KEY, LARGE_BINARY_SIZE, 100).remaining());
+
+        // and the same through the binary value ...
+        byte[] buffer = new byte[1000];
+        assertEquals(1000, value.read(buffer, 7000));
+        assertArrayEquals(Arrays.copyOfRange(STORED_LARGE_BINARY, 7000, 8000), buffer);
+        assertEquals(-1, value.read(buffer, LARGE_BINARY_SIZE));
+    }
+
+    private void assertRange( ByteBuffer range,
+                              int position,
+                              int length ) {
+        assertEquals(length, range.remaining());
+        byte[] bytes = new byte[length];
+        range.get(bytes);
+        assertArrayEquals(Arrays.copyOfRange(STORED_LARGE_BINARY, position, position + length), bytes);
+    }
+
     @Test
     public void shouldCleanupUnunsedValues() throws Exception {
         getBinaryStore().storeValue(new ByteArrayInputStream(IN_MEMORY_BINARY), false);
@@ -273,6 +301,58 @@ public abstract class AbstractBinaryStoreTest {
         }
     }
 
+    @Test
+    public void shouldExtractTextOfEachValueOnlyOnce() throws Exception {
+        CountingTextExtractor extractor = new CountingTextExtractor(200);
+        TextExtractors extractors = new TextExtractors("test-extractors", 2, 10, 0, new ArrayList<>(Arrays.asList(extractor)),
+                                                       null);
+        int readers = 5;
+        ExecutorService executorService = Executors.newFixedThreadPool(readers);
+        try {
+            BinaryStore binaryStore = getBinaryStore();
+            binaryStore.setTextExtractors(extractors);
+            byte[] data = new byte[LARGE_BINARY_SIZE];
+            RANDOM.nextBytes(data);
+            BinaryValue binaryValue = binaryStore.storeValue(new ByteArrayInputStream(data), false);
+
+            CyclicBarrier barrier = new CyclicBarrier(readers);
+            List<Future<String>> results = new ArrayList<>(readers);
+            for (int i = 0; i < readers; i++) {
+                results.add(executorService.submit(() -> {
+                    barrier.await();
+                    return binaryStore.getText(binaryValue);
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(DummyTextExtractor.EXTRACTED_TEXT, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(DummyTextExtractor.EXTRACTED_TEXT, binaryStore.getText(binaryValue));
+            assertEquals(1, extractor.count.get());
+        } finally {
+            executorService.shutdownNow();
+            extractors.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldDiscardTextOfExtractionsThatTimeOut() throws Exception {
+        CountingTextExtractor extractor = new CountingTextExtractor(TimeUnit.SECONDS.toMillis(30));
+        extractor.setTimeoutInSeconds(1);
+        TextExtractors extractors = new TextExtractors("test-extractors", 1, 10, 0, new ArrayList<>(Arrays.asList(extractor)),
+                                                       null);
+        try {
+            BinaryStore binaryStore = getBinaryStore();
+            binaryStore.setTextExtractors(extractors);
+            byte[] data = new byte[LARGE_BINARY_SIZE];
+            RANDOM.nextBytes(data);
+            BinaryValue binaryValue = binaryStore.storeValue(new ByteArrayInputStream(data), false);
+            assertNull(binaryStore.getText(binaryValue));
+            assertEquals(1, extractor.count.get());
+        } finally {
+            extractors.shutdown();
+        }
+    }
+
     @Test
     @FixFor("MODE-2547")
     public void shouldStoreBinariesConcurrently() throws Exception {
@@ -336,4 +416,27 @@ public abstract class AbstractBinaryStoreTest {
             return true;
         }
     }
+
+    protected static final class CountingTextExtractor extends TextExtractor {
+        protected final AtomicInteger count = new AtomicInteger();
+        private final long extractionTimeInMillis;
+
+        protected CountingTextExtractor( long extractionTimeInMillis ) {
+            this.extractionTimeInMillis = extractionTimeInMillis;
+        }
+
+        @Override
+        public void extractFrom( org.modeshape.jcr.api.Binary binary,
+                                 Output output,
+                                 Context context ) throws Exception {
+            count.incrementAndGet();
+            Thread.sleep(extractionTimeInMillis);
+            output.recordText(DummyTextExtractor.EXTRACTED_TEXT);
+        }
+
+        @Override
+        public boolean supportsMimeType( String mimeType ) {
+            return true;
+        }
+    }
 }
@@ -28,10 +28,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -222,6 +230,180 @@ public class CompositeBinaryStoreTest extends AbstractBinaryStoreTest {
         super.shouldCleanupUnunsedValues();
     }
 
+    @Test
+    public void shouldMoveValuesBetweenTiersBasedOnHowRecentlyTheyWereRead() throws Exception {
+        File hotDirectory = new File("target/cfsbs-tiered/hot");
+        File coldDirectory = new File("target/cfsbs-tiered/cold");
+        FileUtil.delete(hotDirectory.getParentFile());
+        hotDirectory.mkdirs();
+        coldDirectory.mkdirs();
+        FileSystemBinaryStore hotStore = new FileSystemBinaryStore(hotDirectory);
+        FileSystemBinaryStore coldStore = new FileSystemBinaryStore(coldDirectory);
+
+        Map<String, BinaryStore> stores = new LinkedHashMap<String, BinaryStore>();
+        stores.put("cold", coldStore);
+        stores.put("default", hotStore);
+        CompositeBinaryStore tieredStore = new CompositeBinaryStore(stores);
+        tieredStore.setMinimumBinarySizeInBytes(MIN_BINARY_SIZE);
+        tieredStore.setTieredStoragePolicy(new TieredStoragePolicy("default", "cold", 200, 2,
+                                                                   TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS, 0));
+        tieredStore.start();
+        try {
+            byte[] content = randomContent();
+            BinaryKey key = tieredStore.storeValue(new ByteArrayInputStream(content), false).getKey();
+            assertTrue(hotStore.hasBinary(key));
+
+            // The value was just stored, so it isn't cold yet ...
+            assertEquals(0, tieredStore.moveColdValues());
+            Thread.sleep(300);
+            assertEquals(1, tieredStore.moveColdValues());
+            assertTrue(coldStore.hasBinary(key));
+            assertThat(toList(coldStore.getAllBinaryKeys()).contains(key), is(true));
+            assertThat(toList(hotStore.getAllBinaryKeys()).contains(key), is(false));
+            hotStore.removeValuesUnusedLongerThan(0, TimeUnit.MILLISECONDS);
+            assertFalse(hotStore.hasBinary(key));
+
+            // Reading the value often enough moves it back to the hot store ...
+            for (int i = 0; i != 2; ++i) {
+                try (InputStream stream = tieredStore.getInputStream(key)) {
+                    assertArrayEquals(content, IoUtil.readBytes(stream));
+                }
+            }
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (toList(coldStore.getAllBinaryKeys()).contains(key) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(toList(hotStore.getAllBinaryKeys()).contains(key), is(true));
+            assertThat(toList(coldStore.getAllBinaryKeys()).contains(key), is(false));
+        } finally {
+            tieredStore.shutdown();
+            FileUtil.delete(hotDirectory.getParentFile());
+        }
+    }
+
+    @Test
+    public void shouldNotKeepValuesThatAreDeletedWhileTheyAreMovedBetweenTiers() throws Exception {
+        File hotDirectory = new File("target/cfsbs-tiered/hot");
+        File coldDirectory = new File("target/cfsbs-tiered/cold");
+        FileUtil.delete(hotDirectory.getParentFile());
+        hotDirectory.mkdirs();
+        coldDirectory.mkdirs();
+        final AtomicBoolean deleteWhileReading = new AtomicBoolean();
+        FileSystemBinaryStore hotStore = new FileSystemBinaryStore(hotDirectory) {
+            @Override
+            public InputStream getInputStream( BinaryKey key ) throws BinaryStoreException {
+                InputStream stream = super.getInputStream(key);
+                if (deleteWhileReading.compareAndSet(true, false)) {
+                    // the value is deleted after the tiered storage found it and before it has been copied ...
+                    markAsUnused(Collections.singleton(key));
+                }
+                return stream;
+            }
+        };
+        FileSystemBinaryStore coldStore = new FileSystemBinaryStore(coldDirectory);
+
+        Map<String, BinaryStore> stores = new LinkedHashMap<String, BinaryStore>();
+        stores.put("cold", coldStore);
+        stores.put("default", hotStore);
+        CompositeBinaryStore tieredStore = new CompositeBinaryStore(stores);
+        tieredStore.setMinimumBinarySizeInBytes(MIN_BINARY_SIZE);
+        tieredStore.setTieredStoragePolicy(new TieredStoragePolicy("default", "cold", 200, 2,
+                                                                   TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS, 0));
+        tieredStore.start();
+        try {
+            BinaryKey key = tieredStore.storeValue(new ByteArrayInputStream(randomContent()), false).getKey();
+            Thread.sleep(300);
+            deleteWhileReading.set(true);
+            assertEquals(1, tieredStore.moveColdValues());
+            assertFalse(deleteWhileReading.get());
+
+            // The value was moved, but it is still unused in the cold store ...
+            assertTrue(coldStore.hasBinary(key));
+            assertThat(toList(coldStore.getAllBinaryKeys()).contains(key), is(false));
+            assertThat(toList(tieredStore.getAllBinaryKeys()).contains(key), is(false));
+            tieredStore.removeValuesUnusedLongerThan(0, TimeUnit.MILLISECONDS);
+            assertFalse(hotStore.hasBinary(key));
+            assertFalse(coldStore.hasBinary(key));
+        } finally {
+            tieredStore.shutdown();
+            FileUtil.delete(hotDirectory.getParentFile());
+        }
+    }
+
+    @Test
+    public void shouldNotBlockReadsWhileValuesAreMovedBetweenTiers() throws Exception {
+        File hotDirectory = new File("target/cfsbs-tiered/hot");
+        File coldDirectory = new File("target/cfsbs-tiered/cold");
+        FileUtil.delete(hotDirectory.getParentFile());
+        hotDirectory.mkdirs();
+        coldDirectory.mkdirs();
+        final AtomicReference<BinaryKey> blockedKey = new AtomicReference<>();
+        final CountDownLatch demoting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FileSystemBinaryStore hotStore = new FileSystemBinaryStore(hotDirectory) {
+            @Override
+            public InputStream getInputStream( BinaryKey key ) throws BinaryStoreException {
+                if (key.equals(blockedKey.get())) {
+                    // the demotion of this value takes until the test releases it ...
+                    demoting.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getInputStream(key);
+            }
+        };
+        FileSystemBinaryStore coldStore = new FileSystemBinaryStore(coldDirectory);
+
+        Map<String, BinaryStore> stores = new LinkedHashMap<String, BinaryStore>();
+        stores.put("cold", coldStore);
+        stores.put("default", hotStore);
+        final CompositeBinaryStore tieredStore = new CompositeBinaryStore(stores);
+        tieredStore.setMinimumBinarySizeInBytes(MIN_BINARY_SIZE);
+        tieredStore.setTieredStoragePolicy(new TieredStoragePolicy("default", "cold", 200, 2,
+                                                                   TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS, 0));
+        tieredStore.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BinaryKey coldKey = tieredStore.storeValue(new ByteArrayInputStream(randomContent()), false).getKey();
+            Thread.sleep(300);
+            assertEquals(1, tieredStore.moveColdValues());
+            hotStore.removeValuesUnusedLongerThan(0, TimeUnit.MILLISECONDS);
+
+            BinaryKey hotKey = tieredStore.storeValue(new ByteArrayInputStream(randomContent()), false).getKey();
+            Thread.sleep(300);
+            blockedKey.set(hotKey);
+            Future<Integer> demoted = executor.submit(tieredStore::moveColdValues);
+            assertTrue(demoting.await(10, TimeUnit.SECONDS));
+
+            // Reading the cold value often enough to promote it doesn't wait for the demotion ...
+            for (int i = 0; i != 2; ++i) {
+                try (InputStream stream = tieredStore.getInputStream(coldKey)) {
+                    IoUtil.readBytes(stream);
+                }
+            }
+            assertFalse(demoted.isDone());
+            release.countDown();
+            assertEquals(1, demoted.get(10, TimeUnit.SECONDS).intValue());
+            assertThat(toList(coldStore.getAllBinaryKeys()).contains(hotKey), is(true));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            tieredStore.shutdown();
+            FileUtil.delete(hotDirectory.getParentFile());
+        }
+    }
+
+    private static List<BinaryKey> toList( Iterable<BinaryKey> keys ) {
+        List<BinaryKey> result = new ArrayList<BinaryKey>();
+        for (BinaryKey key : keys) {
+            result.add(key);
+        }
+        return result;
+    }
+
     private byte[] randomContent() {
         byte[] content = new byte[MIN_BINARY_SIZE + 1];
         RANDOM.nextBytes(content);
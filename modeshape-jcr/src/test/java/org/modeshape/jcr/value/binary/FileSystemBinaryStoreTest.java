@@ -31,6 +31,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
@@ -38,8 +39,10 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -59,6 +62,7 @@ import org.modeshape.common.util.SecureHash;
 import org.modeshape.common.util.SecureHash.Algorithm;
 import org.modeshape.jcr.api.Binary;
 import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.BinaryValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -211,6 +215,92 @@ public class FileSystemBinaryStoreTest extends AbstractBinaryStoreTest {
         assertThat(countTrashFiles(), is(0));
     }
 
+    @Test
+    public void shouldRemoveValuesMarkedAsUnusedBeforeRestart() throws Exception {
+        List<BinaryKey> storedKeys = new ArrayList<BinaryKey>();
+        for (int i = 0; i != CONTENT.length; ++i) {
+            Binary binary = storeAndCheck(i);
+            if (binary instanceof StoredBinaryValue) storedKeys.add(((StoredBinaryValue)binary).getKey());
+        }
+        assertThat(storedKeys.size() > 2, is(true));
+
+        // Mark two of the values as unused, and then one of them as used again ...
+        store.markAsUnused(storedKeys.subList(0, 2));
+        store.markAsUsed(storedKeys.subList(1, 2));
+        assertThat(store.getUnusedValueCount(), is(1L));
+        store.shutdown();
+
+        // A new store should know which values are unused, and only remove those that are old enough ...
+        store = new FileSystemBinaryStore(directory, trash);
+        assertThat(store.getUnusedValueCount(), is(1L));
+        assertThat(store.removeValuesUnusedLongerThan(1, TimeUnit.HOURS, 0), is(0L));
+        assertThat(store.removeValuesUnusedLongerThan(0, TimeUnit.MILLISECONDS, 0), is(1L));
+        assertThat(store.getUnusedValueCount(), is(0L));
+        assertThat(store.hasBinary(storedKeys.get(0)), is(false));
+        assertThat(store.hasBinary(storedKeys.get(1)), is(true));
+        assertThat(countStoredFiles(), is(storedKeys.size() - 1));
+        assertThat(countTrashFiles(), is(0));
+    }
+
+    @Test
+    public void shouldFindUnusedValuesInTrashWrittenWithoutIndex() throws Exception {
+        List<BinaryKey> storedKeys = new ArrayList<BinaryKey>();
+        for (int i = 0; i != CONTENT.length; ++i) {
+            Binary binary = storeAndCheck(i);
+            if (binary instanceof StoredBinaryValue) storedKeys.add(((StoredBinaryValue)binary).getKey());
+        }
+        store.markAsUnused(storedKeys);
+        store.shutdown();
+
+        // Remove the index, as if the trash was written by an earlier version ...
+        for (File file : directory.listFiles()) {
+            if (file.isFile() && file.isHidden()) {
+                assertThat(file.delete(), is(true));
+            }
+        }
+
+        store = new FileSystemBinaryStore(directory, trash);
+        assertThat(store.getUnusedValueCount(), is((long)storedKeys.size()));
+        assertThat(store.removeValuesUnusedLongerThan(0, TimeUnit.MILLISECONDS, 1000), is((long)storedKeys.size()));
+        assertThat(countStoredFiles(), is(0));
+        assertThat(countTrashFiles(), is(0));
+    }
+
+    @Test
+    public void shouldFindUnusedValuesWhoseRecordsWereLostFromIndex() throws Exception {
+        List<BinaryKey> storedKeys = new ArrayList<BinaryKey>();
+        for (int i = 0; i != CONTENT.length; ++i) {
+            Binary binary = storeAndCheck(i);
+            if (binary instanceof StoredBinaryValue) storedKeys.add(((StoredBinaryValue)binary).getKey());
+        }
+        assertThat(storedKeys.size() > 2, is(true));
+        store.markAsUnused(storedKeys.subList(0, 2));
+        File index = null;
+        for (File file : directory.listFiles()) {
+            if (file.isFile() && file.isHidden()) {
+                index = file;
+            }
+        }
+        assertThat(index != null, is(true));
+        long indexLength = index.length();
+
+        // Mark one value as used again and another as unused, but lose those records as if the OS crashed ...
+        store.markAsUsed(storedKeys.subList(1, 2));
+        store.markAsUnused(storedKeys.subList(2, 3));
+        store.shutdown();
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(indexLength);
+        }
+
+        store = new FileSystemBinaryStore(directory, trash);
+        assertThat(store.getUnusedValueCount(), is(2L));
+        assertThat(store.removeValuesUnusedLongerThan(0, TimeUnit.MILLISECONDS, 0), is(2L));
+        assertThat(store.hasBinary(storedKeys.get(0)), is(false));
+        assertThat(store.hasBinary(storedKeys.get(1)), is(true));
+        assertThat(store.hasBinary(storedKeys.get(2)), is(false));
+        assertThat(countTrashFiles(), is(0));
+    }
+
     @Test
     public void shouldStoreLargeFile() throws Exception {
         print = true;
@@ -349,6 +439,122 @@ public class FileSystemBinaryStoreTest extends AbstractBinaryStoreTest {
         }
     }
 
+    @Test
+    public void shouldReadRangesOfLargeBinaryFromMappedFile() throws Exception {
+        byte[] content = new byte[3 << 20];
+        new Random(11L).nextBytes(content);
+        BinaryValue value = store.storeValue(new ByteArrayInputStream(content), false);
+        for (int position : new int[] {0, 1 << 20, (3 << 20) - 1}) {
+            ByteBuffer range = store.readRange(value.getKey(), position, 4096);
+            assertThat(range.isReadOnly(), is(true));
+            byte[] bytes = new byte[range.remaining()];
+            range.get(bytes);
+            assertThat(bytes, is(Arrays.copyOfRange(content, position, Math.min(content.length, position + 4096))));
+        }
+    }
+
+    @Test
+    public void shouldStoreSharedContentOfLargeBinariesOnlyOnce() throws Exception {
+        store.setDedupChunkSizeInBytes(8 * 1024);
+        File chunks = new File(directory, "chunks");
+
+        // Two binaries that only differ in a few bytes inserted in the middle ...
+        byte[] shared = new byte[1 << 20];
+        new Random(7L).nextBytes(shared);
+        byte[] first = shared;
+        byte[] second = new byte[shared.length + 3];
+        System.arraycopy(shared, 0, second, 0, shared.length / 2);
+        second[shared.length / 2] = 1;
+        second[shared.length / 2 + 1] = 2;
+        second[shared.length / 2 + 2] = 3;
+        System.arraycopy(shared, shared.length / 2, second, shared.length / 2 + 3, shared.length / 2);
+
+        BinaryValue firstValue = store.storeValue(new ByteArrayInputStream(first), false);
+        int chunksOfFirst = countChunks(chunks);
+        BinaryValue secondValue = store.storeValue(new ByteArrayInputStream(second), false);
+        assertThat(firstValue, is(instanceOf(StoredBinaryValue.class)));
+        assertThat(secondValue.getKey(), is(BinaryKey.keyFor(second)));
+        assertThat(secondValue.getSize(), is((long)second.length));
+        assertThat(IoUtil.readBytes(store.getInputStream(firstValue.getKey())), is(first));
+        assertThat(IoUtil.readBytes(store.getInputStream(secondValue.getKey())), is(second));
+
+        // Only the chunks around the insertion are new ...
+        int chunksOfBoth = countChunks(chunks);
+        assertThat(chunksOfFirst > 2, is(true));
+        assertThat(chunksOfBoth - chunksOfFirst < chunksOfFirst / 2, is(true));
+        assertThat(collectFiles(new File(directory, "staging")).size(), is(0));
+
+        // Ranges can span several chunks ...
+        ByteBuffer range = store.readRange(secondValue.getKey(), shared.length / 2 - 20000, 40000);
+        byte[] bytes = new byte[range.remaining()];
+        range.get(bytes);
+        assertThat(bytes, is(Arrays.copyOfRange(second, shared.length / 2 - 20000, shared.length / 2 + 20000)));
+
+        // Removing the first binary keeps the chunks that the second one uses ...
+        store.markAsUnused(Collections.singleton(firstValue.getKey()));
+        Thread.sleep(1100L);
+        store.removeValuesUnusedLongerThan(1, TimeUnit.SECONDS);
+        assertThat(store.hasBinary(firstValue.getKey()), is(false));
+        assertThat(IoUtil.readBytes(store.getInputStream(secondValue.getKey())), is(second));
+        assertThat(countChunks(chunks) < chunksOfBoth, is(true));
+
+        // And removing the second binary removes all of the chunks ...
+        store.markAsUnused(Collections.singleton(secondValue.getKey()));
+        Thread.sleep(1100L);
+        store.removeValuesUnusedLongerThan(1, TimeUnit.SECONDS);
+        assertThat(countChunks(chunks), is(0));
+        assertThat(store.getAllBinaryKeys().iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldCompressValuesWithTheCodecForTheirMimeType() throws Exception {
+        Map<String, CompressionCodec> codecs = new HashMap<>();
+        codecs.put("application/xml", CompressionCodec.DEFLATE_BEST);
+        codecs.put(FileSystemBinaryStore.ANY_MIME_TYPE, CompressionCodec.NONE);
+        store.setCompressionCodecs(codecs);
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<models>\n");
+        for (int i = 0; xml.length() < 3 * CompressedFile.BLOCK_SIZE + 100; ++i) {
+            xml.append("  <model id=\"").append(i).append("\" name=\"Model ").append(i).append("\" kind=\"relational\"/>\n");
+        }
+        byte[] compressible = xml.append("</models>\n").toString().getBytes("UTF-8");
+        byte[] random = new byte[compressible.length];
+        new Random(13L).nextBytes(random);
+
+        BinaryValue xmlValue = store.storeValue(new ByteArrayInputStream(compressible), false);
+        BinaryValue randomValue = store.storeValue(new ByteArrayInputStream(random), false);
+        // The keys are still the SHA-1 of the uncompressed content ...
+        assertThat(xmlValue.getKey(), is(BinaryKey.keyFor(compressible)));
+        assertThat(xmlValue.getSize(), is((long)compressible.length));
+        assertThat(store.findFile(directory, xmlValue.getKey(), false).length() < compressible.length / 4, is(true));
+        assertThat(store.findFile(directory, randomValue.getKey(), false).length(), is((long)random.length));
+        assertThat(collectFiles(new File(directory, "staging")).size(), is(0));
+
+        // The content is decompressed as it is read, also after a restart ...
+        for (FileSystemBinaryStore reader : Arrays.asList(store, new FileSystemBinaryStore(directory, trash))) {
+            assertThat(IoUtil.readBytes(reader.getInputStream(xmlValue.getKey())), is(compressible));
+            assertThat(IoUtil.readBytes(reader.getInputStream(randomValue.getKey())), is(random));
+            for (int position : new int[] {0, CompressedFile.BLOCK_SIZE - 10, 2 * CompressedFile.BLOCK_SIZE + 1,
+                compressible.length - 5, compressible.length}) {
+                ByteBuffer range = reader.readRange(xmlValue.getKey(), position, CompressedFile.BLOCK_SIZE + 20);
+                byte[] bytes = new byte[range.remaining()];
+                range.get(bytes);
+                assertThat(bytes, is(Arrays.copyOfRange(compressible, position,
+                                                        Math.min(compressible.length,
+                                                                 position + CompressedFile.BLOCK_SIZE + 20))));
+            }
+        }
+    }
+
+    private int countChunks( File chunks ) {
+        int count = 0;
+        for (File file : collectFiles(chunks)) {
+            // skip the files that record which binaries reference each chunk
+            if (!file.getParentFile().getName().endsWith("-refs")) ++count;
+        }
+        return count;
+    }
+
     protected Binary storeAndCheck( int contentIndex ) throws Exception {
         return storeAndCheck(contentIndex, null);
     }
@@ -145,6 +145,25 @@ public class RelationalDbIT extends AbstractSchematicDBTest {
         }
     }
     
+    @Test
+    public void shouldLoadAcrossMultipleStatementBatches() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        int loadBatchSize = DefaultStatements.DEFAULT_LOAD_BATCH_SIZE;
+        try {
+            List<String> ids = insertMultipleEntries(loadBatchSize * 4 + 1, executorService).get(30, TimeUnit.SECONDS);
+            loadAndAssertIds(ids, loadBatchSize + 1);
+            loadAndAssertIds(ids, loadBatchSize * 2);
+            loadAndAssertIds(ids, ids.size());
+            // and within a transaction, where the entries should also be cached for reading
+            simulateTransaction(() -> {
+                loadAndAssertIds(ids, loadBatchSize * 3 - 1);
+                return null;
+            });
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+    
     private void loadAndAssertIds(List<String> insertedIds, int batchSize) {
         List<String> expectedIds = insertedIds.subList(0, batchSize);
         List<SchematicEntry> entries = db.load(expectedIds);
@@ -0,0 +1,146 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.modeshape.schematic.internal.document;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.modeshape.schematic.document.Bson;
+import org.modeshape.schematic.document.Document;
+import org.modeshape.schematic.document.Json;
+
+/**
+ * Runs all the {@link BsonReadingAndWritingTest round-trip tests} against {@link LazyDocument}, plus a few tests which are
+ * specific to the lazy view.
+ */
+public class LazyDocumentTest extends BsonReadingAndWritingTest {
+
+    @Override
+    protected Document writeThenRead( Document object,
+                                      boolean compareToOtherImpls ) {
+        try {
+            return Bson.readLazily(writer.write(object));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void shouldBeEqualToMaterializedDocumentInBothDirections() throws Exception {
+        Document input = new BasicDocument("name", "Joe", "nested",
+                                           new BasicDocument("age", 30, "tags", new BasicArray("a", "b")));
+        Document lazy = writeThenRead(input, false);
+        assertEquals(input, lazy);
+        assertEquals(lazy, input);
+        assertEquals(input.hashCode(), lazy.hashCode());
+        assertEquals(input.getDocument("nested").hashCode(), lazy.getDocument("nested").hashCode());
+    }
+
+    @Test
+    public void shouldProvideNestedDocumentsAsLazyViews() throws Exception {
+        Document input = new BasicDocument("metadata", new BasicDocument("id", "key1"), "content",
+                                           new BasicDocument("key", "key1", "parent", "key0"));
+        Document lazy = writeThenRead(input, false);
+        Document content = lazy.getDocument("content");
+        assertTrue(content instanceof LazyDocument);
+        assertEquals("key0", content.getString("parent"));
+        // values are only decoded once ...
+        Assert.assertSame(content, lazy.getDocument("content"));
+    }
+
+    @Test
+    public void shouldPreserveFieldOrder() throws Exception {
+        BasicDocument input = new BasicDocument();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i != 50; ++i) {
+            String name = "field" + (49 - i);
+            names.add(name);
+            input.put(name, i);
+        }
+        Document lazy = writeThenRead(input, false);
+        assertEquals(names, new ArrayList<>(lazy.keySet()));
+        List<String> fieldNames = new ArrayList<>();
+        for (Document.Field field : lazy.fields()) {
+            fieldNames.add(field.getName());
+        }
+        assertEquals(names, fieldNames);
+    }
+
+    @Test
+    public void shouldLookUpFieldsOfWideDocuments() throws Exception {
+        BasicDocument input = new BasicDocument();
+        for (int i = 0; i != 1000; ++i) {
+            input.put("prop" + i, "value" + i);
+        }
+        Document lazy = writeThenRead(input, false);
+        assertEquals(1000, lazy.size());
+        for (int i = 0; i != 1000; ++i) {
+            assertEquals("value" + i, lazy.getString("prop" + i));
+        }
+        assertNull(lazy.get("prop1000"));
+        assertFalse(lazy.containsField("prop1000"));
+        assertNull(lazy.get(null));
+    }
+
+    @Test
+    public void shouldReturnMutableClone() throws Exception {
+        Document input = new BasicDocument("name", "Joe", "nested", new BasicDocument("age", 30));
+        Document lazy = writeThenRead(input, false);
+        Document clone = lazy.clone();
+        assertTrue(clone instanceof BasicDocument);
+        assertTrue(clone.getDocument("nested") instanceof BasicDocument);
+        clone.editable().getDocument("nested").setNumber("age", 31);
+        assertEquals(30, lazy.getDocument("nested").getInteger("age").intValue());
+        assertEquals(input, lazy);
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void shouldNotAllowEditingInPlace() throws Exception {
+        writeThenRead(new BasicDocument("name", "Joe"), false).editable();
+    }
+
+    @Test
+    public void shouldWriteUnchangedBytes() throws Exception {
+        Document input = new BasicDocument("name", "Joe", "nested", new BasicDocument("age", 30));
+        byte[] bytes = writer.write(input);
+        Document lazy = Bson.readLazily(bytes);
+        assertArrayEquals(bytes, writer.write(lazy));
+        // also when it's nested in another document ...
+        assertEquals(new BasicDocument("wrapper", input), writeThenRead(new BasicDocument("wrapper", lazy), false));
+    }
+
+    @Test
+    public void shouldWriteJson() throws Exception {
+        Document input = new BasicDocument("name", "Joe", "nested", new BasicDocument("age", 30));
+        Document lazy = writeThenRead(input, false);
+        assertEquals(Json.write(input), Json.write(lazy));
+        assertEquals(input.toString(), lazy.toString());
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotAcceptTruncatedContent() throws Exception {
+        byte[] bytes = writer.write(new BasicDocument("name", "Joe"));
+        Bson.readLazily(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+}